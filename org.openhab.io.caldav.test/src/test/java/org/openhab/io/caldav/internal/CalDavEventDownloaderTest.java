@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.List;
+
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.Uid;
+
+import org.junit.Test;
+import org.openhab.io.caldav.internal.CalDavEventDownloader.CalendarEventContent;
+import org.openhab.io.caldav.internal.util.ExecuteCommandJob;
+import org.openhab.io.caldav.internal.util.ScheduleJournal;
+import org.openhab.io.caldav.internal.util.ScheduleJournal.Decision;
+import org.openhab.io.caldav.internal.util.ScheduleJournal.Entry;
+import org.quartz.JobDetail;
+
+
+/**
+ * Checks the parsing of the commands in the description of an event and
+ * the names of the jobs executing them.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CalDavEventDownloaderTest {
+
+	/** far more than parsing a large description without the RegEx backtracking takes */
+	private static final long PARSE_TIMEOUT = 5000;
+
+	private final CalDavEventDownloader downloader = new CalDavEventDownloader("test", null, null, null, null);
+
+
+	@Test
+	public void testStartEndAndModifiedBy() {
+		CalendarEventContent content = downloader.parseEventContent(
+				"start { send Light ON } end { send Light OFF } modified by { Holiday }");
+
+		assertEquals("send Light ON", content.startCommands);
+		assertEquals("send Light OFF", content.endCommands);
+		assertEquals("Holiday", content.modifiedByEvent);
+	}
+
+	@Test
+	public void testContentWithoutBlocksIsStartCommand() {
+		CalendarEventContent content = downloader.parseEventContent(" send Light ON \n");
+
+		assertEquals("send Light ON", content.startCommands);
+		assertEquals("", content.endCommands);
+		assertEquals("", content.modifiedByEvent);
+	}
+
+	@Test
+	public void testLargeDescriptionWithoutModifiedBy() throws InterruptedException {
+		StringBuilder description = new StringBuilder("start { send Light ON } end { send Light OFF }\n");
+		while (description.length() < 200000) {
+			description.append("Lorem ipsum dolor sit amet, the meeting is modified on request\n");
+		}
+		final String content = description.toString();
+
+		// the quadratic backtracking of the modified-by RegEx would take minutes
+		final CalendarEventContent[] result = new CalendarEventContent[1];
+		Thread parser = new Thread("CalDav Parse Test") {
+			@Override
+			public void run() {
+				result[0] = downloader.parseEventContent(content);
+			}
+		};
+		parser.setDaemon(true);
+		parser.start();
+		parser.join(PARSE_TIMEOUT);
+
+		assertNotNull("parsing took longer than " + PARSE_TIMEOUT + "ms", result[0]);
+		assertEquals("send Light ON", result[0].startCommands);
+		assertEquals("send Light OFF", result[0].endCommands);
+		assertEquals("", result[0].modifiedByEvent);
+	}
+
+	@Test
+	public void testFiredJobIsJournaledByUid() throws Exception {
+		long start = System.currentTimeMillis() + 60000;
+		VEvent event = new VEvent(new DateTime(start), "Light");
+		event.getProperties().add(new Uid("abc@example.com"));
+
+		JobDetail job = downloader.createJob("send Light ON", event, "Light", true);
+		assertEquals("abc@example.com_start", job.getKey().getName());
+
+		ScheduleJournal journal = new ScheduleJournal(16);
+		ScheduleJournal.register(job.getKey().getGroup(), journal);
+		try {
+			// no commands, only the firing is journaled
+			new ExecuteCommandJob().execute(job.getKey(), "", start);
+		} finally {
+			ScheduleJournal.unregister(job.getKey().getGroup());
+		}
+
+		List<Entry> entries = journal.query("abc@example.com", 0, Long.MAX_VALUE);
+		assertEquals(1, entries.size());
+		assertEquals(Decision.JOB_FIRED, entries.get(0).decision);
+		assertEquals(start, entries.get(0).eventTime);
+	}
+
+}
@@ -0,0 +1,484 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import net.fortuna.ical4j.model.component.VEvent;
+
+import org.openhab.io.caldav.internal.engine.QuartzTriggerEngine;
+import org.openhab.io.caldav.internal.engine.TriggerEngineBenchmark;
+import org.openhab.io.caldav.internal.transport.CalendarResource;
+import org.openhab.io.caldav.internal.util.ParallelCalendarParser;
+import org.openhab.io.caldav.internal.util.PollStatistics;
+import org.openhab.io.caldav.internal.util.SyntheticCorpus;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+
+
+/**
+ * Replays calendar corpora through the processing of a poll without any
+ * network involved: the resources are parsed and filtered as downloaded ones
+ * are, their events are planned and scheduled by
+ * {@link CalDavEventDownloader#processEntries(List, boolean)} on a private
+ * (never started) Quartz scheduler and are removed again, as stopping the
+ * account would. The corpora are either generated (see
+ * {@link SyntheticCorpus.Shape}) or read from iCalendar files. Wall and CPU
+ * time, the allocated bytes and the peak heap are reported per corpus, as
+ * text, JSON or CSV so that the results of different releases can be
+ * compared.
+ * <p>
+ * Usage: <code>CorpusReplayBenchmark [events|ics-directory] [text|json|csv]</code>
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CorpusReplayBenchmark {
+
+	private static final String ACCOUNT_ID = "replay-benchmark";
+
+	/** the range the events of a synthetic corpus start in */
+	private static final long SCHEDULE_RANGE = 30L * 24 * 60 * 60 * 1000;
+
+	/** the seed of the synthetic corpora, so that all runs replay the same events */
+	private static final long CORPUS_SEED = 4711;
+
+	/** the stages of a replay, in the order they run */
+	private static final String[] STAGES = { "parse", "calendars", "plan", "resolve", "schedule", "clean" };
+
+	/** the version of the JSON output, to be increased whenever its fields change */
+	private static final int FORMAT_VERSION = 1;
+
+	/** the number of events per synthetic corpus if none is given */
+	private static final int DEFAULT_EVENTS = 1000;
+
+
+	public static void main(String[] args) throws IOException, SchedulerException, InterruptedException {
+		String source = args.length > 0 ? args[0] : null;
+		String format = args.length > 1 ? args[1] : null;
+
+		List<Result> results;
+		if (source == null) {
+			results = run(DEFAULT_EVENTS);
+		} else if (source.matches("\\d+")) {
+			results = run(Integer.parseInt(source));
+		} else {
+			results = run(new File(source));
+		}
+
+		if ("json".equals(format)) {
+			System.out.println(toJson(results));
+		} else if ("csv".equals(format)) {
+			System.out.print(toCsv(results));
+		} else {
+			for (Result result : results) {
+				System.out.println(result.toString());
+			}
+		}
+	}
+
+	/**
+	 * Replays a synthetic corpus of each {@link SyntheticCorpus.Shape}.
+	 *
+	 * @param eventCount the number of events per corpus
+	 * @return the result per corpus
+	 * @throws SchedulerException if the Quartz scheduler can't be created
+	 * @throws InterruptedException if the calling thread has been interrupted
+	 */
+	public static List<Result> run(int eventCount) throws SchedulerException, InterruptedException {
+		List<Result> results = new ArrayList<Result>();
+		// the events start in an hour, so that none of the triggers has passed
+		long start = System.currentTimeMillis() + 60L * 60 * 1000;
+		for (SyntheticCorpus.Shape shape : SyntheticCorpus.Shape.values()) {
+			List<CalendarResource> resources = new SyntheticCorpus(CORPUS_SEED)
+					.createResources(shape, eventCount, start, SCHEDULE_RANGE);
+			results.add(replay(shape.name().toLowerCase() + "-" + eventCount, resources));
+		}
+		return results;
+	}
+
+	/**
+	 * Replays the iCalendar files (<code>*.ics</code>) of the given directory,
+	 * each file as a corpus of its own. A file may hold any number of
+	 * calendars, e.g. the calendar data of a recorded multistatus response.
+	 *
+	 * @param directory the directory of the corpora
+	 * @return the result per corpus
+	 * @throws IOException if a file can't be read
+	 * @throws SchedulerException if the Quartz scheduler can't be created
+	 * @throws InterruptedException if the calling thread has been interrupted
+	 */
+	public static List<Result> run(File directory) throws IOException, SchedulerException, InterruptedException {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.toLowerCase().endsWith(".ics");
+			}
+		});
+		if (files == null) {
+			throw new IOException("'" + directory + "' isn't a directory");
+		}
+		Arrays.sort(files);
+
+		List<Result> results = new ArrayList<Result>(files.length);
+		for (File file : files) {
+			List<CalendarResource> resources = new ArrayList<CalendarResource>();
+			for (String calendar : splitCalendars(readFile(file))) {
+				resources.add(new CalendarResource(file.getName() + "#" + resources.size(), null, calendar));
+			}
+			results.add(replay(file.getName(), resources));
+		}
+		return results;
+	}
+
+	private static Result replay(String corpus, List<CalendarResource> resources) throws SchedulerException, InterruptedException {
+		Scheduler scheduler = TriggerEngineBenchmark.createScheduler(ACCOUNT_ID);
+		try {
+			CalDavEventDownloader downloader = new CalDavEventDownloader(ACCOUNT_ID, new QuartzTriggerEngine(scheduler), null, null, null);
+			PollStatistics statistics = downloader.getPollStatistics();
+
+			Measurement measurement = new Measurement();
+			statistics.pollStarted();
+			long stageStart = System.nanoTime();
+
+			List<VEvent> events = downloader.extractEvents(resources);
+			statistics.stageFinished("parse", stageStart);
+			downloader.processEntries(events, true);
+			int triggers = statistics.getScheduleIndex().countAfter(0);
+
+			// the next poll removes the jobs again
+			stageStart = System.nanoTime();
+			downloader.stop();
+			statistics.stageFinished("clean", stageStart);
+			statistics.pollFinished(events.size());
+			measurement.finish();
+
+			return new Result(corpus, resources.size(), events.size(), triggers, measurement, statistics.getLastStages());
+		}
+		finally {
+			scheduler.shutdown();
+		}
+	}
+
+	/**
+	 * Splits the content of a file into its calendars, so that each is parsed
+	 * as a resource of its own.
+	 */
+	private static List<String> splitCalendars(String content) {
+		List<String> calendars = new ArrayList<String>();
+		String endMarker = "END:VCALENDAR";
+		int start = content.indexOf("BEGIN:VCALENDAR");
+		while (start >= 0) {
+			int end = content.indexOf(endMarker, start);
+			if (end < 0) {
+				break;
+			}
+			calendars.add(content.substring(start, end + endMarker.length()) + "\r\n");
+			start = content.indexOf("BEGIN:VCALENDAR", end);
+		}
+		return calendars;
+	}
+
+	private static String readFile(File file) throws IOException {
+		StringBuilder content = new StringBuilder();
+		Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			char[] buffer = new char[8192];
+			int read;
+			while ((read = reader.read(buffer)) != -1) {
+				content.append(buffer, 0, read);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return content.toString();
+	}
+
+	/**
+	 * Formats the results as a JSON document, together with the versions of
+	 * the bundle and the JVM they have been measured on.
+	 *
+	 * @param results the results to format
+	 * @return the JSON document
+	 */
+	public static String toJson(List<Result> results) {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"formatVersion\": ").append(FORMAT_VERSION).append(",\n");
+		json.append("  \"bundleVersion\": ").append(quote(getBundleVersion())).append(",\n");
+		json.append("  \"javaVersion\": ").append(quote(System.getProperty("java.version"))).append(",\n");
+		json.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+		json.append("  \"parserThreads\": ").append(ParallelCalendarParser.getThreadCount()).append(",\n");
+		json.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+		json.append("  \"corpora\": [");
+		for (int index = 0; index < results.size(); index++) {
+			Result result = results.get(index);
+			json.append(index == 0 ? "\n" : ",\n");
+			json.append("    {\"corpus\": ").append(quote(result.getCorpus()))
+				.append(", \"resources\": ").append(result.getResources())
+				.append(", \"events\": ").append(result.getEvents())
+				.append(", \"triggers\": ").append(result.getTriggers())
+				.append(", \"wallTimeMs\": ").append(result.getWallTime())
+				.append(", \"cpuTimeMs\": ").append(result.getCpuTime())
+				.append(", \"allocatedBytes\": ").append(result.getAllocatedBytes())
+				.append(", \"peakHeapBytes\": ").append(result.getPeakHeap())
+				.append(", \"stagesMs\": {");
+			for (int stage = 0; stage < STAGES.length; stage++) {
+				json.append(stage == 0 ? "" : ", ").append(quote(STAGES[stage])).append(": ").append(result.getStageTime(STAGES[stage]));
+			}
+			json.append("}}");
+		}
+		json.append("\n  ]\n}");
+		return json.toString();
+	}
+
+	/**
+	 * Formats the results as CSV, one line per corpus after a header line.
+	 *
+	 * @param results the results to format
+	 * @return the CSV lines
+	 */
+	public static String toCsv(List<Result> results) {
+		StringBuilder csv = new StringBuilder();
+		csv.append("bundle_version,corpus,resources,events,triggers,wall_ms,cpu_ms,allocated_bytes,peak_heap_bytes");
+		for (String stage : STAGES) {
+			csv.append(',').append(stage).append("_ms");
+		}
+		csv.append('\n');
+
+		String bundleVersion = getBundleVersion();
+		for (Result result : results) {
+			csv.append(bundleVersion).append(',').append(result.getCorpus().replace(',', '_'))
+				.append(',').append(result.getResources()).append(',').append(result.getEvents())
+				.append(',').append(result.getTriggers()).append(',').append(result.getWallTime())
+				.append(',').append(result.getCpuTime()).append(',').append(result.getAllocatedBytes())
+				.append(',').append(result.getPeakHeap());
+			for (String stage : STAGES) {
+				csv.append(',').append(result.getStageTime(stage));
+			}
+			csv.append('\n');
+		}
+		return csv.toString();
+	}
+
+	private static String getBundleVersion() {
+		return CalDavActivator.getContext() != null ?
+				CalDavActivator.getContext().getBundle().getVersion().toString() : "unknown";
+	}
+
+	private static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+
+	/**
+	 * Measures the resources the JVM spends between its creation and
+	 * {@link #finish()}. CPU time and allocations are summed over all threads,
+	 * as the calendars are parsed on the threads of the
+	 * {@link ParallelCalendarParser}. The peak heap is the sum of the peaks of
+	 * the heap pools, it may overstate the actual peak as the pools don't
+	 * peak at the same time.
+	 */
+	private static class Measurement {
+
+		private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		private final long startNanos;
+		private final long startCpuTime;
+		private final long startAllocatedBytes;
+
+		long wallTime;
+		long cpuTime;
+		long allocatedBytes;
+		long peakHeap;
+
+		Measurement() {
+			System.gc();
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					pool.resetPeakUsage();
+				}
+			}
+			startCpuTime = getCpuTime();
+			startAllocatedBytes = getAllocatedBytes();
+			startNanos = System.nanoTime();
+		}
+
+		void finish() {
+			wallTime = (System.nanoTime() - startNanos) / 1000000;
+			long endCpuTime = getCpuTime();
+			cpuTime = startCpuTime < 0 || endCpuTime < 0 ? -1 : (endCpuTime - startCpuTime) / 1000000;
+			long endAllocatedBytes = getAllocatedBytes();
+			allocatedBytes = startAllocatedBytes < 0 || endAllocatedBytes < 0 ? -1 : endAllocatedBytes - startAllocatedBytes;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					peakHeap += pool.getPeakUsage().getUsed();
+				}
+			}
+		}
+
+		/**
+		 * @return the CPU time (in ns) of all live threads, -1 if the JVM
+		 * doesn't measure it
+		 */
+		private long getCpuTime() {
+			if (!threadBean.isThreadCpuTimeSupported() || !threadBean.isThreadCpuTimeEnabled()) {
+				return -1;
+			}
+			long cpuTime = 0;
+			for (long threadId : threadBean.getAllThreadIds()) {
+				cpuTime += Math.max(0, threadBean.getThreadCpuTime(threadId));
+			}
+			return cpuTime;
+		}
+
+		/**
+		 * Reads the bytes allocated by all live threads through the platform
+		 * MBean server, as the operation is an extension of the HotSpot JVM.
+		 *
+		 * @return the allocated bytes, -1 if the JVM doesn't count them
+		 */
+		private long getAllocatedBytes() {
+			try {
+				long[] allocatedBytes = (long[]) ManagementFactory.getPlatformMBeanServer().invoke(
+						new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME), "getThreadAllocatedBytes",
+						new Object[] { threadBean.getAllThreadIds() }, new String[] { long[].class.getName() });
+				long sum = 0;
+				for (long bytes : allocatedBytes) {
+					sum += Math.max(0, bytes);
+				}
+				return sum;
+			}
+			catch (JMException jme) {
+				return -1;
+			}
+		}
+	}
+
+
+	/**
+	 * The measurements of one corpus
+	 */
+	public static class Result {
+
+		private final String corpus;
+		private final int resources;
+		private final int events;
+		private final int triggers;
+		private final long wallTime;
+		private final long cpuTime;
+		private final long allocatedBytes;
+		private final long peakHeap;
+		private final Map<String, Long> stageTimes;
+
+		Result(String corpus, int resources, int events, int triggers, Measurement measurement, Map<String, Long> stageTimes) {
+			this.corpus = corpus;
+			this.resources = resources;
+			this.events = events;
+			this.triggers = triggers;
+			this.wallTime = measurement.wallTime;
+			this.cpuTime = measurement.cpuTime;
+			this.allocatedBytes = measurement.allocatedBytes;
+			this.peakHeap = measurement.peakHeap;
+			this.stageTimes = Collections.unmodifiableMap(new LinkedHashMap<String, Long>(stageTimes));
+		}
+
+		public String getCorpus() {
+			return corpus;
+		}
+
+		public int getResources() {
+			return resources;
+		}
+
+		public int getEvents() {
+			return events;
+		}
+
+		public int getTriggers() {
+			return triggers;
+		}
+
+		public long getWallTime() {
+			return wallTime;
+		}
+
+		/**
+		 * @return the CPU time (in ms) of all threads, -1 if the JVM doesn't
+		 * measure it
+		 */
+		public long getCpuTime() {
+			return cpuTime;
+		}
+
+		/**
+		 * @return the bytes allocated by all threads, -1 if the JVM doesn't
+		 * count them
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		public long getPeakHeap() {
+			return peakHeap;
+		}
+
+		/**
+		 * @param stage the name of the stage
+		 * @return the time (in ms) of the stage, 0 if it hasn't run
+		 */
+		public long getStageTime(String stage) {
+			Long time = stageTimes.get(stage);
+			return time == null ? 0 : time;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder stages = new StringBuilder();
+			for (String stage : STAGES) {
+				stages.append(stages.length() == 0 ? "" : ", ").append(stage).append(' ').append(getStageTime(stage)).append("ms");
+			}
+			return corpus + ": " + resources + " resources, " + events + " events, " + triggers + " triggers in "
+					+ wallTime + "ms (cpu " + cpuTime + "ms, " + allocatedBytes / (1024 * 1024) + "MB allocated, peak heap "
+					+ peakHeap / (1024 * 1024) + "MB; " + stages + ")";
+		}
+	}
+
+}
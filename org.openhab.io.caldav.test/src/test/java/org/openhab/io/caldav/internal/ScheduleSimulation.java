@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import net.fortuna.ical4j.model.component.VEvent;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.LongRange;
+import org.openhab.io.caldav.internal.transport.CalendarResource;
+import org.openhab.io.caldav.internal.util.ExecuteCommandJob;
+import org.openhab.io.caldav.internal.util.ScheduleSimulator;
+import org.openhab.io.caldav.internal.util.ScheduleSimulator.Fire;
+import org.openhab.io.caldav.internal.util.ScheduleSimulator.Timeline;
+import org.quartz.JobDetail;
+import org.quartz.Trigger;
+
+
+/**
+ * Plans the events of an iCalendar file as a poll would and replays the
+ * schedule of the next days on a virtual clock, listing the commands in the
+ * order they would be executed. Nothing is scheduled or executed.
+ * <p>
+ * Usage: <code>ScheduleSimulation &lt;ics-file&gt; [days]</code>
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class ScheduleSimulation {
+
+	private static final int DEFAULT_DAYS = 30;
+
+	/** the firings listed at most, the summary covers all */
+	private static final int FIRE_LIMIT = 100;
+
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.out.println("usage: ScheduleSimulation <ics-file> [days]");
+			return;
+		}
+		int days = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_DAYS;
+		long start = System.currentTimeMillis();
+		long end = start + days * 24L * 60 * 60 * 1000;
+
+		CalDavEventDownloader downloader = new CalDavEventDownloader("simulation", null, null, null, null);
+		List<VEvent> events = downloader.extractEvents(Collections.singletonList(new CalendarResource(args[0], null, readFile(args[0]))));
+
+		Timeline timeline = simulate(downloader, events, start, end);
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		List<Fire> fires = timeline.getFires();
+		for (Fire fire : fires.subList(0, Math.min(fires.size(), FIRE_LIMIT))) {
+			System.out.println(format.format(new Date(fire.fireTime)) + "  "
+				+ (fire.jobName.endsWith(ExecuteCommandJob.JOB_NAME_END_SUFFIX) ? "end   " : "start ")
+				+ fire.description + "  " + StringUtils.join(fire.commands, "; "));
+		}
+		if (fires.size() > FIRE_LIMIT) {
+			System.out.println("... " + (fires.size() - FIRE_LIMIT) + " more");
+		}
+		System.out.println(events.size() + " events, " + timeline.getTriggers() + " triggers, " + fires.size() + " firings, "
+			+ timeline.getSkippedTriggers() + " skipped; planned in " + timeline.getPlanTime() + "ms, replayed in "
+			+ timeline.getReplayTime() + "ms; checksum " + Long.toHexString(timeline.getChecksum()));
+	}
+
+	/**
+	 * Plans the jobs of the given events as a poll at <code>start</code>
+	 * would and replays them on a virtual clock until <code>end</code>.
+	 *
+	 * @param downloader the downloader whose configuration the events are
+	 * planned with, neither its scheduler nor its index are touched
+	 * @param entries the events to plan
+	 * @param start the time (in ms) the simulation starts at
+	 * @param end the time (in ms) the simulation ends at
+	 * @return the commands which would be executed, in order
+	 */
+	public static Timeline simulate(CalDavEventDownloader downloader, List<VEvent> entries, long start, long end) {
+		long planStart = System.nanoTime();
+		Map<String, List<LongRange>> exclusionRanges = downloader.collectExclusionRanges(entries);
+		Map<JobDetail, List<Trigger>> jobsAndTriggers = downloader.planJobs(entries, exclusionRanges, start);
+		long planTime = (System.nanoTime() - planStart) / 1000000;
+
+		Timeline timeline = ScheduleSimulator.simulate(jobsAndTriggers, exclusionRanges, start, end);
+		timeline.setPlanTime(planTime);
+		return timeline;
+	}
+
+	private static String readFile(String fileName) throws IOException {
+		StringBuilder content = new StringBuilder();
+		Reader reader = new InputStreamReader(new FileInputStream(fileName), "UTF-8");
+		try {
+			char[] buffer = new char[8192];
+			int read;
+			while ((read = reader.read(buffer)) != -1) {
+				content.append(buffer, 0, read);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return content.toString();
+	}
+
+}
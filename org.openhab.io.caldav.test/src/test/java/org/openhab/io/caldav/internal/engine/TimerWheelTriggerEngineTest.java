@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.math.LongRange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.io.caldav.internal.engine.TimerWheelTriggerEngine.Firing;
+import org.openhab.io.caldav.internal.util.ExecuteCommandJob;
+import org.openhab.io.caldav.internal.util.TimeRangeCalendar;
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+import org.quartz.Trigger;
+
+
+/**
+ * Drives a {@link TimerWheelTriggerEngine} tick by tick (its thread isn't
+ * started) and checks that triggers on every level of the wheel are
+ * cascaded down and fire at their tick, no earlier and no later.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class TimerWheelTriggerEngineTest {
+
+	private static final String GROUP = "caldav-test";
+
+	/** a minute, so that the wheel is unlikely to be created at a tick boundary */
+	private static final long TICK = 60L * 1000;
+
+	private TimerWheelTriggerEngine engine;
+	private long startTick;
+
+
+	@Before
+	public void setUp() {
+		do {
+			startTick = System.currentTimeMillis() / TICK;
+			engine = new TimerWheelTriggerEngine(TICK);
+		} while (startTick != System.currentTimeMillis() / TICK);
+	}
+
+	@After
+	public void tearDown() {
+		engine.shutdown();
+	}
+
+	@Test
+	public void testTriggersFireAtTheirTickOnEveryLevel() {
+		// level 0 covers 256 ticks, level 1 65536 ticks, level 2 16777216 ticks
+		long[] offsets = { 1, 255, 256, 300, 65535, 65536, 70000 };
+		Map<JobDetail, List<Trigger>> jobsAndTriggers = new LinkedHashMap<JobDetail, List<Trigger>>();
+		for (long offset : offsets) {
+			addJob(jobsAndTriggers, "job" + offset + "_start", (startTick + offset) * TICK, null);
+		}
+		engine.scheduleJobs(jobsAndTriggers);
+		assertEquals(offsets.length, engine.size());
+
+		Map<String, Long> firedAt = advance(70000);
+		for (long offset : offsets) {
+			assertEquals("job" + offset, Long.valueOf(startTick + offset), firedAt.get("job" + offset + "_start"));
+		}
+		assertEquals(0, engine.size());
+	}
+
+	@Test
+	public void testEntriesSurviveGrowingTheArrays() {
+		// more than the initial capacity of the wheel
+		int jobCount = 3000;
+		Map<JobDetail, List<Trigger>> jobsAndTriggers = new LinkedHashMap<JobDetail, List<Trigger>>();
+		for (int i = 0; i < jobCount; i++) {
+			addJob(jobsAndTriggers, "job" + i + "_start", (startTick + 1 + i % 500) * TICK, null);
+		}
+		engine.scheduleJobs(jobsAndTriggers);
+		assertEquals(jobCount, engine.size());
+
+		Map<String, Long> firedAt = advance(500);
+		assertEquals(jobCount, firedAt.size());
+		for (int i = 0; i < jobCount; i++) {
+			assertEquals(Long.valueOf(startTick + 1 + i % 500), firedAt.get("job" + i + "_start"));
+		}
+	}
+
+	@Test
+	public void testFireTimeBetweenTicksFiresAtTheNextTick() {
+		Map<JobDetail, List<Trigger>> jobsAndTriggers = new LinkedHashMap<JobDetail, List<Trigger>>();
+		addJob(jobsAndTriggers, "job_start", (startTick + 1000) * TICK + 1, null);
+		engine.scheduleJobs(jobsAndTriggers);
+
+		assertEquals(Long.valueOf(startTick + 1001), advance(2000).get("job_start"));
+	}
+
+	@Test
+	public void testEndJobsFireBeforeStartJobsOfTheSameTick() {
+		long fireTime = (startTick + 10) * TICK;
+		Map<JobDetail, List<Trigger>> jobsAndTriggers = new LinkedHashMap<JobDetail, List<Trigger>>();
+		addJob(jobsAndTriggers, "next_start", fireTime, null);
+		addJob(jobsAndTriggers, "previous_end", fireTime, null);
+		engine.scheduleJobs(jobsAndTriggers);
+
+		List<Firing> firings = new ArrayList<Firing>();
+		for (long tick = startTick + 1; tick <= startTick + 10; tick++) {
+			engine.advance(tick, firings);
+		}
+		assertEquals(2, firings.size());
+		assertEquals("previous_end", firings.get(0).jobKey.getName());
+		assertEquals("next_start", firings.get(1).jobKey.getName());
+	}
+
+	@Test
+	public void testDeletedJobDoesNotFire() {
+		Map<JobDetail, List<Trigger>> jobsAndTriggers = new LinkedHashMap<JobDetail, List<Trigger>>();
+		addJob(jobsAndTriggers, "kept_start", (startTick + 300) * TICK, null);
+		addJob(jobsAndTriggers, "deleted_start", (startTick + 300) * TICK, null);
+		engine.scheduleJobs(jobsAndTriggers);
+		engine.deleteJob(new JobKey("deleted_start", GROUP));
+
+		Map<String, Long> firedAt = advance(400);
+		assertEquals(Long.valueOf(startTick + 300), firedAt.get("kept_start"));
+		assertNull(firedAt.get("deleted_start"));
+	}
+
+	@Test
+	public void testCalendarIsConsultedWhenTheTriggerFires() throws Exception {
+		long fireTime = (startTick + 500) * TICK;
+		TimeRangeCalendar calendar = new TimeRangeCalendar();
+		calendar.updateTimeRanges(Collections.singletonList(new LongRange(fireTime - TICK, fireTime + TICK)));
+		engine.addCalendar("holiday", calendar, GROUP, Collections.<LongRange>emptyList());
+
+		Map<JobDetail, List<Trigger>> jobsAndTriggers = new LinkedHashMap<JobDetail, List<Trigger>>();
+		addJob(jobsAndTriggers, "holiday_start", fireTime, "holiday");
+		engine.scheduleJobs(jobsAndTriggers);
+		assertEquals(1, engine.size());
+
+		// the holiday is cancelled after the trigger has been scheduled
+		calendar.updateTimeRanges(Collections.<LongRange>emptyList());
+		engine.addCalendar("holiday", calendar, GROUP, Collections.<LongRange>emptyList());
+
+		assertTrue(advance(600).isEmpty());
+		assertEquals(0, engine.size());
+	}
+
+	private Map<String, Long> advance(long ticks) {
+		Map<String, Long> firedAt = new HashMap<String, Long>();
+		List<Firing> firings = new ArrayList<Firing>();
+		for (long tick = startTick + 1; tick <= startTick + ticks; tick++) {
+			engine.advance(tick, firings);
+			for (Firing firing : firings) {
+				firedAt.put(firing.jobKey.getName(), tick);
+			}
+			firings.clear();
+		}
+		return firedAt;
+	}
+
+	private static void addJob(Map<JobDetail, List<Trigger>> jobsAndTriggers, String jobName, long fireTime,
+			String calendarName) {
+		JobDetail job = newJob(ExecuteCommandJob.class)
+				.usingJobData(ExecuteCommandJob.JOB_DATA_CONTENT_KEY, "send Test ON")
+				.withIdentity(jobName, GROUP)
+				.build();
+		Trigger trigger = newTrigger()
+				.forJob(job)
+				.withIdentity(jobName + "_trigger", GROUP)
+				.startAt(new Date(fireTime))
+				.modifiedByCalendar(calendarName)
+				.build();
+		List<Trigger> triggers = new ArrayList<Trigger>(1);
+		triggers.add(trigger);
+		jobsAndTriggers.put(job, triggers);
+	}
+
+}
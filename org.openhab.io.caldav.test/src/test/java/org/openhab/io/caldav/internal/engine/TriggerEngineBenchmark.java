@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.engine;
+
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.lang.math.LongRange;
+import org.openhab.io.caldav.internal.util.ExecuteCommandJob;
+import org.openhab.io.caldav.internal.util.TimeRangeCalendar;
+import org.quartz.JobDetail;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.simpl.RAMJobStore;
+import org.quartz.simpl.SimpleThreadPool;
+
+
+/**
+ * Compares the {@link TriggerEngine}s on a dense schedule: the same jobs
+ * and triggers are scheduled on a private (never started) Quartz scheduler
+ * and on a timer wheel, and the time to schedule and delete them as well as
+ * the memory they retain are measured.
+ * <p>
+ * Usage: <code>TriggerEngineBenchmark [triggers]</code>
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class TriggerEngineBenchmark {
+
+	private static final String GROUP = "CalDavBenchmark";
+	private static final String CALENDAR_NAME = GROUP + ":holiday";
+
+	/** the range the fire times of the triggers are spread over */
+	private static final long SCHEDULE_RANGE = 30L * 24 * 60 * 60 * 1000;
+
+	/** every n-th job is modified by the exclusion calendar */
+	private static final int MODIFIED_BY_RATIO = 5;
+
+	/** the numbers of triggers scheduled if none is given */
+	private static final int[] DEFAULT_TRIGGERS = { 1000, 10000 };
+
+
+	public static void main(String[] args) throws SchedulerException {
+		int[] counts = args.length > 0 ? new int[] { Integer.parseInt(args[0]) } : DEFAULT_TRIGGERS;
+		for (int count : counts) {
+			for (Result result : run(count)) {
+				System.out.println(result.toString());
+			}
+		}
+	}
+
+	/**
+	 * Runs the benchmark on all engines.
+	 *
+	 * @param triggerCount the number of triggers to schedule
+	 * @return the result per engine
+	 * @throws SchedulerException if the Quartz scheduler can't be created
+	 */
+	public static List<Result> run(int triggerCount) throws SchedulerException {
+		List<Result> results = new ArrayList<Result>();
+
+		// the timer wheel first, the garbage Quartz leaves behind would distort its measurement
+		TriggerEngine timerWheel = new TimerWheelTriggerEngine(1000);
+		try {
+			results.add(measure(timerWheel, triggerCount));
+		}
+		finally {
+			timerWheel.shutdown();
+		}
+
+		Scheduler scheduler = createScheduler(GROUP);
+		try {
+			results.add(measure(new QuartzTriggerEngine(scheduler), triggerCount));
+		}
+		finally {
+			scheduler.shutdown();
+		}
+		return results;
+	}
+
+	/**
+	 * Creates a private Quartz scheduler with an in-memory job store, which
+	 * is never started, so that benchmarks don't touch the scheduler shared
+	 * with the rest of openHAB.
+	 *
+	 * @param name the instance name of the scheduler
+	 * @return the new scheduler, to be shut down by the caller
+	 * @throws SchedulerException if the scheduler can't be created
+	 */
+	public static Scheduler createScheduler(String name) throws SchedulerException {
+		Properties properties = new Properties();
+		properties.setProperty(StdSchedulerFactory.PROP_SCHED_INSTANCE_NAME, name);
+		properties.setProperty(StdSchedulerFactory.PROP_SCHED_SKIP_UPDATE_CHECK, "true");
+		properties.setProperty(StdSchedulerFactory.PROP_THREAD_POOL_CLASS, SimpleThreadPool.class.getName());
+		properties.setProperty("org.quartz.threadPool.threadCount", "1");
+		properties.setProperty(StdSchedulerFactory.PROP_JOB_STORE_CLASS, RAMJobStore.class.getName());
+		return new StdSchedulerFactory(properties).getScheduler();
+	}
+
+	private static Result measure(TriggerEngine engine, int triggerCount) throws SchedulerException {
+		TimeRangeCalendar calendar = new TimeRangeCalendar();
+		long now = System.currentTimeMillis();
+		// the triggers modified by the calendar only fire within its ranges, let it cover them all
+		calendar.updateTimeRanges(Collections.singletonList(new LongRange(now, now + 2 * SCHEDULE_RANGE)));
+		engine.addCalendar(CALENDAR_NAME, calendar, GROUP, Collections.<LongRange>emptyList());
+
+		Map<JobDetail, List<Trigger>> jobsAndTriggers = createJobs(triggerCount, now + 60L * 60 * 1000);
+
+		// the plan stays referenced, only what the engine adds to it is measured
+		long usedBefore = usedMemory();
+		long startTime = System.nanoTime();
+		engine.scheduleJobs(jobsAndTriggers);
+		long scheduleTime = (System.nanoTime() - startTime) / 1000000;
+		long retainedMemory = Math.max(0, usedMemory() - usedBefore);
+
+		startTime = System.nanoTime();
+		engine.deleteJobs(GROUP);
+		long deleteTime = (System.nanoTime() - startTime) / 1000000;
+		engine.deleteCalendar(CALENDAR_NAME);
+
+		return new Result(engine.toString(), jobsAndTriggers.size(), scheduleTime, retainedMemory, deleteTime);
+	}
+
+	private static Map<JobDetail, List<Trigger>> createJobs(int triggerCount, long start) {
+		Map<JobDetail, List<Trigger>> jobsAndTriggers = new LinkedHashMap<JobDetail, List<Trigger>>();
+		for (int i = 0; i < triggerCount; i++) {
+			long fireTime = start + i * (SCHEDULE_RANGE / Math.max(1, triggerCount));
+			String jobName = "benchmark-" + i;
+
+			JobDetail job = newJob(ExecuteCommandJob.class)
+					.usingJobData(ExecuteCommandJob.JOB_DATA_CONTENT_KEY, "send Benchmark" + (i % 100) + " ON")
+					.withIdentity(jobName, GROUP)
+					.withDescription("Benchmark " + i)
+					.build();
+			Trigger trigger = newTrigger()
+					.forJob(job)
+					.withIdentity(jobName + "_trigger", GROUP)
+					.startAt(new Date(fireTime))
+					.withSchedule(simpleSchedule().withMisfireHandlingInstructionFireNow())
+					.usingJobData(ExecuteCommandJob.JOB_DATA_PLANNED_FIRE_TIME_KEY, fireTime)
+					.modifiedByCalendar(i % MODIFIED_BY_RATIO == 0 ? CALENDAR_NAME : null)
+					.build();
+
+			List<Trigger> triggers = new ArrayList<Trigger>(1);
+			triggers.add(trigger);
+			jobsAndTriggers.put(job, triggers);
+		}
+		return jobsAndTriggers;
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			try {
+				Thread.sleep(100);
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+
+	/**
+	 * The measurements of one engine
+	 */
+	public static class Result {
+
+		private final String engine;
+		private final int triggers;
+		private final long scheduleTime;
+		private final long retainedMemory;
+		private final long deleteTime;
+
+		Result(String engine, int triggers, long scheduleTime, long retainedMemory, long deleteTime) {
+			this.engine = engine;
+			this.triggers = triggers;
+			this.scheduleTime = scheduleTime;
+			this.retainedMemory = retainedMemory;
+			this.deleteTime = deleteTime;
+		}
+
+		public String getEngine() {
+			return engine;
+		}
+
+		public int getTriggers() {
+			return triggers;
+		}
+
+		public long getScheduleTime() {
+			return scheduleTime;
+		}
+
+		/**
+		 * @return the heap (in bytes) the engine retains for the triggers,
+		 * approximated by the used heap after garbage collections, 0 if it is
+		 * below their noise
+		 */
+		public long getRetainedMemory() {
+			return retainedMemory;
+		}
+
+		public long getDeleteTime() {
+			return deleteTime;
+		}
+
+		@Override
+		public String toString() {
+			return engine + ": " + triggers + " triggers scheduled in " + scheduleTime + "ms, ~"
+					+ retainedMemory / 1024 + "KB retained (" + (triggers == 0 ? 0 : retainedMemory / triggers)
+					+ " bytes per trigger), deleted in " + deleteTime + "ms";
+		}
+	}
+
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openhab.io.caldav.internal.transport.CircuitBreakerTransport.State;
+
+
+/**
+ * Checks the states of the {@link CircuitBreakerTransport} against a
+ * {@link FakeTransport}: a single probe of the half open circuit, timeouts
+ * counting as failures and cancellations not counting at all.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CircuitBreakerTransportTest {
+
+	/** the time (in ms) the circuit stays open */
+	private static final long OPEN_TIME = 50;
+
+	private final FakeTransport transport = new FakeTransport();
+
+
+	@After
+	public void tearDown() {
+		transport.shutdown();
+	}
+
+	@Test
+	public void testFailuresOpenTheCircuit() throws Exception {
+		transport.otherwiseReply(0, 0, new IOException("connection refused"));
+		CircuitBreakerTransport breaker = new CircuitBreakerTransport(transport, 2, OPEN_TIME);
+
+		assertTrue(query(breaker).await().failure instanceof IOException);
+		assertEquals(State.CLOSED, breaker.getState());
+		assertTrue(query(breaker).await().failure instanceof IOException);
+		assertEquals(State.OPEN, breaker.getState());
+
+		assertTrue(query(breaker).await().failure instanceof CircuitOpenException);
+		assertEquals(2, transport.getQueries());
+	}
+
+	@Test
+	public void testHalfOpenCircuitAdmitsASingleProbe() throws Exception {
+		CircuitBreakerTransport breaker = openCircuit();
+		transport.thenReply(0, 300, null);
+
+		Callback probe = query(breaker);
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		Callback rejected = query(breaker);
+		assertTrue(rejected.await().failure instanceof CircuitOpenException);
+		assertEquals(2, transport.getQueries());
+
+		assertNotNull(probe.await().resources);
+		assertEquals(State.CLOSED, breaker.getState());
+		assertNotNull(query(breaker).await().resources);
+	}
+
+	@Test
+	public void testFailedProbeOpensTheCircuit() throws Exception {
+		CircuitBreakerTransport breaker = openCircuit();
+		transport.thenReply(0, 0, new IOException("connection refused"));
+
+		assertTrue(query(breaker).await().failure instanceof IOException);
+		assertEquals(State.OPEN, breaker.getState());
+		assertTrue(query(breaker).await().failure instanceof CircuitOpenException);
+	}
+
+	@Test
+	public void testCancelledProbeLetsTheNextRequestProbe() throws Exception {
+		CircuitBreakerTransport breaker = openCircuit();
+		transport.thenReply(0, 5000, null);
+
+		Callback probe = query(breaker);
+		assertTrue(probe.request.cancel(true));
+		assertEquals(State.HALF_OPEN, breaker.getState());
+
+		assertNotNull(query(breaker).await().resources);
+		assertEquals(3, transport.getQueries());
+		assertEquals(State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testTimedOutRequestCountsAsFailure() throws Exception {
+		transport.thenReply(0, 5000, null);
+		CircuitBreakerTransport breaker = new CircuitBreakerTransport(transport, 1, OPEN_TIME);
+
+		Callback callback = query(breaker);
+		assertTrue(callback.request.timeOut());
+		assertTrue(callback.await().failure instanceof TimeoutException);
+		assertEquals(State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testCancelledRequestDoesntCount() throws Exception {
+		transport.thenReply(0, 5000, null);
+		CircuitBreakerTransport breaker = new CircuitBreakerTransport(transport, 1, OPEN_TIME);
+
+		assertTrue(query(breaker).request.cancel(true));
+		assertEquals(State.CLOSED, breaker.getState());
+		assertNotNull(query(breaker).await().resources);
+	}
+
+
+	/**
+	 * @return a breaker whose circuit has just become due to be probed
+	 */
+	private CircuitBreakerTransport openCircuit() throws InterruptedException {
+		transport.thenReply(0, 0, new IOException("connection refused"));
+		CircuitBreakerTransport breaker = new CircuitBreakerTransport(transport, 1, OPEN_TIME);
+		query(breaker).await();
+		assertEquals(State.OPEN, breaker.getState());
+		Thread.sleep(OPEN_TIME + 20);
+		return breaker;
+	}
+
+	private static Callback query(CircuitBreakerTransport breaker) {
+		Callback callback = new Callback();
+		callback.request = breaker.query(null, callback);
+		return callback;
+	}
+
+	/**
+	 * Records the outcome of a request
+	 */
+	private static class Callback implements TransportCallback {
+
+		private final CountDownLatch done = new CountDownLatch(1);
+		volatile TransportRequest request;
+		volatile List<CalendarResource> resources;
+		volatile Exception failure;
+
+		public void started() {
+		}
+
+		public void completed(List<CalendarResource> resources) {
+			this.resources = resources;
+			done.countDown();
+		}
+
+		public void failed(Exception exception) {
+			this.failure = exception;
+			done.countDown();
+		}
+
+		Callback await() throws InterruptedException {
+			assertTrue("no outcome", done.await(2, TimeUnit.SECONDS));
+			return this;
+		}
+	}
+
+}
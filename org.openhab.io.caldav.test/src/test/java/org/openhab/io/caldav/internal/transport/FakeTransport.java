@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osaf.caldav4j.model.request.CalendarQuery;
+
+
+/**
+ * A {@link CalDavTransport} for tests, which answers each request with the
+ * next scripted {@link Reply} instead of talking to a server. A request is
+ * sent after the start delay of its reply and answered after its response
+ * delay, on threads of its own so that the fake doesn't limit the number of
+ * requests in flight.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+class FakeTransport implements CalDavTransport {
+
+	private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(16);
+	private final LinkedList<Reply> replies = new LinkedList<Reply>();
+	private Reply defaultReply = new Reply(0, 0, null);
+
+	private final AtomicInteger queries = new AtomicInteger();
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicInteger maxRunning = new AtomicInteger();
+	private final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+
+
+	/**
+	 * Answers the next request with the given reply.
+	 */
+	synchronized FakeTransport thenReply(long startDelay, long responseDelay, Exception failure) {
+		replies.add(new Reply(startDelay, responseDelay, failure));
+		return this;
+	}
+
+	/**
+	 * Answers the requests without a scripted reply with the given one.
+	 */
+	synchronized FakeTransport otherwiseReply(long startDelay, long responseDelay, Exception failure) {
+		defaultReply = new Reply(startDelay, responseDelay, failure);
+		return this;
+	}
+
+	private synchronized Reply nextReply() {
+		return replies.isEmpty() ? defaultReply : replies.removeFirst();
+	}
+
+	public TransportRequest query(CalendarQuery query, TransportCallback callback) {
+		queries.incrementAndGet();
+		Reply reply = nextReply();
+		FakeRequest request = new FakeRequest(reply, callback);
+		executor.schedule(request, reply.startDelay, TimeUnit.MILLISECONDS);
+		return request;
+	}
+
+	public String getCollectionInfo() {
+		return "fake";
+	}
+
+	/**
+	 * @return the number of requests sent to the transport
+	 */
+	int getQueries() {
+		return queries.get();
+	}
+
+	/**
+	 * @return the highest number of requests which were being answered at
+	 * the same time
+	 */
+	int getMaxRunning() {
+		return maxRunning.get();
+	}
+
+	/**
+	 * @return the failures the callbacks have been notified of, including
+	 * timeouts
+	 */
+	List<Exception> getFailures() {
+		return failures;
+	}
+
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+
+	/**
+	 * The scripted answer to a request
+	 */
+	private static class Reply {
+
+		final long startDelay;
+		final long responseDelay;
+		final Exception failure;
+
+		Reply(long startDelay, long responseDelay, Exception failure) {
+			this.startDelay = startDelay;
+			this.responseDelay = responseDelay;
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * A request which is answered as scripted. Like a real request, its
+	 * callback isn't notified when it is cancelled, but when it is timed out.
+	 */
+	private class FakeRequest extends FutureTask<List<CalendarResource>> implements TransportRequest {
+
+		private final TransportCallback callback;
+
+		FakeRequest(final Reply reply, final TransportCallback callback) {
+			super(new Callable<List<CalendarResource>>() {
+				public List<CalendarResource> call() throws Exception {
+					int now = running.incrementAndGet();
+					synchronized (maxRunning) {
+						maxRunning.set(Math.max(maxRunning.get(), now));
+					}
+					try {
+						if (callback != null) {
+							callback.started();
+						}
+						Thread.sleep(reply.responseDelay);
+					}
+					finally {
+						running.decrementAndGet();
+					}
+					if (reply.failure != null) {
+						failures.add(reply.failure);
+						if (callback != null) {
+							callback.failed(reply.failure);
+						}
+						throw reply.failure;
+					}
+					List<CalendarResource> resources = Collections.singletonList(new CalendarResource("/fake.ics", "1", ""));
+					if (callback != null) {
+						callback.completed(resources);
+					}
+					return resources;
+				}
+			});
+			this.callback = callback;
+		}
+
+		public boolean timeOut() {
+			if (!cancel(true)) {
+				return false;
+			}
+			TimeoutException exception = new TimeoutException("timed out");
+			failures.add(exception);
+			if (callback != null) {
+				callback.failed(exception);
+			}
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+import org.osaf.caldav4j.model.request.CalendarQuery;
+
+
+/**
+ * Checks the retries, hedges and timeouts of the {@link ShardedQuery} and
+ * that it keeps to its parallelism, against a {@link FakeTransport}. The
+ * delays are chosen far apart, so the test doesn't depend on the exact
+ * timing of the threads.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class ShardedQueryTest {
+
+	private static final ShardedQuery.QueryFactory QUERY_FACTORY = new ShardedQuery.QueryFactory() {
+		public CalendarQuery createQuery(long start, long end) {
+			return null;
+		}
+	};
+
+	private final FakeTransport transport = new FakeTransport();
+
+
+	@After
+	public void tearDown() {
+		transport.shutdown();
+	}
+
+	@Test
+	public void testFailedShardIsRetried() throws Exception {
+		transport.thenReply(0, 0, new IOException("connection reset"));
+		ShardedQuery query = new ShardedQuery(transport, 1, 1, 0, 0);
+
+		assertEquals(1, execute(query, 0, 100, 0).size());
+		assertEquals(2, transport.getQueries());
+	}
+
+	@Test
+	public void testShardFailsAfterItsRetries() throws Exception {
+		transport.otherwiseReply(0, 0, new IOException("connection reset"));
+		ShardedQuery query = new ShardedQuery(transport, 1, 2, 0, 0);
+
+		try {
+			execute(query, 0, 100, 0);
+			fail("the query should have failed");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals(3, transport.getQueries());
+	}
+
+	@Test
+	public void testSlowShardIsHedged() throws Exception {
+		transport.thenReply(0, 5000, null).thenReply(0, 0, null);
+		ShardedQuery query = new ShardedQuery(transport, 2, 0, 0, 50);
+
+		long start = System.currentTimeMillis();
+		assertEquals(1, execute(query, 0, 100, 0).size());
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertEquals(2, transport.getQueries());
+	}
+
+	@Test
+	public void testShardIsNotHedgedWithoutSpareRequest() throws Exception {
+		transport.thenReply(0, 300, null);
+		ShardedQuery query = new ShardedQuery(transport, 1, 0, 0, 50);
+
+		assertEquals(1, execute(query, 0, 100, 0).size());
+		assertEquals(1, transport.getQueries());
+	}
+
+	@Test
+	public void testHedgesAndRetriesKeepToTheParallelism() throws Exception {
+		transport.thenReply(0, 0, new IOException("connection reset")).otherwiseReply(0, 100, null);
+		ShardedQuery query = new ShardedQuery(transport, 2, 1, 0, 10);
+
+		List<Long> starts = execute(query, 0, 600, 100);
+		assertEquals(6, starts.size());
+		for (int i = 0; i < starts.size(); i++) {
+			assertEquals(i * 100L, starts.get(i).longValue());
+		}
+		assertTrue("at most 2 requests in flight, but " + transport.getMaxRunning(), transport.getMaxRunning() <= 2);
+	}
+
+	@Test
+	public void testTimeoutStartsWhenTheShardIsSent() throws Exception {
+		// the request waits for a worker longer than the timeout, but is answered in time once sent
+		transport.thenReply(300, 100, null);
+		ShardedQuery query = new ShardedQuery(transport, 1, 0, 200, 0);
+
+		assertEquals(1, execute(query, 0, 100, 0).size());
+		assertEquals(1, transport.getQueries());
+	}
+
+	@Test
+	public void testTimedOutShardIsRetried() throws Exception {
+		transport.thenReply(0, 5000, null).thenReply(0, 0, null);
+		ShardedQuery query = new ShardedQuery(transport, 1, 1, 100, 0);
+
+		assertEquals(1, execute(query, 0, 100, 0).size());
+		assertEquals(2, transport.getQueries());
+		// the request has been timed out rather than cancelled, so the breaker counts it
+		assertEquals(1, transport.getFailures().size());
+		assertTrue(transport.getFailures().get(0) instanceof TimeoutException);
+	}
+
+
+	/**
+	 * @return the starts of the windows in the order they were handled
+	 */
+	private List<Long> execute(ShardedQuery query, long start, long end, long windowSize) throws Exception {
+		final List<Long> starts = new ArrayList<Long>();
+		query.execute(start, end, windowSize, QUERY_FACTORY, new ShardedQuery.ShardHandler() {
+			public void shardCompleted(long start, long end, List<CalendarResource> resources) {
+				assertEquals(1, resources.size());
+				starts.add(start);
+			}
+		});
+		return starts;
+	}
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.component.VEvent;
+
+import org.junit.Test;
+
+
+/**
+ * Checks that the timezones of parallel parses which share a definition
+ * resolve dates outside the precomputed window correctly.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CachingTimeZoneRegistryTest {
+
+	private static final String CRLF = "\r\n";
+
+	private static final int THREADS = 8;
+
+	private static final int PARSES = 50;
+
+	/** the local start times of the events, far outside the window and the onsets ical4j computes at first */
+	private static final String[] LOCAL_STARTS = { "19950115T120000", "20450701T120000", "20631224T180000", "20990330T090000" };
+
+	/** the start times in UTC: year, month, day, hour */
+	private static final int[][] UTC_STARTS = { { 1995, 1, 15, 11 }, { 2045, 7, 1, 10 }, { 2063, 12, 24, 17 }, { 2099, 3, 30, 7 } };
+
+
+	@Test
+	public void testParsesGetInstancesOfTheirOwn() throws Exception {
+		CachingTimeZoneRegistry registry1 = new CachingTimeZoneRegistry();
+		CachingTimeZoneRegistry registry2 = new CachingTimeZoneRegistry();
+		new CalendarBuilder(registry1).build(new StringReader(createCalendar()));
+		new CalendarBuilder(registry2).build(new StringReader(createCalendar()));
+
+		CachedTimeZone timeZone1 = (CachedTimeZone) registry1.getTimeZone("Europe/Berlin");
+		CachedTimeZone timeZone2 = (CachedTimeZone) registry2.getTimeZone("Europe/Berlin");
+		assertNotSame(timeZone1, timeZone2);
+		assertSame(timeZone1.getOffsets(), timeZone2.getOffsets());
+	}
+
+	@Test
+	public void testConcurrentParsesOutsideTheWindow() throws Exception {
+		final String calendar = createCalendar();
+		final long[] expected = new long[UTC_STARTS.length];
+		for (int index = 0; index < expected.length; index++) {
+			expected[index] = toUtc(UTC_STARTS[index]);
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int thread = 0; thread < THREADS; thread++) {
+			threads.add(new Thread("CalDav TimeZone Test " + thread) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int parse = 0; parse < PARSES; parse++) {
+							net.fortuna.ical4j.model.Calendar parsed = new CalendarBuilder(new CachingTimeZoneRegistry())
+									.build(new StringReader(calendar));
+							List<?> events = parsed.getComponents(Component.VEVENT);
+							assertEquals(expected.length, events.size());
+							for (int index = 0; index < expected.length; index++) {
+								VEvent event = (VEvent) events.get(index);
+								assertEquals(LOCAL_STARTS[index], expected[index], event.getStartDate().getDate().getTime());
+							}
+						}
+					} catch (Throwable t) {
+						synchronized (failures) {
+							failures.add(t);
+						}
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertNull(failures.isEmpty() ? null : failures.get(0).toString());
+	}
+
+	private static long toUtc(int[] date) {
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(date[0], date[1] - 1, date[2], date[3], 0, 0);
+		return calendar.getTimeInMillis();
+	}
+
+	private static String createCalendar() {
+		StringBuilder calendar = new StringBuilder();
+		calendar.append("BEGIN:VCALENDAR").append(CRLF)
+				.append("VERSION:2.0").append(CRLF)
+				.append("PRODID:-//openHAB//CalDav Test//EN").append(CRLF)
+				.append("BEGIN:VTIMEZONE").append(CRLF)
+				.append("TZID:Europe/Berlin").append(CRLF)
+				.append("BEGIN:DAYLIGHT").append(CRLF)
+				.append("TZOFFSETFROM:+0100").append(CRLF)
+				.append("TZOFFSETTO:+0200").append(CRLF)
+				.append("TZNAME:CEST").append(CRLF)
+				.append("DTSTART:19700329T020000").append(CRLF)
+				.append("RRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=-1SU").append(CRLF)
+				.append("END:DAYLIGHT").append(CRLF)
+				.append("BEGIN:STANDARD").append(CRLF)
+				.append("TZOFFSETFROM:+0200").append(CRLF)
+				.append("TZOFFSETTO:+0100").append(CRLF)
+				.append("TZNAME:CET").append(CRLF)
+				.append("DTSTART:19701025T030000").append(CRLF)
+				.append("RRULE:FREQ=YEARLY;BYMONTH=10;BYDAY=-1SU").append(CRLF)
+				.append("END:STANDARD").append(CRLF)
+				.append("END:VTIMEZONE").append(CRLF);
+		for (int index = 0; index < LOCAL_STARTS.length; index++) {
+			calendar.append("BEGIN:VEVENT").append(CRLF)
+					.append("UID:event").append(index).append(CRLF)
+					.append("DTSTAMP:20150101T000000Z").append(CRLF)
+					.append("DTSTART;TZID=Europe/Berlin:").append(LOCAL_STARTS[index]).append(CRLF)
+					.append("SUMMARY:Event ").append(index).append(CRLF)
+					.append("END:VEVENT").append(CRLF);
+		}
+		return calendar.append("END:VCALENDAR").append(CRLF).toString();
+	}
+
+}
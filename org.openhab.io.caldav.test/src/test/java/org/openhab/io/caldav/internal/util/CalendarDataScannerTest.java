@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+
+/**
+ * Checks that the {@link CalendarDataScanner} follows folded content lines
+ * and doesn't mistake other properties for the scanned one.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CalendarDataScannerTest {
+
+	private static final String CALENDAR_DATA =
+			"BEGIN:VCALENDAR\r\n"
+			+ "BEGIN:VEVENT\r\n"
+			+ "UID:first\r\n"
+			+ "DESCRIPTION:0123456789\r\n"
+			+ " 0123456789\r\n"
+			+ "\t01234\r\n"
+			+ "DESCRIPTIONS:012345678901234567890123456789\r\n"
+			+ "SUMMARY:short\r\n"
+			+ "END:VEVENT\r\n"
+			+ "BEGIN:VEVENT\r\n"
+			+ "UID:second\r\n"
+			+ "description;LANGUAGE=en:0123456789\r\n"
+			+ "END:VEVENT\r\n"
+			+ "END:VCALENDAR";
+
+
+	@Test
+	public void testFoldedLinesAreAddedToTheProperty() {
+		// 10 + 10 + 5 chars, the folding whitespace doesn't count
+		assertEquals(25, CalendarDataScanner.getLongestPropertyLength(CALENDAR_DATA, "DESCRIPTION"));
+	}
+
+	@Test
+	public void testFoldedLinesOfOtherPropertiesAreIgnored() {
+		String calendarData = "SUMMARY:012\r\n 0123456789012345678901234567890\r\nDESCRIPTION:0123\r\n";
+
+		assertEquals(4, CalendarDataScanner.getLongestPropertyLength(calendarData, "DESCRIPTION"));
+	}
+
+	@Test
+	public void testFoldedPropertyAtTheEndOfTheData() {
+		String calendarData = "DESCRIPTION:0123\n 4567";
+
+		assertEquals(8, CalendarDataScanner.getLongestPropertyLength(calendarData, "DESCRIPTION"));
+	}
+
+	@Test
+	public void testParametersCountAndNameIsCaseInsensitive() {
+		String calendarData = "description;LANGUAGE=en:0123456789\n";
+
+		// "LANGUAGE=en:" and the value
+		assertEquals(22, CalendarDataScanner.getLongestPropertyLength(calendarData, "DESCRIPTION"));
+	}
+
+	@Test
+	public void testMissingPropertyHasLengthZero() {
+		assertEquals(0, CalendarDataScanner.getLongestPropertyLength(CALENDAR_DATA, "LOCATION"));
+		assertEquals(0, CalendarDataScanner.getLongestPropertyLength("", "DESCRIPTION"));
+	}
+
+	@Test
+	public void testFirstPropertyValue() {
+		assertEquals("first", CalendarDataScanner.getFirstPropertyValue(CALENDAR_DATA, "UID"));
+		// only the first line of a folded value
+		assertEquals("0123456789", CalendarDataScanner.getFirstPropertyValue(CALENDAR_DATA, "DESCRIPTION"));
+		assertNull(CalendarDataScanner.getFirstPropertyValue(CALENDAR_DATA, "LOCATION"));
+	}
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Checks the order in which the {@link CommandDispatcher} executes the
+ * commands of the same item and the rate limits of the items.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CommandDispatcherTest {
+
+	private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+	private CountDownLatch latch;
+
+
+	@Before
+	public void setUp() {
+		CommandDispatcher.start(2);
+	}
+
+	@After
+	public void tearDown() {
+		CommandDispatcher.stop();
+		CommandDispatcher.setRateLimiters(Collections.<RateLimiter>emptyList());
+	}
+
+	@Test
+	public void testEndBeforeStartOfTheSameTime() throws InterruptedException {
+		long plannedFireTime = System.currentTimeMillis();
+		latch = new CountDownLatch(2);
+		CommandDispatcher dispatcher = CommandDispatcher.getInstance();
+
+		// the start trigger happens to fire first
+		dispatcher.dispatch("Light", plannedFireTime, false, record("next start"));
+		dispatcher.dispatch("Light", plannedFireTime, true, record("previous end"));
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("previous end", "next start"), executed);
+	}
+
+	@Test
+	public void testOrderedByPlannedFireTimeThenArrival() throws InterruptedException {
+		long plannedFireTime = System.currentTimeMillis();
+		latch = new CountDownLatch(4);
+		CommandDispatcher dispatcher = CommandDispatcher.getInstance();
+
+		dispatcher.dispatch("Light", plannedFireTime + 1, false, record("later"));
+		dispatcher.dispatch("Light", plannedFireTime, false, record("first"));
+		dispatcher.dispatch("Light", plannedFireTime, false, record("second"));
+		dispatcher.dispatch("Light", plannedFireTime + 1, true, record("later end"));
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("first", "second", "later end", "later"), executed);
+	}
+
+	@Test
+	public void testCommandDroppedWhenRateLimitQueueIsFull() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter("Light", 1, 1, 1, 10000);
+		CommandDispatcher.setRateLimiters(Collections.singletonList(limiter));
+		long plannedFireTime = System.currentTimeMillis();
+		latch = new CountDownLatch(1);
+		CommandDispatcher dispatcher = CommandDispatcher.getInstance();
+
+		dispatcher.dispatch("Light", plannedFireTime, false, record("passed"));
+		dispatcher.dispatch("Light", plannedFireTime, false, record("dropped"));
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(Collections.singletonList("passed"), executed);
+		assertEquals(1, limiter.getDroppedCommands());
+	}
+
+	@Test
+	public void testRateLimitWaitHoldsBackItsItemOnly() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter("Light", 1, 1, 10, 10000);
+		CommandDispatcher.setRateLimiters(Collections.singletonList(limiter));
+		// a single stripe, so both items share it
+		CommandDispatcher.start(1);
+		long plannedFireTime = System.currentTimeMillis();
+		latch = new CountDownLatch(4);
+		CommandDispatcher dispatcher = CommandDispatcher.getInstance();
+
+		dispatcher.dispatch("Light", plannedFireTime, false, record("light 1"));
+		dispatcher.dispatch("Light", plannedFireTime, false, record("light 2"));
+		dispatcher.dispatch("Fan", plannedFireTime, false, record("fan"));
+		dispatcher.dispatch("Light", plannedFireTime, false, record("light 3"));
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("light 1", "fan", "light 2", "light 3"), executed);
+		assertEquals(0, limiter.getPending());
+	}
+
+	@Test
+	public void testStopReleasesRateLimitQueue() {
+		RateLimiter limiter = new RateLimiter("Light", 1, 1, 10, 10000);
+		CommandDispatcher.setRateLimiters(Collections.singletonList(limiter));
+		long plannedFireTime = System.currentTimeMillis();
+		latch = new CountDownLatch(3);
+		CommandDispatcher dispatcher = CommandDispatcher.getInstance();
+
+		for (int i = 0; i < 3; i++) {
+			dispatcher.dispatch("Light", plannedFireTime, false, record("command" + i));
+		}
+		assertEquals(3, limiter.getPending());
+
+		// within the settle delay, all commands are still queued
+		CommandDispatcher.stop();
+		assertEquals(0, limiter.getPending());
+
+		// a job which got the dispatcher before it was stopped
+		dispatcher.dispatch("Light", plannedFireTime, false, record("late"));
+		assertEquals(0, limiter.getPending());
+		assertTrue(executed.isEmpty());
+	}
+
+	private Runnable record(final String name) {
+		return new Runnable() {
+			public void run() {
+				executed.add(name);
+				latch.countDown();
+			}
+		};
+	}
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.openhab.io.caldav.CalDavEvent;
+
+
+/**
+ * Checks the interval queries of the {@link EventIndex} against a linear
+ * scan of the same events.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class EventIndexTest {
+
+	@Test
+	public void testOverlappingMatchesLinearScan() {
+		Random random = new Random(42);
+		List<CalDavEvent> events = new ArrayList<CalDavEvent>();
+		for (int i = 0; i < 500; i++) {
+			long start = random.nextInt(10000);
+			// mostly short events, some spanning a large part of the range
+			long duration = i % 25 == 0 ? random.nextInt(5000) : random.nextInt(50);
+			events.add(createEvent("uid" + i, start, start + duration));
+		}
+		EventIndex index = new EventIndex(events, 0);
+		assertEquals(events.size(), index.size());
+
+		for (int i = 0; i < 1000; i++) {
+			long start = random.nextInt(11000) - 500;
+			long end = start + random.nextInt(200);
+			assertEquals("[" + start + ", " + end + ")", new HashSet<CalDavEvent>(scan(events, start, end)),
+					new HashSet<CalDavEvent>(index.overlapping(start, end)));
+		}
+	}
+
+	@Test
+	public void testRangesAreHalfOpen() {
+		CalDavEvent event = createEvent("uid", 100, 200);
+		EventIndex index = new EventIndex(Collections.singletonList(event), 0);
+
+		assertTrue(index.overlapping(0, 100).isEmpty());
+		assertTrue(index.overlapping(200, 300).isEmpty());
+		assertEquals(Collections.singletonList(event), index.overlapping(199, 200));
+		assertEquals(Collections.singletonList(event), index.activeAt(100));
+		assertTrue(index.activeAt(200).isEmpty());
+	}
+
+	@Test
+	public void testLongEventInLeftSubtreeIsFound() {
+		// the long event starts first, so it ends up in the left subtree of later events
+		CalDavEvent longEvent = createEvent("long", 0, 10000);
+		List<CalDavEvent> events = new ArrayList<CalDavEvent>();
+		events.add(longEvent);
+		for (int i = 1; i < 100; i++) {
+			events.add(createEvent("short" + i, i * 10, i * 10 + 5));
+		}
+		EventIndex index = new EventIndex(events, 0);
+
+		assertEquals(Collections.singletonList(longEvent), index.activeAt(5000));
+		assertEquals(Arrays.asList(longEvent, events.get(99)), index.activeAt(992));
+	}
+
+	@Test
+	public void testNextAfter() {
+		CalDavEvent first = createEvent("first", 100, 200);
+		CalDavEvent second = createEvent("second", 300, 400);
+		EventIndex index = new EventIndex(Arrays.asList(second, first), 0);
+
+		assertSame(first, index.nextAfter(0));
+		assertSame(second, index.nextAfter(100));
+		assertSame(second, index.nextAfter(299));
+		assertNull(index.nextAfter(300));
+		assertNull(EventIndex.empty().nextAfter(0));
+	}
+
+	@Test
+	public void testTitleAndCategoryLookupIgnoreCase() {
+		CalDavEvent event = new CalDavEvent("account", "uid", "Holiday", null, Arrays.asList("Home", "Away"), 0, 10);
+		EventIndex index = new EventIndex(Collections.singletonList(event), 0);
+
+		assertEquals(Collections.singletonList(event), index.withTitle(" holiday "));
+		assertEquals(Collections.singletonList(event), index.withCategory("AWAY"));
+		assertTrue(index.withCategory("work").isEmpty());
+		assertTrue(index.withTitle(null).isEmpty());
+	}
+
+	private static List<CalDavEvent> scan(List<CalDavEvent> events, long start, long end) {
+		List<CalDavEvent> result = new ArrayList<CalDavEvent>();
+		for (CalDavEvent event : events) {
+			if (event.getStart() < end && event.getEnd() > start) {
+				result.add(event);
+			}
+		}
+		return result;
+	}
+
+	private static CalDavEvent createEvent(String uid, long start, long end) {
+		return new CalDavEvent("account", uid, uid, null, Collections.<String>emptyList(), start, end);
+	}
+
+}
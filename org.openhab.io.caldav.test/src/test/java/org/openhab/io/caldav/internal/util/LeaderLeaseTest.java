@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Plays two nodes sharing a lease file and checks that only one of them
+ * is leader at a time and that the other one takes over once the lease
+ * has been released or has expired.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class LeaderLeaseTest {
+
+	private static final long LEASE_TIME = 300;
+
+	private File file;
+	private LeaderLease node1;
+	private LeaderLease node2;
+
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("caldav", ".lease");
+		node1 = new LeaderLease(file, "node1", LEASE_TIME);
+		node2 = new LeaderLease(file, "node2", LEASE_TIME);
+	}
+
+	@After
+	public void tearDown() {
+		LeaderLease.setInstance(null);
+		file.delete();
+	}
+
+	@Test
+	public void testOnlyOneNodeIsLeader() {
+		assertTrue(node1.renew());
+		assertFalse(node2.renew());
+
+		assertTrue(node1.isLeader());
+		assertFalse(node2.isLeader());
+		assertEquals("node1", node2.getHolder());
+		// the leader keeps the lease by renewing it
+		assertTrue(node1.renew());
+	}
+
+	@Test
+	public void testTakeoverAfterRelease() {
+		assertTrue(node1.renew());
+		node1.release();
+
+		assertFalse(node1.isLeader());
+		assertTrue(node2.renew());
+		assertFalse(node1.renew());
+	}
+
+	@Test
+	public void testTakeoverAfterExpiry() throws InterruptedException {
+		assertTrue(node1.renew());
+		assertFalse(node2.renew());
+
+		// node1 misses its renewals
+		Thread.sleep(LEASE_TIME + 50);
+
+		assertFalse(node1.isLeader());
+		assertTrue(node2.renew());
+		assertEquals("node2", node2.getHolder());
+		assertFalse(node1.renew());
+		assertEquals("node2", node1.getHolder());
+	}
+
+	@Test
+	public void testLeaderStepsDownBeforeTheLeaseExpires() throws InterruptedException {
+		assertTrue(node1.renew());
+
+		// the last third of the lease is the margin for clock skew
+		Thread.sleep(LEASE_TIME * 2 / 3 + 20);
+
+		assertFalse(node1.isLeader());
+		assertFalse(node2.renew());
+	}
+
+	@Test
+	public void testCorruptLeaseIsTakenOver() throws IOException {
+		FileWriter writer = new FileWriter(file);
+		writer.write("node1\nnot a time\n");
+		writer.close();
+
+		assertTrue(node2.renew());
+	}
+
+	@Test
+	public void testEveryNodeIsActiveWithoutLease() {
+		assertTrue(LeaderLease.isActiveNode());
+
+		LeaderLease.setInstance(node2);
+		assertTrue(node1.renew());
+		assertFalse(LeaderLease.isActiveNode());
+	}
+
+}
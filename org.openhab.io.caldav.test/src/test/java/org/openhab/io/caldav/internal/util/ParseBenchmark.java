@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.util.List;
+
+import net.fortuna.ical4j.data.CalendarBuilder;
+
+import org.openhab.io.caldav.internal.transport.CalendarResource;
+
+
+/**
+ * Parses synthetic responses once on the calling thread and once with the
+ * {@link ParallelCalendarParser} and compares the times.
+ * <p>
+ * Usage: <code>ParseBenchmark [resources] [threads]</code>
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class ParseBenchmark {
+
+	/** the sizes of the synthetic responses parsed if none is given */
+	private static final int[] DEFAULT_RESOURCES = { 1000, 10000 };
+
+	/** the range the synthetic events are spread over */
+	private static final long SCHEDULE_RANGE = 30L * 24 * 60 * 60 * 1000;
+
+
+	public static void main(String[] args) throws InterruptedException {
+		int[] counts = args.length > 0 ? new int[] { Integer.parseInt(args[0]) } : DEFAULT_RESOURCES;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		ParallelCalendarParser.start(threads);
+		try {
+			for (int count : counts) {
+				long[] times = run(count);
+				System.out.println(count + " resources: sequential " + times[0] + "ms, parallel " + times[1] + "ms on "
+					+ threads + " threads, speedup "
+					+ (times[1] == 0 ? "-" : String.format("%.1f", (double) times[0] / times[1])));
+			}
+		}
+		finally {
+			ParallelCalendarParser.stop();
+		}
+	}
+
+	/**
+	 * Parses a synthetic response once on the calling thread and once with
+	 * the started {@link ParallelCalendarParser}.
+	 *
+	 * @param resourceCount the number of resources of the response
+	 * @return the time (in ms) of the sequential and the parallel parsing
+	 * @throws InterruptedException if the calling thread has been interrupted
+	 */
+	public static long[] run(int resourceCount) throws InterruptedException {
+		List<CalendarResource> resources = new SyntheticCorpus(resourceCount)
+				.createResources(resourceCount, System.currentTimeMillis(), SCHEDULE_RANGE);
+
+		// warm up the parser classes, the JIT and the timezone cache
+		parseSequentially(resources);
+
+		long start = System.nanoTime();
+		parseSequentially(resources);
+		long sequential = (System.nanoTime() - start) / 1000000;
+
+		start = System.nanoTime();
+		ParallelCalendarParser.parse(resources);
+		long parallel = (System.nanoTime() - start) / 1000000;
+		return new long[] { sequential, parallel };
+	}
+
+	private static void parseSequentially(List<CalendarResource> resources) {
+		CalendarBuilder calendarBuilder = new CalendarBuilder();
+		for (CalendarResource resource : resources) {
+			ParallelCalendarParser.parseCalendar(calendarBuilder, resource);
+		}
+	}
+
+}
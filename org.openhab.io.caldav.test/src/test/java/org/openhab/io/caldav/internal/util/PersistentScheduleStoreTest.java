@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.math.LongRange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.io.caldav.internal.util.PersistentScheduleStore.StoredSchedule;
+import org.quartz.JobDetail;
+import org.quartz.Trigger;
+
+
+/**
+ * Checks that the firings recorded by the {@link PersistentScheduleStore}
+ * survive a restart and are compacted with the snapshot.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class PersistentScheduleStoreTest {
+
+	private File file;
+
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("schedule", ".properties");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		new File(file.getPath() + ".fired").delete();
+	}
+
+	@Test
+	public void testFiringsSurviveRestart() {
+		PersistentScheduleStore store = new PersistentScheduleStore(file);
+		store.save(createSchedule("a_start", "b:c d_start"), Collections.<String, List<LongRange>>emptyMap());
+		store.recordFired("a_start", 1000);
+		store.recordFired("a_start", 3000);
+		store.recordFired("a_start", 2000);
+		store.recordFired("b:c d_start", 5000);
+
+		StoredSchedule schedule = new PersistentScheduleStore(file).load();
+		assertEquals(Long.valueOf(3000), schedule.firedJobs.get("a_start"));
+		assertEquals(Long.valueOf(5000), schedule.firedJobs.get("b:c d_start"));
+	}
+
+	@Test
+	public void testSaveCompactsFirings() {
+		PersistentScheduleStore store = new PersistentScheduleStore(file);
+		store.save(createSchedule("a_start", "b_start"), Collections.<String, List<LongRange>>emptyMap());
+		for (int firing = 1; firing <= 100; firing++) {
+			store.recordFired("a_start", firing * 1000L);
+			store.recordFired("b_start", firing * 1000L);
+		}
+		File firedFile = new File(file.getPath() + ".fired");
+		long appendedLength = firedFile.length();
+
+		store.save(createSchedule("a_start"), Collections.<String, List<LongRange>>emptyMap());
+		assertTrue(firedFile.length() < appendedLength / 10);
+
+		StoredSchedule schedule = new PersistentScheduleStore(file).load();
+		assertEquals(Long.valueOf(100000), schedule.firedJobs.get("a_start"));
+		assertNull(schedule.firedJobs.get("b_start"));
+	}
+
+	private static Map<JobDetail, List<Trigger>> createSchedule(String... jobNames) {
+		Map<JobDetail, List<Trigger>> jobsAndTriggers = new LinkedHashMap<JobDetail, List<Trigger>>();
+		for (String jobName : jobNames) {
+			JobDetail job = newJob(ExecuteCommandJob.class).withIdentity(jobName, "caldav")
+					.usingJobData(ExecuteCommandJob.JOB_DATA_CONTENT_KEY, "send Light ON").build();
+			Trigger trigger = newTrigger().forJob(job).withIdentity(jobName + "_trigger", "caldav")
+					.startAt(new Date(System.currentTimeMillis() + 60000)).build();
+			jobsAndTriggers.put(job, Collections.singletonList(trigger));
+		}
+		return jobsAndTriggers;
+	}
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.component.VEvent;
+
+import org.junit.Test;
+
+
+/**
+ * Checks the parsing of the <code>caldav:filter</code> conditions and the
+ * prefix check the server can't do.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class QueryFilterTest {
+
+	@Test
+	public void testParseConditions() {
+		QueryFilter filter = QueryFilter.parse("description==send, CATEGORIES!=private , summary ^= Light,");
+
+		assertEquals(Arrays.asList("DESCRIPTION==send", "CATEGORIES!=private", "SUMMARY==Light"), filter.getPropFilters());
+		assertFalse(filter.isEmpty());
+		assertEquals("DESCRIPTION==send, CATEGORIES!=private, SUMMARY==Light", filter.toString());
+	}
+
+	@Test
+	public void testParseUndef() {
+		assertEquals(Arrays.asList("CATEGORIES==UNDEF"), QueryFilter.parse("categories==UNDEF").getPropFilters());
+	}
+
+	@Test
+	public void testBlankSpecIsNone() {
+		assertSame(QueryFilter.NONE, QueryFilter.parse(null));
+		assertSame(QueryFilter.NONE, QueryFilter.parse("  "));
+		assertSame(QueryFilter.NONE, QueryFilter.parse(" , "));
+		assertTrue(QueryFilter.NONE.isEmpty());
+		assertTrue(QueryFilter.NONE.matches(new VEvent(new DateTime(), "anything")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseRejectsUnknownOperator() {
+		QueryFilter.parse("SUMMARY=Light");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseRejectsInvalidName() {
+		QueryFilter.parse("1SUMMARY==Light");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseRejectsSingleCharacterText() {
+		QueryFilter.parse("SUMMARY==L");
+	}
+
+	@Test
+	public void testPrefixIsCheckedOnTheEvent() {
+		QueryFilter filter = QueryFilter.parse("SUMMARY^=light");
+
+		assertTrue(filter.matches(new VEvent(new DateTime(), " Light kitchen")));
+		assertFalse(filter.matches(new VEvent(new DateTime(), "Kitchen light")));
+		assertFalse(filter.matches(new VEvent()));
+	}
+
+	@Test
+	public void testContainsConditionsAreLeftToTheServer() {
+		QueryFilter filter = QueryFilter.parse("SUMMARY==light");
+
+		assertTrue(filter.matches(new VEvent(new DateTime(), "Kitchen")));
+	}
+
+}
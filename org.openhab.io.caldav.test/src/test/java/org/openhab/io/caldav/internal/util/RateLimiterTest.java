@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Checks the token math of the {@link RateLimiter}. The waits are computed
+ * from the wall clock, so they are checked within the time the test itself
+ * may take between two calls.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class RateLimiterTest {
+
+	/** the time (in ms) the test may take between two reservations */
+	private static final long TOLERANCE = 20;
+
+
+	@Test
+	public void testBurstPassesThenCommandsAreSpacedByRate() {
+		RateLimiter limiter = new RateLimiter("*", 10, 3, 100, 10000);
+		long now = System.currentTimeMillis();
+
+		for (int i = 0; i < 3; i++) {
+			assertTrue(limiter.enqueue());
+			assertEquals(0, limiter.reserve(now));
+		}
+		// the bucket is empty, each further token is 100ms away from the previous one
+		assertTrue(limiter.enqueue());
+		assertWait(100, limiter.reserve(now));
+		assertTrue(limiter.enqueue());
+		assertWait(200, limiter.reserve(now));
+
+		assertEquals(5, limiter.getPassedCommands());
+		assertEquals(0, limiter.getDroppedCommands());
+		assertEquals(0, limiter.getPending());
+	}
+
+	@Test
+	public void testBucketIsRefilledUpToBurst() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter("*", 1000, 2, 100, 10000);
+		long now = System.currentTimeMillis();
+		limiter.enqueue();
+		limiter.enqueue();
+		assertEquals(0, limiter.reserve(now));
+		assertEquals(0, limiter.reserve(now));
+
+		// far more than the 2ms a token takes, but the bucket holds 2 tokens only
+		Thread.sleep(50);
+		now = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			limiter.enqueue();
+		}
+		assertEquals(0, limiter.reserve(now));
+		assertEquals(0, limiter.reserve(now));
+		assertTrue(limiter.reserve(now) > 0);
+	}
+
+	@Test
+	public void testCommandExceedingMaxDelayIsDroppedWithoutToken() {
+		RateLimiter limiter = new RateLimiter("*", 10, 1, 100, 150);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 4; i++) {
+			limiter.enqueue();
+		}
+		assertEquals(0, limiter.reserve(now));
+		assertWait(100, limiter.reserve(now));
+		assertEquals(-1, limiter.reserve(now));
+		// the dropped command didn't take a token, a command fired later still gets the next one
+		assertWait(200, limiter.reserve(now + 100));
+
+		assertEquals(3, limiter.getPassedCommands());
+		assertEquals(1, limiter.getDroppedCommands());
+	}
+
+	@Test
+	public void testCapacityBoundsWaitingCommands() {
+		RateLimiter limiter = new RateLimiter("*", 1, 1, 2, 10000);
+
+		assertTrue(limiter.enqueue());
+		assertTrue(limiter.enqueue());
+		assertFalse(limiter.enqueue());
+		assertEquals(2, limiter.getPending());
+		assertEquals(1, limiter.getDroppedCommands());
+
+		limiter.reserve(System.currentTimeMillis());
+		assertTrue(limiter.enqueue());
+	}
+
+	@Test
+	public void testReleaseFreesTheQueueWithoutToken() {
+		RateLimiter limiter = new RateLimiter("*", 1, 1, 1, 10000);
+
+		assertTrue(limiter.enqueue());
+		limiter.release();
+		assertEquals(0, limiter.getPending());
+		assertTrue(limiter.enqueue());
+		// the released command didn't take the token
+		assertEquals(0, limiter.reserve(System.currentTimeMillis()));
+
+		// releasing more than has been enqueued doesn't make room
+		limiter.release();
+		limiter.release();
+		assertEquals(0, limiter.getPending());
+	}
+
+	@Test
+	public void testParseAndMatch() {
+		RateLimiter limiter = RateLimiter.parse("KNX_*.Light?:2.5/5", 100, 1000);
+
+		assertEquals("KNX_*.Light?", limiter.getItemPattern());
+		assertEquals("KNX_*.Light?:2.5/5", limiter.toString());
+		assertTrue(limiter.matches("KNX_Kitchen.Light1"));
+		assertFalse(limiter.matches("KNX_KitchenxLight1"));
+		assertFalse(limiter.matches("KNX_Kitchen.Light"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseRejectsMissingBurst() {
+		RateLimiter.parse("KNX_*:2", 100, 1000);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseRejectsInvalidRate() {
+		RateLimiter.parse("KNX_*:fast/5", 100, 1000);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseRejectsZeroBurst() {
+		RateLimiter.parse("KNX_*:2/0", 100, 1000);
+	}
+
+	private static void assertWait(long expected, long wait) {
+		assertTrue("expected ~" + expected + "ms but waits " + wait + "ms",
+				wait <= expected && wait >= expected - TOLERANCE);
+	}
+
+}
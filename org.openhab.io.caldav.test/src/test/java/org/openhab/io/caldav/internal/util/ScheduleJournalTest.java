@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.openhab.io.caldav.internal.util.ScheduleJournal.Decision;
+
+
+/**
+ * Checks the queries of the {@link ScheduleJournal} and the format of its file.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class ScheduleJournalTest {
+
+	@Test
+	public void testQueryByUid() {
+		ScheduleJournal journal = new ScheduleJournal(16);
+		journal.record(Decision.EVENT_ADDED, "abc", 1000, null);
+		journal.record(Decision.JOB_FIRED, ExecuteCommandJob.getJobName("abc", true), 1000, null);
+		journal.record(Decision.JOB_FIRED, ExecuteCommandJob.getJobName("abc", false), 2000, null);
+		journal.record(Decision.JOB_FIRED, ExecuteCommandJob.getJobName("abcd", true), 1000, null);
+
+		assertEquals(3, journal.query("abc", 0, Long.MAX_VALUE).size());
+		assertEquals(4, journal.query(null, 0, Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void testFlushWritesOneLinePerEntry() throws IOException {
+		ScheduleJournal journal = new ScheduleJournal(16);
+		journal.record(Decision.JOB_FIRED, "UID:abc\r\n_start", 1000, null);
+		journal.record(Decision.JOB_FAILED, "abc_end", 2000, "send\tLight\nOFF \\ now");
+
+		File file = File.createTempFile("journal", ".log");
+		try {
+			journal.flush(file);
+			List<String> lines = readLines(file);
+
+			assertEquals(2, lines.size());
+			assertTrue(lines.get(0).contains("\tUID:abc\\r\\n_start\t"));
+			assertTrue(lines.get(1).endsWith("\tsend\\tLight\\nOFF \\\\ now"));
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+}
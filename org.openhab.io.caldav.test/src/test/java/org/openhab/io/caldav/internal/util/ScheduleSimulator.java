@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.LongRange;
+import org.quartz.JobDetail;
+import org.quartz.Trigger;
+import org.quartz.spi.OperableTrigger;
+
+
+/**
+ * Replays planned jobs and triggers against a virtual clock instead of the
+ * Quartz scheduler. The clock jumps from one fire time to the next, so a
+ * month of firings is replayed in milliseconds. The triggers are evaluated
+ * by Quartz itself, including their exclusion calendars ('modified by'),
+ * and fire in the order the scheduler would fire them: by time, then by
+ * priority (end commands first), then by name.
+ * <p>
+ * Nothing is executed, the resulting {@link Timeline} lists the commands
+ * each firing would execute.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class ScheduleSimulator {
+
+	private static final Comparator<OperableTrigger> FIRE_ORDER = new Comparator<OperableTrigger>() {
+		public int compare(OperableTrigger t1, OperableTrigger t2) {
+			int result = t1.getNextFireTime().compareTo(t2.getNextFireTime());
+			if (result == 0) {
+				result = t2.getPriority() - t1.getPriority();
+			}
+			if (result == 0) {
+				result = t1.getKey().compareTo(t2.getKey());
+			}
+			return result;
+		}
+	};
+
+
+	private ScheduleSimulator() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Replays the given plan from <code>start</code> (inclusive) to
+	 * <code>end</code> (exclusive).
+	 *
+	 * @param jobsAndTriggers the planned jobs and their triggers, they aren't
+	 * modified
+	 * @param exclusionRanges the excluded time ranges by calendar name
+	 * @param start the time (in ms) the virtual clock starts at
+	 * @param end the time (in ms) the virtual clock stops at
+	 * @return the firings in the order they would happen
+	 */
+	public static Timeline simulate(Map<JobDetail, List<Trigger>> jobsAndTriggers,
+			Map<String, List<LongRange>> exclusionRanges, long start, long end) {
+		long replayStart = System.nanoTime();
+
+		Map<String, TimeRangeCalendar> calendars = new HashMap<String, TimeRangeCalendar>();
+		for (Entry<String, List<LongRange>> entry : exclusionRanges.entrySet()) {
+			TimeRangeCalendar calendar = new TimeRangeCalendar();
+			calendar.updateTimeRanges(entry.getValue());
+			calendars.put(entry.getKey(), calendar);
+		}
+
+		Timeline timeline = new Timeline(start, end);
+		Map<OperableTrigger, JobDetail> jobs = new HashMap<OperableTrigger, JobDetail>();
+		PriorityQueue<OperableTrigger> pending = new PriorityQueue<OperableTrigger>(11, FIRE_ORDER);
+
+		for (Entry<JobDetail, List<Trigger>> entry : jobsAndTriggers.entrySet()) {
+			for (Trigger trigger : entry.getValue()) {
+				timeline.triggers++;
+				// the planned triggers are left untouched, they may still be scheduled
+				OperableTrigger simulated = (OperableTrigger) ((OperableTrigger) trigger).clone();
+				Date firstFireTime = simulated.computeFirstFireTime(calendars.get(simulated.getCalendarName()));
+				if (firstFireTime == null || firstFireTime.getTime() >= end) {
+					timeline.skippedTriggers++;
+					continue;
+				}
+				jobs.put(simulated, entry.getKey());
+				pending.add(simulated);
+			}
+		}
+
+		while (!pending.isEmpty()) {
+			OperableTrigger trigger = pending.poll();
+			long now = trigger.getNextFireTime().getTime();
+			if (now >= end) {
+				break;
+			}
+
+			JobDetail job = jobs.get(trigger);
+			String content = job.getJobDataMap().getString(ExecuteCommandJob.JOB_DATA_CONTENT_KEY);
+			timeline.fires.add(new Fire(now, job.getKey().getName(), job.getDescription(),
+					StringUtils.isBlank(content) ? new String[0] : ExecuteCommandJob.splitCommands(content)));
+
+			trigger.triggered(calendars.get(trigger.getCalendarName()));
+			if (trigger.getNextFireTime() != null) {
+				pending.add(trigger);
+			}
+		}
+
+		timeline.replayTime = (System.nanoTime() - replayStart) / 1000000;
+		return timeline;
+	}
+
+
+	/**
+	 * A single firing of a job
+	 */
+	public static class Fire {
+
+		public final long fireTime;
+		public final String jobName;
+		public final String description;
+		public final String[] commands;
+
+		Fire(long fireTime, String jobName, String description, String[] commands) {
+			this.fireTime = fireTime;
+			this.jobName = jobName;
+			this.description = description;
+			this.commands = commands;
+		}
+
+		@Override
+		public String toString() {
+			return fireTime + " " + jobName + " " + StringUtils.join(commands, "; ");
+		}
+	}
+
+	/**
+	 * The firings of a simulated range
+	 */
+	public static class Timeline {
+
+		private final long start;
+		private final long end;
+		private final List<Fire> fires = new ArrayList<Fire>();
+		private int triggers = 0;
+		private int skippedTriggers = 0;
+		private long replayTime = 0;
+		private long planTime = 0;
+
+		Timeline(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+
+		public List<Fire> getFires() {
+			return Collections.unmodifiableList(fires);
+		}
+
+		/**
+		 * @return the number of simulated triggers
+		 */
+		public int getTriggers() {
+			return triggers;
+		}
+
+		/**
+		 * @return the number of triggers which don't fire within the range,
+		 * e.g. because their exclusion calendar doesn't include their start
+		 */
+		public int getSkippedTriggers() {
+			return skippedTriggers;
+		}
+
+		/**
+		 * @return the time (in ms) replaying the triggers took
+		 */
+		public long getReplayTime() {
+			return replayTime;
+		}
+
+		/**
+		 * @return the time (in ms) planning the jobs and triggers took
+		 */
+		public long getPlanTime() {
+			return planTime;
+		}
+
+		public void setPlanTime(long planTime) {
+			this.planTime = planTime;
+		}
+
+		/**
+		 * @return a checksum of the fire times, jobs and commands - equal
+		 * checksums of two runs over the same events show that the schedule
+		 * hasn't changed
+		 */
+		public long getChecksum() {
+			CRC32 crc = new CRC32();
+			try {
+				for (Fire fire : fires) {
+					crc.update((fire + "\n").getBytes("UTF-8"));
+				}
+			}
+			catch (UnsupportedEncodingException uee) {
+				// UTF-8 is supported by every JVM
+				throw new IllegalStateException(uee);
+			}
+			return crc.getValue();
+		}
+	}
+
+}
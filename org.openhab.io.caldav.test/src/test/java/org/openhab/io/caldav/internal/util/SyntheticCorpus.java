@@ -0,0 +1,342 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.openhab.io.caldav.internal.transport.CalendarResource;
+
+
+/**
+ * Generates calendar resources as a CalDav server would return them, for
+ * benchmarks which must not depend on a server. The resources mix plain
+ * command events, events with end commands, events without content (which
+ * may be referenced by 'modified by'), recurring events and events in a
+ * VTIMEZONE, and carry the attendees and alarms of real calendars. The same
+ * seed yields the same resources.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class SyntheticCorpus {
+
+	private static final String CRLF = "\r\n";
+
+	/** the maximum length (in chars) of a content line before it is folded */
+	private static final int FOLD_LENGTH = 75;
+
+	/** the instances of each series of a {@link Shape#RECURRING} corpus */
+	private static final int SERIES_LENGTH = 50;
+
+	/** the calendars the events of an {@link Shape#EXCLUSIONS} corpus are modified by */
+	private static final int EXCLUSION_CALENDARS = 20;
+
+	/** the commands in the description of a {@link Shape#LARGE_DESCRIPTIONS} event */
+	private static final int LARGE_DESCRIPTION_COMMANDS = 500;
+
+	/** the VTIMEZONEs in each calendar of a {@link Shape#TIMEZONES} corpus */
+	private static final int TIMEZONES_PER_CALENDAR = 24;
+
+	/**
+	 * The shapes of the generated corpora, each stressing another part of the
+	 * processing of a poll
+	 */
+	public enum Shape {
+		/** a mix of the events of real calendars */
+		MIXED,
+		/** series of events expanded by the server, one resource per series */
+		RECURRING,
+		/** half of the events without content, the other half modified by them and starting within them */
+		EXCLUSIONS,
+		/** events with hundreds of commands in their description */
+		LARGE_DESCRIPTIONS,
+		/** calendars with many VTIMEZONEs, one of them used by the event */
+		TIMEZONES
+	}
+
+	private static final String VTIMEZONE =
+			"BEGIN:VTIMEZONE" + CRLF +
+			"TZID:Europe/Berlin" + CRLF +
+			"BEGIN:DAYLIGHT" + CRLF +
+			"TZOFFSETFROM:+0100" + CRLF +
+			"TZOFFSETTO:+0200" + CRLF +
+			"TZNAME:CEST" + CRLF +
+			"DTSTART:19700329T020000" + CRLF +
+			"RRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=-1SU" + CRLF +
+			"END:DAYLIGHT" + CRLF +
+			"BEGIN:STANDARD" + CRLF +
+			"TZOFFSETFROM:+0200" + CRLF +
+			"TZOFFSETTO:+0100" + CRLF +
+			"TZNAME:CET" + CRLF +
+			"DTSTART:19701025T030000" + CRLF +
+			"RRULE:FREQ=YEARLY;BYMONTH=10;BYDAY=-1SU" + CRLF +
+			"END:STANDARD" + CRLF +
+			"END:VTIMEZONE" + CRLF;
+
+	private final Random random;
+	private final SimpleDateFormat utcFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+	private final SimpleDateFormat localFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
+
+
+	/**
+	 * @param seed the seed of the generated resources
+	 */
+	public SyntheticCorpus(long seed) {
+		random = new Random(seed);
+		utcFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		localFormat.setTimeZone(TimeZone.getTimeZone("Europe/Berlin"));
+	}
+
+	/**
+	 * @param count the number of resources
+	 * @param start the earliest start of an event (in ms)
+	 * @param range the range (in ms) the events start in
+	 * @return the generated resources, one event each
+	 */
+	public List<CalendarResource> createResources(int count, long start, long range) {
+		return createResources(Shape.MIXED, count, start, range);
+	}
+
+	/**
+	 * @param shape the shape of the corpus
+	 * @param count the number of events
+	 * @param start the earliest start of an event (in ms)
+	 * @param range the range (in ms) the events start in
+	 * @return the generated resources, one event (or one series of events) each
+	 */
+	public List<CalendarResource> createResources(Shape shape, int count, long start, long range) {
+		List<CalendarResource> resources = new ArrayList<CalendarResource>(count);
+		long exclusionStart = 0;
+		long exclusionEnd = 0;
+		int exclusionCalendar = 0;
+		int index = 0;
+		while (index < count) {
+			long eventStart = start + (long) (random.nextDouble() * range) / 60000 * 60000;
+			long eventEnd = eventStart + (1 + random.nextInt(120)) * 60000L;
+			String uid = "synthetic-" + index + "@openhab.org";
+
+			String calendar;
+			if (shape == Shape.RECURRING) {
+				int instances = Math.min(SERIES_LENGTH, count - index);
+				calendar = createSeries(index, uid, eventStart, eventEnd, instances, range / SERIES_LENGTH);
+				index += instances;
+			} else if (shape == Shape.EXCLUSIONS) {
+				if (index % 2 == 0) {
+					exclusionStart = eventStart;
+					exclusionEnd = eventEnd;
+					exclusionCalendar = random.nextInt(EXCLUSION_CALENDARS);
+				}
+				calendar = createExclusionCalendar(index, uid, exclusionStart, exclusionEnd, exclusionCalendar);
+				index++;
+			} else if (shape == Shape.LARGE_DESCRIPTIONS) {
+				calendar = createLargeDescriptionCalendar(index, uid, eventStart, eventEnd);
+				index++;
+			} else if (shape == Shape.TIMEZONES) {
+				calendar = createTimezoneCalendar(index, uid, eventStart, eventEnd);
+				index++;
+			} else {
+				calendar = createCalendar(index, uid, eventStart, eventEnd);
+				index++;
+			}
+			resources.add(new CalendarResource("/calendar/" + uid + ".ics", "\"" + resources.size() + "\"", calendar));
+		}
+		return resources;
+	}
+
+	private String createCalendar(int index, String uid, long start, long end) {
+		StringBuilder calendar = new StringBuilder();
+		calendar.append("BEGIN:VCALENDAR").append(CRLF);
+		calendar.append("VERSION:2.0").append(CRLF);
+		calendar.append("PRODID:-//openHAB//Synthetic Corpus//EN").append(CRLF);
+
+		boolean local = index % 3 == 0;
+		if (local) {
+			calendar.append(VTIMEZONE);
+		}
+
+		calendar.append("BEGIN:VEVENT").append(CRLF);
+		calendar.append("UID:").append(uid).append(CRLF);
+		calendar.append("DTSTAMP:").append(utcFormat.format(new Date(start))).append(CRLF);
+		if (local) {
+			calendar.append("DTSTART;TZID=Europe/Berlin:").append(localFormat.format(new Date(start))).append(CRLF);
+			calendar.append("DTEND;TZID=Europe/Berlin:").append(localFormat.format(new Date(end))).append(CRLF);
+		} else {
+			calendar.append("DTSTART:").append(utcFormat.format(new Date(start))).append(CRLF);
+			calendar.append("DTEND:").append(utcFormat.format(new Date(end))).append(CRLF);
+		}
+		if (index % 10 == 0) {
+			calendar.append("RRULE:FREQ=DAILY;COUNT=").append(2 + random.nextInt(10)).append(CRLF);
+		}
+		calendar.append("SUMMARY:Event ").append(index % 50).append(CRLF);
+
+		int kind = random.nextInt(10);
+		if (kind < 5) {
+			calendar.append("DESCRIPTION:send Item_").append(index % 200).append(" ON").append(CRLF);
+		} else if (kind < 8) {
+			calendar.append("DESCRIPTION:start {\\nsend Item_").append(index % 200).append(" ON\\n}\\nend {\\nsend Item_")
+					.append(index % 200).append(" OFF\\n}").append(CRLF);
+		} else if (kind < 9) {
+			calendar.append("CATEGORIES:openhab,synthetic").append(CRLF);
+		}
+		for (int attendee = random.nextInt(4); attendee > 0; attendee--) {
+			calendar.append("ATTENDEE;CN=Attendee ").append(attendee).append(";PARTSTAT=ACCEPTED:mailto:attendee")
+					.append(attendee).append("@example.org").append(CRLF);
+		}
+		if (random.nextBoolean()) {
+			calendar.append("BEGIN:VALARM").append(CRLF);
+			calendar.append("ACTION:DISPLAY").append(CRLF);
+			calendar.append("DESCRIPTION:Reminder").append(CRLF);
+			calendar.append("TRIGGER:-PT15M").append(CRLF);
+			calendar.append("END:VALARM").append(CRLF);
+		}
+		calendar.append("END:VEVENT").append(CRLF);
+		calendar.append("END:VCALENDAR").append(CRLF);
+		return calendar.toString();
+	}
+
+	/**
+	 * Creates the instances of a series as a server returns them when asked
+	 * to expand recurrences: one VEVENT per instance, all with the same UID
+	 * and their own RECURRENCE-ID.
+	 */
+	private String createSeries(int index, String uid, long start, long end, int instances, long interval) {
+		StringBuilder calendar = new StringBuilder();
+		appendHeader(calendar);
+		for (int instance = 0; instance < instances; instance++) {
+			long offset = instance * Math.max(60000, interval / 60000 * 60000);
+			calendar.append("BEGIN:VEVENT").append(CRLF);
+			calendar.append("UID:").append(uid).append(CRLF);
+			calendar.append("DTSTAMP:").append(utcFormat.format(new Date(start))).append(CRLF);
+			calendar.append("RECURRENCE-ID:").append(utcFormat.format(new Date(start + offset))).append(CRLF);
+			calendar.append("DTSTART:").append(utcFormat.format(new Date(start + offset))).append(CRLF);
+			calendar.append("DTEND:").append(utcFormat.format(new Date(end + offset))).append(CRLF);
+			calendar.append("SUMMARY:Series ").append(index % 50).append(CRLF);
+			calendar.append("DESCRIPTION:start {\\nsend Item_").append(index % 200).append(" ON\\n}\\nend {\\nsend Item_")
+					.append(index % 200).append(" OFF\\n}").append(CRLF);
+			calendar.append("END:VEVENT").append(CRLF);
+		}
+		calendar.append("END:VCALENDAR").append(CRLF);
+		return calendar.toString();
+	}
+
+	/**
+	 * Creates either an event without content, which is taken as exclusion
+	 * range, or an event modified by the previous one. As the triggers of a
+	 * modified event only fire within the ranges of its calendar, it starts
+	 * with the range.
+	 */
+	private String createExclusionCalendar(int index, String uid, long start, long end, int exclusionCalendar) {
+		StringBuilder calendar = new StringBuilder();
+		appendHeader(calendar);
+		calendar.append("BEGIN:VEVENT").append(CRLF);
+		calendar.append("UID:").append(uid).append(CRLF);
+		calendar.append("DTSTAMP:").append(utcFormat.format(new Date(start))).append(CRLF);
+		calendar.append("DTSTART:").append(utcFormat.format(new Date(start))).append(CRLF);
+		calendar.append("DTEND:").append(utcFormat.format(new Date(end))).append(CRLF);
+		if (index % 2 == 0) {
+			calendar.append("SUMMARY:Holiday ").append(exclusionCalendar).append(CRLF);
+		} else {
+			calendar.append("SUMMARY:Event ").append(index % 50).append(CRLF);
+			calendar.append("DESCRIPTION:send Item_").append(index % 200).append(" ON\\nmodified by { Holiday ")
+					.append(exclusionCalendar).append(" }").append(CRLF);
+		}
+		calendar.append("END:VEVENT").append(CRLF);
+		calendar.append("END:VCALENDAR").append(CRLF);
+		return calendar.toString();
+	}
+
+	private String createLargeDescriptionCalendar(int index, String uid, long start, long end) {
+		StringBuilder description = new StringBuilder("DESCRIPTION:start {");
+		for (int command = 0; command < LARGE_DESCRIPTION_COMMANDS; command++) {
+			description.append("\\nsend Item_").append((index + command) % 200).append(" ON");
+		}
+		description.append("\\n}\\nend {");
+		for (int command = 0; command < LARGE_DESCRIPTION_COMMANDS; command++) {
+			description.append("\\nsend Item_").append((index + command) % 200).append(" OFF");
+		}
+		description.append("\\n}");
+
+		StringBuilder calendar = new StringBuilder();
+		appendHeader(calendar);
+		calendar.append("BEGIN:VEVENT").append(CRLF);
+		calendar.append("UID:").append(uid).append(CRLF);
+		calendar.append("DTSTAMP:").append(utcFormat.format(new Date(start))).append(CRLF);
+		calendar.append("DTSTART:").append(utcFormat.format(new Date(start))).append(CRLF);
+		calendar.append("DTEND:").append(utcFormat.format(new Date(end))).append(CRLF);
+		calendar.append("SUMMARY:Scene ").append(index % 50).append(CRLF);
+		appendFolded(calendar, description);
+		calendar.append("END:VEVENT").append(CRLF);
+		calendar.append("END:VCALENDAR").append(CRLF);
+		return calendar.toString();
+	}
+
+	/**
+	 * Creates a calendar with the VTIMEZONEs of all zones a calendar client
+	 * knows about, the event uses one of them.
+	 */
+	private String createTimezoneCalendar(int index, String uid, long start, long end) {
+		StringBuilder calendar = new StringBuilder();
+		appendHeader(calendar);
+		for (int zone = 0; zone < TIMEZONES_PER_CALENDAR; zone++) {
+			int offset = zone - TIMEZONES_PER_CALENDAR / 2;
+			String tzOffset = (offset < 0 ? "-" : "+") + (Math.abs(offset) < 10 ? "0" : "") + Math.abs(offset) + "00";
+			calendar.append("BEGIN:VTIMEZONE").append(CRLF);
+			calendar.append("TZID:Synthetic/Zone").append(zone).append(CRLF);
+			calendar.append("BEGIN:STANDARD").append(CRLF);
+			calendar.append("TZOFFSETFROM:").append(tzOffset).append(CRLF);
+			calendar.append("TZOFFSETTO:").append(tzOffset).append(CRLF);
+			calendar.append("TZNAME:Z").append(zone).append(CRLF);
+			calendar.append("DTSTART:19700101T000000").append(CRLF);
+			calendar.append("END:STANDARD").append(CRLF);
+			calendar.append("END:VTIMEZONE").append(CRLF);
+		}
+
+		// the local time of the zone is the UTC time shifted by its offset
+		int zone = random.nextInt(TIMEZONES_PER_CALENDAR);
+		long offset = (zone - TIMEZONES_PER_CALENDAR / 2) * 60L * 60 * 1000;
+		SimpleDateFormat zoneFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
+		zoneFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		calendar.append("BEGIN:VEVENT").append(CRLF);
+		calendar.append("UID:").append(uid).append(CRLF);
+		calendar.append("DTSTAMP:").append(utcFormat.format(new Date(start))).append(CRLF);
+		calendar.append("DTSTART;TZID=Synthetic/Zone").append(zone).append(":").append(zoneFormat.format(new Date(start + offset))).append(CRLF);
+		calendar.append("DTEND;TZID=Synthetic/Zone").append(zone).append(":").append(zoneFormat.format(new Date(end + offset))).append(CRLF);
+		calendar.append("SUMMARY:Event ").append(index % 50).append(CRLF);
+		calendar.append("DESCRIPTION:send Item_").append(index % 200).append(" ON").append(CRLF);
+		calendar.append("END:VEVENT").append(CRLF);
+		calendar.append("END:VCALENDAR").append(CRLF);
+		return calendar.toString();
+	}
+
+	private void appendHeader(StringBuilder calendar) {
+		calendar.append("BEGIN:VCALENDAR").append(CRLF);
+		calendar.append("VERSION:2.0").append(CRLF);
+		calendar.append("PRODID:-//openHAB//Synthetic Corpus//EN").append(CRLF);
+	}
+
+	/**
+	 * Appends a content line folded to lines of {@value #FOLD_LENGTH} chars,
+	 * as calendar servers do.
+	 */
+	private void appendFolded(StringBuilder calendar, CharSequence line) {
+		for (int start = 0; start < line.length(); start += FOLD_LENGTH) {
+			if (start > 0) {
+				calendar.append(' ');
+			}
+			calendar.append(line, start, Math.min(line.length(), start + FOLD_LENGTH)).append(CRLF);
+		}
+	}
+
+}
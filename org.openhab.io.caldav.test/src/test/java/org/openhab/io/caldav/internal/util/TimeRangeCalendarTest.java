@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.lang.math.LongRange;
+import org.junit.Test;
+
+
+/**
+ * Checks that {@link TimeRangeCalendar#updateTimeRanges} reports exactly
+ * the ranges which have been added or removed.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class TimeRangeCalendarTest {
+
+	private static final LongRange MORNING = new LongRange(0, 100);
+	private static final LongRange NOON = new LongRange(200, 300);
+	private static final LongRange EVENING = new LongRange(400, 500);
+
+
+	@Test
+	public void testFirstUpdateReportsAllRanges() {
+		TimeRangeCalendar calendar = new TimeRangeCalendar();
+
+		List<LongRange> changed = calendar.updateTimeRanges(Arrays.asList(MORNING, NOON));
+
+		assertEquals(new HashSet<LongRange>(Arrays.asList(MORNING, NOON)), new HashSet<LongRange>(changed));
+		assertEquals(2, calendar.getExcludedRanges().size());
+	}
+
+	@Test
+	public void testUnchangedRangesAreNotReported() {
+		TimeRangeCalendar calendar = new TimeRangeCalendar();
+		calendar.updateTimeRanges(Arrays.asList(MORNING, NOON));
+
+		// equal but not the same instances, as the next poll creates them
+		List<LongRange> changed = calendar.updateTimeRanges(Arrays.asList(new LongRange(200, 300), new LongRange(0, 100)));
+
+		assertTrue(changed.isEmpty());
+		assertEquals(2, calendar.getExcludedRanges().size());
+	}
+
+	@Test
+	public void testAddedAndRemovedRangesAreReported() {
+		TimeRangeCalendar calendar = new TimeRangeCalendar();
+		calendar.updateTimeRanges(Arrays.asList(MORNING, NOON));
+
+		List<LongRange> changed = calendar.updateTimeRanges(Arrays.asList(NOON, EVENING));
+
+		assertEquals(new HashSet<LongRange>(Arrays.asList(MORNING, EVENING)), new HashSet<LongRange>(changed));
+		assertFalse(calendar.isTimeIncluded(50));
+		assertTrue(calendar.isTimeIncluded(250));
+		assertTrue(calendar.isTimeIncluded(450));
+	}
+
+	@Test
+	public void testMovedRangeIsReportedTwice() {
+		TimeRangeCalendar calendar = new TimeRangeCalendar();
+		calendar.updateTimeRanges(Collections.singletonList(NOON));
+
+		LongRange movedNoon = new LongRange(250, 300);
+		List<LongRange> changed = calendar.updateTimeRanges(Collections.singletonList(movedNoon));
+
+		// the triggers within both the old and the new range have to be rebased
+		assertEquals(new HashSet<LongRange>(Arrays.asList(NOON, movedNoon)), new HashSet<LongRange>(changed));
+		assertFalse(calendar.isTimeIncluded(220));
+		assertTrue(calendar.isTimeIncluded(270));
+	}
+
+	@Test
+	public void testDuplicateRangesAreKeptOnce() {
+		TimeRangeCalendar calendar = new TimeRangeCalendar();
+
+		List<LongRange> changed = calendar.updateTimeRanges(Arrays.asList(NOON, new LongRange(200, 300)));
+
+		assertEquals(Collections.singletonList(NOON), changed);
+		assertEquals(1, calendar.getExcludedRanges().size());
+	}
+
+	@Test
+	public void testCloneIsNotAffectedByUpdates() {
+		TimeRangeCalendar calendar = new TimeRangeCalendar();
+		calendar.updateTimeRanges(Collections.singletonList(NOON));
+		TimeRangeCalendar clone = (TimeRangeCalendar) calendar.clone();
+
+		calendar.updateTimeRanges(Collections.<LongRange>emptyList());
+
+		assertTrue(clone.isTimeIncluded(250));
+		assertFalse(calendar.isTimeIncluded(250));
+	}
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav;
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * An immutable calendar event as downloaded from a CalDav account. The
+ * event covers the half-open interval <code>[start, end)</code>.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CalDavEvent {
+
+	private final String accountId;
+	private final String uid;
+	private final String title;
+	private final String description;
+	private final List<String> categories;
+	private final long start;
+	private final long end;
+
+
+	public CalDavEvent(String accountId, String uid, String title, String description, List<String> categories, long start, long end) {
+		this.accountId = accountId;
+		this.uid = uid;
+		this.title = title;
+		this.description = description;
+		this.categories = Collections.unmodifiableList(categories);
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return the id of the account the event belongs to
+	 */
+	public String getAccountId() {
+		return accountId;
+	}
+
+	public String getUid() {
+		return uid;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public List<String> getCategories() {
+		return categories;
+	}
+
+	/**
+	 * @return the start of the event in milliseconds since the epoch
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the (exclusive) end of the event in milliseconds since the epoch
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return <code>true</code> if the event takes place at <code>time</code>
+	 */
+	public boolean isActiveAt(long time) {
+		return start <= time && time < end;
+	}
+
+	@Override
+	public String toString() {
+		return "CalDavEvent [accountId=" + accountId + ", title=" + title + ", start=" + start + ", end=" + end + "]";
+	}
+
+}
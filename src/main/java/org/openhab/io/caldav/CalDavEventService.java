@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav;
+
+import java.util.List;
+
+
+/**
+ * Answers queries about the events of a CalDav account without contacting
+ * the CalDav server. A service is registered per account, with the account
+ * id as service property {@link #ACCOUNT_PROPERTY}.
+ * <p>
+ * The service knows the events downloaded by the last poll, i.e. the events
+ * starting within the lookahead window of the account (twice its refresh
+ * interval). The events are kept in an immutable index which is replaced as
+ * a whole after each poll, so queries never block and always see a
+ * consistent state.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public interface CalDavEventService {
+
+	/** the service property holding the account id */
+	String ACCOUNT_PROPERTY = "caldav.account";
+
+	/**
+	 * @param time the time in milliseconds since the epoch
+	 * @return the events taking place at <code>time</code>, ordered by start
+	 */
+	List<CalDavEvent> activeAt(long time);
+
+	/**
+	 * @param time the time in milliseconds since the epoch
+	 * @return the first event starting after <code>time</code> or
+	 * <code>null</code> if there is none
+	 */
+	CalDavEvent nextAfter(long time);
+
+	/**
+	 * @param start the start of the range in milliseconds since the epoch
+	 * @param end the (exclusive) end of the range
+	 * @return the events overlapping the range, ordered by start
+	 */
+	List<CalDavEvent> overlapping(long start, long end);
+
+	/**
+	 * @param title the title of the events, compared ignoring case
+	 * @return the events with the given title, ordered by start
+	 */
+	List<CalDavEvent> withTitle(String title);
+
+	/**
+	 * @param category the category, compared ignoring case
+	 * @return the events having the given category, ordered by start
+	 */
+	List<CalDavEvent> withCategory(String category);
+
+	/**
+	 * @return the time of the poll the events have been downloaded by, 0 if
+	 * there hasn't been a poll yet
+	 */
+	long getLastUpdate();
+
+}
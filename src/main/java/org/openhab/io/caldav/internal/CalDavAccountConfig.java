@@ -0,0 +1,341 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import net.fortuna.ical4j.model.Property;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
+import org.openhab.io.caldav.internal.util.QueryFilter;
+import org.osgi.service.cm.ConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The configuration of a CalDav account as an immutable snapshot. A
+ * {@link CalDavEventDownloader} swaps its snapshot as a whole on
+ * reconfiguration, so a poll never sees half of an update. The
+ * <code>isSame...</code> methods tell which subsystems a new snapshot
+ * affects, so that only these are restarted.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CalDavAccountConfig {
+
+	private static final Logger logger = LoggerFactory.getLogger(CalDavAccountConfig.class);
+
+	/** the VEVENT properties the poller can't do without */
+	static final List<String> REQUIRED_EVENT_PROPERTIES = Arrays.asList(Property.UID, Property.SUMMARY,
+			Property.DESCRIPTION, Property.DTSTART, Property.DTEND, Property.DURATION, Property.RECURRENCE_ID);
+
+	/** the VEVENT properties read by the poller and the event service */
+	static final List<String> DEFAULT_EVENT_PROPERTIES = Arrays.asList(Property.UID, Property.SUMMARY,
+			Property.DESCRIPTION, Property.DTSTART, Property.DTEND, Property.DURATION, Property.RECURRENCE_ID,
+			Property.RRULE, Property.RDATE, Property.EXRULE, Property.EXDATE, Property.CATEGORIES, Property.STATUS);
+
+	/** the defaults of an account which hasn't been configured (successfully) */
+	static final CalDavAccountConfig UNCONFIGURED = new CalDavAccountConfig();
+
+	final String host;
+	final int port;
+	final String username;
+	final String password;
+	final String url;
+	final boolean tls;
+	final boolean strictTls;
+
+	/** the trust store to check the server certificate against, <code>null</code> uses the JRE's one */
+	final String trustStore;
+	final String trustStorePassword;
+
+	/** the only certificate the server is trusted with, used if no trust store is set */
+	final String pinnedCertificate;
+
+	/** the refresh interval, default to 900000ms (15 minutes) */
+	final int refreshInterval;
+
+	/** the file the schedule is kept in across restarts, <code>null</code> disables the snapshot */
+	final String persistenceFile;
+
+	/** the file the schedule journal is appended to after each poll, <code>null</code> keeps it in memory only */
+	final String journalFile;
+
+	/** the maximum delay of a missed trigger to still fire it, default to 300000ms (5 minutes) */
+	final long misfireGrace;
+
+	/** the range (in ms) the first poll after a start schedules before the rest is backfilled, 0 polls all at once */
+	final long startupWindow;
+
+	/** the size (in ms) of the time windows the search range is queried in, 0 queries it at once */
+	final long queryWindow;
+
+	/** the maximum number of time windows queried concurrently */
+	final int queryParallelism;
+
+	/** the number of times a failed time window is queried again */
+	final int queryRetries;
+
+	/** the time (in ms) the query of a time window may take */
+	final long queryTimeout;
+
+	/** the time (in ms) the server may stay silent while sending a response */
+	final long readTimeout;
+
+	/** the time (in ms) after which a query is sent a second time, 0 doesn't hedge */
+	final long hedgeDelay;
+
+	/** the number of consecutive failed requests which open the circuit to the server */
+	final int circuitFailures;
+
+	/** the time (in ms) the circuit stays open before the server is probed again */
+	final long circuitOpenTime;
+
+	/** the conditions the server filters the events by, as configured */
+	final String filter;
+
+	/** the conditions the server filters the events by */
+	final QueryFilter queryFilter;
+
+	/** the VEVENT properties downloaded, <code>null</code> downloads the complete calendar data */
+	final List<String> eventProperties;
+
+	/** the maximum length (in chars) of a description, longer events are quarantined, 0 disables the limit */
+	final int maxDescriptionSize;
+
+	/** the maximum number of commands of an event, events with more are quarantined, 0 disables the limit */
+	final int maxCommands;
+
+	/** the maximum number of events of a poll, further events are dropped, 0 disables the limit */
+	final int maxEvents;
+
+
+	private CalDavAccountConfig() {
+		host = "";
+		port = 0;
+		username = "";
+		password = "";
+		url = "";
+		tls = true;
+		strictTls = true;
+		trustStore = null;
+		trustStorePassword = null;
+		pinnedCertificate = null;
+		refreshInterval = 900000;
+		persistenceFile = null;
+		journalFile = null;
+		misfireGrace = 300000;
+		startupWindow = 3600000;
+		queryWindow = 0;
+		queryParallelism = 2;
+		queryRetries = 2;
+		queryTimeout = 60000;
+		readTimeout = 30000;
+		hedgeDelay = 10000;
+		circuitFailures = 5;
+		circuitOpenTime = 300000;
+		filter = null;
+		queryFilter = QueryFilter.NONE;
+		eventProperties = DEFAULT_EVENT_PROPERTIES;
+		maxDescriptionSize = 65536;
+		maxCommands = 1000;
+		maxEvents = 20000;
+	}
+
+	/**
+	 * Parses the configuration of an account, parameters which aren't set
+	 * take their defaults.
+	 *
+	 * @param config the configuration of <code>openhab.cfg</code> or of a
+	 * factory configuration
+	 * @throws ConfigurationException if a parameter is missing or invalid
+	 */
+	CalDavAccountConfig(Dictionary<String, ?> config) throws ConfigurationException {
+		username = (String) config.get("username");
+		if (StringUtils.isBlank(username)) {
+			throw new ConfigurationException("caldav:username", "username must not be blank - please configure an aproppriate username in openhab.cfg");
+		}
+		logger.trace("username: {}", username);
+
+		password = (String) config.get("password");
+		if (StringUtils.isBlank(password)) {
+			throw new ConfigurationException("caldav:password", "password must not be blank - please configure an aproppriate password in openhab.cfg");
+		}
+		logger.trace("password: {}", password);
+
+		host = (String) config.get("host");
+		if (StringUtils.isBlank(host)) {
+			throw new ConfigurationException("caldav:host", "host must not be blank - please configure an aproppriate host in openhab.cfg");
+		}
+		logger.trace("host: {}", host);
+
+		String tlsString = (String) config.get("tls");
+		tls = StringUtils.isNotBlank(tlsString) ? Boolean.parseBoolean(tlsString) : true;
+		logger.trace("tls: {}", tls);
+
+		String strictTlsString = (String) config.get("strict-tls");
+		strictTls = StringUtils.isNotBlank(strictTlsString) ? Boolean.parseBoolean(strictTlsString) : true;
+		logger.trace("strictTls: {}", strictTls);
+
+		trustStore = StringUtils.trimToNull((String) config.get("truststore"));
+		trustStorePassword = (String) config.get("truststore-password");
+		pinnedCertificate = StringUtils.trimToNull((String) config.get("pinned-certificate"));
+		logger.trace("trustStore: {}, pinnedCertificate: {}", trustStore, pinnedCertificate);
+
+		port = parseInt(config, "port", tls ? 443 : 80);
+		logger.trace("port: {}", port);
+
+		url = (String) config.get("url");
+		if (StringUtils.isBlank(url)) {
+			throw new ConfigurationException("caldav:url", "url must not be blank - please configure an aproppriate url in openhab.cfg");
+		}
+		logger.trace("url: {}", url);
+
+		refreshInterval = parseInt(config, "refresh", UNCONFIGURED.refreshInterval / 1000) * 1000;
+		logger.trace("refreshInterval: {}ms", refreshInterval);
+
+		persistenceFile = StringUtils.trimToNull((String) config.get("persistence-file"));
+		logger.trace("persistenceFile: {}", persistenceFile);
+
+		journalFile = StringUtils.trimToNull((String) config.get("journal-file"));
+		logger.trace("journalFile: {}", journalFile);
+
+		misfireGrace = parseInt(config, "misfire-grace", (int) (UNCONFIGURED.misfireGrace / 1000)) * 1000L;
+		logger.trace("misfireGrace: {}ms", misfireGrace);
+
+		startupWindow = parseInt(config, "startup-window", (int) (UNCONFIGURED.startupWindow / 1000)) * 1000L;
+		logger.trace("startupWindow: {}ms", startupWindow);
+
+		queryWindow = parseInt(config, "query-window", (int) (UNCONFIGURED.queryWindow / 1000)) * 1000L;
+		queryParallelism = parseInt(config, "query-parallelism", UNCONFIGURED.queryParallelism);
+		queryRetries = parseInt(config, "query-retries", UNCONFIGURED.queryRetries);
+		queryTimeout = parseInt(config, "query-timeout", (int) (UNCONFIGURED.queryTimeout / 1000)) * 1000L;
+		readTimeout = parseInt(config, "read-timeout", (int) (UNCONFIGURED.readTimeout / 1000)) * 1000L;
+		hedgeDelay = parseInt(config, "hedge-delay", (int) (UNCONFIGURED.hedgeDelay / 1000)) * 1000L;
+		circuitFailures = parseInt(config, "circuit-failures", UNCONFIGURED.circuitFailures);
+		circuitOpenTime = parseInt(config, "circuit-open-time", (int) (UNCONFIGURED.circuitOpenTime / 1000)) * 1000L;
+		logger.trace("queryWindow: {}ms, queryParallelism: {}, queryRetries: {}, queryTimeout: {}ms",
+				new Object[] { queryWindow, queryParallelism, queryRetries, queryTimeout });
+		logger.trace("readTimeout: {}ms, hedgeDelay: {}ms, circuitFailures: {}, circuitOpenTime: {}ms",
+				new Object[] { readTimeout, hedgeDelay, circuitFailures, circuitOpenTime });
+
+		filter = StringUtils.trimToNull((String) config.get("filter"));
+		try {
+			queryFilter = QueryFilter.parse(filter);
+		}
+		catch (IllegalArgumentException iae) {
+			throw new ConfigurationException("caldav:filter", iae.getMessage());
+		}
+		logger.trace("filter: {}", queryFilter);
+
+		String eventPropertiesString = (String) config.get("event-properties");
+		if (StringUtils.isBlank(eventPropertiesString)) {
+			eventProperties = DEFAULT_EVENT_PROPERTIES;
+		} else if ("*".equals(eventPropertiesString.trim())) {
+			eventProperties = null;
+		} else {
+			Set<String> properties = new LinkedHashSet<String>(REQUIRED_EVENT_PROPERTIES);
+			for (String property : StringUtils.split(eventPropertiesString, ',')) {
+				if (StringUtils.isNotBlank(property)) {
+					properties.add(property.trim().toUpperCase(Locale.ENGLISH));
+				}
+			}
+			eventProperties = Collections.unmodifiableList(new ArrayList<String>(properties));
+		}
+		logger.trace("eventProperties: {}", eventProperties);
+
+		maxDescriptionSize = parseInt(config, "max-description-size", UNCONFIGURED.maxDescriptionSize);
+		maxCommands = parseInt(config, "max-commands", UNCONFIGURED.maxCommands);
+		maxEvents = parseInt(config, "max-events", UNCONFIGURED.maxEvents);
+		logger.trace("maxDescriptionSize: {}, maxCommands: {}, maxEvents: {}",
+				new Object[] { maxDescriptionSize, maxCommands, maxEvents });
+	}
+
+	private static int parseInt(Dictionary<String, ?> config, String key, int defaultValue) throws ConfigurationException {
+		String value = (String) config.get(key);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException nfe) {
+			throw new ConfigurationException("caldav:" + key, "'" + value + "' is not an integer");
+		}
+	}
+
+	/**
+	 * Logs the warnings about the disabled certificate checks of this configuration.
+	 */
+	void logSecurityWarnings() {
+		if(!tls) {
+			logger.warn("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+			logger.warn("!!  You have disabled tls/ssl for CalDav-EventDownloader. Calendar data is exchanged unencrypted. !!");
+			logger.warn("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+		}
+
+		if(!strictTls && tls) {
+			logger.warn("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+			logger.warn("!!  You have disabled strict certificate checking by setting strict-tls to false.    !!");
+			logger.warn("!!  Actually all checking for certificates in CalDav-EventDownloader is disabled now !!");
+			logger.warn("!!  - which means that there is no real security - as you accept any certificate,    !!");
+			logger.warn("!!  even those which might be injected for Man-In The Middle-Attacks - try to        !!");
+			logger.warn("!!  Register your certificate to your java certificate store, caldav:truststore      !!");
+			logger.warn("!!  or caldav:pinned-certificate and set strict-tls to true. Disabling the tls       !!");
+			logger.warn("!!  checking is just meant for debugging purposes.                                   !!");
+			logger.warn("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+		}
+
+		if (strictTls && trustStore != null && pinnedCertificate != null) {
+			logger.warn("both caldav:truststore and caldav:pinned-certificate are set - the pinned certificate is ignored");
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if both configurations connect to the same
+	 * collection in the same way, i.e. the transport (and the state of its
+	 * circuit breaker) may be kept
+	 */
+	boolean isSameConnection(CalDavAccountConfig other) {
+		return StringUtils.equals(host, other.host) && port == other.port && StringUtils.equals(url, other.url)
+				&& StringUtils.equals(username, other.username) && StringUtils.equals(password, other.password)
+				&& tls == other.tls && strictTls == other.strictTls && StringUtils.equals(trustStore, other.trustStore)
+				&& StringUtils.equals(trustStorePassword, other.trustStorePassword)
+				&& StringUtils.equals(pinnedCertificate, other.pinnedCertificate) && readTimeout == other.readTimeout
+				&& circuitFailures == other.circuitFailures && circuitOpenTime == other.circuitOpenTime;
+	}
+
+	/**
+	 * @return <code>true</code> if both configurations download and plan the
+	 * same events in the same way, i.e. the scheduled jobs stay valid
+	 */
+	boolean isSamePlan(CalDavAccountConfig other) {
+		return StringUtils.equals(filter, other.filter) && ObjectUtils.equals(eventProperties, other.eventProperties)
+				&& misfireGrace == other.misfireGrace && StringUtils.equals(persistenceFile, other.persistenceFile)
+				&& maxDescriptionSize == other.maxDescriptionSize && maxCommands == other.maxCommands && maxEvents == other.maxEvents;
+	}
+
+	/**
+	 * @return a short description of the configured CalDav collection
+	 */
+	String getCollectionInfo() {
+		return (tls ? "https" : "http") + "://" + host + ":" + port + url;
+	}
+
+}
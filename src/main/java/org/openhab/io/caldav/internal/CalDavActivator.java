@@ -8,8 +8,11 @@
  */
 package org.openhab.io.caldav.internal;
 
+import org.openhab.core.events.EventPublisher;
+import org.openhab.core.items.ItemRegistry;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,11 +30,24 @@ public final class CalDavActivator implements BundleActivator {
 	
 	private static BundleContext context;
 	
+	private static ServiceTracker eventPublisherTracker;
+	
+	private static ServiceTracker itemRegistryTracker;
+	
+	private static long startTime = 0;
+	
 	/**
 	 * Called whenever the OSGi framework starts our bundle
 	 */
 	public void start(BundleContext bc) throws Exception {
 		context = bc;
+		startTime = System.currentTimeMillis();
+		
+		eventPublisherTracker = new ServiceTracker(bc, EventPublisher.class.getName(), null);
+		eventPublisherTracker.open();
+		itemRegistryTracker = new ServiceTracker(bc, ItemRegistry.class.getName(), null);
+		itemRegistryTracker.open();
+		
 		logger.debug("CalDav Calendar IO has been started.");
 	}
 
@@ -39,7 +55,13 @@ public final class CalDavActivator implements BundleActivator {
 	 * Called whenever the OSGi framework stops our bundle
 	 */
 	public void stop(BundleContext bc) throws Exception {
+		eventPublisherTracker.close();
+		eventPublisherTracker = null;
+		itemRegistryTracker.close();
+		itemRegistryTracker = null;
+		
 		context = null;
+		startTime = 0;
 		logger.debug("CalDav Calendar IO has been stopped.");
 	}
 	
@@ -51,5 +73,31 @@ public final class CalDavActivator implements BundleActivator {
 		return context;
 	}
 	
+	/**
+	 * Returns the time our bundle has been started at
+	 * @return the start time or <code>0</code> if the bundle isn't started
+	 */
+	public static long getStartTime() {
+		return startTime;
+	}
+	
+	/**
+	 * Returns the event publisher of the openHAB event bus
+	 * @return the event publisher or <code>null</code> if it isn't available
+	 */
+	public static EventPublisher getEventPublisher() {
+		ServiceTracker tracker = eventPublisherTracker;
+		return tracker == null ? null : (EventPublisher) tracker.getService();
+	}
+	
+	/**
+	 * Returns the item registry
+	 * @return the item registry or <code>null</code> if it isn't available
+	 */
+	public static ItemRegistry getItemRegistry() {
+		ServiceTracker tracker = itemRegistryTracker;
+		return tracker == null ? null : (ItemRegistry) tracker.getService();
+	}
+	
 	
 }
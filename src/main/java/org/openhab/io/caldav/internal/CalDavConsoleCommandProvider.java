@@ -0,0 +1,307 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.lang.StringUtils;
+import org.eclipse.osgi.framework.console.CommandInterpreter;
+import org.eclipse.osgi.framework.console.CommandProvider;
+import org.openhab.io.caldav.internal.transport.CircuitBreakerTransport;
+import org.openhab.io.caldav.internal.util.CachingTimeZoneRegistry;
+import org.openhab.io.caldav.internal.util.CommandDispatcher;
+import org.openhab.io.caldav.internal.util.CommandStatistics;
+import org.openhab.io.caldav.internal.util.CommandStatistics.CommandTiming;
+import org.openhab.io.caldav.internal.util.LeaderLease;
+import org.openhab.io.caldav.internal.util.PollStatistics;
+import org.openhab.io.caldav.internal.util.PollStatistics.ScheduledFireTime;
+import org.openhab.io.caldav.internal.util.RateLimiter;
+import org.openhab.io.caldav.internal.util.ScheduleJournal;
+import org.osaf.caldav4j.exceptions.CalDAV4JException;
+
+
+/**
+ * Provides the <code>caldav</code> command on the OSGi console. All
+ * information is read from the in-memory statistics of the
+ * {@link CalDavEventDownloader}s, so none of the commands (except
+ * <code>sync</code> and <code>measure</code>) touches the CalDav server or
+ * the scheduler. <code>sync</code> polls on the poll threads in the
+ * background, <code>measure</code> blocks the console until it is done.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CalDavConsoleCommandProvider implements CommandProvider {
+
+	private static final int DEFAULT_JOB_LIMIT = 20;
+
+	private static final int DEFAULT_JOURNAL_HOURS = 24;
+
+	/** the most recent journal entries <code>journal</code> lists at most */
+	private static final int JOURNAL_ENTRY_LIMIT = 100;
+
+	/** the uid argument of <code>journal</code> which matches all events */
+	private static final String ALL_EVENTS = "*";
+
+	private volatile CalDavEventDownloaderFactory downloaderFactory;
+
+
+	public void setDownloaderFactory(CalDavEventDownloaderFactory downloaderFactory) {
+		this.downloaderFactory = downloaderFactory;
+	}
+
+	public void unsetDownloaderFactory(CalDavEventDownloaderFactory downloaderFactory) {
+		if (this.downloaderFactory == downloaderFactory) {
+			this.downloaderFactory = null;
+		}
+	}
+
+	/**
+	 * Handles the <code>caldav</code> command.
+	 *
+	 * @param interpreter the interpreter to read the arguments from and to
+	 * write the output to
+	 */
+	public void _caldav(CommandInterpreter interpreter) {
+		String subCommand = interpreter.nextArgument();
+
+		if ("status".equals(subCommand)) {
+			for (CalDavEventDownloader downloader : getDownloaders(interpreter, interpreter.nextArgument())) {
+				printStatus(interpreter, downloader);
+			}
+		} else if ("sync".equals(subCommand)) {
+			for (CalDavEventDownloader downloader : getDownloaders(interpreter, interpreter.nextArgument())) {
+				downloader.pollNow();
+				interpreter.println("polling " + downloader.getCollectionInfo() + " in the background, 'caldav status "
+					+ downloader.getAccountId() + "' shows the result");
+			}
+		} else if ("measure".equals(subCommand)) {
+			for (CalDavEventDownloader downloader : getDownloaders(interpreter, interpreter.nextArgument())) {
+				printCalendarDataMeasurement(interpreter, downloader);
+			}
+		} else if ("journal".equals(subCommand)) {
+			String accountId = interpreter.nextArgument();
+			String uid = interpreter.nextArgument();
+			String hoursString = interpreter.nextArgument();
+			int hours = hoursString != null ? parsePositive(hoursString) : DEFAULT_JOURNAL_HOURS;
+			if (hours <= 0) {
+				interpreter.println("'" + hoursString + "' isn't a number of hours");
+				interpreter.println(getHelp());
+				return;
+			}
+			for (CalDavEventDownloader downloader : getDownloaders(interpreter, accountId)) {
+				printJournal(interpreter, downloader, ALL_EVENTS.equals(uid) ? null : uid, hours);
+			}
+		} else if ("quarantine".equals(subCommand)) {
+			for (CalDavEventDownloader downloader : getDownloaders(interpreter, interpreter.nextArgument())) {
+				printQuarantine(interpreter, downloader);
+			}
+		} else if ("jobs".equals(subCommand)) {
+			String filter = interpreter.nextArgument();
+			for (CalDavEventDownloader downloader : getDownloaders(interpreter, null)) {
+				printJobs(interpreter, downloader, filter);
+			}
+		} else if ("stats".equals(subCommand)) {
+			for (CalDavEventDownloader downloader : getDownloaders(interpreter, null)) {
+				printPollStats(interpreter, downloader);
+			}
+			printCommandStats(interpreter);
+			interpreter.println("cached timezones:     " + CachingTimeZoneRegistry.getCachedTimeZoneCount());
+		} else {
+			interpreter.println(getHelp());
+		}
+	}
+
+	/**
+	 * Returns the downloader of the given account or all downloaders if no
+	 * account is given.
+	 */
+	private List<CalDavEventDownloader> getDownloaders(CommandInterpreter interpreter, String accountId) {
+		List<CalDavEventDownloader> downloaders = new ArrayList<CalDavEventDownloader>();
+		CalDavEventDownloaderFactory factory = downloaderFactory;
+		if (factory == null) {
+			interpreter.println("the CalDav event downloader isn't running");
+			return downloaders;
+		}
+		for (CalDavEventDownloader downloader : factory.getDownloaders()) {
+			if (accountId == null || accountId.equals(downloader.getAccountId())) {
+				downloaders.add(downloader);
+			}
+		}
+		if (downloaders.isEmpty()) {
+			interpreter.println(accountId == null ? "there are no CalDav accounts configured" : "there is no CalDav account '" + accountId + "'");
+		}
+		return downloaders;
+	}
+
+	private void printStatus(CommandInterpreter interpreter, CalDavEventDownloader downloader) {
+		PollStatistics statistics = downloader.getPollStatistics();
+
+		interpreter.println("[" + downloader.getAccountId() + "]");
+		interpreter.println("collection:          " + downloader.getCollectionInfo());
+		interpreter.println("properly configured: " + downloader.isProperlyConfigured());
+		LeaderLease lease = LeaderLease.getInstance();
+		interpreter.println("cluster lease:       " + (lease == null ? "-" : lease.toString()));
+		CircuitBreakerTransport circuitBreaker = downloader.getCircuitBreaker();
+		interpreter.println("trigger engine:      " + downloader.getTriggerEngine());
+		interpreter.println("circuit breaker:     " + (circuitBreaker == null ? "-" : circuitBreaker.toString()));
+		interpreter.println("last poll:           " + formatTime(statistics.getLastPollTime()));
+		interpreter.println("last poll duration:  " + statistics.getLastPollDuration() + "ms");
+		for (Entry<String, Long> stage : statistics.getLastStages().entrySet()) {
+			interpreter.println("  " + StringUtils.rightPad(stage.getKey() + ":", 18) + stage.getValue() + "ms");
+		}
+		interpreter.println("sync state:          ctag/sync-token not tracked, full time-range query per poll");
+		interpreter.println("downloaded events:   " + statistics.getLastEventCount());
+		interpreter.println("indexed events:      " + downloader.getEventIndex().size());
+		interpreter.println("exclusion calendars: " + downloader.getExclusionCalendarCount());
+		interpreter.println("quarantined events:  " + downloader.getQuarantinedEvents().size()
+			+ (downloader.getDroppedEventCount() > 0 ? " (" + downloader.getDroppedEventCount() + " dropped beyond max-events)" : ""));
+		interpreter.println("scheduled triggers:  " + statistics.getScheduleIndex().countAfter(System.currentTimeMillis()));
+		long armedTime = statistics.getFirstTriggerArmedTime();
+		long startTime = CalDavActivator.getStartTime();
+		interpreter.println("first trigger armed: " + formatTime(armedTime)
+			+ (armedTime > 0 && startTime > 0 ? " (" + (armedTime - startTime) + "ms after bundle start)" : ""));
+	}
+
+	private void printCalendarDataMeasurement(CommandInterpreter interpreter, CalDavEventDownloader downloader) {
+		interpreter.println("[" + downloader.getAccountId() + "]");
+		interpreter.println("downloading " + downloader.getCollectionInfo() + " with complete and partial calendar data ...");
+		try {
+			interpreter.println(downloader.measureCalendarData().toString());
+		}
+		catch (ExecutionException ee) {
+			interpreter.println("downloading the calendar data fails: " + ee.getCause());
+		}
+		catch (CalDAV4JException ce) {
+			interpreter.println("creating the query fails: " + ce.getMessage());
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void printJobs(CommandInterpreter interpreter, CalDavEventDownloader downloader, String filter) {
+		List<ScheduledFireTime> fireTimes = downloader.getPollStatistics().getScheduleIndex()
+				.nextFireTimes(System.currentTimeMillis(), filter, DEFAULT_JOB_LIMIT);
+
+		interpreter.println("[" + downloader.getAccountId() + "]");
+		if (fireTimes.isEmpty()) {
+			interpreter.println("there are no scheduled triggers" + (filter == null ? "" : " matching '" + filter + "'"));
+			return;
+		}
+		for (ScheduledFireTime fireTime : fireTimes) {
+			interpreter.println(formatTime(fireTime.fireTime) + "  " + fireTime.jobName);
+		}
+	}
+
+	private void printQuarantine(CommandInterpreter interpreter, CalDavEventDownloader downloader) {
+		interpreter.println("[" + downloader.getAccountId() + "]");
+		Map<String, String> quarantinedEvents = downloader.getQuarantinedEvents();
+		if (quarantinedEvents.isEmpty()) {
+			interpreter.println("there are no quarantined events");
+		}
+		for (Entry<String, String> entry : quarantinedEvents.entrySet()) {
+			interpreter.println(entry.getKey() + "  " + entry.getValue());
+		}
+		if (downloader.getDroppedEventCount() > 0) {
+			interpreter.println(downloader.getDroppedEventCount() + " events dropped beyond max-events");
+		}
+	}
+
+	private void printJournal(CommandInterpreter interpreter, CalDavEventDownloader downloader, String uid, int hours) {
+		long now = System.currentTimeMillis();
+		ScheduleJournal journal = downloader.getJournal();
+		List<ScheduleJournal.Entry> entries = journal.query(uid, now - hours * 60L * 60 * 1000, now);
+
+		interpreter.println("[" + downloader.getAccountId() + "]");
+		if (entries.isEmpty()) {
+			interpreter.println("there are no decisions of the last " + hours + " hours" + (uid == null ? "" : " about '" + uid + "'"));
+			return;
+		}
+		if (entries.size() > JOURNAL_ENTRY_LIMIT) {
+			interpreter.println("... " + (entries.size() - JOURNAL_ENTRY_LIMIT) + " older");
+		}
+		for (ScheduleJournal.Entry entry : entries.subList(Math.max(0, entries.size() - JOURNAL_ENTRY_LIMIT), entries.size())) {
+			interpreter.println(entry.toString());
+		}
+		interpreter.println(journal.size() + " of " + journal.getCapacity() + " journal entries in use");
+	}
+
+	private void printPollStats(CommandInterpreter interpreter, CalDavEventDownloader downloader) {
+		PollStatistics statistics = downloader.getPollStatistics();
+
+		interpreter.println("[" + downloader.getAccountId() + "]");
+		interpreter.println("polls:                " + statistics.getPollCount());
+		interpreter.println("poll duration avg/max: " + statistics.getAveragePollDuration() + "ms / " + statistics.getMaxPollDuration() + "ms");
+	}
+
+	private void printCommandStats(CommandInterpreter interpreter) {
+		interpreter.println("executed commands:    " + CommandStatistics.getExecutedCommands()
+				+ " (" + CommandStatistics.getFailedCommands() + " failed, " + CommandStatistics.getPublishedCommands()
+				+ " published directly, avg " + CommandStatistics.getAverageDuration() + "ms)");
+		CommandDispatcher dispatcher = CommandDispatcher.getInstance();
+		if (dispatcher != null) {
+			interpreter.println("dispatch queue depths: " + Arrays.toString(dispatcher.getQueueDepths()));
+		}
+		for (RateLimiter limiter : CommandDispatcher.getRateLimiters()) {
+			interpreter.println("rate limit " + limiter + ": " + limiter.getPassedCommands() + " passed, "
+				+ limiter.getDroppedCommands() + " dropped, " + limiter.getPending() + " waiting, queueing delay avg "
+				+ limiter.getAverageDelay() + "ms max " + limiter.getMaxDelay() + "ms");
+		}
+		interpreter.println("slowest commands:");
+		for (CommandTiming timing : CommandStatistics.getSlowestCommands()) {
+			interpreter.println("  " + StringUtils.leftPad(timing.duration + "ms", 8) + "  "
+				+ formatTime(timing.executionTime) + "  " + timing.command);
+		}
+	}
+
+	/**
+	 * @return the positive number or <code>-1</code> if <code>string</code>
+	 * isn't one
+	 */
+	private int parsePositive(String string) {
+		try {
+			return Math.max(-1, Integer.parseInt(string));
+		}
+		catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+
+	private String formatTime(long time) {
+		if (time <= 0) {
+			return "never";
+		}
+		return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(time));
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public String getHelp() {
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("---CalDav commands---\n\t");
+		buffer.append("caldav status [account] - shows the state and timing of the last poll\n\t");
+		buffer.append("caldav sync [account] - polls the CalDav calendar right now, in the background\n\t");
+		buffer.append("caldav measure [account] - compares the size and parse time of complete and partial calendar data (blocks the console while downloading)\n\t");
+		buffer.append("caldav journal <account> [uid|*] [hours] - lists the schedule decisions of the last " + DEFAULT_JOURNAL_HOURS + " hours (about the event uid)\n\t");
+		buffer.append("caldav quarantine [account] - lists the events exceeding the configured limits, which aren't scheduled\n\t");
+		buffer.append("caldav jobs [filter] - lists the next " + DEFAULT_JOB_LIMIT + " fire times (of jobs matching filter) per account\n\t");
+		buffer.append("caldav stats - shows poll and command execution statistics\n");
+		return buffer.toString();
+	}
+
+}
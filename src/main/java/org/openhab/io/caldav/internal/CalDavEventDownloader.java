@@ -9,32 +9,48 @@
 package org.openhab.io.caldav.internal;
 
 import static org.quartz.JobBuilder.newJob;
+import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
 import static org.quartz.TriggerBuilder.newTrigger;
-import static org.quartz.impl.matchers.GroupMatcher.jobGroupEquals;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Dictionary;
-import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.annotation.meta.When;
 
+import net.fortuna.ical4j.data.CalendarBuilder;
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.Component;
 import net.fortuna.ical4j.model.ComponentList;
+import net.fortuna.ical4j.model.Property;
 import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.Categories;
 
-import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnectionManager;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.protocol.Protocol;
@@ -42,26 +58,46 @@ import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.LongRange;
 import org.joda.time.DateTime;
-import org.openhab.core.service.AbstractActiveService;
+import org.openhab.io.caldav.CalDavEvent;
+import org.openhab.io.caldav.CalDavEventService;
+import org.openhab.io.caldav.internal.engine.TriggerEngine;
+import org.openhab.io.caldav.internal.transport.CalendarResource;
+import org.openhab.io.caldav.internal.transport.CircuitBreakerTransport;
+import org.openhab.io.caldav.internal.transport.CircuitOpenException;
+import org.openhab.io.caldav.internal.transport.HttpClientTransport;
+import org.openhab.io.caldav.internal.transport.ShardedQuery;
+import org.openhab.io.caldav.internal.util.CalendarDataMeasurement;
+import org.openhab.io.caldav.internal.util.CalendarDataScanner;
+import org.openhab.io.caldav.internal.util.EventIndex;
 import org.openhab.io.caldav.internal.util.ExecuteCommandJob;
+import org.openhab.io.caldav.internal.util.LeaderLease;
+import org.openhab.io.caldav.internal.util.PersistentScheduleStore;
+import org.openhab.io.caldav.internal.util.PersistentScheduleStore.StoredSchedule;
+import org.openhab.io.caldav.internal.util.PersistentScheduleStore.StoredTrigger;
+import org.openhab.io.caldav.internal.util.ParallelCalendarParser;
+import org.openhab.io.caldav.internal.util.PollStatistics;
+import org.openhab.io.caldav.internal.util.QueryFilter;
+import org.openhab.io.caldav.internal.util.ScheduleJournal;
+import org.openhab.io.caldav.internal.util.ScheduleJournal.Decision;
 import org.openhab.io.caldav.internal.util.TimeRangeCalendar;
 import org.openhab.io.caldav.util.EasySSLProtocolSocketFactory;
-import org.osaf.caldav4j.CalDAVCollection;
-import org.osaf.caldav4j.CalDAVConstants;
+import org.openhab.io.caldav.util.TrustedSSLProtocolSocketFactory;
 import org.osaf.caldav4j.exceptions.CalDAV4JException;
-import org.osaf.caldav4j.methods.CalDAV4JMethodFactory;
 import org.osaf.caldav4j.methods.HttpClient;
+import org.osaf.caldav4j.model.request.CalDAVProp;
 import org.osaf.caldav4j.model.request.CalendarQuery;
+import org.osaf.caldav4j.model.request.Comp;
 import org.osaf.caldav4j.util.GenerateQuery;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.cm.ConfigurationException;
-import org.osgi.service.cm.ManagedService;
 import org.quartz.Job;
 import org.quartz.JobDetail;
 import org.quartz.JobKey;
-import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
+import org.quartz.SimpleTrigger;
 import org.quartz.Trigger;
-import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.TriggerBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -69,34 +105,140 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Service which downloads Calendar events, parses their content and creates
- * Quartz-jobs and triggers out of them.
+ * Downloads the Calendar events of a single CalDav account, parses their
+ * content and creates Quartz-jobs and triggers out of them. Instances are
+ * created and configured by the {@link CalDavEventDownloaderFactory} which
+ * also provides the resources shared by all accounts.
  * 
  * this code is derived from GCal implementation written by Thomas.Eichstaedt-Engelen
  * @author Thomas.Schmidt
  * @since 1.8.0
  */
-public class CalDavEventDownloader extends AbstractActiveService implements ManagedService {
+public class CalDavEventDownloader {
 
 	private static final String CALDAV_SCHEDULER_GROUP = "caldav";
 
+	/** the priority of the triggers of end commands, higher than the default of start commands */
+	private static final int END_TRIGGER_PRIORITY = Trigger.DEFAULT_PRIORITY + 1;
+
+	private static final String CALDAV_NAMESPACE_QUALIFIER = "C";
+
+	/** the number of decisions the schedule journal of an account keeps */
+	private static final int JOURNAL_CAPACITY = 4096;
+
+	/** the length (in chars) event contents are abbreviated to in the log */
+	private static final int LOGGED_CONTENT_LENGTH = 200;
+
 	private static final Logger logger = LoggerFactory.getLogger(CalDavEventDownloader.class);
 
-	private static String host = "";
-	private static int port = 0;
-	private static String username = "";
-	private static String password = "";
-	private static String url = "";
-	private static boolean tls = true;
-	private static boolean strictTls = true;
+	/**
+	 * holds the socket factory used with <code>strict-tls=false</code>. It is
+	 * shared, so that its SSL context is set up once only.
+	 */
+	private static final ProtocolSocketFactory EASY_SOCKET_FACTORY = new EasySSLProtocolSocketFactory();
+
+	/**
+	 * the configuration of this account, swapped as a whole on reconfiguration.
+	 * It is written after <code>transport</code> and read before it, so a
+	 * reader seeing a new configuration sees its transport as well.
+	 */
+	private volatile CalDavAccountConfig config = CalDavAccountConfig.UNCONFIGURED;
+
+	/** the id of the account this downloader polls */
+	private final String accountId;
+
+	/** the group of the jobs of this account */
+	private final String schedulerGroup;
+
+	/** the group of the jobs which catch up triggers missed while openHAB was down */
+	private final String misfireGroup;
 
+	/** holds the trigger engine shared by all accounts */
+	private TriggerEngine triggerEngine;
 
-	/** holds the current refresh interval, default to 900000ms (15 minutes) */
-	public static int refreshInterval = 900000;
+	/** holds the executor which runs the polls of all accounts */
+	private final ScheduledExecutorService pollExecutor;
 
+	/** holds the executor which runs the requests to the CalDav servers of all accounts */
+	private final ExecutorService workerExecutor;
 
-	/** holds the local quartz scheduler instance */
-	private Scheduler scheduler;
+	/** holds the http connection pool shared by all accounts */
+	private final HttpConnectionManager connectionManager;
+
+	/** the transport to the CalDav collection, created on configuration */
+	private volatile CircuitBreakerTransport transport;
+
+	/** the poll task of this account, <code>null</code> if not started */
+	private ScheduledFuture<?> pollTask;
+
+	/**
+	 * guards <code>pollTask</code>, so that a reconfiguration reschedules the
+	 * polls without waiting for a running poll
+	 */
+	private final Object pollLock = new Object();
+
+	/** serializes the reconfigurations of this account */
+	private final Object configLock = new Object();
+
+	/**
+	 * holds the exclusion calendars (by calendar name) which have been added to
+	 * the scheduler. They are kept across polls and updated incrementally.
+	 */
+	private final Map<String, TimeRangeCalendar> exclusionCalendars = new HashMap<String, TimeRangeCalendar>();
+
+	/**
+	 * holds the fingerprints (see {@link #createFingerprint(JobDetail, List)})
+	 * of the jobs of <code>schedulerGroup</code> which have been handed over
+	 * to the {@link TriggerEngine}. The jobs are kept across polls, only new
+	 * and changed ones are scheduled again.
+	 */
+	private final Map<JobKey, String> scheduledJobs = new HashMap<JobKey, String>();
+
+	/** holds the store the schedule snapshot is kept in */
+	private PersistentScheduleStore scheduleStore;
+
+	/** whether the schedule snapshot has already been restored */
+	private boolean scheduleRestored = false;
+
+	/** whether the first poll after the start has completed, including the backfill */
+	private boolean startupCompleted = false;
+
+	/**
+	 * holds the events of the startup window while the rest of the search
+	 * range is backfilled, <code>null</code> if no backfill is pending
+	 */
+	private EventCollector backfillCollector;
+
+	/** the range (in ms) the pending backfill downloads */
+	private long backfillStart;
+	private long backfillEnd;
+
+	/** the modification time of the schedule snapshot loaded on standby */
+	private long standbySnapshotModified = 0;
+
+	/** the service answering queries about the downloaded events */
+	private final CalDavEventIndexService eventService = new CalDavEventIndexService();
+
+	/** the registration of <code>eventService</code>, <code>null</code> if not registered */
+	private ServiceRegistration eventServiceRegistration;
+
+	/** holds the timing data of the recent polls */
+	private final PollStatistics pollStatistics = new PollStatistics();
+
+	/** holds the recent schedule decisions of this account */
+	private final ScheduleJournal journal = new ScheduleJournal(JOURNAL_CAPACITY);
+
+	/** the start times (in ms) of the events known to the journal by UID */
+	private Map<String, Long> journaledEvents = new HashMap<String, Long>();
+
+	/** the names of the triggers whose exclusion is known to the journal */
+	private Set<String> journaledExclusions = new HashSet<String>();
+
+	/** the reasons events exceeding the limits have been quarantined for, by UID */
+	private volatile Map<String, String> quarantinedEvents = Collections.emptyMap();
+
+	/** the number of events the last poll has dropped beyond <code>max-events</code> */
+	private volatile int droppedEvents = 0;
 
 
 	/**
@@ -111,48 +253,288 @@ public class CalDavEventDownloader extends AbstractActiveService implements Mana
 	 */
 	private static final Pattern EXTRACT_MODIFIEDBY_CONTENT = Pattern.compile("(.*?)modified by\\s*?\\{(.*?)\\}.*", Pattern.DOTALL);
 
+	/** content without this keyword can't match <code>EXTRACT_MODIFIEDBY_CONTENT</code> */
+	private static final String MODIFIEDBY_KEYWORD = "modified by";
+
+
+	/**
+	 * @param accountId the id of the account, used to name its job group
+	 * @param triggerEngine the engine to schedule the jobs with
+	 * @param pollExecutor the executor to run the polls on
+	 * @param workerExecutor the executor to run the requests to the CalDav
+	 * server on
+	 * @param connectionManager the http connection pool to download the
+	 * calendar with
+	 */
+	public CalDavEventDownloader(String accountId, TriggerEngine triggerEngine, ScheduledExecutorService pollExecutor,
+			ExecutorService workerExecutor, HttpConnectionManager connectionManager) {
+		this.accountId = accountId;
+		this.schedulerGroup = CalDavEventDownloaderFactory.DEFAULT_ACCOUNT.equals(accountId) ?
+				CALDAV_SCHEDULER_GROUP : CALDAV_SCHEDULER_GROUP + "-" + accountId;
+		this.misfireGroup = schedulerGroup + "-misfire";
+		this.triggerEngine = triggerEngine;
+		this.pollExecutor = pollExecutor;
+		this.workerExecutor = workerExecutor;
+		this.connectionManager = connectionManager;
+	}
+
+	public String getAccountId() {
+		return accountId;
+	}
+
+	public boolean isProperlyConfigured() {
+		return config != CalDavAccountConfig.UNCONFIGURED;
+	}
+
+	/**
+	 * Starts polling the calendar if this downloader is properly configured.
+	 * Polls run with a fixed delay of <code>refreshInterval</code> on the
+	 * shared poll executor.
+	 */
+	public synchronized void start() {
+		cancelPolls();
+		if (!isProperlyConfigured()) {
+			logger.debug("CalDav account '{}' isn't properly configured - not polling", accountId);
+			return;
+		}
+
+		registerEventService();
+		ScheduleJournal.register(schedulerGroup, journal);
+		ScheduleJournal.register(misfireGroup, journal);
+
+		// schedule the startup window first again, e.g. after moving to another trigger engine
+		startupCompleted = false;
+		backfillCollector = null;
+
+		synchronized (pollLock) {
+			schedulePolls(0, config.refreshInterval);
+		}
+	}
+
+	/**
+	 * (Re)schedules the polls with a fixed delay of the refresh interval. The
+	 * caller holds <code>pollLock</code>.
+	 *
+	 * @param initialDelay the delay (in ms) of the first poll
+	 * @param refreshInterval the delay (in ms) between the polls
+	 */
+	private void schedulePolls(long initialDelay, int refreshInterval) {
+		if (pollTask != null) {
+			pollTask.cancel(false);
+		}
+		pollTask = pollExecutor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					execute();
+				}
+				catch (RuntimeException re) {
+					// an exception would cancel all further polls
+					logger.error("polling CalDav account '" + accountId + "' throws exception", re);
+				}
+			}
+		}, initialDelay, refreshInterval, TimeUnit.MILLISECONDS);
+		logger.debug("CalDav account '{}' is polled every {}ms", accountId, refreshInterval);
+	}
+
+	/**
+	 * Cancels the scheduled polls, a running poll completes.
+	 */
+	private void cancelPolls() {
+		synchronized (pollLock) {
+			if (pollTask != null) {
+				pollTask.cancel(false);
+				pollTask = null;
+			}
+		}
+	}
 
-	@Override
-	protected long getRefreshInterval() {
-		return refreshInterval;
+	/**
+	 * @return <code>true</code> if the polls have been scheduled
+	 */
+	private boolean isPolling() {
+		synchronized (pollLock) {
+			return pollTask != null;
+		}
 	}
 
-	@Override
-	protected String getName() {
-		return "CalDav Calender Event-Downloader";
+	/**
+	 * Polls the calendar right away on the poll threads, in addition to the
+	 * scheduled polls.
+	 */
+	public void pollNow() {
+		pollExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					execute();
+				}
+				catch (RuntimeException re) {
+					logger.error("polling CalDav account '" + accountId + "' throws exception", re);
+				}
+			}
+		});
 	}
 
-	@Override
-	public void activate() {
-		logger.debug("activate CalDavEventDownloader");
+	/**
+	 * Registers the {@link CalDavEventService} of this account unless it has
+	 * been registered already.
+	 */
+	private void registerEventService() {
+		BundleContext context = CalDavActivator.getContext();
+		if (eventServiceRegistration != null || context == null) {
+			return;
+		}
+		Hashtable<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(CalDavEventService.ACCOUNT_PROPERTY, accountId);
+		eventServiceRegistration = context.registerService(CalDavEventService.class.getName(), eventService, properties);
+	}
+
+	/**
+	 * Stops polling the calendar and removes all jobs of this account from
+	 * the scheduler.
+	 */
+	public synchronized void stop() {
+		cancelPolls();
+
+		if (eventServiceRegistration != null) {
+			eventServiceRegistration.unregister();
+			eventServiceRegistration = null;
+		}
+
+		ScheduleJournal.unregister(schedulerGroup);
+		ScheduleJournal.unregister(misfireGroup);
+		flushJournal();
+		PersistentScheduleStore.unregister(schedulerGroup);
+		PersistentScheduleStore.unregister(misfireGroup);
+		scheduleStore = null;
+
 		try {
-			scheduler = StdSchedulerFactory.getDefaultScheduler();
-			super.activate();
+			cleanJobs();
+			for (String calendarName : exclusionCalendars.keySet()) {
+				triggerEngine.deleteCalendar(calendarName);
+			}
+			exclusionCalendars.clear();
 		}
 		catch (SchedulerException se) {
-			logger.error("initializing scheduler throws exception", se);
+			logger.warn("removing jobs of CalDav account '" + accountId + "' throws exception", se);
 		}
+		logger.debug("CalDav account '{}' has been stopped", accountId);
 	}
 
+	/**
+	 * Moves the jobs of this account to another {@link TriggerEngine}. The
+	 * jobs and calendars are removed from the current engine and, if the
+	 * account is polled, the schedule is planned again on the new one.
+	 *
+	 * @param triggerEngine the engine to schedule the jobs with from now on
+	 */
+	public synchronized void setTriggerEngine(TriggerEngine triggerEngine) {
+		if (this.triggerEngine == triggerEngine) {
+			return;
+		}
 
+		try {
+			cleanJobs();
+			for (String calendarName : exclusionCalendars.keySet()) {
+				this.triggerEngine.deleteCalendar(calendarName);
+			}
+		}
+		catch (SchedulerException se) {
+			logger.warn("removing jobs of CalDav account '" + accountId + "' throws exception", se);
+		}
+		exclusionCalendars.clear();
+		this.triggerEngine = triggerEngine;
+		logger.debug("CalDav account '{}' schedules its jobs on the {} engine", accountId, triggerEngine);
 
+		if (isPolling()) {
+			start();
+		}
+	}
 
 	/**
-	 * @{inheritDoc}
+	 * Polls the calendar and schedules its events. Polls are serialized, as
+	 * they may be triggered from the console besides the poll executor. A
+	 * poll works with the configuration and transport current at its start,
+	 * a reconfiguration meanwhile applies from the next poll on.
 	 */
-	@Override
-	protected void execute() {
+	protected synchronized void execute() {
+		CalDavAccountConfig config = this.config;
+		CircuitBreakerTransport transport = this.transport;
+		if (config == CalDavAccountConfig.UNCONFIGURED) {
+			logger.debug("CalDav account '{}' is not properly configured, skipping poll", accountId);
+			return;
+		}
+
+		if (!LeaderLease.isActiveNode()) {
+			refreshStandbySchedule();
+			return;
+		}
+
+		if (transport.isOpen()) {
+			logger.debug("the circuit to {} is open, keeping the existing schedule", getCollectionInfo());
+			return;
+		}
+
+		pollStatistics.pollStarted();
+		long stageStart = System.nanoTime();
+
+		if (!scheduleRestored) {
+			restoreSchedule(true);
+			scheduleRestored = true;
+			stageStart = pollStatistics.stageFinished("restore", stageStart);
+		}
+
+		long startSearch = System.currentTimeMillis();
+		long endSearch = startSearch + 2L * config.refreshInterval;
+		boolean backfill = backfillCollector != null;
+		boolean startupPhase = false;
+
+		List<VEvent> eventList;
+		EventCollector collector;
+		if (backfill) {
+			// the events of the startup window are kept, only the rest is downloaded
+			collector = backfillCollector;
+			backfillCollector = null;
+			startupCompleted = true;
+			eventList = downloadEvents(config, transport, backfillStart, backfillEnd, collector);
+		} else if (!startupCompleted && config.startupWindow > 0 && config.startupWindow < endSearch - startSearch) {
+			collector = new EventCollector();
+			eventList = downloadEvents(config, transport, startSearch, startSearch + config.startupWindow, collector);
+			if (eventList != null) {
+				startupPhase = true;
+				backfillCollector = collector;
+				backfillStart = startSearch + config.startupWindow;
+				backfillEnd = endSearch;
+			}
+		} else {
+			startupCompleted = true;
+			collector = new EventCollector();
+			eventList = downloadEvents(config, transport, startSearch, endSearch, collector);
+		}
+		stageStart = pollStatistics.stageFinished("download", stageStart);
+		if (eventList == null) {
+			// keep the jobs and the index of the last successful poll
+			pollStatistics.pollFinished(0);
+			flushJournal();
+			return;
+		}
+
+		eventService.setIndex(createEventIndex(eventList));
+		stageStart = pollStatistics.stageFinished("index", stageStart);
+
+		// the startup window doesn't tell which events have been removed
+		updateQuarantine(collector, !startupPhase);
+		journalEvents(eventList, !startupPhase, startSearch);
 
-		List<VEvent> eventList = downloadEventFeed();
 		if(! eventList.isEmpty()) {
 			logger.debug("found {} calendar events to process", eventList.size());
 
 			try {
-				if (scheduler.isShutdown()) {
-					logger.warn("Scheduler has been shut down - probably due to exceptions?");
+				if (triggerEngine.isShutdown()) {
+					logger.warn("Trigger engine '{}' has been shut down - probably due to exceptions?", triggerEngine);
 				}
-				cleanJobs();
-				processEntries(eventList);
+				// the jobs are kept, so those of the startup window stay armed
+				// while the backfill is scheduled
+				processEntries(eventList, !startupPhase);
 			}
 			catch (SchedulerException se) {
 				logger.error("scheduling jobs throws exception", se);
@@ -162,111 +544,394 @@ public class CalDavEventDownloader extends AbstractActiveService implements Mana
 			logger.debug("caldav contains no events ...");
 		}
 
-
+		pollStatistics.pollFinished(eventList.size());
+		flushJournal();
+
+		if (startupPhase) {
+			logger.debug("scheduled the next {}ms of CalDav account '{}', backfilling the rest of the search range",
+					config.startupWindow, accountId);
+			pollExecutor.execute(new Runnable() {
+				public void run() {
+					// the backfill must not delay the polls of other accounts or the command execution
+					Thread thread = Thread.currentThread();
+					int priority = thread.getPriority();
+					thread.setPriority(Thread.MIN_PRIORITY);
+					try {
+						execute();
+					}
+					catch (RuntimeException re) {
+						logger.error("backfilling CalDav account '" + accountId + "' throws exception", re);
+					}
+					finally {
+						thread.setPriority(priority);
+					}
+				}
+			});
+		}
 	}
 
 	/**
-	 * Connects to Caldav-Calendar Service and downloads the specified Calendar
-	 * <code>url</code>, <code>username</code>, <code>host</code>, <code>port</code> and <code>password</code> are taken
-	 * from the corresponding config parameter in <code>openhab.cfg</code>. 
-	 * The same is for ssl/tls settings  <code>ssl</code> and 
-	 * 
-	 * @return the corresponding Calendar-Feed or <code>null</code> if an error
-	 * occurs. <i>Note:</i> We do only return events if their startTime lies between
-	 * <code>now</code> and <code>now + 2 * refreshInterval</code> to reduce
-	 * the amount of events to process.
+	 * Keeps the schedule of a standby node warm: instead of polling the
+	 * calendar, the schedule snapshot the leader writes after each poll is
+	 * loaded whenever it has changed. The jobs don't execute their commands
+	 * on a standby node, but once it becomes leader they fire without
+	 * waiting for the first poll. Missed triggers of the snapshot are not
+	 * caught up, as the leader has executed them.
 	 */
-	public static List<VEvent> downloadEventFeed() {
-
-
-		List<VEvent> eventList = new ArrayList<VEvent>();
+	private void refreshStandbySchedule() {
+		PersistentScheduleStore store = getScheduleStore();
+		if (store == null) {
+			logger.debug("CalDav account '{}' is on standby without persistence-file, keeping no schedule", accountId);
+			return;
+		}
+		long lastModified = store.getFile().lastModified();
+		if (lastModified == standbySnapshotModified) {
+			return;
+		}
 
-		if(tls && (! strictTls)) {
-			ProtocolSocketFactory socketFactory =   new EasySSLProtocolSocketFactory( );
-			Protocol https = new Protocol( "https", socketFactory, 443);
-			Protocol.registerProtocol( "https", https );
+		logger.debug("CalDav account '{}' is on standby, loading the leader's schedule snapshot", accountId);
+		try {
+			cleanJobs();
+		}
+		catch (SchedulerException se) {
+			logger.error("removing jobs throws exception", se);
+			return;
 		}
+		restoreSchedule(false);
+		standbySnapshotModified = lastModified;
+		// the snapshot must not be caught up again once this node becomes leader
+		scheduleRestored = true;
+	}
 
-		HttpClient httpClient = new HttpClient();
-		httpClient.getHostConfiguration().setHost(host, port, tls ? "https" : "http");
+	/**
+	 * Creates the index of the downloaded events which is published by the
+	 * {@link CalDavEventService} of this account.
+	 */
+	private EventIndex createEventIndex(List<VEvent> eventList) {
+		List<CalDavEvent> events = new ArrayList<CalDavEvent>(eventList.size());
+		for (VEvent event : eventList) {
+			if (event.getStartDate() == null) {
+				continue;
+			}
+			long start = event.getStartDate().getDate().getTime();
+			long end = event.getEndDate() != null ? event.getEndDate().getDate().getTime() : start;
+
+			List<String> categories = new ArrayList<String>();
+			for (Object property : event.getProperties(Property.CATEGORIES)) {
+				Iterator<?> categoryIterator = ((Categories) property).getCategories().iterator();
+				while (categoryIterator.hasNext()) {
+					categories.add(categoryIterator.next().toString());
+				}
+			}
 
+			events.add(new CalDavEvent(accountId,
+					event.getUid() != null ? event.getUid().getValue() : null,
+					event.getSummary() != null ? event.getSummary().getValue() : null,
+					event.getDescription() != null ? event.getDescription().getValue() : null,
+					categories, start, end));
+		}
+		return new EventIndex(events, System.currentTimeMillis());
+	}
 
-		UsernamePasswordCredentials httpCredentials = new UsernamePasswordCredentials(username, password);
-		httpClient.getState().setCredentials(AuthScope.ANY, httpCredentials);
-		httpClient.getParams().setAuthenticationPreemptive(true);
+	/**
+	 * @return the index of the events downloaded by the last successful poll
+	 */
+	public EventIndex getEventIndex() {
+		return eventService.getIndex();
+	}
 
+	/**
+	 * @return the timing data of the recent polls
+	 */
+	public PollStatistics getPollStatistics() {
+		return pollStatistics;
+	}
 
+	/**
+	 * @return the circuit breaker guarding the CalDav server, <code>null</code>
+	 * if this downloader isn't configured
+	 */
+	public CircuitBreakerTransport getCircuitBreaker() {
+		return transport;
+	}
 
-		GenerateQuery gq=new GenerateQuery();
-		TimeZone timeZone = TimeZone.getDefault();
-		java.util.Calendar calStartSearch = new GregorianCalendar(timeZone);
-		//		calStartSearch.add(java.util.Calendar.DAY_OF_MONTH, -1);
+	public TriggerEngine getTriggerEngine() {
+		return triggerEngine;
+	}
 
-		java.util.Calendar calEndSearch = new GregorianCalendar();
-		calEndSearch.add(java.util.Calendar.SECOND,  (2* refreshInterval/1000));
+	/**
+	 * @return the reasons the events exceeding the limits have been
+	 * quarantined for by the last poll, by UID
+	 */
+	public Map<String, String> getQuarantinedEvents() {
+		return quarantinedEvents;
+	}
 
+	/**
+	 * @return the number of events the last poll has dropped beyond
+	 * <code>max-events</code>
+	 */
+	public int getDroppedEventCount() {
+		return droppedEvents;
+	}
 
-		SimpleDateFormat dateSearchFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
-		dateSearchFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	/**
+	 * @return the journal of the recent schedule decisions of this account
+	 */
+	public ScheduleJournal getJournal() {
+		return journal;
+	}
 
+	/**
+	 * @return the number of exclusion calendars which are currently known
+	 */
+	public int getExclusionCalendarCount() {
+		return exclusionCalendars.size();
+	}
 
+	/**
+	 * @return a short description of the configured CalDav collection
+	 */
+	public String getCollectionInfo() {
+		return config.getCollectionInfo();
+	}
 
+	/**
+	 * Connects to Caldav-Calendar Service and downloads the specified Calendar
+	 * <code>url</code>, <code>username</code>, <code>host</code>, <code>port</code> and <code>password</code> are taken
+	 * from the corresponding config parameter in <code>openhab.cfg</code>. 
+	 * The same is for ssl/tls settings  <code>ssl</code> and 
+	 * 
+	 * @return the corresponding Calendar-Feed or <code>null</code> if an error
+	 * occurs. <i>Note:</i> We do only return events if their startTime lies between
+	 * <code>now</code> and <code>now + 2 * refreshInterval</code> to reduce
+	 * the amount of events to process.
+	 */
+	public List<VEvent> downloadEventFeed() {
+		long startSearch = System.currentTimeMillis();
+		return downloadEvents(startSearch, startSearch + 2L * config.refreshInterval);
+	}
 
+	/**
+	 * Downloads the events whose startTime lies within the given range.
+	 *
+	 * @param startSearch the start of the range (in ms)
+	 * @param endSearch the end of the range (in ms)
+	 * @return the events or <code>null</code> if an error occurs
+	 */
+	public List<VEvent> downloadEvents(long startSearch, long endSearch) {
+		CalDavAccountConfig config = this.config;
+		return downloadEvents(config, transport, startSearch, endSearch, new EventCollector());
+	}
 
+	/**
+	 * Downloads the events whose startTime lies within the given range and
+	 * adds them to the events <code>collector</code> holds already.
+	 *
+	 * @return all events of <code>collector</code> or <code>null</code> if an
+	 * error occurs
+	 */
+	private List<VEvent> downloadEvents(CalDavAccountConfig config, CircuitBreakerTransport transport, long startSearch, long endSearch,
+			EventCollector collector) {
 		try {
-			logger.debug("getting CalDav entries with filter \"VEVENT [{};{}] : STATUS!=CANCELLED\"",  dateSearchFormat.format(calStartSearch.getTime()),dateSearchFormat.format(calEndSearch.getTime())  );
-
-			gq.setFilter("VEVENT [" + dateSearchFormat.format(calStartSearch.getTime()) +";" + dateSearchFormat.format(calEndSearch.getTime()) + "] : STATUS!=CANCELLED");
-			CalendarQuery calendarQuery = gq.generate();
-
-			calendarQuery.validate();
-
-			//				Document document = calendarQuery.createNewDocument(XMLUtils.getDOMImplementation());
-			//				XMLUtils.toPrettyXML(document);
-			//				System.out.println(XMLUtils.toPrettyXML(document));
+			collector.clientFilter = config.queryFilter;
+			collector.limits = config;
+			int shards = queryEvents(config, transport, startSearch, endSearch, config.queryFilter.getPropFilters(), config.eventProperties, collector);
+			if (!config.queryFilter.isEmpty()) {
+				// the events referenced by 'modified by' have no content, so the
+				// conditions filter them out and they are queried on their own
+				collector.clientFilter = QueryFilter.NONE;
+				collector.seenResources.clear();
+				shards += queryEvents(config, transport, startSearch, endSearch, Collections.singletonList("DESCRIPTION==UNDEF"), config.eventProperties, collector);
+			}
+			logger.debug("downloaded {} CalDav entries in {} queries", collector.events.size(), shards);
 
+		} catch (CalDAV4JException ce) {
+			logger.error("creating the query for " + getCollectionInfo() + " throws exception", ce);
+			return null;
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof CircuitOpenException) {
+				logger.debug("downloading CalDav entries skipped: {}", ee.getCause().getMessage());
+			} else {
+				logger.error("downloading CalDav entries from " + getCollectionInfo() + " throws exception", ee.getCause());
+			}
+			return null;
+		} catch (InterruptedException ie) {
+			logger.debug("downloading CalDav entries has been interrupted");
+			Thread.currentThread().interrupt();
+			return null;
+		}
 
-			CalDAVCollection collection = new CalDAVCollection(
-					url,
-					(HostConfiguration) httpClient.getHostConfiguration().clone(),
-					new CalDAV4JMethodFactory(),
-					CalDAVConstants.PROC_ID_DEFAULT
-					);
+		return collector.events;
+	}
 
+	/**
+	 * Queries the not cancelled events of the given range which match the
+	 * given conditions, in time windows of <code>queryWindow</code>.
+	 *
+	 * @param config the configuration to query with
+	 * @param transport the transport of <code>config</code>
+	 * @param conditions the property conditions in the syntax of {@link GenerateQuery}
+	 * @param properties the VEVENT properties to download, <code>null</code>
+	 * downloads the complete calendar data
+	 * @return the number of queries sent
+	 */
+	private int queryEvents(CalDavAccountConfig config, CircuitBreakerTransport transport, long start, long end, final List<String> conditions, final List<String> properties,
+			ShardedQuery.ShardHandler handler) throws CalDAV4JException, ExecutionException, InterruptedException {
+		final SimpleDateFormat dateSearchFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+		dateSearchFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
 
-			List<Calendar>calendars = collection.queryCalendars(httpClient, calendarQuery);
+		ShardedQuery query = new ShardedQuery(transport, config.queryParallelism, config.queryRetries, config.queryTimeout,
+				config.hedgeDelay);
+		return query.execute(start, end, config.queryWindow, new ShardedQuery.QueryFactory() {
+			public CalendarQuery createQuery(long windowStart, long windowEnd) throws CalDAV4JException {
+				List<String> filterProperties = new ArrayList<String>();
+				filterProperties.add("STATUS!=CANCELLED");
+				filterProperties.addAll(conditions);
+				String timeRange = "[" + dateSearchFormat.format(new Date(windowStart)) + ";"
+						+ dateSearchFormat.format(new Date(windowEnd)) + "]";
+				logger.debug("getting CalDav entries with filter \"VEVENT {} : {}\"", timeRange, filterProperties);
+
+				GenerateQuery gq = new GenerateQuery();
+				gq.setFilter("VEVENT " + timeRange);
+				// set as list, so the conditions may contain the separators of the filter syntax
+				gq.setFilterComponentProperties(filterProperties);
+				if (properties != null) {
+					gq.setComponent(Component.VEVENT, properties);
+				}
+				CalendarQuery calendarQuery = gq.generate();
+				if (properties != null) {
+					requestTimeZones(calendarQuery);
+				}
+				calendarQuery.validate();
+				return calendarQuery;
+			}
+		}, handler);
+	}
 
+	/**
+	 * Adds the complete VTIMEZONE components and the VCALENDAR properties to
+	 * the calendar data subset of the query, the subset covers VEVENT only.
+	 */
+	private static void requestTimeZones(CalendarQuery calendarQuery) {
+		Comp vcalendar = calendarQuery.getCalendarDataProp().getComp();
+		// Comp.addProp(String) writes a malformed prop element, so the props are created like GenerateQuery does
+		vcalendar.addProp(new CalDAVProp(CALDAV_NAMESPACE_QUALIFIER, "name", Property.VERSION, false, false));
+		vcalendar.addProp(new CalDAVProp(CALDAV_NAMESPACE_QUALIFIER, "name", Property.PRODID, false, false));
+
+		Comp vtimezone = new Comp(CALDAV_NAMESPACE_QUALIFIER);
+		vtimezone.setName(Component.VTIMEZONE);
+		vtimezone.setAllProp(true);
+		vtimezone.setAllComp(true);
+		List<Comp> comps = new ArrayList<Comp>(vcalendar.getComps());
+		comps.add(vtimezone);
+		vcalendar.setComps(comps);
+	}
 
-			for (Calendar calendar : calendars) {
-				ComponentList componentList = calendar.getComponents().getComponents(Component.VEVENT);
-				Iterator<?> eventIterator = componentList.iterator();
+	/**
+	 * Downloads the events of the current search range twice, with the
+	 * complete calendar data and with the configured subset of properties,
+	 * and compares their size and parse time. Neither the jobs nor the index
+	 * are touched.
+	 *
+	 * @return the measurement of both retrievals
+	 * @throws CalDAV4JException if a query can't be created
+	 * @throws ExecutionException if a query fails
+	 * @throws InterruptedException if the calling thread has been interrupted
+	 */
+	public CalendarDataMeasurement measureCalendarData() throws CalDAV4JException, ExecutionException, InterruptedException {
+		CalDavAccountConfig config = this.config;
+		CircuitBreakerTransport transport = this.transport;
+		long startSearch = System.currentTimeMillis();
+		long endSearch = startSearch + 2L * config.refreshInterval;
+
+		CalendarDataMeasurement measurement = new CalendarDataMeasurement();
+		for (final boolean partialData : new boolean[] { false, true }) {
+			final CalendarDataMeasurement.Sample sample = measurement.getSample(partialData);
+			queryEvents(config, transport, startSearch, endSearch, config.queryFilter.getPropFilters(),
+					partialData ? (config.eventProperties != null ? config.eventProperties : CalDavAccountConfig.DEFAULT_EVENT_PROPERTIES) : null,
+					new ShardedQuery.ShardHandler() {
+						public void shardCompleted(long start, long end, List<CalendarResource> resources) {
+							CalendarBuilder calendarBuilder = new CalendarBuilder();
+							for (CalendarResource resource : resources) {
+								long parseStart = System.nanoTime();
+								ParallelCalendarParser.parseCalendar(calendarBuilder, resource);
+								sample.add(getUtf8Length(resource.getCalendarData()), System.nanoTime() - parseStart);
+							}
+						}
+					});
+		}
+		return measurement;
+	}
 
-				while (eventIterator.hasNext()) {
+	private static long getUtf8Length(String text) {
+		try {
+			return text.getBytes("UTF-8").length;
+		}
+		catch (UnsupportedEncodingException uee) {
+			return text.length();
+		}
+	}
 
-					VEvent ve = (VEvent) eventIterator.next();
-					eventList.add(ve);
-					logger.debug("Got CalDav entry <{}>, with command <{}> for time interval: {} to  {} ", ve.getSummary(),ve.getDescription(),ve.getStartDate(),ve.getEndDate());						
-				}
+	/**
+	 * Creates the transport to the configured CalDav collection, guarded by a
+	 * circuit breaker. The transport takes its connections from the shared
+	 * connection pool. The socket
+	 * factories of a configured trust store or pinned certificate are cached,
+	 * so TLS sessions are resumed across polls and reconfigurations.
+	 *
+	 * @param config the configuration of the collection
+	 * @throws ConfigurationException if the trust store or pinned certificate
+	 * can't be loaded
+	 */
+	private CircuitBreakerTransport createTransport(CalDavAccountConfig config) throws ConfigurationException {
+		HttpClient httpClient = new HttpClient(connectionManager);
+		// a hung server must not block a worker thread forever, the connect
+		// timeout is set on the shared connection pool
+		httpClient.getParams().setSoTimeout((int) config.readTimeout);
+		httpClient.getParams().setConnectionManagerTimeout(config.readTimeout);
+		ProtocolSocketFactory socketFactory = null;
+		if (config.tls && !config.strictTls) {
+			socketFactory = EASY_SOCKET_FACTORY;
+		} else if (config.tls && (config.trustStore != null || config.pinnedCertificate != null)) {
+			try {
+				socketFactory = TrustedSSLProtocolSocketFactory.getInstance(config.trustStore, config.trustStorePassword, config.pinnedCertificate);
 			}
+			catch (IOException ioe) {
+				throw new ConfigurationException(config.trustStore != null ? "caldav:truststore" : "caldav:pinned-certificate",
+						"couldn't read " + (config.trustStore != null ? config.trustStore : config.pinnedCertificate) + ": " + ioe.getMessage());
+			}
+			catch (GeneralSecurityException gse) {
+				throw new ConfigurationException(config.trustStore != null ? "caldav:truststore" : "caldav:pinned-certificate",
+						"couldn't load " + (config.trustStore != null ? config.trustStore : config.pinnedCertificate) + ": " + gse.getMessage());
+			}
+		}
 
+		if (socketFactory != null) {
+			// the protocol is set for this host only, other accounts keep their own trust settings
+			Protocol https = new Protocol("https", socketFactory, config.port);
+			httpClient.getHostConfiguration().setHost(config.host, config.port, https);
+		} else {
+			httpClient.getHostConfiguration().setHost(config.host, config.port, config.tls ? "https" : "http");
+		}
 
-		} catch (CalDAV4JException ce) {
-			logger.error("scheduling jobs throws exception", ce);
-		} 
-
+		UsernamePasswordCredentials httpCredentials = new UsernamePasswordCredentials(config.username, config.password);
+		httpClient.getState().setCredentials(AuthScope.ANY, httpCredentials);
+		httpClient.getParams().setAuthenticationPreemptive(true);
 
-		return eventList;
+		return new CircuitBreakerTransport(new HttpClientTransport(httpClient, config.url, workerExecutor),
+				config.circuitFailures, config.circuitOpenTime);
 	}
 
 
 	/**
-	 * Delete all {@link Job}s of the group <code>GCAL_SCHEDULER_GROUP</code>
+	 * Delete all {@link Job}s of the group <code>schedulerGroup</code>
 	 * 
 	 * @throws SchedulerException if there is an internal Scheduler error.
 	 */
 	private void cleanJobs() throws SchedulerException {
-		Set<JobKey> jobKeys = 	scheduler.getJobKeys(jobGroupEquals(CALDAV_SCHEDULER_GROUP));
-		scheduler.deleteJobs(new ArrayList<JobKey>(jobKeys));
+		scheduledJobs.clear();
+		triggerEngine.deleteJobs(schedulerGroup);
 	}
 
 	/**
@@ -278,23 +943,301 @@ public class CalDavEventDownloader extends AbstractActiveService implements Mana
 	 * The following steps are done at event processing:
 	 * <ul>
 	 * <li>find events with empty content</li>
-	 * <li>create a {@link TimeRangeCalendar} for each event (unique by title) and add a TimeRange for each {@link When}</li>
-	 * <li>add each {@link TimeRangeCalendar} to the {@link Scheduler}</li>
+	 * <li>collect the TimeRanges of these events by title</li>
+	 * <li>update the {@link TimeRangeCalendar} of each title incrementally (see {@link #updateExclusionCalendars(Map)})</li>
 	 * <li>find events with content</li>
-	 * <li>add a Job with the corresponding Triggers for each event</li>
+	 * <li>plan a Job with the corresponding Triggers for each event</li>
+	 * <li>hand the new and changed Jobs over to the scheduler and remove
+	 * the vanished ones (see {@link #diffJobs(Map, boolean)})</li>
 	 * </ul> 
+	 * Unchanged Jobs are kept, their Triggers have already been rebased on
+	 * the updated calendars.
+	 * </p>
 	 *  
 	 * @param entries the GCalendar events to create quart jobs for. 
+	 * @param completeRange whether <code>entries</code> cover the whole search
+	 * range or only the startup window, the schedule snapshot is saved for
+	 * the whole search range only
 	 * @throws SchedulerException if there is an internal Scheduler error.
 	 */
-	private void processEntries(List<VEvent> entries) throws SchedulerException {
-		Map<String, TimeRangeCalendar> calendarCache = new HashMap<String, TimeRangeCalendar>();
-
+	void processEntries(List<VEvent> entries, boolean completeRange) throws SchedulerException {
+		long stageStart = System.nanoTime();
 
-		// find all events with empty content - these events are taken to modify
-		// the scheduler
 		if (entries == null) return;
 
+		Map<String, List<LongRange>> exclusionRanges = collectExclusionRanges(entries);
+
+		// the calendars has to be updated first, to schedule Triggers successfully
+		updateExclusionCalendars(exclusionRanges);
+		stageStart = pollStatistics.stageFinished("calendars", stageStart);
+
+		// now we process all events with content - their jobs and triggers are
+		// collected and handed over to the scheduler at once
+		Map<JobDetail, List<Trigger>> jobsAndTriggers = planJobs(entries, exclusionRanges, DateTime.now().getMillis());
+		stageStart = pollStatistics.stageFinished("plan", stageStart);
+
+		// resolve items and values now instead of on each firing
+		List<String> contents = new ArrayList<String>(jobsAndTriggers.size());
+		for (JobDetail job : jobsAndTriggers.keySet()) {
+			contents.add(job.getJobDataMap().getString(ExecuteCommandJob.JOB_DATA_CONTENT_KEY));
+		}
+		ExecuteCommandJob.resolveCommands(contents);
+		stageStart = pollStatistics.stageFinished("resolve", stageStart);
+
+		Map<JobDetail, List<Trigger>> changedJobs = diffJobs(jobsAndTriggers, completeRange);
+		Set<JobDetail> jobsToSchedule = new HashSet<JobDetail>(changedJobs.keySet());
+		scheduleJobs(changedJobs);
+		for (JobDetail job : jobsToSchedule) {
+			if (changedJobs.containsKey(job)) {
+				scheduledJobs.put(job.getKey(), createFingerprint(job, changedJobs.get(job)));
+			} else {
+				// the engine refused the job, e.g. as it would never fire
+				jobsAndTriggers.remove(job);
+			}
+		}
+		pollStatistics.setScheduledTriggers(jobsAndTriggers);
+		journalExclusions(jobsAndTriggers, completeRange);
+		stageStart = pollStatistics.stageFinished("schedule", stageStart);
+
+		// the startup window holds only part of the schedule, saving it would drop
+		// the later triggers and their firings, the backfill saves the complete one
+		PersistentScheduleStore store = getScheduleStore();
+		if (store != null && completeRange) {
+			store.save(jobsAndTriggers, exclusionRanges);
+			pollStatistics.stageFinished("persist", stageStart);
+		}
+	}
+
+	/**
+	 * Compares the planned jobs with the jobs scheduled by earlier polls by
+	 * their {@link JobKey}. Jobs which have been scheduled already and are
+	 * unchanged are kept as they are. Jobs which are not planned anymore are
+	 * removed from the {@link TriggerEngine}, unless only the startup window
+	 * has been planned. Jobs whose modifying calendar excludes their fire
+	 * time would never fire, so they are dropped from the plan (and from the
+	 * engine, which has unscheduled them already on rebasing).
+	 *
+	 * @param jobsAndTriggers the planned jobs and their triggers
+	 * @param completeRange whether <code>jobsAndTriggers</code> cover the
+	 * whole search range or only the startup window
+	 * @return the new and changed jobs which have to be scheduled
+	 * @throws SchedulerException if there is an internal Scheduler error.
+	 */
+	private Map<JobDetail, List<Trigger>> diffJobs(Map<JobDetail, List<Trigger>> jobsAndTriggers, boolean completeRange)
+			throws SchedulerException {
+		Map<JobDetail, List<Trigger>> changedJobs = new LinkedHashMap<JobDetail, List<Trigger>>();
+		Set<JobKey> plannedKeys = new HashSet<JobKey>(jobsAndTriggers.size() * 2);
+
+		Iterator<Entry<JobDetail, List<Trigger>>> entryIterator = jobsAndTriggers.entrySet().iterator();
+		while (entryIterator.hasNext()) {
+			Entry<JobDetail, List<Trigger>> entry = entryIterator.next();
+			JobKey jobKey = entry.getKey().getKey();
+			if (!isFiring(entry.getValue())) {
+				logger.debug("job '{}' will never fire as its calendar excludes its fire time", jobKey);
+				entryIterator.remove();
+				if (scheduledJobs.remove(jobKey) != null) {
+					triggerEngine.deleteJob(jobKey);
+				}
+				continue;
+			}
+
+			plannedKeys.add(jobKey);
+			if (!createFingerprint(entry.getKey(), entry.getValue()).equals(scheduledJobs.get(jobKey))) {
+				changedJobs.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		if (completeRange) {
+			Iterator<JobKey> keyIterator = scheduledJobs.keySet().iterator();
+			while (keyIterator.hasNext()) {
+				JobKey jobKey = keyIterator.next();
+				if (!plannedKeys.contains(jobKey)) {
+					// the job may have fired already
+					triggerEngine.deleteJob(jobKey);
+					keyIterator.remove();
+				}
+			}
+		}
+
+		logger.debug("{} of {} planned jobs are new or changed, {} jobs are kept", new Object[] {
+				changedJobs.size(), jobsAndTriggers.size(), jobsAndTriggers.size() - changedJobs.size() });
+		return changedJobs;
+	}
+
+	/**
+	 * @return <code>true</code> if none of the <code>triggers</code> is
+	 * modified by a calendar which excludes its fire time
+	 */
+	private boolean isFiring(List<Trigger> triggers) {
+		for (Trigger trigger : triggers) {
+			String calendarName = trigger.getCalendarName();
+			if (calendarName == null) {
+				continue;
+			}
+			TimeRangeCalendar calendar = exclusionCalendars.get(calendarName);
+			if (calendar != null && !calendar.isTimeIncluded(trigger.getStartTime().getTime())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a fingerprint of everything the execution of <code>job</code>
+	 * depends on, i.e. its title, its commands and the fire time and calendar
+	 * of its triggers.
+	 *
+	 * @param job the job to create the fingerprint of
+	 * @param triggers the triggers of <code>job</code>
+	 * @return the fingerprint, equal for equal jobs
+	 */
+	private static String createFingerprint(JobDetail job, List<Trigger> triggers) {
+		StringBuilder fingerprint = new StringBuilder();
+		fingerprint.append(job.getDescription()).append('\n');
+		fingerprint.append(job.getJobDataMap().getString(ExecuteCommandJob.JOB_DATA_CONTENT_KEY));
+		for (Trigger trigger : triggers) {
+			fingerprint.append('\n').append(trigger.getStartTime().getTime()).append('@').append(trigger.getCalendarName());
+		}
+		return fingerprint.toString();
+	}
+
+	/**
+	 * Records the events which have been added since the last poll in the
+	 * journal, as well as those which have been removed if the events of the
+	 * whole search range have been downloaded. Events whose start has already
+	 * passed when they are added don't get a start trigger, which is recorded
+	 * as well.
+	 *
+	 * @param entries the downloaded events
+	 * @param completeRange whether <code>entries</code> cover the whole search
+	 * range or only the startup window
+	 * @param now the time (in ms) the poll started at
+	 */
+	private void journalEvents(List<VEvent> entries, boolean completeRange, long now) {
+		Map<String, Long> events = new HashMap<String, Long>(completeRange ? entries.size() * 2 : 16);
+		if (!completeRange) {
+			events.putAll(journaledEvents);
+		}
+
+		Set<String> seenEvents = new HashSet<String>();
+		for (VEvent event : entries) {
+			if (event.getUid() == null || event.getStartDate() == null) {
+				continue;
+			}
+			String uid = event.getUid().getValue();
+			if (!seenEvents.add(uid)) {
+				// another instance of a recurring event, the first one is journaled
+				continue;
+			}
+			long start = event.getStartDate().getDate().getTime();
+			Long journaledStart = journaledEvents.get(uid);
+			if (journaledStart == null) {
+				journal.record(Decision.EVENT_ADDED, uid, start, event.getSummary() != null ? event.getSummary().getValue() : null);
+				if (start < now && event.getDescription() != null && StringUtils.isNotBlank(event.getDescription().getValue())) {
+					journal.record(Decision.TRIGGER_PAST, ExecuteCommandJob.getJobName(uid, true), start, null);
+				}
+			} else if (journaledStart.longValue() != start) {
+				journal.record(Decision.EVENT_ADDED, uid, start, "moved");
+			}
+			events.put(uid, start);
+		}
+
+		if (completeRange) {
+			for (Entry<String, Long> journaledEvent : journaledEvents.entrySet()) {
+				if (!events.containsKey(journaledEvent.getKey())) {
+					journal.record(Decision.EVENT_REMOVED, journaledEvent.getKey(), journaledEvent.getValue(), null);
+				}
+			}
+		}
+		journaledEvents = events;
+	}
+
+	/**
+	 * Replaces the quarantined events by those of the current poll, so that
+	 * an event leaves the quarantine once it has been fixed. Newly
+	 * quarantined events are logged and journaled once, not on every poll.
+	 *
+	 * @param collector the collector of the current poll
+	 * @param completeRange whether the collector covers the whole search
+	 * range or only the startup window
+	 */
+	private void updateQuarantine(EventCollector collector, boolean completeRange) {
+		Map<String, String> quarantine = new LinkedHashMap<String, String>();
+		if (!completeRange) {
+			quarantine.putAll(quarantinedEvents);
+		}
+		for (Entry<String, String> entry : collector.quarantined.entrySet()) {
+			if (!quarantinedEvents.containsKey(entry.getKey())) {
+				logger.warn("CalDav event '{}' of account '{}' has been quarantined: {}", new Object[] { entry.getKey(), accountId, entry.getValue() });
+				journal.record(Decision.EVENT_QUARANTINED, entry.getKey(), 0, entry.getValue());
+			}
+			quarantine.put(entry.getKey(), entry.getValue());
+		}
+		quarantinedEvents = Collections.unmodifiableMap(quarantine);
+
+		if (completeRange) {
+			droppedEvents = collector.droppedEvents;
+			if (collector.droppedEvents > 0) {
+				logger.warn("CalDav account '{}' has more than {} events in the search range - {} events have been dropped, see caldav:max-events",
+						new Object[] { accountId, collector.limits.maxEvents, collector.droppedEvents });
+			}
+		}
+	}
+
+	/**
+	 * Records the planned triggers in the journal which won't fire at their
+	 * start time, as the calendar modifying them doesn't include it. Each
+	 * trigger is recorded once only, not on every poll.
+	 *
+	 * @param jobsAndTriggers the scheduled jobs and their triggers
+	 * @param completeRange whether the jobs cover the whole search range or
+	 * only the startup window
+	 */
+	private void journalExclusions(Map<JobDetail, List<Trigger>> jobsAndTriggers, boolean completeRange) {
+		Set<String> exclusions = new HashSet<String>();
+		if (!completeRange) {
+			exclusions.addAll(journaledExclusions);
+		}
+
+		for (Entry<JobDetail, List<Trigger>> entry : jobsAndTriggers.entrySet()) {
+			for (Trigger trigger : entry.getValue()) {
+				TimeRangeCalendar calendar = trigger.getCalendarName() != null ? exclusionCalendars.get(trigger.getCalendarName()) : null;
+				long startTime = trigger.getStartTime().getTime();
+				if (calendar == null || calendar.isTimeIncluded(startTime)) {
+					continue;
+				}
+				String triggerName = trigger.getKey().getName();
+				exclusions.add(triggerName);
+				if (!journaledExclusions.contains(triggerName)) {
+					journal.record(Decision.EXCLUSION_APPLIED, entry.getKey().getKey().getName(), startTime, trigger.getCalendarName());
+				}
+			}
+		}
+		journaledExclusions = exclusions;
+	}
+
+	/**
+	 * Appends the recent decisions of the journal to the configured
+	 * <code>journal-file</code>, if any.
+	 */
+	private void flushJournal() {
+		String journalFile = config.journalFile;
+		if (journalFile != null) {
+			journal.flush(new File(journalFile));
+		}
+	}
+
+	/**
+	 * Finds all events with empty content - these events are taken to modify
+	 * the scheduler. Their time ranges are collected by the name of the
+	 * exclusion calendar they belong to.
+	 *
+	 * @param entries the downloaded events
+	 * @return the excluded time ranges by calendar name
+	 */
+	Map<String, List<LongRange>> collectExclusionRanges(List<VEvent> entries) {
+		Map<String, List<LongRange>> exclusionRanges = new HashMap<String, List<LongRange>>();
+
 		for (VEvent event : entries) {
 			String eventContent ="";
 			String eventTitle = "";
@@ -310,22 +1253,28 @@ public class CalDavEventDownloader extends AbstractActiveService implements Mana
 						"TimeRangesCalendar - this event could be referenced by the modifiedBy clause",
 						eventTitle);
 
-				if (!calendarCache.containsKey(eventTitle)) {
-					calendarCache.put(eventTitle, new TimeRangeCalendar());
+				String calendarName = toCalendarName(eventTitle);
+				if (!exclusionRanges.containsKey(calendarName)) {
+					exclusionRanges.put(calendarName, new ArrayList<LongRange>());
 				}
-				TimeRangeCalendar timeRangeCalendar = calendarCache.get(eventTitle);
-				timeRangeCalendar.addTimeRange(new LongRange(event.getStartDate().getDate().getTime(), event.getEndDate().getDate().getTime()));
+				exclusionRanges.get(calendarName).add(new LongRange(event.getStartDate().getDate().getTime(), event.getEndDate().getDate().getTime()));
 
 			}
 		}
+		return exclusionRanges;
+	}
 
-		// add all calendars to the Scheduler an rebase all existing Triggers
-		// the calendars has to be added first, to schedule Triggers successfully
-		for (Entry<String, TimeRangeCalendar> entry : calendarCache.entrySet()) {
-			scheduler.addCalendar(entry.getKey(), entry.getValue(), true, true);
-		}
-
-		// now we process all events with content
+	/**
+	 * Plans the jobs of all events with content and their triggers. Nothing
+	 * is handed over to the scheduler, so the plan can be simulated as well.
+	 *
+	 * @param entries the downloaded events
+	 * @param exclusionRanges the excluded time ranges by calendar name
+	 * @param now the current time (in ms), earlier triggers aren't planned
+	 * @return the jobs and their triggers
+	 */
+	Map<JobDetail, List<Trigger>> planJobs(List<VEvent> entries, Map<String, List<LongRange>> exclusionRanges, long now) {
+		Map<JobDetail, List<Trigger>> jobsAndTriggers = new LinkedHashMap<JobDetail, List<Trigger>>();
 
 		for (VEvent event : entries) {
 			String eventContent ="";
@@ -342,31 +1291,125 @@ public class CalDavEventDownloader extends AbstractActiveService implements Mana
 				CalendarEventContent cec = parseEventContent(eventContent);
 
 				String modifiedByEvent = null;
-				if (calendarCache.containsKey(cec.modifiedByEvent)) {
-					modifiedByEvent = cec.modifiedByEvent;
+				String calendarName = toCalendarName(cec.modifiedByEvent);
+				if (exclusionRanges.containsKey(calendarName)) {
+					modifiedByEvent = calendarName;
 				}
 
-				JobDetail startJob = createJob(cec.startCommands, event, true);
-				boolean triggersCreated = 
-						createTriggerAndSchedule(startJob, event, modifiedByEvent, true);
-
-				if (triggersCreated) {
-					logger.info("created new startJob '{}' with details '{}'", 
-							eventTitle, createJobInfo(event, startJob));
-				}
+				JobDetail startJob = createJob(cec.startCommands, event, eventTitle, true);
+				createTriggerAndSchedule(startJob, event, modifiedByEvent, true, now, jobsAndTriggers);
 
 				// do only create end-jobs if there are end-commands ...
 				if (StringUtils.isNotBlank(cec.endCommands)) {
-					JobDetail endJob = createJob(cec.endCommands, event, false);
-					triggersCreated = createTriggerAndSchedule(endJob, event, modifiedByEvent, false);
-
-					if (triggersCreated) {
-						logger.info("created new endJob '{}' with details '{}'",
-								eventTitle, createJobInfo(event, endJob));
-					}
+					JobDetail endJob = createJob(cec.endCommands, event, eventTitle, false);
+					createTriggerAndSchedule(endJob, event, modifiedByEvent, false, now, jobsAndTriggers);
 				}
 			}		
 		}
+		return jobsAndTriggers;
+	}
+
+	/**
+	 * Extracts the events of the given resources as if they had been
+	 * downloaded, e.g. from a calendar file or a synthetic corpus.
+	 *
+	 * @param resources the resources to extract the events from
+	 * @return the events of the resources
+	 * @throws InterruptedException if the calling thread has been interrupted
+	 */
+	public List<VEvent> extractEvents(List<CalendarResource> resources) throws InterruptedException {
+		EventCollector collector = new EventCollector();
+		collector.clientFilter = config.queryFilter;
+		collector.limits = config;
+		collector.shardCompleted(0, Long.MAX_VALUE, resources);
+		return collector.events;
+	}
+
+	/**
+	 * Hands all collected jobs and their triggers over to the {@link TriggerEngine}.
+	 * Jobs which fail to schedule are removed from <code>jobsAndTriggers</code>.
+	 * 
+	 * @param jobsAndTriggers the jobs and the triggers to schedule them with
+	 * @throws SchedulerException if there is an internal Scheduler error.
+	 */
+	private void scheduleJobs(Map<JobDetail, List<Trigger>> jobsAndTriggers) throws SchedulerException {
+		if (jobsAndTriggers.isEmpty()) {
+			return;
+		}
+
+		triggerEngine.scheduleJobs(jobsAndTriggers);
+
+		for (Entry<JobDetail, List<Trigger>> entry : jobsAndTriggers.entrySet()) {
+			logger.info("created new job '{}' with details '{}'",
+					entry.getKey().getDescription(), createJobInfo(entry.getKey(), entry.getValue()));
+		}
+	}
+
+	/**
+	 * <p>
+	 * Brings the exclusion calendars in line with <code>exclusionRanges</code>.
+	 * Calendars are kept across polls and a calendar is only re-added to the
+	 * {@link TriggerEngine} if at least one of its TimeRanges has been added or
+	 * removed, the engine then rebases the Triggers within the changed TimeRanges.
+	 * </p>
+	 * 
+	 * @param exclusionRanges the TimeRanges to exclude by calendar name
+	 * @throws SchedulerException if there is an internal Scheduler error.
+	 */
+	private void updateExclusionCalendars(Map<String, List<LongRange>> exclusionRanges) throws SchedulerException {
+		Set<String> calendarNames = new HashSet<String>(exclusionCalendars.keySet());
+		calendarNames.addAll(exclusionRanges.keySet());
+
+		for (String calendarName : calendarNames) {
+			List<LongRange> timeRanges = exclusionRanges.get(calendarName);
+			if (timeRanges == null) {
+				timeRanges = new ArrayList<LongRange>();
+			}
+
+			TimeRangeCalendar timeRangeCalendar = exclusionCalendars.get(calendarName);
+			if (timeRangeCalendar == null) {
+				timeRangeCalendar = new TimeRangeCalendar();
+				timeRangeCalendar.updateTimeRanges(timeRanges);
+				triggerEngine.addCalendar(calendarName, timeRangeCalendar, schedulerGroup, Collections.<LongRange>emptyList());
+				exclusionCalendars.put(calendarName, timeRangeCalendar);
+				logger.debug("added exclusion calendar '{}' with {} time ranges", calendarName, timeRanges.size());
+				continue;
+			}
+
+			List<LongRange> changedRanges = timeRangeCalendar.updateTimeRanges(timeRanges);
+			if (!changedRanges.isEmpty()) {
+				triggerEngine.addCalendar(calendarName, timeRangeCalendar, schedulerGroup, changedRanges);
+				logger.debug("updated exclusion calendar '{}' - {} time ranges changed", calendarName, changedRanges.size());
+			}
+
+			if (!exclusionRanges.containsKey(calendarName)) {
+				try {
+					triggerEngine.deleteCalendar(calendarName);
+					exclusionCalendars.remove(calendarName);
+					logger.debug("removed exclusion calendar '{}'", calendarName);
+				}
+				catch (SchedulerException se) {
+					logger.debug("exclusion calendar '{}' is still referenced by Triggers - keep it empty", calendarName);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates the name of the Quartz calendar which holds the excluded TimeRanges
+	 * of all events titled <code>eventTitle</code>. The title is trimmed, inner
+	 * whitespace is collapsed and the case is ignored, so that a modified by
+	 * clause matches its events regardless of the notation. The name is prefixed
+	 * with the job group of this account to not interfere with calendars
+	 * other accounts or services add to the shared {@link Scheduler}.
+	 * 
+	 * @param eventTitle the title of the event (or the name given in the
+	 * modified by clause)
+	 * @return the name of the corresponding exclusion calendar
+	 */
+	protected String toCalendarName(String eventTitle) {
+		String normalizedTitle = StringUtils.trimToEmpty(eventTitle).replaceAll("\\s+", " ").toLowerCase(Locale.ENGLISH);
+		return schedulerGroup + ":" + normalizedTitle;
 	}
 
 
@@ -387,8 +1430,10 @@ public class CalDavEventDownloader extends AbstractActiveService implements Mana
 	protected CalendarEventContent parseEventContent(String content) {
 		CalendarEventContent eventContent = new CalendarEventContent();
 		String commandContent;
-		Matcher modifiedByMatcher = EXTRACT_MODIFIEDBY_CONTENT.matcher(content);
-		if (modifiedByMatcher.find()) {
+		// without the keyword the RegEx would try every position of the content,
+		// which takes quadratic time on large descriptions
+		Matcher modifiedByMatcher = content.contains(MODIFIEDBY_KEYWORD) ? EXTRACT_MODIFIEDBY_CONTENT.matcher(content) : null;
+		if (modifiedByMatcher != null && modifiedByMatcher.find()) {
 			commandContent = modifiedByMatcher.group(1);
 			eventContent.modifiedByEvent = StringUtils.trimToEmpty(modifiedByMatcher.group(2));
 		} else {
@@ -403,7 +1448,8 @@ public class CalDavEventDownloader extends AbstractActiveService implements Mana
 		else {
 			eventContent.startCommands = StringUtils.trimToEmpty(commandContent);
 			logger.debug("given event content doesn't match regular expression to " +
-					"extract start-, end commands - using whole content as startCommand ({})", commandContent);
+					"extract start-, end commands - using whole content as startCommand ({})",
+					StringUtils.abbreviate(commandContent, LOGGED_CONTENT_LENGTH));
 		}
 
 
@@ -412,21 +1458,23 @@ public class CalDavEventDownloader extends AbstractActiveService implements Mana
 
 	/**
 	 * Creates a new quartz-job with jobData <code>content</code> in the scheduler
-	 * group <code>GCAL_SCHEDULER_GROUP</code> if <code>content</code> is not
+	 * group <code>schedulerGroup</code> if <code>content</code> is not
 	 * blank.
 	 * 
 	 * @param content the set of commands to be executed by the
 	 * {@link ExecuteCommandJob} later on
 	 * @param event
+	 * @param eventTitle the title of <code>event</code> which is used as
+	 * description of the job
 	 * @param isStartEvent indicator to identify whether this trigger will be
 	 * triggering a start or an end command.
 	 * 
 	 * @return the {@link JobDetail}-object to be used at further processing
 	 */
-	protected JobDetail createJob(String content, VEvent event, boolean isStartEvent) {
+	protected JobDetail createJob(String content, VEvent event, String eventTitle, boolean isStartEvent) {
 
 
-		String jobIdentity = event.getUid() + (isStartEvent ? "_start" : "_end");
+		String jobIdentity = ExecuteCommandJob.getJobName(event.getUid() != null ? event.getUid().getValue() : null, isStartEvent);
 
 
 		if (StringUtils.isBlank(content)) {
@@ -436,7 +1484,8 @@ public class CalDavEventDownloader extends AbstractActiveService implements Mana
 
 		JobDetail job = newJob(ExecuteCommandJob.class)
 				.usingJobData(ExecuteCommandJob.JOB_DATA_CONTENT_KEY, content)
-				.withIdentity(jobIdentity, CALDAV_SCHEDULER_GROUP)
+				.withIdentity(jobIdentity, schedulerGroup)
+				.withDescription(eventTitle)
 				.build();
 
 		return job;
@@ -456,10 +1505,13 @@ public class CalDavEventDownloader extends AbstractActiveService implements Mana
 	 * schedule of the new Trigger
 	 * @param isStartEvent indicator to identify whether this trigger will be
 	 * triggering a start or an end command.
+	 * @param now the current time (in ms)
+	 * @param jobsAndTriggers collects the jobs and triggers which are handed
+	 * over to the scheduler at the end of the processing
 	 * 
-	 * @throws SchedulerException if there is an internal Scheduler error.
+	 * @return <code>true</code> if a trigger has been created
 	 */
-	protected boolean createTriggerAndSchedule(JobDetail job, VEvent event, String modifiedByEvent, boolean isStartEvent) {
+	protected boolean createTriggerAndSchedule(JobDetail job, VEvent event, String modifiedByEvent, boolean isStartEvent, long now, Map<JobDetail, List<Trigger>> jobsAndTriggers) {
 		boolean triggersCreated = false;
 
 		if (job == null) {
@@ -468,44 +1520,30 @@ public class CalDavEventDownloader extends AbstractActiveService implements Mana
 		}
 
 
-		String jobIdentity = event.getUid() + (isStartEvent ? "_start" : "_end");
+		String jobIdentity = ExecuteCommandJob.getJobName(event.getUid() != null ? event.getUid().getValue() : null, isStartEvent);
 
 
 
 		long dateValue = isStartEvent ? event.getStartDate().getDate().getTime() : event.getEndDate().getDate().getTime();
-		/* TODO: TEE: do only create a new trigger when the start/endtime 
-		 * lies in the future. This exclusion is necessary because the SimpleTrigger
-		 * triggers a job even if the startTime lies in the past. If somebody
-		 * knows the way to let quartz ignore such triggers this exclusion
-		 * can be omitted. */
+		/* do only create a new trigger when the start/endtime lies in the 
+		 * future. This exclusion is necessary because the SimpleTrigger
+		 * triggers a job even if the startTime lies in the past. Triggers which
+		 * were missed while openHAB was down are caught up by restoreSchedule()
+		 * within the configured misfire grace instead. */
 
 
-		if (dateValue >= DateTime.now().toDate().getTime()) { 
+		if (dateValue >= now) { 
 
-			Trigger trigger;
+			Trigger trigger = createTrigger(job, jobIdentity + "_" + dateValue + "_trigger", dateValue, dateValue, modifiedByEvent);
 
-			if (StringUtils.isBlank(modifiedByEvent)) {
-				trigger = newTrigger()
-						.forJob(job)
-						.withIdentity(jobIdentity + "_" + dateValue + "_trigger", CALDAV_SCHEDULER_GROUP)
-						.startAt(new Date(dateValue))
-						.build();
+			if (jobsAndTriggers.containsKey(job)) {
+				logger.warn("job '{}' has already been created - probably the calendar contains the UID twice, ignoring Trigger '{}'", job.getKey(), trigger);
 			} else {
-				trigger = newTrigger()
-						.forJob(job)
-						.withIdentity(jobIdentity + "_" + dateValue + "_trigger", CALDAV_SCHEDULER_GROUP)
-						.startAt(new Date(dateValue))
-						.modifiedByCalendar(modifiedByEvent)
-						.build();
-			}
-
-			try {
-				scheduler.scheduleJob(job, trigger);
+				List<Trigger> triggers = new ArrayList<Trigger>(1);
+				triggers.add(trigger);
+				jobsAndTriggers.put(job, triggers);
 				triggersCreated = true;
 			}
-			catch (SchedulerException se) {
-				logger.warn("scheduling Trigger '" + trigger + "' throws an exception.", se);
-			}
 
 
 		}
@@ -513,43 +1551,174 @@ public class CalDavEventDownloader extends AbstractActiveService implements Mana
 	}
 
 	/**
-	 * Creates a detailed description of a <code>job</code> for logging purpose.
+	 * Creates a single-shot trigger for <code>job</code>. Should the trigger
+	 * misfire it is fired immediately, the {@link ExecuteCommandJob} skips the
+	 * execution though if it fires later than the misfire grace allows.
 	 * 
-	 * @param job the job to create a detailed description for
-	 * @return a detailed description of the new <code>job</code>
+	 * @param job the {@link Job} to create the trigger for
+	 * @param triggerName the name of the new trigger
+	 * @param startTime the time the trigger fires at
+	 * @param plannedFireTime the time the trigger was originally meant to fire
+	 * at, differs from <code>startTime</code> only when catching up a missed trigger
+	 * @param modifiedByEvent the name of the calendar which modifies the
+	 * schedule of the new Trigger, may be <code>null</code>
+	 * @return the new trigger
 	 */
-	private String createJobInfo(VEvent event, JobDetail job) {
-		if (job == null) {
-			return "SchedulerJob [null]";
+	private Trigger createTrigger(JobDetail job, String triggerName, long startTime, long plannedFireTime, String modifiedByEvent) {
+		TriggerBuilder<SimpleTrigger> triggerBuilder = newTrigger()
+				.forJob(job)
+				.withIdentity(triggerName, job.getKey().getGroup())
+				.startAt(new Date(startTime))
+				.usingJobData(ExecuteCommandJob.JOB_DATA_PLANNED_FIRE_TIME_KEY, plannedFireTime)
+				.usingJobData(ExecuteCommandJob.JOB_DATA_MISFIRE_GRACE_KEY, config.misfireGrace)
+				.withSchedule(simpleSchedule().withMisfireHandlingInstructionFireNow())
+				// end commands fire before start commands of the same time
+				.withPriority(ExecuteCommandJob.isEndJob(job.getKey()) ? END_TRIGGER_PRIORITY : Trigger.DEFAULT_PRIORITY);
+
+		if (StringUtils.isNotBlank(modifiedByEvent)) {
+			triggerBuilder.modifiedByCalendar(modifiedByEvent);
 		}
 
-		StringBuffer sb = new StringBuffer();
-		sb.append("SchedulerJob [jobKey=").append(job.getKey().getName());
-		sb.append(", jobGroup=").append(job.getKey().getGroup());
+		return triggerBuilder.build();
+	}
+
+	/**
+	 * <p>
+	 * Restores the schedule from the configured {@link PersistentScheduleStore}.
+	 * This is done once before the first download, so that the jobs are in
+	 * place even if the CalDav server can't be reached right after startup.
+	 * </p><p>
+	 * Triggers whose fire time has passed while openHAB was down are fired
+	 * once right now if they are late by less than the misfire grace, older
+	 * ones are skipped, as are triggers whose job has been executed already
+	 * (see {@link PersistentScheduleStore#recordFired(String, long)}). These
+	 * catch-up jobs are kept in their own group so that the first regular
+	 * poll doesn't remove them before they have fired.
+	 * </p>
+	 */
+	private void restoreSchedule(boolean catchUp) {
+		PersistentScheduleStore store = getScheduleStore();
+		if (store == null) {
+			return;
+		}
+
+		StoredSchedule schedule = store.load();
+		if (schedule == null) {
+			return;
+		}
 
 		try {
-			List<? extends Trigger> triggers = scheduler.getTriggersOfJob(job.getKey());
+			updateExclusionCalendars(schedule.exclusionRanges);
 
-			sb.append(", ").append(triggers.size()).append(" triggers=[");
+			long now = DateTime.now().getMillis();
+			Map<JobDetail, List<Trigger>> jobsAndTriggers = new LinkedHashMap<JobDetail, List<Trigger>>();
 
-			int maxTriggerLogs = 24;
-			for (int triggerIndex = 0; triggerIndex < triggers.size() && triggerIndex < maxTriggerLogs; triggerIndex++) {
-				Trigger trigger = triggers.get(triggerIndex);
-				sb.append(trigger.getStartTime());
-				if (triggerIndex < triggers.size() - 1 && triggerIndex < maxTriggerLogs - 1) {
-					sb.append(", ");
+			for (StoredTrigger storedTrigger : schedule.triggers) {
+				String calendarName = exclusionCalendars.containsKey(storedTrigger.calendarName) ? storedTrigger.calendarName : null;
+				String triggerName = storedTrigger.jobName + "_" + storedTrigger.fireTime + "_trigger";
+				boolean missed = storedTrigger.fireTime < now;
+
+				if (schedule.hasFired(storedTrigger)) {
+					logger.debug("skipping trigger '{}' as its job has been executed already", triggerName);
+					continue;
+				}
+				if (missed) {
+					if (!catchUp || now - storedTrigger.fireTime > config.misfireGrace) {
+						logger.debug("skipping missed trigger '{}' as it is out of the misfire grace", triggerName);
+						continue;
+					}
+					if (calendarName != null && !exclusionCalendars.get(calendarName).isTimeIncluded(storedTrigger.fireTime)) {
+						logger.debug("skipping missed trigger '{}' as it is excluded by calendar '{}'", triggerName, calendarName);
+						continue;
+					}
+				}
+
+				JobDetail job = newJob(ExecuteCommandJob.class)
+						.usingJobData(ExecuteCommandJob.JOB_DATA_CONTENT_KEY, storedTrigger.content)
+						.withIdentity(storedTrigger.jobName, missed ? misfireGroup : schedulerGroup)
+						.withDescription(storedTrigger.description)
+						.build();
+
+				Trigger trigger = missed ?
+						createTrigger(job, triggerName, now, storedTrigger.fireTime, null) :
+						createTrigger(job, triggerName, storedTrigger.fireTime, storedTrigger.fireTime, calendarName);
+
+				if (!jobsAndTriggers.containsKey(job)) {
+					List<Trigger> triggers = new ArrayList<Trigger>(1);
+					triggers.add(trigger);
+					jobsAndTriggers.put(job, triggers);
+				}
+			}
+
+			logger.info("restoring {} jobs from schedule snapshot '{}'", jobsAndTriggers.size(), store.getFile());
+			scheduleJobs(jobsAndTriggers);
+			for (Entry<JobDetail, List<Trigger>> entry : jobsAndTriggers.entrySet()) {
+				if (schedulerGroup.equals(entry.getKey().getKey().getGroup())) {
+					scheduledJobs.put(entry.getKey().getKey(), createFingerprint(entry.getKey(), entry.getValue()));
 				}
 			}
+			pollStatistics.setScheduledTriggers(jobsAndTriggers);
+		}
+		catch (SchedulerException se) {
+			logger.error("restoring the schedule throws exception", se);
+		}
+	}
 
-			if (triggers.size() >= maxTriggerLogs) {
-				sb.append(" and ").append(triggers.size() - maxTriggerLogs).append(" more ...");
+	/**
+	 * @return the {@link PersistentScheduleStore} to keep the schedule in or
+	 * <code>null</code> if no <code>persistence-file</code> is configured
+	 */
+	private PersistentScheduleStore getScheduleStore() {
+		String persistenceFile = config.persistenceFile;
+		if (persistenceFile == null) {
+			if (scheduleStore != null) {
+				PersistentScheduleStore.unregister(schedulerGroup);
+				PersistentScheduleStore.unregister(misfireGroup);
+				scheduleStore = null;
 			}
+			return null;
+		}
+		if (scheduleStore == null || !scheduleStore.getFile().getPath().equals(persistenceFile)) {
+			scheduleStore = new PersistentScheduleStore(new File(persistenceFile));
+			// the firings of both groups are recorded, so that no trigger is caught up twice
+			PersistentScheduleStore.register(schedulerGroup, scheduleStore);
+			PersistentScheduleStore.register(misfireGroup, scheduleStore);
+		}
+		return scheduleStore;
+	}
+
+	/**
+	 * Creates a detailed description of a <code>job</code> for logging purpose.
+	 * 
+	 * @param job the job to create a detailed description for
+	 * @param triggers the triggers <code>job</code> has been scheduled with
+	 * @return a detailed description of the new <code>job</code>
+	 */
+	private String createJobInfo(JobDetail job, List<Trigger> triggers) {
+		if (job == null) {
+			return "SchedulerJob [null]";
+		}
 
-			if (triggers.size() == 0) {
-				sb.append("there are no triggers - probably the event lies in the past");
+		StringBuffer sb = new StringBuffer();
+		sb.append("SchedulerJob [jobKey=").append(job.getKey().getName());
+		sb.append(", jobGroup=").append(job.getKey().getGroup());
+		sb.append(", ").append(triggers.size()).append(" triggers=[");
+
+		int maxTriggerLogs = 24;
+		for (int triggerIndex = 0; triggerIndex < triggers.size() && triggerIndex < maxTriggerLogs; triggerIndex++) {
+			Trigger trigger = triggers.get(triggerIndex);
+			sb.append(trigger.getStartTime());
+			if (triggerIndex < triggers.size() - 1 && triggerIndex < maxTriggerLogs - 1) {
+				sb.append(", ");
 			}
 		}
-		catch (SchedulerException e) {
+
+		if (triggers.size() >= maxTriggerLogs) {
+			sb.append(" and ").append(triggers.size() - maxTriggerLogs).append(" more ...");
+		}
+
+		if (triggers.size() == 0) {
+			sb.append("there are no triggers - probably the event lies in the past");
 		}
 
 		/*
@@ -572,116 +1741,184 @@ public class CalDavEventDownloader extends AbstractActiveService implements Mana
 	}
 
 
-	@Override
-	public void updated(Dictionary<String, ?> config) throws ConfigurationException {
-		if (config != null) {
-
-			String usernameString = (String) config.get("username");
-			username = usernameString;
-			if (StringUtils.isBlank(username)) {
-				throw new ConfigurationException("caldav:username", "username must not be blank - please configure an aproppriate username in openhab.cfg");
-			}
-			logger.trace("username: {}", username);
+	/**
+	 * Applies the configuration of this account. It is parsed into a new
+	 * {@link CalDavAccountConfig} first, so an invalid configuration leaves
+	 * the current one in place, and swapped in as a whole between two polls.
+	 * Only the subsystems affected by a change are restarted: changed
+	 * connection settings or credentials replace the transport, a changed
+	 * refresh interval reschedules the polls. The scheduled jobs are kept in
+	 * any case, other changes (e.g. of the filter) apply with the next poll.
+	 * A running poll isn't waited for, it completes with the configuration it
+	 * has started with.
+	 *
+	 * @param properties the configuration of the account
+	 * @throws ConfigurationException if the configuration is invalid
+	 */
+	public void updated(Dictionary<String, ?> properties) throws ConfigurationException {
+		if (properties == null) {
+			return;
+		}
 
-			String passwordString = (String) config.get("password");
-			password = passwordString;
-			if (StringUtils.isBlank(password)) {
-				throw new ConfigurationException("caldav:password", "password must not be blank - please configure an aproppriate password in openhab.cfg");
+		CalDavAccountConfig newConfig = new CalDavAccountConfig(properties);
+		synchronized (configLock) {
+			CircuitBreakerTransport newTransport = null;
+			if (!isProperlyConfigured() || !newConfig.isSameConnection(config)) {
+				newConfig.logSecurityWarnings();
+				newTransport = createTransport(newConfig);
 			}
-			logger.trace("password: {}", password);
+			applyConfig(newConfig, newTransport);
+		}
+	}
 
+	/**
+	 * Swaps in the new configuration (and transport) and restarts the
+	 * subsystems affected by the change. The caller holds
+	 * <code>configLock</code>.
+	 *
+	 * @param newTransport the transport for the new configuration,
+	 * <code>null</code> keeps the current one
+	 */
+	private void applyConfig(CalDavAccountConfig newConfig, CircuitBreakerTransport newTransport) {
+		CalDavAccountConfig oldConfig = config;
+		if (newTransport != null) {
+			transport = newTransport;
+		}
+		config = newConfig;
 
-			String hostString = (String) config.get("host");
-			host = hostString;
-			if (StringUtils.isBlank(host)) {
-				throw new ConfigurationException("caldav:host", "host must not be blank - please configure an aproppriate host in openhab.cfg");
-			}
-			logger.trace("host: {}", host);
+		if (!isPolling()) {
+			logger.debug("CalDav event downloader for account '{}' successfuly configured", accountId);
+			start();
+			return;
+		}
 
-			String tlsString = (String) config.get("tls");
-			if (StringUtils.isNotBlank(tlsString)) {
-				try {
-					tls = Boolean.parseBoolean(tlsString);
-				}
-				catch (IllegalArgumentException iae) {
-					logger.warn("couldn't parse caldav:tls '{}' to a boolean");
+		if (newTransport != null) {
+			logger.info("CalDav account '{}' connects to {} with the new settings from the next poll on",
+					accountId, getCollectionInfo());
+		}
+		if (newConfig.refreshInterval != oldConfig.refreshInterval) {
+			// the next poll stays due when it was, so that a configuration
+			// pushed to many installations doesn't make them poll all at once
+			long nextPoll = pollStatistics.getLastPollTime() + newConfig.refreshInterval;
+			synchronized (pollLock) {
+				if (pollTask != null) {
+					schedulePolls(Math.max(0, nextPoll - System.currentTimeMillis()), newConfig.refreshInterval);
 				}
-			} else {
-				tls = true;
 			}
-			logger.trace("tls: {}", tls);
+		}
+		if (!newConfig.isSamePlan(oldConfig)) {
+			logger.info("the changed configuration of CalDav account '{}' applies to the jobs of the next poll", accountId);
+		}
+	}
 
 
-			String strictTlsString = (String) config.get("strict-tls");
-			if (StringUtils.isNotBlank(strictTlsString)) {
-				try {
-					strictTls = Boolean.parseBoolean(strictTlsString);
-				}
-				catch (IllegalArgumentException iae) {
-					logger.warn("couldn't parse caldav:strict-tls '{}' to a boolean");
+
+	/**
+	 * Parses the resources of the queried time windows and collects their
+	 * events. An event overlapping a window boundary (or a recurring event)
+	 * is returned by several windows, so the events are deduplicated by UID
+	 * and RECURRENCE-ID.
+	 * <p>
+	 * Events exceeding the limits of the configuration are quarantined
+	 * instead: resources with an oversized description are recognized by a
+	 * scan of their raw data and aren't parsed at all, events with too many
+	 * commands are skipped after parsing. Beyond <code>max-events</code> no
+	 * further events are collected.
+	 * </p>
+	 */
+	private class EventCollector implements ShardedQuery.ShardHandler {
+
+		final List<VEvent> events = new ArrayList<VEvent>();
+		final Set<String> seenResources = new HashSet<String>();
+		final Set<String> seenEvents = new HashSet<String>();
+		QueryFilter clientFilter = QueryFilter.NONE;
+		CalDavAccountConfig limits = CalDavAccountConfig.UNCONFIGURED;
+		final Map<String, String> quarantined = new LinkedHashMap<String, String>();
+		int droppedEvents = 0;
+
+		public void shardCompleted(long start, long end, List<CalendarResource> resources) throws InterruptedException {
+			List<CalendarResource> newResources = new ArrayList<CalendarResource>(resources.size());
+			for (CalendarResource resource : resources) {
+				if ((resource.getHref() == null || seenResources.add(resource.getHref() + "#" + resource.getEtag()))
+						&& !hasOversizedDescription(resource)) {
+					newResources.add(resource);
 				}
-			} else {
-				strictTls = true;
-			}
-			logger.trace("strictTls: {}", strictTls);
-			if(!tls) {
-				logger.warn("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
-				logger.warn("!!  You have disabled tls/ssl for CalDav-EventDownloader. Calendar data is exchanged unencrypted. !!");
-				logger.warn("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
 			}
 
+			// the calendars are parsed in parallel but returned in the order of the resources
+			for (Calendar calendar : ParallelCalendarParser.parse(newResources)) {
+				if (calendar == null) {
+					continue;
+				}
+				ComponentList componentList = calendar.getComponents().getComponents(Component.VEVENT);
+				Iterator<?> eventIterator = componentList.iterator();
 
-			if(!strictTls && tls) {
-				logger.warn("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
-				logger.warn("!!  You have disabled strict certificate checking by setting strict-tls to false.    !!");
-				logger.warn("!!  Actually all checking for certificates in CalDav-EventDownloader is disabled now !!");
-				logger.warn("!!  - which means that there is no real security - as you accept any certificate,    !!");
-				logger.warn("!!  even those which might be injected for Man-In The Middle-Attacks - try to        !!");
-				logger.warn("!!  Register your certificate to your java certificate store and set strict-tls to   !!");
-				logger.warn("!!  true. Disable the tls checking is just meant for debugging purposes.             !!");
-				logger.warn("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
-			}
+				while (eventIterator.hasNext()) {
 
-			String portString = (String) config.get("port");
-			if (StringUtils.isNotBlank(portString)) {
-				try {
-					port = Integer.valueOf(portString);
-				}
-				catch (IllegalArgumentException iae) {
-					logger.warn("couldn't parse caldav:port '{}' to an integer");
-				}
-			} else {
-				if(tls) {
-					port = 443;
-				} else {
-					port = 80;
+					VEvent ve = (VEvent) eventIterator.next();
+					if (!clientFilter.matches(ve)) {
+						continue;
+					}
+					if (ve.getUid() != null && !seenEvents.add(ve.getUid().getValue() + "#"
+							+ (ve.getRecurrenceId() != null ? ve.getRecurrenceId().getValue() : ""))) {
+						continue;
+					}
+					if (hasTooManyCommands(ve)) {
+						continue;
+					}
+					if (limits.maxEvents > 0 && events.size() >= limits.maxEvents) {
+						droppedEvents++;
+						continue;
+					}
+					events.add(ve);
+					logger.debug("Got CalDav entry <{}>, with command <{}> for time interval: {} to  {} ", new Object[] { ve.getSummary(),
+							ve.getDescription() != null ? StringUtils.abbreviate(ve.getDescription().getValue(), LOGGED_CONTENT_LENGTH) : null,
+							ve.getStartDate(), ve.getEndDate() });
 				}
 			}
-			logger.trace("port: {}", port);
-
-
-
+		}
 
-			String urlString = (String) config.get("url");
-			url = urlString;
-			if (StringUtils.isBlank(url)) {
-				throw new ConfigurationException("caldav:url", "url must not be blank - please configure an aproppriate url in openhab.cfg");
+		/**
+		 * Checks the raw data of the resource for a description exceeding
+		 * <code>max-description-size</code>, without parsing it.
+		 */
+		private boolean hasOversizedDescription(CalendarResource resource) {
+			String calendarData = resource.getCalendarData();
+			int maxSize = limits.maxDescriptionSize;
+			// no description is longer than the whole resource
+			if (maxSize <= 0 || calendarData == null || calendarData.length() <= maxSize) {
+				return false;
 			}
-			logger.trace("url: {}", url);
-
-			//			filter = (String) config.get("filter");
+			int size = CalendarDataScanner.getLongestPropertyLength(calendarData, Property.DESCRIPTION);
+			if (size <= maxSize) {
+				return false;
+			}
+			String uid = CalendarDataScanner.getFirstPropertyValue(calendarData, Property.UID);
+			quarantined.put(uid != null ? uid : resource.getHref(),
+					"description of " + size + " chars exceeds max-description-size of " + maxSize);
+			return true;
+		}
 
-			String refreshString = (String) config.get("refresh");
-			if (StringUtils.isNotBlank(refreshString)) {
-				refreshInterval = Integer.parseInt(refreshString);
-				refreshInterval *= 1000;
+		private boolean hasTooManyCommands(VEvent event) {
+			int maxCommands = limits.maxCommands;
+			String content = event.getDescription() != null ? event.getDescription().getValue() : null;
+			// the commands are given one per line
+			if (maxCommands <= 0 || content == null || StringUtils.countMatches(content, "\n") < maxCommands) {
+				return false;
 			}
-			logger.trace("refreshInterval: {}ms", refreshInterval);
+			CalendarEventContent eventContent = parseEventContent(content);
+			int commands = countCommands(eventContent.startCommands) + countCommands(eventContent.endCommands);
+			if (commands <= maxCommands) {
+				return false;
+			}
+			quarantined.put(event.getUid() != null ? event.getUid().getValue() : String.valueOf(event.getSummary()),
+					commands + " commands exceed max-commands of " + maxCommands);
+			return true;
+		}
 
-			setProperlyConfigured(true);
-			logger.debug("CalDav event downloader successfuly configured");
+		private int countCommands(String commands) {
+			return StringUtils.isBlank(commands) ? 0 : ExecuteCommandJob.splitCommands(commands).length;
 		}
 	}
 
-
 }
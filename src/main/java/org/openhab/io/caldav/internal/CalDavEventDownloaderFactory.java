@@ -0,0 +1,459 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.lang.StringUtils;
+import org.openhab.io.caldav.internal.engine.QuartzTriggerEngine;
+import org.openhab.io.caldav.internal.engine.TimerWheelTriggerEngine;
+import org.openhab.io.caldav.internal.engine.TriggerEngine;
+import org.openhab.io.caldav.internal.util.CommandDispatcher;
+import org.openhab.io.caldav.internal.util.LeaderLease;
+import org.openhab.io.caldav.internal.util.ParallelCalendarParser;
+import org.openhab.io.caldav.internal.util.RateLimiter;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
+import org.osgi.service.cm.ManagedServiceFactory;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.impl.StdSchedulerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Creates a {@link CalDavEventDownloader} for each configured CalDav account.
+ * <p>
+ * The account configured in <code>openhab.cfg</code> (<code>caldav:</code>
+ * prefix) is received as {@link ManagedService} and named <code>default</code>.
+ * Further accounts are created through the Configuration Admin as factory
+ * configurations of the factory PID <code>org.openhab.caldav.account</code>;
+ * the optional property <code>account</code> names such an account,
+ * otherwise its PID is used. As a component registers all its services with
+ * the same <code>service.pid</code>, the {@link ManagedServiceFactory} is
+ * registered on activation rather than by Declarative Services.
+ * </p><p>
+ * All downloaders share a single poll executor, worker executor for the
+ * requests, http connection pool and quartz scheduler, so that many accounts don't need a thread each.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CalDavEventDownloaderFactory implements ManagedService, ManagedServiceFactory {
+
+	private static final Logger logger = LoggerFactory.getLogger(CalDavEventDownloaderFactory.class);
+
+	/** the id of the account configured in <code>openhab.cfg</code> */
+	public static final String DEFAULT_ACCOUNT = "default";
+
+	/** the PID the account of <code>openhab.cfg</code> is registered with */
+	private static final String DEFAULT_PID = "org.openhab.caldav";
+
+	/** the factory PID of the further accounts */
+	private static final String ACCOUNT_FACTORY_PID = "org.openhab.caldav.account";
+
+	/** the number of threads polling the calendars of all accounts */
+	private static final int POLL_THREADS = 2;
+
+	/** the number of threads sending the requests to the CalDav servers of all accounts */
+	private static final int WORKER_THREADS = 4;
+
+	/** the minimum number of stripes commands are dispatched on, one per core otherwise */
+	private static final int MIN_DISPATCH_STRIPES = 2;
+
+	/** the maximum number of http connections to all CalDav servers */
+	private static final int MAX_TOTAL_CONNECTIONS = 20;
+
+	/** the maximum number of http connections to a single CalDav server */
+	private static final int MAX_CONNECTIONS_PER_HOST = 4;
+
+	/** the time (in ms) establishing a connection to a CalDav server may take */
+	private static final int CONNECT_TIMEOUT = 10000;
+
+	/** the default number of commands which may wait for a rate limit */
+	private static final int DEFAULT_RATE_LIMIT_QUEUE = 50;
+
+	/** the default time (in seconds) a command may wait for a rate limit */
+	private static final int DEFAULT_RATE_LIMIT_DEADLINE = 60;
+
+	/** the default time (in seconds) the lease of the leader lasts without renewal */
+	private static final int DEFAULT_LEASE_TIME = 30;
+
+	/** the engine <code>caldav:trigger-engine</code> defaults to */
+	private static final String QUARTZ_ENGINE = "quartz";
+
+	/** the engine for calendars with many more triggers than Quartz handles comfortably */
+	private static final String TIMER_WHEEL_ENGINE = "timer-wheel";
+
+	/** the length (in ms) of a tick of the timer wheel */
+	private static final long TIMER_WHEEL_TICK = 1000;
+
+	/** holds the downloaders by the PID of their configuration */
+	private final Map<String, CalDavEventDownloader> downloaders = new ConcurrentHashMap<String, CalDavEventDownloader>();
+
+	private Scheduler scheduler;
+	private TriggerEngine triggerEngine;
+	private ScheduledExecutorService pollExecutor;
+	private ExecutorService workerExecutor;
+	private MultiThreadedHttpConnectionManager connectionManager;
+	private ServiceRegistration accountFactoryRegistration;
+
+	/**
+	 * renews the lease on a thread of its own, so that neither a slow poll nor
+	 * busy poll threads delay the renewal beyond the lease's local validity
+	 */
+	private ScheduledExecutorService leaseExecutor;
+
+	/** renews the lease of the cluster leader, <code>null</code> without coordination */
+	private ScheduledFuture<?> leaseTask;
+
+	/** the settings the rate limiters and the lease have been set up with, to restart them on changes only */
+	private String rateLimitSettings;
+	private String leaseSettings;
+
+
+	public void activate(BundleContext bundleContext) {
+		logger.debug("activate CalDavEventDownloaderFactory");
+		try {
+			scheduler = StdSchedulerFactory.getDefaultScheduler();
+		}
+		catch (SchedulerException se) {
+			logger.error("initializing scheduler throws exception", se);
+		}
+		triggerEngine = new QuartzTriggerEngine(scheduler);
+
+		pollExecutor = Executors.newScheduledThreadPool(POLL_THREADS, new NamedThreadFactory("CalDav Event-Downloader"));
+		workerExecutor = Executors.newFixedThreadPool(WORKER_THREADS, new NamedThreadFactory("CalDav Transport"));
+		leaseExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CalDav Lease"));
+
+		CommandDispatcher.start(Math.max(MIN_DISPATCH_STRIPES, Runtime.getRuntime().availableProcessors()));
+		ParallelCalendarParser.start(Runtime.getRuntime().availableProcessors());
+
+		connectionManager = new MultiThreadedHttpConnectionManager();
+		connectionManager.getParams().setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+		connectionManager.getParams().setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+		connectionManager.getParams().setConnectionTimeout(CONNECT_TIMEOUT);
+
+		// registered last, Configuration Admin calls updated right away
+		Hashtable<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(Constants.SERVICE_PID, ACCOUNT_FACTORY_PID);
+		accountFactoryRegistration = bundleContext.registerService(ManagedServiceFactory.class.getName(), this, properties);
+	}
+
+	public synchronized void deactivate() {
+		logger.debug("deactivate CalDavEventDownloaderFactory");
+		if (accountFactoryRegistration != null) {
+			accountFactoryRegistration.unregister();
+			accountFactoryRegistration = null;
+		}
+		for (CalDavEventDownloader downloader : downloaders.values()) {
+			downloader.stop();
+		}
+		downloaders.clear();
+		triggerEngine.shutdown();
+
+		if (leaseTask != null) {
+			leaseTask.cancel(false);
+			leaseTask = null;
+		}
+		LeaderLease.setInstance(null);
+		leaseSettings = null;
+		rateLimitSettings = null;
+		leaseExecutor.shutdownNow();
+		pollExecutor.shutdownNow();
+		CommandDispatcher.stop();
+		ParallelCalendarParser.stop();
+		workerExecutor.shutdownNow();
+		connectionManager.shutdown();
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public String getName() {
+		return "CalDav Calender Event-Downloader";
+	}
+
+	/**
+	 * Handles the configuration of <code>openhab.cfg</code>. It configures the
+	 * <code>default</code> account unless none of its connection parameters
+	 * is given.
+	 *
+	 * @{inheritDoc}
+	 */
+	public void updated(Dictionary<String, ?> config) throws ConfigurationException {
+		if (config == null) {
+			return;
+		}
+
+		synchronized (this) {
+			updateRateLimiters(config);
+			updateLease(config);
+			updateTriggerEngine(config);
+		}
+
+		if (StringUtils.isBlank((String) config.get("host")) && StringUtils.isBlank((String) config.get("url"))
+				&& StringUtils.isBlank((String) config.get("username"))) {
+			logger.debug("openhab.cfg contains no CalDav account");
+			deleted(DEFAULT_PID);
+			return;
+		}
+		updateDownloader(DEFAULT_PID, DEFAULT_ACCOUNT, config);
+	}
+
+	/**
+	 * Sets the rate limits of the command dispatch, which apply to the
+	 * commands of all accounts. <code>caldav:rate-limit</code> is a comma
+	 * separated list of <code>item-pattern:rate/burst</code> entries.
+	 */
+	private void updateRateLimiters(Dictionary<String, ?> config) throws ConfigurationException {
+		int queueCapacity = parseInt(config, "rate-limit-queue", DEFAULT_RATE_LIMIT_QUEUE);
+		int deadline = parseInt(config, "rate-limit-deadline", DEFAULT_RATE_LIMIT_DEADLINE);
+		String rateLimitString = (String) config.get("rate-limit");
+
+		// the limiters keep their tokens and queued commands unless their settings change
+		String settings = rateLimitString + "|" + queueCapacity + "|" + deadline;
+		if (settings.equals(rateLimitSettings)) {
+			return;
+		}
+
+		List<RateLimiter> limiters = new ArrayList<RateLimiter>();
+		if (StringUtils.isNotBlank(rateLimitString)) {
+			for (String spec : StringUtils.split(rateLimitString, ',')) {
+				if (StringUtils.isBlank(spec)) {
+					continue;
+				}
+				try {
+					limiters.add(RateLimiter.parse(spec.trim(), queueCapacity, deadline * 1000L));
+				}
+				catch (IllegalArgumentException iae) {
+					throw new ConfigurationException("caldav:rate-limit", iae.getMessage());
+				}
+			}
+		}
+		CommandDispatcher.setRateLimiters(limiters);
+		rateLimitSettings = settings;
+		logger.debug("rate limits: {}", limiters);
+	}
+
+	/**
+	 * Sets up the coordination of a cluster of openHAB nodes. With
+	 * <code>caldav:lease-file</code> configured, only the node holding the
+	 * lease in that (shared) file polls the calendars and executes commands.
+	 */
+	private void updateLease(Dictionary<String, ?> config) throws ConfigurationException {
+		String leaseFile = StringUtils.trimToNull((String) config.get("lease-file"));
+		String nodeId = StringUtils.trimToNull((String) config.get("node-id"));
+		long leaseTime = parseInt(config, "lease-time", DEFAULT_LEASE_TIME) * 1000L;
+
+		// a running lease is kept, re-electing the leader would pause the commands of all accounts
+		String settings = leaseFile + "|" + nodeId + "|" + leaseTime;
+		if (settings.equals(leaseSettings)) {
+			return;
+		}
+		leaseSettings = settings;
+
+		if (leaseTask != null) {
+			leaseTask.cancel(false);
+			leaseTask = null;
+		}
+
+		if (leaseFile == null) {
+			LeaderLease.setInstance(null);
+			return;
+		}
+
+		if (nodeId == null) {
+			try {
+				nodeId = InetAddress.getLocalHost().getHostName();
+			}
+			catch (UnknownHostException uhe) {
+				leaseSettings = null;
+				throw new ConfigurationException("caldav:node-id", "the host name is unknown, please configure a node id");
+			}
+		}
+
+		final LeaderLease lease = new LeaderLease(new File(leaseFile), nodeId, leaseTime);
+		LeaderLease.setInstance(lease);
+		leaseTask = leaseExecutor.scheduleAtFixedRate(new Runnable() {
+			private boolean leader = false;
+
+			public void run() {
+				boolean wasLeader = leader;
+				leader = lease.renew();
+				if (leader && !wasLeader) {
+					// the standby's schedule is as old as the last snapshot, poll right away -
+					// but not on this thread, the polls must not hold up the next renewal
+					for (final CalDavEventDownloader downloader : getDownloaders()) {
+						pollExecutor.execute(new Runnable() {
+							public void run() {
+								try {
+									downloader.execute();
+								}
+								catch (RuntimeException re) {
+									logger.error("polling CalDav account '" + downloader.getAccountId() + "' throws exception", re);
+								}
+							}
+						});
+					}
+				}
+			}
+		}, 0, leaseTime / 3, TimeUnit.MILLISECONDS);
+		logger.info("CalDav cluster coordination through lease '{}' as node '{}'", leaseFile, nodeId);
+	}
+
+	/**
+	 * Sets the engine which fires the jobs of all accounts, either
+	 * <code>quartz</code> or <code>timer-wheel</code>. The jobs of the
+	 * existing accounts move to the new engine.
+	 */
+	private void updateTriggerEngine(Dictionary<String, ?> config) throws ConfigurationException {
+		String engineName = StringUtils.defaultIfEmpty(StringUtils.trimToNull((String) config.get("trigger-engine")), QUARTZ_ENGINE);
+		if (engineName.equals(triggerEngine.toString())) {
+			return;
+		}
+
+		TriggerEngine engine;
+		if (QUARTZ_ENGINE.equals(engineName)) {
+			engine = new QuartzTriggerEngine(scheduler);
+		} else if (TIMER_WHEEL_ENGINE.equals(engineName)) {
+			TimerWheelTriggerEngine timerWheel = new TimerWheelTriggerEngine(TIMER_WHEEL_TICK);
+			timerWheel.start();
+			engine = timerWheel;
+		} else {
+			throw new ConfigurationException("caldav:trigger-engine", "'" + engineName + "' is unknown, use '"
+					+ QUARTZ_ENGINE + "' or '" + TIMER_WHEEL_ENGINE + "'");
+		}
+
+		TriggerEngine previousEngine = triggerEngine;
+		triggerEngine = engine;
+		for (CalDavEventDownloader downloader : downloaders.values()) {
+			downloader.setTriggerEngine(engine);
+		}
+		previousEngine.shutdown();
+		logger.info("CalDav jobs are fired by the {} engine", engine);
+	}
+
+	private static int parseInt(Dictionary<String, ?> config, String key, int defaultValue) throws ConfigurationException {
+		String value = (String) config.get(key);
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException nfe) {
+			throw new ConfigurationException("caldav:" + key, "'" + value + "' is not an integer");
+		}
+	}
+
+	/**
+	 * Handles a factory configuration, each one configures an account.
+	 *
+	 * @{inheritDoc}
+	 */
+	public void updated(String pid, Dictionary<String, ?> config) throws ConfigurationException {
+		String accountId = StringUtils.defaultIfEmpty(StringUtils.trimToNull((String) config.get("account")), pid);
+		updateDownloader(pid, accountId, config);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void deleted(String pid) {
+		CalDavEventDownloader downloader;
+		synchronized (this) {
+			downloader = downloaders.remove(pid);
+		}
+		// stopping waits for a running poll, which must not hold up the other accounts
+		if (downloader != null) {
+			downloader.stop();
+			logger.info("removed CalDav account '{}'", downloader.getAccountId());
+		}
+	}
+
+	/**
+	 * Creates or reconfigures the downloader of an account. The downloader
+	 * is configured outside of the factory's lock, so that a slow account
+	 * doesn't hold up the configuration of the others.
+	 */
+	private void updateDownloader(String pid, String accountId, Dictionary<String, ?> config) throws ConfigurationException {
+		CalDavEventDownloader renamed = null;
+		CalDavEventDownloader downloader;
+		synchronized (this) {
+			downloader = downloaders.get(pid);
+			if (downloader != null && !downloader.getAccountId().equals(accountId)) {
+				// the account has been renamed, its jobs move to a new group
+				renamed = downloaders.remove(pid);
+				downloader = null;
+			}
+
+			if (downloader == null) {
+				downloader = new CalDavEventDownloader(accountId, triggerEngine, pollExecutor, workerExecutor, connectionManager);
+				downloaders.put(pid, downloader);
+				logger.debug("created CalDav account '{}'", accountId);
+			}
+		}
+		if (renamed != null) {
+			renamed.stop();
+			logger.info("removed CalDav account '{}'", renamed.getAccountId());
+		}
+		downloader.updated(config);
+	}
+
+	/**
+	 * @return all downloaders, one per configured account
+	 */
+	public Collection<CalDavEventDownloader> getDownloaders() {
+		return new ArrayList<CalDavEventDownloader>(downloaders.values());
+	}
+
+
+	/**
+	 * Creates the daemon threads of the poll and worker executors
+	 */
+	private static class NamedThreadFactory implements ThreadFactory {
+
+		private final String namePrefix;
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		NamedThreadFactory(String namePrefix) {
+			this.namePrefix = namePrefix;
+		}
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, namePrefix + " " + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
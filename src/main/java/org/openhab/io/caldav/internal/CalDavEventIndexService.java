@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal;
+
+import java.util.List;
+
+import org.openhab.io.caldav.CalDavEvent;
+import org.openhab.io.caldav.CalDavEventService;
+import org.openhab.io.caldav.internal.util.EventIndex;
+
+
+/**
+ * The {@link CalDavEventService} registered for a single account. It answers
+ * all queries from the current {@link EventIndex} snapshot, which the
+ * {@link CalDavEventDownloader} replaces after each poll.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CalDavEventIndexService implements CalDavEventService {
+
+	private volatile EventIndex index = EventIndex.empty();
+
+
+	/**
+	 * Replaces the current index.
+	 *
+	 * @param index the index of the events of the last poll
+	 */
+	void setIndex(EventIndex index) {
+		this.index = index;
+	}
+
+	EventIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public List<CalDavEvent> activeAt(long time) {
+		return index.activeAt(time);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public CalDavEvent nextAfter(long time) {
+		return index.nextAfter(time);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public List<CalDavEvent> overlapping(long start, long end) {
+		return index.overlapping(start, end);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public List<CalDavEvent> withTitle(String title) {
+		return index.withTitle(title);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public List<CalDavEvent> withCategory(String category) {
+		return index.withCategory(category);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public long getLastUpdate() {
+		return index.getLastUpdate();
+	}
+
+}
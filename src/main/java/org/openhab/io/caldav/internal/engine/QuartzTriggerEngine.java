@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.engine;
+
+import static org.quartz.impl.matchers.GroupMatcher.jobGroupEquals;
+import static org.quartz.impl.matchers.GroupMatcher.triggerGroupEquals;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.commons.lang.math.LongRange;
+import org.openhab.io.caldav.internal.util.TimeRangeCalendar;
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * {@link TriggerEngine} backed by a Quartz {@link Scheduler}. The jobs,
+ * triggers and calendars are handed over to Quartz as they are.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class QuartzTriggerEngine implements TriggerEngine {
+
+	private static final Logger logger = LoggerFactory.getLogger(QuartzTriggerEngine.class);
+
+	private final Scheduler scheduler;
+
+
+	/**
+	 * @param scheduler the scheduler to schedule the jobs with, it isn't
+	 * shut down by this engine as it may be shared
+	 */
+	public QuartzTriggerEngine(Scheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Hands all jobs and their triggers over to the {@link Scheduler} with a
+	 * single call. Should the bulk call fail, every job is scheduled on its
+	 * own so that a single broken job doesn't prevent all others from being
+	 * scheduled.
+	 *
+	 * @{inheritDoc}
+	 */
+	public void scheduleJobs(Map<JobDetail, List<Trigger>> jobsAndTriggers) {
+		try {
+			scheduler.scheduleJobs(jobsAndTriggers, true);
+		}
+		catch (SchedulerException bulkException) {
+			logger.warn("scheduling {} jobs at once throws an exception - scheduling them one by one", jobsAndTriggers.size(), bulkException);
+
+			Iterator<Entry<JobDetail, List<Trigger>>> entryIterator = jobsAndTriggers.entrySet().iterator();
+			while (entryIterator.hasNext()) {
+				Entry<JobDetail, List<Trigger>> entry = entryIterator.next();
+				for (Trigger trigger : entry.getValue()) {
+					try {
+						scheduler.scheduleJob(entry.getKey(), trigger);
+					}
+					catch (SchedulerException se) {
+						logger.warn("scheduling Trigger '" + trigger + "' throws an exception.", se);
+						entryIterator.remove();
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void deleteJobs(String group) throws SchedulerException {
+		Set<JobKey> jobKeys = scheduler.getJobKeys(jobGroupEquals(group));
+		scheduler.deleteJobs(new ArrayList<JobKey>(jobKeys));
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void deleteJob(JobKey jobKey) throws SchedulerException {
+		scheduler.deleteJob(jobKey);
+	}
+
+	/**
+	 * Quartz is not asked to rebase all Triggers of a changed calendar.
+	 * Instead only those Triggers whose start time lies within a changed
+	 * TimeRange are rescheduled.
+	 *
+	 * @{inheritDoc}
+	 */
+	public void addCalendar(String calendarName, TimeRangeCalendar calendar, String group, List<LongRange> changedRanges)
+			throws SchedulerException {
+		scheduler.addCalendar(calendarName, calendar, true, false);
+		if (!changedRanges.isEmpty()) {
+			rebaseTriggers(calendarName, group, changedRanges);
+		}
+	}
+
+	/**
+	 * Reschedules all Triggers which are modified by the calendar <code>calendarName</code>
+	 * and whose start time lies within one of the <code>changedRanges</code>.
+	 * Rescheduling lets Quartz compute the next fire time against the updated
+	 * calendar. Triggers which won't ever fire on the updated calendar are
+	 * unscheduled.
+	 *
+	 * @param calendarName the name of the changed calendar
+	 * @param group the group of the triggers to rebase
+	 * @param changedRanges the TimeRanges which have been added or removed
+	 * @throws SchedulerException if there is an internal Scheduler error.
+	 */
+	private void rebaseTriggers(String calendarName, String group, List<LongRange> changedRanges) throws SchedulerException {
+		for (TriggerKey triggerKey : scheduler.getTriggerKeys(triggerGroupEquals(group))) {
+			Trigger trigger = scheduler.getTrigger(triggerKey);
+			if (trigger == null || !calendarName.equals(trigger.getCalendarName())) {
+				continue;
+			}
+
+			long startTime = trigger.getStartTime().getTime();
+			for (LongRange changedRange : changedRanges) {
+				if (changedRange.containsLong(startTime)) {
+					try {
+						scheduler.rescheduleJob(triggerKey, trigger.getTriggerBuilder().build());
+						logger.debug("rebased trigger '{}' on calendar '{}'", triggerKey, calendarName);
+					}
+					catch (SchedulerException se) {
+						// Quartz refuses triggers which will never fire
+						logger.debug("trigger '{}' won't fire on calendar '{}' anymore, unscheduling it", triggerKey, calendarName);
+						scheduler.unscheduleJob(triggerKey);
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void deleteCalendar(String calendarName) throws SchedulerException {
+		scheduler.deleteCalendar(calendarName);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public boolean isShutdown() throws SchedulerException {
+		return scheduler.isShutdown();
+	}
+
+	/**
+	 * Leaves the scheduler running, it is shared with the rest of openHAB.
+	 *
+	 * @{inheritDoc}
+	 */
+	public void shutdown() {
+	}
+
+	@Override
+	public String toString() {
+		return "quartz";
+	}
+
+}
@@ -0,0 +1,538 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.engine;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.lang.math.LongRange;
+import org.openhab.io.caldav.internal.util.ExecuteCommandJob;
+import org.openhab.io.caldav.internal.util.ScheduleJournal;
+import org.openhab.io.caldav.internal.util.ScheduleJournal.Decision;
+import org.openhab.io.caldav.internal.util.TimeRangeCalendar;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * {@link TriggerEngine} based on a hierarchical hashed timer wheel, for
+ * calendars with many more triggers than Quartz handles comfortably.
+ * <p>
+ * The planned jobs and triggers are not kept: each trigger becomes an entry
+ * of parallel primitive arrays (expiry tick, fire times, slot links), the
+ * strings it needs to execute (job name, content, calendar) are shared with
+ * the plan. The wheel has {@value #LEVELS} levels of {@value #SLOTS} slots;
+ * an entry is linked into the slot of its expiry tick on the lowest level
+ * which covers it and cascades down a level whenever the level below has
+ * completed a round. Inserting and cancelling an entry is O(1).
+ * </p><p>
+ * A tick lasts <code>tickMillis</code>, triggers never fire early but up to
+ * a tick late. A trigger modified by an exclusion calendar fires only if
+ * the calendar includes its fire time when it is scheduled and when it
+ * fires, so calendar changes take effect without rebasing the triggers.
+ * Triggers of the same tick fire in the order of their fire times, end
+ * commands before start commands.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class TimerWheelTriggerEngine implements TriggerEngine, Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(TimerWheelTriggerEngine.class);
+
+	private static final int LEVELS = 4;
+	private static final int SLOT_BITS = 8;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int NIL = -1;
+
+	private final long tickMillis;
+
+	/** the first entry of each slot, level by level */
+	private final int[] slotHeads = new int[LEVELS * SLOTS];
+
+	// the entries, free entries are chained by next
+	private long[] expiryTicks;
+	private long[] fireTimes;
+	private long[] plannedFireTimes;
+	private long[] misfireGraces;
+	private int[] next;
+	private int[] previous;
+	private int[] slots;
+	private int[] jobNext;
+	private String[] jobNames;
+	private String[] groups;
+	private String[] contents;
+	private String[] calendarNames;
+	private int freeHead = NIL;
+	private int used = 0;
+	private int size = 0;
+
+	/** the last tick which has been processed */
+	private long currentTick;
+
+	/** the first entry of each job by job name and group, the entries of a job are chained by jobNext */
+	private final Map<String, Map<String, Integer>> jobs = new HashMap<String, Map<String, Integer>>();
+
+	private final Map<String, TimeRangeCalendar> calendars = new HashMap<String, TimeRangeCalendar>();
+	private final Map<String, Integer> calendarReferences = new HashMap<String, Integer>();
+
+	private final ExecuteCommandJob commandJob = new ExecuteCommandJob();
+	private Thread worker;
+	private volatile boolean shutdown = false;
+
+
+	/**
+	 * @param tickMillis the length (in ms) of a tick
+	 */
+	public TimerWheelTriggerEngine(long tickMillis) {
+		this.tickMillis = tickMillis;
+		this.currentTick = System.currentTimeMillis() / tickMillis;
+		Arrays.fill(slotHeads, NIL);
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Starts the thread which fires the jobs.
+	 */
+	public synchronized void start() {
+		if (worker == null) {
+			worker = new Thread(this, "CalDav Timer Wheel");
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public synchronized void scheduleJobs(Map<JobDetail, List<Trigger>> jobsAndTriggers) {
+		Iterator<Entry<JobDetail, List<Trigger>>> entryIterator = jobsAndTriggers.entrySet().iterator();
+		while (entryIterator.hasNext()) {
+			Entry<JobDetail, List<Trigger>> entry = entryIterator.next();
+			JobKey jobKey = entry.getKey().getKey();
+			removeJob(jobKey.getGroup(), jobKey.getName());
+
+			String content = entry.getKey().getJobDataMap().getString(ExecuteCommandJob.JOB_DATA_CONTENT_KEY);
+			for (Trigger trigger : entry.getValue()) {
+				long fireTime = trigger.getStartTime().getTime();
+				String calendarName = trigger.getCalendarName();
+				if (calendarName != null) {
+					TimeRangeCalendar calendar = calendars.get(calendarName);
+					if (calendar == null || !calendar.isTimeIncluded(fireTime)) {
+						// Quartz refuses triggers which will never fire the same way
+						logger.debug("trigger '{}' will never fire on calendar '{}'", trigger.getKey(), calendarName);
+						removeJob(jobKey.getGroup(), jobKey.getName());
+						entryIterator.remove();
+						break;
+					}
+				}
+
+				JobDataMap triggerData = trigger.getJobDataMap();
+				long plannedFireTime = triggerData.containsKey(ExecuteCommandJob.JOB_DATA_PLANNED_FIRE_TIME_KEY)
+						? triggerData.getLong(ExecuteCommandJob.JOB_DATA_PLANNED_FIRE_TIME_KEY) : fireTime;
+				long misfireGrace = triggerData.containsKey(ExecuteCommandJob.JOB_DATA_MISFIRE_GRACE_KEY)
+						? triggerData.getLong(ExecuteCommandJob.JOB_DATA_MISFIRE_GRACE_KEY) : -1;
+				add(jobKey.getGroup(), jobKey.getName(), content, calendarName, fireTime, plannedFireTime, misfireGrace);
+			}
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public synchronized void deleteJobs(String group) {
+		Map<String, Integer> groupJobs = jobs.remove(group);
+		if (groupJobs == null) {
+			return;
+		}
+		for (Integer head : groupJobs.values()) {
+			for (int entry = head; entry != NIL; ) {
+				int following = jobNext[entry];
+				free(entry);
+				entry = following;
+			}
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public synchronized void deleteJob(JobKey jobKey) {
+		removeJob(jobKey.getGroup(), jobKey.getName());
+	}
+
+	/**
+	 * The calendar is consulted whenever a trigger fires, so no trigger has
+	 * to be rebased.
+	 *
+	 * @{inheritDoc}
+	 */
+	public synchronized void addCalendar(String calendarName, TimeRangeCalendar calendar, String group,
+			List<LongRange> changedRanges) {
+		calendars.put(calendarName, (TimeRangeCalendar) calendar.clone());
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public synchronized void deleteCalendar(String calendarName) throws SchedulerException {
+		if (calendarReferences.containsKey(calendarName)) {
+			throw new SchedulerException("calendar '" + calendarName + "' is still referenced by a trigger");
+		}
+		calendars.remove(calendarName);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void shutdown() {
+		shutdown = true;
+		Thread thread;
+		synchronized (this) {
+			thread = worker;
+			worker = null;
+		}
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * @return the number of scheduled triggers
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Fires the due jobs tick by tick. Ticks which have passed while the
+	 * thread was suspended are caught up, the misfire grace of the jobs
+	 * decides whether they still execute.
+	 */
+	public void run() {
+		List<Firing> firings = new ArrayList<Firing>();
+		while (!shutdown) {
+			synchronized (this) {
+				long nowTick = System.currentTimeMillis() / tickMillis;
+				while (currentTick < nowTick) {
+					advance(currentTick + 1, firings);
+				}
+			}
+			fire(firings);
+			firings.clear();
+
+			long sleep = (currentTick + 1) * tickMillis - System.currentTimeMillis();
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				}
+				catch (InterruptedException ie) {
+					if (shutdown) {
+						break;
+					}
+				}
+			}
+		}
+		logger.debug("timer wheel has been shut down");
+	}
+
+	/**
+	 * Processes a tick: cascades the slots of the higher levels which are
+	 * due and collects the entries of the current slot of the lowest level.
+	 */
+	void advance(long tick, List<Firing> firings) {
+		currentTick = tick;
+		for (int level = 1; level < LEVELS; level++) {
+			if ((tick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+				break;
+			}
+			int slot = level * SLOTS + (int) ((tick >> (SLOT_BITS * level)) & SLOT_MASK);
+			int entry = slotHeads[slot];
+			slotHeads[slot] = NIL;
+			while (entry != NIL) {
+				int following = next[entry];
+				link(entry);
+				entry = following;
+			}
+		}
+
+		int slot = (int) (tick & SLOT_MASK);
+		int entry = slotHeads[slot];
+		int firstFiring = firings.size();
+		while (entry != NIL) {
+			int following = next[entry];
+			String calendarName = calendarNames[entry];
+			TimeRangeCalendar calendar = calendarName != null ? calendars.get(calendarName) : null;
+			if (calendar != null && !calendar.isTimeIncluded(fireTimes[entry])) {
+				logger.debug("skipping job '{}' as calendar '{}' excludes it", jobNames[entry], calendarName);
+				ScheduleJournal.recordFor(groups[entry], Decision.EXCLUSION_APPLIED, jobNames[entry], plannedFireTimes[entry], calendarName);
+			} else {
+				firings.add(new Firing(new JobKey(jobNames[entry], groups[entry]), contents[entry],
+						fireTimes[entry], plannedFireTimes[entry], misfireGraces[entry]));
+			}
+			removeFromJob(entry);
+			free(entry);
+			entry = following;
+		}
+		Collections.sort(firings.subList(firstFiring, firings.size()), FIRING_ORDER);
+	}
+
+	private void fire(List<Firing> firings) {
+		for (Firing firing : firings) {
+			long delay = System.currentTimeMillis() - firing.plannedFireTime;
+			if (firing.misfireGrace >= 0 && delay > firing.misfireGrace) {
+				logger.info("skipping job '{}' as it fires {}ms later than planned", firing.jobKey, delay);
+				ScheduleJournal.recordFor(firing.jobKey.getGroup(), Decision.JOB_SKIPPED, firing.jobKey.getName(),
+						firing.plannedFireTime, "misfire");
+				continue;
+			}
+			try {
+				commandJob.execute(firing.jobKey, firing.content, firing.plannedFireTime);
+			}
+			catch (JobExecutionException jee) {
+				logger.error("executing job '" + firing.jobKey + "' throws exception", jee);
+			}
+			catch (RuntimeException re) {
+				logger.error("executing job '" + firing.jobKey + "' throws exception", re);
+			}
+		}
+	}
+
+	private void add(String group, String jobName, String content, String calendarName, long fireTime,
+			long plannedFireTime, long misfireGrace) {
+		if (freeHead == NIL) {
+			allocate(expiryTicks.length * 2);
+		}
+		int entry = freeHead;
+		freeHead = next[entry];
+		size++;
+
+		// the entry expires at the first tick which doesn't start before its fire time
+		expiryTicks[entry] = Math.max(currentTick + 1, (fireTime + tickMillis - 1) / tickMillis);
+		fireTimes[entry] = fireTime;
+		plannedFireTimes[entry] = plannedFireTime;
+		misfireGraces[entry] = misfireGrace;
+		jobNames[entry] = jobName;
+		groups[entry] = group;
+		contents[entry] = content;
+		calendarNames[entry] = calendarName;
+		if (calendarName != null) {
+			Integer references = calendarReferences.get(calendarName);
+			calendarReferences.put(calendarName, references == null ? 1 : references + 1);
+		}
+
+		Map<String, Integer> groupJobs = jobs.get(group);
+		if (groupJobs == null) {
+			groupJobs = new HashMap<String, Integer>();
+			jobs.put(group, groupJobs);
+		}
+		Integer head = groupJobs.put(jobName, entry);
+		jobNext[entry] = head != null ? head : NIL;
+
+		link(entry);
+	}
+
+	/**
+	 * Links the entry into the slot of its expiry tick on the lowest level
+	 * which covers it. Entries beyond the last level are linked into the slot
+	 * cascaded last and are placed again then.
+	 */
+	private void link(int entry) {
+		long delta = expiryTicks[entry] - currentTick;
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+			level++;
+		}
+		long index = delta >= 1L << (SLOT_BITS * LEVELS)
+				? (currentTick >> (SLOT_BITS * level)) - 1
+				: expiryTicks[entry] >> (SLOT_BITS * level);
+		int slot = level * SLOTS + (int) (index & SLOT_MASK);
+
+		slots[entry] = slot;
+		previous[entry] = NIL;
+		next[entry] = slotHeads[slot];
+		if (slotHeads[slot] != NIL) {
+			previous[slotHeads[slot]] = entry;
+		}
+		slotHeads[slot] = entry;
+	}
+
+	private void unlink(int entry) {
+		if (previous[entry] != NIL) {
+			next[previous[entry]] = next[entry];
+		} else if (slotHeads[slots[entry]] == entry) {
+			slotHeads[slots[entry]] = next[entry];
+		}
+		if (next[entry] != NIL) {
+			previous[next[entry]] = previous[entry];
+		}
+	}
+
+	private void removeJob(String group, String jobName) {
+		Map<String, Integer> groupJobs = jobs.get(group);
+		Integer head = groupJobs != null ? groupJobs.remove(jobName) : null;
+		if (head == null) {
+			return;
+		}
+		for (int entry = head; entry != NIL; ) {
+			int following = jobNext[entry];
+			free(entry);
+			entry = following;
+		}
+	}
+
+	/**
+	 * Removes a single entry from the chain of its job.
+	 */
+	private void removeFromJob(int entry) {
+		Map<String, Integer> groupJobs = jobs.get(groups[entry]);
+		Integer head = groupJobs != null ? groupJobs.get(jobNames[entry]) : null;
+		if (head == null) {
+			return;
+		}
+		if (head == entry) {
+			if (jobNext[entry] == NIL) {
+				groupJobs.remove(jobNames[entry]);
+			} else {
+				groupJobs.put(jobNames[entry], jobNext[entry]);
+			}
+			return;
+		}
+		for (int current = head; jobNext[current] != NIL; current = jobNext[current]) {
+			if (jobNext[current] == entry) {
+				jobNext[current] = jobNext[entry];
+				return;
+			}
+		}
+	}
+
+	private void free(int entry) {
+		if (slots[entry] != NIL) {
+			unlink(entry);
+		}
+		String calendarName = calendarNames[entry];
+		if (calendarName != null) {
+			int references = calendarReferences.get(calendarName) - 1;
+			if (references == 0) {
+				calendarReferences.remove(calendarName);
+			} else {
+				calendarReferences.put(calendarName, references);
+			}
+		}
+		jobNames[entry] = null;
+		groups[entry] = null;
+		contents[entry] = null;
+		calendarNames[entry] = null;
+		slots[entry] = NIL;
+		next[entry] = freeHead;
+		freeHead = entry;
+		size--;
+	}
+
+	private void allocate(int capacity) {
+		// System.arraycopy instead of Arrays.copyOf, which isn't available on J2SE-1.5
+		expiryTicks = (long[]) grow(expiryTicks, new long[capacity]);
+		fireTimes = (long[]) grow(fireTimes, new long[capacity]);
+		plannedFireTimes = (long[]) grow(plannedFireTimes, new long[capacity]);
+		misfireGraces = (long[]) grow(misfireGraces, new long[capacity]);
+		next = (int[]) grow(next, new int[capacity]);
+		previous = (int[]) grow(previous, new int[capacity]);
+		slots = (int[]) grow(slots, new int[capacity]);
+		jobNext = (int[]) grow(jobNext, new int[capacity]);
+		jobNames = (String[]) grow(jobNames, new String[capacity]);
+		groups = (String[]) grow(groups, new String[capacity]);
+		contents = (String[]) grow(contents, new String[capacity]);
+		calendarNames = (String[]) grow(calendarNames, new String[capacity]);
+
+		// chain the new entries into the free list
+		for (int entry = capacity - 1; entry >= used; entry--) {
+			slots[entry] = NIL;
+			next[entry] = freeHead;
+			freeHead = entry;
+		}
+		used = capacity;
+	}
+
+	/**
+	 * Copies the entries of an array into a larger one.
+	 *
+	 * @param array the array to copy, may be <code>null</code>
+	 * @param larger the new array
+	 * @return the new array
+	 */
+	private static Object grow(Object array, Object larger) {
+		if (array != null) {
+			System.arraycopy(array, 0, larger, 0, Array.getLength(array));
+		}
+		return larger;
+	}
+
+	@Override
+	public String toString() {
+		return "timer-wheel";
+	}
+
+
+	private static final Comparator<Firing> FIRING_ORDER = new Comparator<Firing>() {
+		public int compare(Firing f1, Firing f2) {
+			if (f1.fireTime != f2.fireTime) {
+				return f1.fireTime < f2.fireTime ? -1 : 1;
+			}
+			boolean end1 = ExecuteCommandJob.isEndJob(f1.jobKey);
+			boolean end2 = ExecuteCommandJob.isEndJob(f2.jobKey);
+			return end1 == end2 ? 0 : (end1 ? -1 : 1);
+		}
+	};
+
+	/**
+	 * A due job, collected under the lock of the wheel and executed after
+	 */
+	static class Firing {
+
+		final JobKey jobKey;
+		final String content;
+		final long fireTime;
+		final long plannedFireTime;
+		final long misfireGrace;
+
+		Firing(JobKey jobKey, String content, long fireTime, long plannedFireTime, long misfireGrace) {
+			this.jobKey = jobKey;
+			this.content = content;
+			this.fireTime = fireTime;
+			this.plannedFireTime = plannedFireTime;
+			this.misfireGrace = misfireGrace;
+		}
+	}
+
+}
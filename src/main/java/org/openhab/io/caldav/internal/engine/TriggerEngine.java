@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.engine;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.math.LongRange;
+import org.openhab.io.caldav.internal.util.TimeRangeCalendar;
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+
+
+/**
+ * Fires the jobs planned by the CalDav downloaders. The jobs and triggers
+ * are planned as Quartz {@link JobDetail}s and {@link Trigger}s (single
+ * shot, optionally modified by an exclusion calendar); an engine may keep
+ * them in any form it likes once they are scheduled.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public interface TriggerEngine {
+
+	/**
+	 * Schedules the given jobs, replacing scheduled jobs with the same key.
+	 * Should a job fail to schedule, it is removed from
+	 * <code>jobsAndTriggers</code> and the others are scheduled nonetheless.
+	 *
+	 * @param jobsAndTriggers the jobs and the triggers to schedule them with
+	 * @throws SchedulerException if there is an internal scheduler error
+	 */
+	void scheduleJobs(Map<JobDetail, List<Trigger>> jobsAndTriggers) throws SchedulerException;
+
+	/**
+	 * Removes all jobs of the given group and their triggers.
+	 *
+	 * @throws SchedulerException if there is an internal scheduler error
+	 */
+	void deleteJobs(String group) throws SchedulerException;
+
+	/**
+	 * Removes a single job and its triggers, if it is scheduled.
+	 *
+	 * @throws SchedulerException if there is an internal scheduler error
+	 */
+	void deleteJob(JobKey jobKey) throws SchedulerException;
+
+	/**
+	 * Adds or replaces an exclusion calendar. The triggers of
+	 * <code>group</code> which are modified by the calendar and start within
+	 * one of the <code>changedRanges</code> fire according to the new ranges.
+	 *
+	 * @param calendarName the name of the calendar
+	 * @param calendar the calendar
+	 * @param group the group of the triggers modified by the calendar
+	 * @param changedRanges the ranges which have been added or removed, empty
+	 * for a new calendar
+	 * @throws SchedulerException if there is an internal scheduler error
+	 */
+	void addCalendar(String calendarName, TimeRangeCalendar calendar, String group, List<LongRange> changedRanges)
+			throws SchedulerException;
+
+	/**
+	 * Removes an exclusion calendar.
+	 *
+	 * @throws SchedulerException if the calendar is still referenced by a
+	 * trigger
+	 */
+	void deleteCalendar(String calendarName) throws SchedulerException;
+
+	/**
+	 * @return <code>true</code> if the engine doesn't fire jobs anymore
+	 * @throws SchedulerException if there is an internal scheduler error
+	 */
+	boolean isShutdown() throws SchedulerException;
+
+	/**
+	 * Stops firing jobs and releases the resources of the engine.
+	 */
+	void shutdown();
+
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.transport;
+
+import org.osaf.caldav4j.model.request.CalendarQuery;
+
+
+/**
+ * Sends requests to a CalDav collection. Requests are asynchronous: the
+ * caller receives a {@link TransportRequest} right away and may be notified
+ * by a {@link TransportCallback} on completion, so that several requests can
+ * be in flight without blocking the poller.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public interface CalDavTransport {
+
+	/**
+	 * Sends a <code>calendar-query</code> REPORT to the collection.
+	 *
+	 * @param query the query to send
+	 * @param callback notified on completion, may be <code>null</code>
+	 * @return the matching calendar resources, unparsed
+	 */
+	TransportRequest query(CalendarQuery query, TransportCallback callback);
+
+	/**
+	 * @return a short description of the collection this transport talks to
+	 */
+	String getCollectionInfo();
+
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.transport;
+
+
+/**
+ * A single resource of a CalDav collection as received from the server. The
+ * calendar data is kept as text, parsing it is up to the caller.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CalendarResource {
+
+	private final String href;
+	private final String etag;
+	private final String calendarData;
+
+
+	public CalendarResource(String href, String etag, String calendarData) {
+		this.href = href;
+		this.etag = etag;
+		this.calendarData = calendarData;
+	}
+
+	public String getHref() {
+		return href;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public String getCalendarData() {
+		return calendarData;
+	}
+
+	@Override
+	public String toString() {
+		return "CalendarResource [href=" + href + ", etag=" + etag + "]";
+	}
+
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.transport;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.osaf.caldav4j.model.request.CalendarQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Guards a {@link CalDavTransport} with a circuit breaker, so that a failing
+ * CalDav server isn't hammered with requests. After
+ * <code>failureThreshold</code> consecutive failed requests the circuit
+ * opens and all requests fail right away with a {@link CircuitOpenException}.
+ * Once <code>openTime</code> has passed, the circuit is half open: a single
+ * request is sent to probe the server while the others still fail right
+ * away. The success of the probe closes the circuit, its failure opens it
+ * once more. Requests which are timed out count as failures, requests which
+ * are cancelled don't count at all.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CircuitBreakerTransport implements CalDavTransport {
+
+	private static final Logger logger = LoggerFactory.getLogger(CircuitBreakerTransport.class);
+
+	/**
+	 * The states of the circuit
+	 */
+	public enum State {
+		/** requests are sent */
+		CLOSED,
+		/** requests fail right away */
+		OPEN,
+		/** a single request is sent to probe whether the server has recovered */
+		HALF_OPEN
+	}
+
+	private final CalDavTransport transport;
+	private final int failureThreshold;
+	private final long openTime;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures = 0;
+	private long openedAt = 0;
+	private long rejectedRequests = 0;
+
+	/** whether the probe of the half open circuit is in flight */
+	private boolean probing = false;
+
+
+	/**
+	 * @param transport the transport to guard
+	 * @param failureThreshold the number of consecutive failures which open
+	 * the circuit
+	 * @param openTime the time (in ms) the circuit stays open before requests
+	 * are sent again
+	 */
+	public CircuitBreakerTransport(CalDavTransport transport, int failureThreshold, long openTime) {
+		this.transport = transport;
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.openTime = openTime;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public TransportRequest query(CalendarQuery query, final TransportCallback callback) {
+		boolean probe = false;
+		CircuitOpenException rejection = null;
+		synchronized (this) {
+			if (allowRequest()) {
+				probe = state == State.HALF_OPEN;
+				if (probe) {
+					probing = true;
+				}
+			} else {
+				rejection = new CircuitOpenException("the circuit to " + getCollectionInfo() + " is "
+						+ (state == State.OPEN ? "open" : "being probed") + " after " + consecutiveFailures + " failed requests");
+			}
+		}
+		if (rejection != null) {
+			return reject(rejection, callback);
+		}
+
+		TransportRequest request = transport.query(query, new TransportCallback() {
+			public void started() {
+				if (callback != null) {
+					callback.started();
+				}
+			}
+
+			public void completed(List<CalendarResource> resources) {
+				recordSuccess();
+				if (callback != null) {
+					callback.completed(resources);
+				}
+			}
+
+			public void failed(Exception exception) {
+				recordFailure(exception);
+				if (callback != null) {
+					callback.failed(exception);
+				}
+			}
+		});
+		return probe ? new ProbeRequest(request) : request;
+	}
+
+	/**
+	 * Fails a request right away as the circuit is open.
+	 */
+	private static TransportRequest reject(CircuitOpenException exception, TransportCallback callback) {
+		RejectedRequest rejected = new RejectedRequest(exception);
+		rejected.run();
+		if (callback != null) {
+			callback.failed(exception);
+		}
+		return rejected;
+	}
+
+	private synchronized boolean allowRequest() {
+		if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openTime) {
+			logger.debug("the circuit to {} is half open, probing the server", getCollectionInfo());
+			state = State.HALF_OPEN;
+			probing = false;
+		}
+		if (state == State.OPEN || (state == State.HALF_OPEN && probing)) {
+			rejectedRequests++;
+			return false;
+		}
+		return true;
+	}
+
+	private synchronized void recordSuccess() {
+		if (state != State.CLOSED) {
+			logger.info("the CalDav server {} has recovered, closing the circuit", getCollectionInfo());
+		}
+		state = State.CLOSED;
+		consecutiveFailures = 0;
+		probing = false;
+	}
+
+	private synchronized void recordFailure(Exception exception) {
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+			logger.warn("opening the circuit to {} for {}ms after {} failed requests, the last one failed with: {}",
+					new Object[] { getCollectionInfo(), openTime, consecutiveFailures, exception.toString() });
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+		probing = false;
+	}
+
+	/**
+	 * Lets the next request probe the server, as the probe has been
+	 * cancelled without an outcome.
+	 */
+	private synchronized void probeCancelled() {
+		if (state == State.HALF_OPEN) {
+			probing = false;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if requests fail right away, i.e. the
+	 * circuit is open and not yet due to be probed
+	 */
+	public synchronized boolean isOpen() {
+		return state == State.OPEN && System.currentTimeMillis() - openedAt < openTime;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public String getCollectionInfo() {
+		return transport.getCollectionInfo();
+	}
+
+	@Override
+	public synchronized String toString() {
+		String info = state + " (" + consecutiveFailures + " consecutive failures, " + rejectedRequests + " requests rejected";
+		if (state == State.OPEN) {
+			info += ", probing in " + Math.max(0, openedAt + openTime - System.currentTimeMillis()) + "ms";
+		}
+		return info + ")";
+	}
+
+
+
+	/**
+	 * A request which has been rejected as the circuit is open
+	 */
+	private static class RejectedRequest extends FutureTask<List<CalendarResource>> implements TransportRequest {
+
+		RejectedRequest(final CircuitOpenException exception) {
+			super(new Callable<List<CalendarResource>>() {
+				public List<CalendarResource> call() throws Exception {
+					throw exception;
+				}
+			});
+		}
+
+		/**
+		 * @{inheritDoc}
+		 */
+		public boolean timeOut() {
+			return false;
+		}
+	}
+
+	/**
+	 * The probe of the half open circuit. If it is cancelled, the next
+	 * request probes the server instead.
+	 */
+	private class ProbeRequest implements TransportRequest {
+
+		private final TransportRequest request;
+
+		ProbeRequest(TransportRequest request) {
+			this.request = request;
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = request.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				probeCancelled();
+			}
+			return cancelled;
+		}
+
+		public boolean timeOut() {
+			return request.timeOut();
+		}
+
+		public boolean isCancelled() {
+			return request.isCancelled();
+		}
+
+		public boolean isDone() {
+			return request.isDone();
+		}
+
+		public List<CalendarResource> get() throws InterruptedException, ExecutionException {
+			return request.get();
+		}
+
+		public List<CalendarResource> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return request.get(timeout, unit);
+		}
+	}
+
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.transport;
+
+import org.osaf.caldav4j.exceptions.CalDAV4JException;
+
+
+/**
+ * Signals that a request hasn't been sent because the circuit to the CalDav
+ * server is open.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CircuitOpenException extends CalDAV4JException {
+
+	private static final long serialVersionUID = -3093527715046614842L;
+
+	public CircuitOpenException(String message) {
+		super(message);
+	}
+
+}
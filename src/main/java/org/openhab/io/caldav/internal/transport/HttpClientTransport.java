@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.osaf.caldav4j.exceptions.CalDAV4JException;
+import org.osaf.caldav4j.methods.CalDAV4JMethodFactory;
+import org.osaf.caldav4j.methods.CalDAVReportMethod;
+import org.osaf.caldav4j.methods.HttpClient;
+import org.osaf.caldav4j.model.request.CalendarQuery;
+import org.osaf.caldav4j.model.response.CalDAVResponse;
+import org.osaf.caldav4j.model.response.CalendarDataProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * {@link CalDavTransport} based on commons-httpclient. The (blocking) requests
+ * run on a shared worker executor, connections are taken from the pool of the
+ * given {@link HttpClient} and kept alive between requests, so that all
+ * requests to a server reuse a few connections.
+ * <p>
+ * As a blocking read of commons-httpclient doesn't respond to interrupts,
+ * cancelling a request aborts its method, which closes the connection and
+ * frees the worker right away.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class HttpClientTransport implements CalDavTransport {
+
+	private static final Logger logger = LoggerFactory.getLogger(HttpClientTransport.class);
+
+	private final HttpClient httpClient;
+	private final String collectionPath;
+	private final ExecutorService executor;
+	private final CalDAV4JMethodFactory methodFactory = new CalDAV4JMethodFactory();
+
+
+	/**
+	 * @param httpClient the client (including host configuration and
+	 * credentials) to send the requests with
+	 * @param collectionPath the path of the CalDav collection
+	 * @param executor the executor to run the requests on
+	 */
+	public HttpClientTransport(HttpClient httpClient, String collectionPath, ExecutorService executor) {
+		this.httpClient = httpClient;
+		this.collectionPath = collectionPath;
+		this.executor = executor;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public TransportRequest query(CalendarQuery query, TransportCallback callback) {
+		CalDAVReportMethod method = methodFactory.createCalDAVReportMethod();
+		method.setPath(collectionPath);
+		method.setReportRequest(query);
+
+		ReportTask task = new ReportTask(method, callback);
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Sends the REPORT and extracts the calendar data of each resource of
+	 * the multistatus response.
+	 *
+	 * @param method the method holding the query to send
+	 * @return the received resources
+	 * @throws CalDAV4JException if the request fails or the server doesn't
+	 * answer with a multistatus response
+	 */
+	protected List<CalendarResource> report(CalDAVReportMethod method) throws CalDAV4JException {
+		try {
+			int status = httpClient.executeMethod(httpClient.getHostConfiguration(), method);
+			if (status != HttpStatus.SC_MULTI_STATUS) {
+				throw new CalDAV4JException("CalDav server " + getCollectionInfo() + " answered the REPORT with status " + status);
+			}
+
+			List<CalendarResource> resources = new ArrayList<CalendarResource>();
+			Enumeration<CalDAVResponse> responses = method.getResponses();
+			while (responses.hasMoreElements()) {
+				CalDAVResponse response = responses.nextElement();
+				CalendarDataProperty calendarData = response.getCalendarDataProperty();
+				if (calendarData == null) {
+					logger.debug("resource '{}' contains no calendar data", response.getHref());
+					continue;
+				}
+				resources.add(new CalendarResource(response.getHref(), response.getETag(), calendarData.getElement().getTextContent()));
+			}
+			logger.trace("received {} resources from {}", resources.size(), getCollectionInfo());
+			return resources;
+		}
+		catch (IOException ioe) {
+			throw new CalDAV4JException("sending REPORT to " + getCollectionInfo() + " throws exception", ioe);
+		}
+		finally {
+			method.releaseConnection();
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public String getCollectionInfo() {
+		return httpClient.getHostConfiguration().getHostURL() + collectionPath;
+	}
+
+
+	/**
+	 * Sends a REPORT on a worker and aborts its method when cancelled. The
+	 * callback isn't notified of cancelled requests, as their outcome isn't
+	 * of interest to anyone (e.g. the loser of a hedged request), but of
+	 * those which have been timed out.
+	 */
+	private class ReportTask extends FutureTask<List<CalendarResource>> implements TransportRequest {
+
+		private final CalDAVReportMethod method;
+		private final TransportCallback callback;
+
+		ReportTask(final CalDAVReportMethod method, final TransportCallback callback) {
+			super(new Callable<List<CalendarResource>>() {
+				public List<CalendarResource> call() throws Exception {
+					if (callback != null) {
+						callback.started();
+					}
+					List<CalendarResource> resources;
+					try {
+						resources = report(method);
+					}
+					catch (Exception e) {
+						if (callback != null && !method.isAborted()) {
+							callback.failed(e);
+						}
+						throw e;
+					}
+					if (callback != null && !method.isAborted()) {
+						callback.completed(resources);
+					}
+					return resources;
+				}
+			});
+			this.method = method;
+			this.callback = callback;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				method.abort();
+			}
+			return cancelled;
+		}
+
+		/**
+		 * @{inheritDoc}
+		 */
+		public boolean timeOut() {
+			if (!cancel(true)) {
+				return false;
+			}
+			if (callback != null) {
+				callback.failed(new TimeoutException("no response from " + getCollectionInfo() + " in time"));
+			}
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,354 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.transport;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osaf.caldav4j.exceptions.CalDAV4JException;
+import org.osaf.caldav4j.model.request.CalendarQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Splits a time range query into consecutive time windows (shards) which are
+ * queried concurrently. At most <code>parallelism</code> requests are in
+ * flight, including hedges and retries, so a query doesn't take more of the
+ * workers and connections shared by all accounts. The results are handed to
+ * a {@link ShardHandler} in the order of the windows as soon as a shard and
+ * all shards before it have completed, so the caller processes the first
+ * windows while later ones are downloaded.
+ * <p>
+ * A shard which fails is sent again on its own, up to <code>retries</code>
+ * times, as is a shard which doesn't complete within the timeout after it
+ * has been sent. Its requests are timed out then, which counts as a failure
+ * of the server. The query fails only if a shard fails on each attempt.
+ * </p><p>
+ * A shard which hasn't completed within the hedge delay after it has been
+ * sent is sent a second time while the first request is still in flight
+ * (the REPORT is idempotent), provided that a request of the parallelism is
+ * spare. The first response wins and the other request is cancelled, so a
+ * single slow request doesn't hold up the whole poll.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class ShardedQuery {
+
+	private static final Logger logger = LoggerFactory.getLogger(ShardedQuery.class);
+
+	private final CalDavTransport transport;
+	private final int parallelism;
+	private final int retries;
+	private final long timeout;
+	private final long hedgeDelay;
+
+	/** the number of requests of all shards which are in flight */
+	private final AtomicInteger requestsInFlight = new AtomicInteger();
+
+
+	/**
+	 * @param transport the transport to send the shards with
+	 * @param parallelism the maximum number of requests in flight
+	 * @param retries the number of times a failed shard is sent again
+	 * @param timeout the time (in ms) a shard may take, <code>0</code> waits
+	 * forever
+	 * @param hedgeDelay the time (in ms) after which a shard is sent a second
+	 * time, <code>0</code> doesn't hedge
+	 */
+	public ShardedQuery(CalDavTransport transport, int parallelism, int retries, long timeout, long hedgeDelay) {
+		this.transport = transport;
+		this.parallelism = Math.max(1, parallelism);
+		this.retries = Math.max(0, retries);
+		this.timeout = timeout;
+		this.hedgeDelay = hedgeDelay;
+	}
+
+	/**
+	 * Queries the range <code>[start;end)</code> in windows of
+	 * <code>windowSize</code>.
+	 *
+	 * @param start the start of the range (in ms)
+	 * @param end the end of the range (in ms)
+	 * @param windowSize the size of a window (in ms), <code>0</code> queries
+	 * the range at once
+	 * @param queryFactory creates the query of a window
+	 * @param handler receives the resources of each window in order
+	 * @return the number of shards
+	 * @throws CalDAV4JException if a query can't be created
+	 * @throws ExecutionException if a shard failed on each attempt
+	 * @throws InterruptedException if the calling thread has been interrupted
+	 */
+	public int execute(long start, long end, long windowSize, QueryFactory queryFactory, ShardHandler handler)
+			throws CalDAV4JException, ExecutionException, InterruptedException {
+		LinkedList<Shard> pending = new LinkedList<Shard>();
+		long step = windowSize > 0 ? windowSize : Math.max(1, end - start);
+		for (long windowStart = start; windowStart < end; windowStart += step) {
+			pending.add(new Shard(windowStart, Math.min(end, windowStart + step)));
+		}
+		int shardCount = pending.size();
+
+		LinkedList<Shard> inFlight = new LinkedList<Shard>();
+		try {
+			while (!pending.isEmpty() || !inFlight.isEmpty()) {
+				while (inFlight.size() < parallelism && requestsInFlight.get() < parallelism && !pending.isEmpty()) {
+					Shard shard = pending.removeFirst();
+					shard.send(queryFactory);
+					inFlight.add(shard);
+				}
+
+				Shard head = inFlight.getFirst();
+				List<CalendarResource> resources = head.await(queryFactory);
+				if (resources != null) {
+					inFlight.removeFirst();
+					handler.shardCompleted(head.start, head.end, resources);
+				}
+			}
+		}
+		finally {
+			for (Shard shard : inFlight) {
+				shard.cancel();
+			}
+		}
+		return shardCount;
+	}
+
+
+	/**
+	 * Creates the query of a time window
+	 */
+	public interface QueryFactory {
+
+		/**
+		 * @param start the start of the window (in ms)
+		 * @param end the end of the window (in ms)
+		 * @throws CalDAV4JException if the query can't be created
+		 */
+		CalendarQuery createQuery(long start, long end) throws CalDAV4JException;
+
+	}
+
+	/**
+	 * Receives the resources of the shards in the order of their windows
+	 */
+	public interface ShardHandler {
+
+		/**
+		 * @param start the start of the window (in ms)
+		 * @param end the end of the window (in ms)
+		 * @param resources the resources the server returned for the window
+		 * @throws InterruptedException if the handling has been interrupted
+		 */
+		void shardCompleted(long start, long end, List<CalendarResource> resources) throws InterruptedException;
+
+	}
+
+	/**
+	 * The outcome of a single request of a shard, or the notice that it has
+	 * been sent if it has neither resources nor a failure
+	 */
+	private static class Outcome {
+
+		final int attempt;
+		final long time;
+		final List<CalendarResource> resources;
+		final Exception failure;
+
+		Outcome(int attempt, List<CalendarResource> resources, Exception failure) {
+			this.attempt = attempt;
+			this.time = System.currentTimeMillis();
+			this.resources = resources;
+			this.failure = failure;
+		}
+
+		boolean isStarted() {
+			return resources == null && failure == null;
+		}
+	}
+
+	/**
+	 * A single request of a shard, which counts as in flight until it has
+	 * completed, failed or been abandoned
+	 */
+	private class Request {
+
+		TransportRequest transportRequest;
+		private final AtomicBoolean finished = new AtomicBoolean();
+
+		Request() {
+			requestsInFlight.incrementAndGet();
+		}
+
+		void finish() {
+			if (finished.compareAndSet(false, true)) {
+				requestsInFlight.decrementAndGet();
+			}
+		}
+
+		void cancel() {
+			if (transportRequest != null) {
+				transportRequest.cancel(true);
+			}
+			finish();
+		}
+
+		void timeOut() {
+			if (transportRequest != null) {
+				transportRequest.timeOut();
+			}
+			finish();
+		}
+	}
+
+	/**
+	 * A single time window and its requests
+	 */
+	private class Shard {
+
+		final long start;
+		final long end;
+		final List<Request> requests = new ArrayList<Request>();
+		final BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<Outcome>();
+		int attempts = 0;
+		int pendingRequests = 0;
+		boolean hedged = false;
+
+		/** the time the current attempt has been sent at, <code>0</code> until a worker has taken it up */
+		long sentAt;
+
+		Shard(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		void send(QueryFactory queryFactory) throws CalDAV4JException {
+			attempts++;
+			pendingRequests = 0;
+			hedged = false;
+			sentAt = 0;
+			request(queryFactory);
+		}
+
+		private void request(QueryFactory queryFactory) throws CalDAV4JException {
+			final int attempt = attempts;
+			final Request request = new Request();
+			requests.add(request);
+			pendingRequests++;
+			try {
+				request.transportRequest = transport.query(queryFactory.createQuery(start, end), new TransportCallback() {
+					public void started() {
+						outcomes.add(new Outcome(attempt, null, null));
+					}
+
+					public void completed(List<CalendarResource> resources) {
+						request.finish();
+						outcomes.add(new Outcome(attempt, resources, null));
+					}
+
+					public void failed(Exception exception) {
+						request.finish();
+						outcomes.add(new Outcome(attempt, null, exception));
+					}
+				});
+			}
+			catch (CalDAV4JException ce) {
+				request.finish();
+				throw ce;
+			}
+			catch (RuntimeException re) {
+				request.finish();
+				throw re;
+			}
+		}
+
+		void cancel() {
+			for (Request request : requests) {
+				request.cancel();
+			}
+			requests.clear();
+		}
+
+		private void timeOut() {
+			for (Request request : requests) {
+				request.timeOut();
+			}
+			requests.clear();
+		}
+
+		/**
+		 * Waits for the first response of the shard, hedges it if it is slow
+		 * and sends it again if all its requests fail. The timeout and the
+		 * hedge delay count from the time the shard has actually been sent.
+		 *
+		 * @return the resources or <code>null</code> if the shard has been
+		 * sent again
+		 */
+		List<CalendarResource> await(QueryFactory queryFactory)
+				throws CalDAV4JException, ExecutionException, InterruptedException {
+			Exception failure = null;
+			while (failure == null) {
+				long deadline = timeout > 0 && sentAt > 0 ? sentAt + timeout : Long.MAX_VALUE;
+				long hedgeAt = hedgeDelay > 0 && !hedged && sentAt > 0 ? sentAt + hedgeDelay : Long.MAX_VALUE;
+				long wakeUp = Math.min(deadline, hedgeAt);
+
+				Outcome outcome = wakeUp == Long.MAX_VALUE ? outcomes.take()
+						: outcomes.poll(Math.max(0, wakeUp - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+
+				if (outcome == null) {
+					long now = System.currentTimeMillis();
+					if (now >= deadline) {
+						failure = new TimeoutException("no response within " + timeout + "ms");
+					} else if (now >= hedgeAt) {
+						hedged = true;
+						if (requestsInFlight.get() < parallelism) {
+							logger.debug("hedging shard [{};{}] after {}ms without response", new Object[] { start, end, hedgeDelay });
+							request(queryFactory);
+						} else {
+							logger.debug("not hedging shard [{};{}] as {} requests are in flight already", new Object[] { start, end, parallelism });
+						}
+					}
+				} else if (outcome.isStarted()) {
+					if (outcome.attempt == attempts && sentAt == 0) {
+						sentAt = outcome.time;
+					}
+				} else if (outcome.resources != null) {
+					// a late response of an earlier attempt is as good as any other
+					cancel();
+					return outcome.resources;
+				} else if (outcome.attempt == attempts && --pendingRequests == 0) {
+					failure = outcome.failure;
+				}
+			}
+			if (failure instanceof TimeoutException) {
+				timeOut();
+			} else {
+				cancel();
+			}
+
+			if (attempts > retries || failure instanceof CircuitOpenException) {
+				throw new ExecutionException(failure);
+			}
+			logger.debug("retrying shard [{};{}] after attempt {} failed: {}",
+					new Object[] { start, end, attempts, failure.toString() });
+			send(queryFactory);
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.transport;
+
+import java.util.List;
+
+
+/**
+ * Is notified when a request of a {@link CalDavTransport} is sent and when it
+ * completes. The methods are called on the thread which sent or completed
+ * the request and should return quickly. A request which has been cancelled
+ * isn't completed, one which has been timed out fails.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public interface TransportCallback {
+
+	/**
+	 * Called when the request is actually sent, which may be later than it
+	 * has been handed to the transport, e.g. if all workers are busy.
+	 */
+	void started();
+
+	/**
+	 * Called when the request completed successfully.
+	 *
+	 * @param resources the received calendar resources
+	 */
+	void completed(List<CalendarResource> resources);
+
+	/**
+	 * Called when the request failed.
+	 *
+	 * @param exception the cause of the failure
+	 */
+	void failed(Exception exception);
+
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.transport;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+
+/**
+ * A request sent by a {@link CalDavTransport}. Cancelling a request abandons
+ * it as its outcome isn't needed anymore (e.g. the loser of a hedged
+ * request), while a request which hasn't been answered in time is timed out,
+ * which counts as a failure of the server.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public interface TransportRequest extends Future<List<CalendarResource>> {
+
+	/**
+	 * Cancels the request as it hasn't been answered in time. Unlike
+	 * {@link #cancel(boolean)}, the callback of the request is notified of
+	 * the failure with a {@link java.util.concurrent.TimeoutException}.
+	 *
+	 * @return <code>false</code> if the request has completed already
+	 */
+	boolean timeOut();
+
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.fortuna.ical4j.model.TimeZone;
+import net.fortuna.ical4j.model.component.VTimeZone;
+
+
+/**
+ * A {@link TimeZone} whose offsets are precomputed for a window around the
+ * time of its creation. Within the window {@link #getOffset(long)} is a
+ * binary search over the offset transitions, outside it falls back to
+ * evaluating the observances of the {@link VTimeZone}.
+ * <p>
+ * The observances of a {@link VTimeZone} compute their onsets lazily and
+ * without synchronization, and ical4j's (final) <code>inDaylightTime</code>
+ * and <code>getOffset(era, ...)</code> evaluate them directly. So an
+ * instance is never shared between parses: each parse gets an instance of
+ * its own for the VTIMEZONE it has parsed, which shares the immutable
+ * {@link Offsets} of the same definition, see {@link CachingTimeZoneRegistry}.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CachedTimeZone extends TimeZone {
+
+	private static final long serialVersionUID = 7383470624391232491L;
+
+	/** the time (in ms) the window reaches into the past */
+	private static final long LOOKBEHIND = 24L * 60 * 60 * 1000;
+
+	/** the time (in ms) the window reaches into the future */
+	private static final long LOOKAHEAD = 14L * 24 * 60 * 60 * 1000;
+
+	/** the steps (in ms) the offsets are sampled in to find the transitions */
+	private static final long SAMPLE_STEP = 60L * 60 * 1000;
+
+	private final Offsets offsets;
+
+
+	/**
+	 * @param vTimeZone the definition of the timezone, owned by the caller
+	 * @param offsets the offsets precomputed for the same definition
+	 */
+	public CachedTimeZone(VTimeZone vTimeZone, Offsets offsets) {
+		super(vTimeZone);
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Precomputes the offsets of the given definition for the window around now.
+	 * The observances of <code>vTimeZone</code> are evaluated, so it must not
+	 * be used by other threads meanwhile.
+	 *
+	 * @param vTimeZone the definition of the timezone
+	 * @return the offsets of the definition
+	 */
+	public static Offsets computeOffsets(VTimeZone vTimeZone) {
+		TimeZone timeZone = new TimeZone(vTimeZone);
+		long now = System.currentTimeMillis();
+		long windowStart = now - LOOKBEHIND;
+		long windowEnd = now + LOOKAHEAD;
+
+		List<long[]> transitions = new ArrayList<long[]>();
+		int offset = timeZone.getOffset(windowStart);
+		transitions.add(new long[] { windowStart, offset });
+
+		for (long sample = windowStart + SAMPLE_STEP; sample < windowEnd + SAMPLE_STEP; sample += SAMPLE_STEP) {
+			int sampleOffset = timeZone.getOffset(sample);
+			if (sampleOffset != offset) {
+				transitions.add(new long[] { findTransition(timeZone, sample - SAMPLE_STEP, sample, sampleOffset), sampleOffset });
+				offset = sampleOffset;
+			}
+		}
+
+		long[] transitionTimes = new long[transitions.size()];
+		int[] transitionOffsets = new int[transitions.size()];
+		for (int index = 0; index < transitionTimes.length; index++) {
+			transitionTimes[index] = transitions.get(index)[0];
+			transitionOffsets[index] = (int) transitions.get(index)[1];
+		}
+		return new Offsets(windowStart, windowEnd, transitionTimes, transitionOffsets);
+	}
+
+	/**
+	 * Returns the first time in <code>(from, to]</code> which has the offset
+	 * <code>newOffset</code>.
+	 */
+	private static long findTransition(TimeZone timeZone, long from, long to, int newOffset) {
+		while (to - from > 1) {
+			long middle = from + (to - from) / 2;
+			if (timeZone.getOffset(middle) == newOffset) {
+				to = middle;
+			} else {
+				from = middle;
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	@Override
+	public int getOffset(long date) {
+		if (date < offsets.windowStart || date >= offsets.windowEnd) {
+			// the events of a parse may be read by several threads afterwards
+			synchronized (this) {
+				return super.getOffset(date);
+			}
+		}
+		int index = Arrays.binarySearch(offsets.transitionTimes, date);
+		return offsets.offsets[index >= 0 ? index : -index - 2];
+	}
+
+	/**
+	 * @return the offsets this timezone answers from
+	 */
+	public Offsets getOffsets() {
+		return offsets;
+	}
+
+
+	/**
+	 * The offsets of a timezone definition within a window around the time
+	 * they have been computed at. They are immutable and shared by all
+	 * parses of the definition.
+	 */
+	public static final class Offsets {
+
+		private final long windowStart;
+		private final long windowEnd;
+
+		/** the times the offsets become valid at, the first one is <code>windowStart</code> */
+		private final long[] transitionTimes;
+		private final int[] offsets;
+
+		private Offsets(long windowStart, long windowEnd, long[] transitionTimes, int[] offsets) {
+			this.windowStart = windowStart;
+			this.windowEnd = windowEnd;
+			this.transitionTimes = transitionTimes;
+			this.offsets = offsets;
+		}
+
+		/**
+		 * @return <code>true</code> if the window doesn't cover the lookahead
+		 * from now any longer
+		 */
+		public boolean isExpired() {
+			return System.currentTimeMillis() + LOOKAHEAD / 2 > windowEnd;
+		}
+	}
+
+}
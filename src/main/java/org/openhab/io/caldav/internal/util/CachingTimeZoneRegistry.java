@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.fortuna.ical4j.model.TimeZone;
+import net.fortuna.ical4j.model.TimeZoneRegistry;
+import net.fortuna.ical4j.model.TimeZoneRegistryImpl;
+import net.fortuna.ical4j.model.component.VTimeZone;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * {@link TimeZoneRegistry} which shares the offsets of the timezones defined
+ * by the VTIMEZONE blocks of the parsed calendars across all parses. A
+ * timezone is identified by its TZID and the hash of its definition, so the
+ * offsets of the same definition (which most servers send with every
+ * resource) are computed only once, while a changed definition replaces them.
+ * Each parse gets a {@link CachedTimeZone} of its own though, as the
+ * observances of a definition must not be evaluated by several threads.
+ * <p>
+ * Like ical4j's default registry, a registry instance belongs to a single
+ * parse; timezones which are not defined by the calendar are resolved by
+ * {@link TimeZoneRegistryImpl}.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CachingTimeZoneRegistry implements TimeZoneRegistry {
+
+	private static final Logger logger = LoggerFactory.getLogger(CachingTimeZoneRegistry.class);
+
+	/** the number of definitions kept before the cache is cleared */
+	private static final int MAX_CACHED_TIMEZONES = 256;
+
+	/** holds the offsets of the timezones of all parses by TZID and definition hash */
+	private static final Map<String, CachedTimeZone.Offsets> cache = new ConcurrentHashMap<String, CachedTimeZone.Offsets>();
+
+	/** the timezones registered by the current parse, by TZID */
+	private final Map<String, TimeZone> timezones = new HashMap<String, TimeZone>();
+
+	private final TimeZoneRegistry defaultRegistry = new TimeZoneRegistryImpl();
+
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void register(TimeZone timezone) {
+		register(timezone, false);
+	}
+
+	/**
+	 * Registers a {@link CachedTimeZone} of <code>timezone</code>'s definition
+	 * instead of <code>timezone</code> itself. Updating definitions from
+	 * TZURL is not supported.
+	 *
+	 * @{inheritDoc}
+	 */
+	public void register(TimeZone timezone, boolean update) {
+		VTimeZone vTimeZone = timezone.getVTimeZone();
+		String key = timezone.getID() + "#" + vTimeZone.toString().hashCode();
+		CachedTimeZone.Offsets offsets = cache.get(key);
+		if (offsets == null || offsets.isExpired()) {
+			if (cache.size() >= MAX_CACHED_TIMEZONES) {
+				cache.clear();
+			}
+			offsets = CachedTimeZone.computeOffsets(vTimeZone);
+			cache.put(key, offsets);
+			logger.debug("cached definition of timezone '{}'", timezone.getID());
+		}
+		// the definition has been parsed by this parse, so its observances aren't shared
+		timezones.put(timezone.getID(), new CachedTimeZone(vTimeZone, offsets));
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public void clear() {
+		timezones.clear();
+		defaultRegistry.clear();
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public TimeZone getTimeZone(String id) {
+		TimeZone timezone = timezones.get(id);
+		return timezone != null ? timezone : defaultRegistry.getTimeZone(id);
+	}
+
+	/**
+	 * @return the number of timezone definitions currently cached
+	 */
+	public static int getCachedTimeZoneCount() {
+		return cache.size();
+	}
+
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import net.fortuna.ical4j.model.TimeZoneRegistry;
+import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
+
+
+/**
+ * Creates {@link CachingTimeZoneRegistry}s. It is configured as ical4j's
+ * registry factory in <code>ical4j.properties</code>, so every
+ * <code>CalendarBuilder</code> of this bundle (including those of caldav4j)
+ * shares the timezone cache.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CachingTimeZoneRegistryFactory extends TimeZoneRegistryFactory {
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public TimeZoneRegistry createRegistry() {
+		return new CachingTimeZoneRegistry();
+	}
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+
+/**
+ * Compares the size and parse time of the complete calendar data with the
+ * subset of properties requested by the poller, both downloaded from the
+ * same calendar.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CalendarDataMeasurement {
+
+	private final Sample full = new Sample();
+	private final Sample partial = new Sample();
+
+
+	/**
+	 * @param partialData <code>true</code> for the subset of properties,
+	 * <code>false</code> for the complete calendar data
+	 * @return the sample to add the resources of the given retrieval to
+	 */
+	public Sample getSample(boolean partialData) {
+		return partialData ? partial : full;
+	}
+
+	/**
+	 * @return the percentage of bytes saved by the partial retrieval
+	 */
+	public int getSavedBytesPercentage() {
+		return full.getBytes() == 0 ? 0 : (int) (100 - partial.getBytes() * 100 / full.getBytes());
+	}
+
+	/**
+	 * @return the percentage of parse time saved by the partial retrieval
+	 */
+	public int getSavedParseTimePercentage() {
+		return full.getParseTime() == 0 ? 0 : (int) (100 - partial.getParseTime() * 100 / full.getParseTime());
+	}
+
+	@Override
+	public String toString() {
+		return "full: " + full + "\npartial: " + partial + "\nsaved: " + getSavedBytesPercentage() + "% bytes, "
+				+ getSavedParseTimePercentage() + "% parse time";
+	}
+
+
+	/**
+	 * The totals of a single retrieval
+	 */
+	public static class Sample {
+
+		private int resources = 0;
+		private long bytes = 0;
+		private long parseTime = 0;
+
+		/**
+		 * @param resourceBytes the size of the calendar data of a resource
+		 * @param resourceParseTime the time (in ns) parsing the resource took
+		 */
+		public synchronized void add(long resourceBytes, long resourceParseTime) {
+			resources++;
+			bytes += resourceBytes;
+			parseTime += resourceParseTime;
+		}
+
+		public synchronized int getResources() {
+			return resources;
+		}
+
+		public synchronized long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return the time (in ms) parsing all resources took
+		 */
+		public synchronized long getParseTime() {
+			return parseTime / 1000000;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return resources + " resources, " + bytes + " bytes, parsed in " + getParseTime() + "ms";
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+
+/**
+ * Scans the raw calendar data of a resource for single properties without
+ * parsing it, so that resources which must not be parsed (e.g. because of a
+ * description of megabytes) are recognized at the cost of a single pass
+ * without allocations. Folded content lines are followed, the values are
+ * not unescaped though.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CalendarDataScanner {
+
+	/**
+	 * Returns the length of the longest content line of the given property,
+	 * e.g. of the largest DESCRIPTION of all events of the resource.
+	 *
+	 * @param calendarData the raw calendar data
+	 * @param propertyName the name of the property
+	 * @return the length (in chars) of the value (and the parameters) of the
+	 * longest property, 0 if the property doesn't occur
+	 */
+	public static int getLongestPropertyLength(String calendarData, String propertyName) {
+		int longest = 0;
+		// the length of the property the current line belongs to, -1 for other properties
+		int length = -1;
+		int lineStart = 0;
+		while (lineStart < calendarData.length()) {
+			int lineEnd = getLineEnd(calendarData, lineStart);
+			int contentEnd = getContentEnd(calendarData, lineStart, lineEnd);
+
+			if (isContinuation(calendarData, lineStart, contentEnd)) {
+				if (length >= 0) {
+					length += contentEnd - lineStart - 1;
+				}
+			} else {
+				longest = Math.max(longest, length);
+				length = isProperty(calendarData, lineStart, contentEnd, propertyName) ?
+						contentEnd - lineStart - propertyName.length() - 1 : -1;
+			}
+			lineStart = lineEnd + 1;
+		}
+		return Math.max(longest, length);
+	}
+
+	/**
+	 * Returns the value of the first occurrence of the given property, e.g.
+	 * the UID of the first event of the resource. Only the first line of a
+	 * folded value is returned.
+	 *
+	 * @param calendarData the raw calendar data
+	 * @param propertyName the name of the property
+	 * @return the value or <code>null</code> if the property doesn't occur
+	 */
+	public static String getFirstPropertyValue(String calendarData, String propertyName) {
+		int lineStart = 0;
+		while (lineStart < calendarData.length()) {
+			int lineEnd = getLineEnd(calendarData, lineStart);
+			int contentEnd = getContentEnd(calendarData, lineStart, lineEnd);
+			if (isProperty(calendarData, lineStart, contentEnd, propertyName)) {
+				int valueStart = calendarData.indexOf(':', lineStart + propertyName.length());
+				return valueStart < 0 || valueStart >= contentEnd ? "" : calendarData.substring(valueStart + 1, contentEnd);
+			}
+			lineStart = lineEnd + 1;
+		}
+		return null;
+	}
+
+	private static int getLineEnd(String calendarData, int lineStart) {
+		int lineEnd = calendarData.indexOf('\n', lineStart);
+		return lineEnd < 0 ? calendarData.length() : lineEnd;
+	}
+
+	private static int getContentEnd(String calendarData, int lineStart, int lineEnd) {
+		return lineEnd > lineStart && calendarData.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+	}
+
+	private static boolean isContinuation(String calendarData, int lineStart, int contentEnd) {
+		if (lineStart >= contentEnd) {
+			return false;
+		}
+		char first = calendarData.charAt(lineStart);
+		return first == ' ' || first == '\t';
+	}
+
+	private static boolean isProperty(String calendarData, int lineStart, int contentEnd, String propertyName) {
+		int nameEnd = lineStart + propertyName.length();
+		if (nameEnd >= contentEnd || !calendarData.regionMatches(true, lineStart, propertyName, 0, propertyName.length())) {
+			return false;
+		}
+		char separator = calendarData.charAt(nameEnd);
+		return separator == ':' || separator == ';';
+	}
+
+}
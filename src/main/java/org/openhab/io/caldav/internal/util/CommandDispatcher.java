@@ -0,0 +1,362 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Executes the commands fired by {@link ExecuteCommandJob} on a fixed number
+ * of stripes. The stripe is chosen by the target item of a command, so all
+ * commands for the same item are executed by the same thread one after the
+ * other, while commands for different items run in parallel. Commands
+ * without a target item (e.g. scripts) are keyed by their job instead.
+ * <p>
+ * Within a stripe the commands are ordered by their planned fire time, end
+ * commands before start commands of the same time, and by arrival. As the
+ * triggers of the same time are fired by different Quartz threads in any
+ * order, each command waits for a short settle delay before it is executed,
+ * so that a concurrently fired command can still take its place in the
+ * order. Thus, if one event ends and another one starts at the same time,
+ * the item ends up in the state of the starting event.
+ * </p><p>
+ * Commands for items matching a {@link RateLimiter} wait for a token of the
+ * limiter before they are executed, or are dropped if the limiter's queue is
+ * full or the wait would exceed its maximum delay. A waiting command is set
+ * aside until its token is due and holds back the later commands for the
+ * same item only, which keeps their order while the commands for the other
+ * items of the stripe go on.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class CommandDispatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(CommandDispatcher.class);
+
+	/** the time (in ms) a command waits for concurrently fired commands */
+	private static final long SETTLE_DELAY = 50;
+
+	private static volatile CommandDispatcher instance;
+
+	/** holds the rate limiters, the first one matching an item applies */
+	private static volatile List<RateLimiter> rateLimiters = Collections.emptyList();
+
+	private final Stripe[] stripes;
+	private final AtomicLong sequence = new AtomicLong();
+
+
+	private CommandDispatcher(int stripeCount) {
+		stripes = new Stripe[stripeCount];
+		for (int index = 0; index < stripeCount; index++) {
+			stripes[index] = new Stripe("CalDav Command-Dispatcher " + (index + 1));
+			stripes[index].start();
+		}
+	}
+
+	/**
+	 * Starts the dispatcher, a running dispatcher is stopped before.
+	 *
+	 * @param stripeCount the number of stripes (threads)
+	 */
+	public static synchronized void start(int stripeCount) {
+		stop();
+		instance = new CommandDispatcher(stripeCount);
+		logger.debug("started command dispatcher with {} stripes", stripeCount);
+	}
+
+	/**
+	 * Stops the dispatcher. Queued commands are dropped, their places in the
+	 * queues of the rate limiters are released.
+	 */
+	public static synchronized void stop() {
+		if (instance != null) {
+			for (Stripe stripe : instance.stripes) {
+				stripe.shutdown();
+			}
+			instance = null;
+		}
+	}
+
+	/**
+	 * @return the running dispatcher or <code>null</code> if it has not been
+	 * started
+	 */
+	public static CommandDispatcher getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Replaces the rate limiters. The statistics of the former limiters are
+	 * discarded.
+	 *
+	 * @param limiters the limiters, the first one matching an item applies
+	 */
+	public static void setRateLimiters(List<RateLimiter> limiters) {
+		rateLimiters = Collections.unmodifiableList(new ArrayList<RateLimiter>(limiters));
+	}
+
+	public static List<RateLimiter> getRateLimiters() {
+		return rateLimiters;
+	}
+
+	private static RateLimiter getRateLimiter(String key) {
+		for (RateLimiter limiter : rateLimiters) {
+			if (limiter.matches(key)) {
+				return limiter;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Queues a command for execution.
+	 *
+	 * @param key the key (the target item) which selects the stripe
+	 * @param plannedFireTime the time the command was planned to fire at
+	 * @param end <code>true</code> if the command belongs to the end of an event
+	 * @param command the command to execute
+	 */
+	public void dispatch(String key, long plannedFireTime, boolean end, Runnable command) {
+		RateLimiter limiter = getRateLimiter(key);
+		if (limiter != null && !limiter.enqueue()) {
+			logger.warn("dropping command for '{}' as too many commands are waiting for rate limit '{}'", key, limiter);
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		int index = (key.hashCode() & Integer.MAX_VALUE) % stripes.length;
+		stripes[index].add(new DispatchTask(key, plannedFireTime, end, sequence.getAndIncrement(),
+				now, now + SETTLE_DELAY, limiter, command));
+	}
+
+	/**
+	 * @return the number of queued commands per stripe
+	 */
+	public int[] getQueueDepths() {
+		int[] depths = new int[stripes.length];
+		for (int index = 0; index < depths.length; index++) {
+			depths[index] = stripes[index].getQueueDepth();
+		}
+		return depths;
+	}
+
+
+	/**
+	 * A command waiting for execution
+	 */
+	private static class DispatchTask implements Comparable<DispatchTask> {
+
+		final String key;
+		final long plannedFireTime;
+		final boolean end;
+		final long sequence;
+		final long firedAt;
+		final RateLimiter limiter;
+		final Runnable command;
+
+		/** the time the command is executed at, its settle delay or the token it waits for */
+		long executeAt;
+
+		/** whether the command has reserved a token of its limiter already */
+		boolean reserved = false;
+
+		DispatchTask(String key, long plannedFireTime, boolean end, long sequence, long firedAt, long executeAt,
+				RateLimiter limiter, Runnable command) {
+			this.key = key;
+			this.plannedFireTime = plannedFireTime;
+			this.end = end;
+			this.sequence = sequence;
+			this.firedAt = firedAt;
+			this.executeAt = executeAt;
+			this.limiter = limiter;
+			this.command = command;
+		}
+
+		/**
+		 * Drops the command without executing it.
+		 */
+		void drop() {
+			if (limiter != null && !reserved) {
+				limiter.release();
+			}
+		}
+
+		public int compareTo(DispatchTask other) {
+			if (plannedFireTime != other.plannedFireTime) {
+				return plannedFireTime < other.plannedFireTime ? -1 : 1;
+			}
+			if (end != other.end) {
+				return end ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	/**
+	 * A single thread executing the commands of its queue in order
+	 */
+	private static class Stripe extends Thread {
+
+		private final PriorityQueue<DispatchTask> queue = new PriorityQueue<DispatchTask>();
+
+		/** the commands which wait for the token they have reserved */
+		private final List<DispatchTask> waiting = new ArrayList<DispatchTask>();
+
+		/** the commands held back by a waiting command for the same key, by key */
+		private final Map<String, List<DispatchTask>> heldBack = new HashMap<String, List<DispatchTask>>();
+
+		private volatile boolean running = true;
+
+		Stripe(String name) {
+			super(name);
+			setDaemon(true);
+		}
+
+		void add(DispatchTask task) {
+			synchronized (queue) {
+				if (!running) {
+					// dispatched by a job which got the dispatcher before it was stopped
+					task.drop();
+					return;
+				}
+				queue.add(task);
+				queue.notify();
+			}
+		}
+
+		int getQueueDepth() {
+			synchronized (queue) {
+				int depth = queue.size() + waiting.size();
+				for (List<DispatchTask> tasks : heldBack.values()) {
+					depth += tasks.size();
+				}
+				return depth;
+			}
+		}
+
+		void shutdown() {
+			running = false;
+			interrupt();
+			synchronized (queue) {
+				List<DispatchTask> tasks = new ArrayList<DispatchTask>(queue);
+				tasks.addAll(waiting);
+				for (List<DispatchTask> keyTasks : heldBack.values()) {
+					tasks.addAll(keyTasks);
+				}
+				if (!tasks.isEmpty()) {
+					logger.debug("dropping {} queued commands of {}", tasks.size(), getName());
+				}
+				for (DispatchTask task : tasks) {
+					task.drop();
+				}
+				queue.clear();
+				waiting.clear();
+				heldBack.clear();
+			}
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				DispatchTask task;
+				try {
+					task = take();
+				}
+				catch (InterruptedException ie) {
+					break;
+				}
+				if (task.limiter != null && !task.reserved) {
+					long wait = task.limiter.reserve(task.firedAt);
+					if (wait < 0) {
+						logger.warn("dropping command for '{}' as it exceeds the maximum delay of rate limit '{}'", task.key, task.limiter);
+						continue;
+					}
+					if (wait > 0) {
+						setAside(task, wait);
+						continue;
+					}
+				}
+				try {
+					task.command.run();
+				}
+				catch (RuntimeException re) {
+					logger.error("executing command throws exception", re);
+				}
+			}
+		}
+
+		/**
+		 * Sets a command aside until the token it has reserved is due. The
+		 * later commands for its key are held back meanwhile.
+		 */
+		private void setAside(DispatchTask task, long wait) {
+			synchronized (queue) {
+				task.reserved = true;
+				task.executeAt = System.currentTimeMillis() + wait;
+				waiting.add(task);
+				heldBack.put(task.key, new ArrayList<DispatchTask>());
+			}
+		}
+
+		/**
+		 * Waits until a command whose token is due or the first command of
+		 * the queue which isn't held back has settled, and removes it.
+		 */
+		private DispatchTask take() throws InterruptedException {
+			synchronized (queue) {
+				while (true) {
+					long now = System.currentTimeMillis();
+					long wakeUp = Long.MAX_VALUE;
+
+					for (Iterator<DispatchTask> iterator = waiting.iterator(); iterator.hasNext();) {
+						DispatchTask task = iterator.next();
+						if (task.executeAt <= now) {
+							iterator.remove();
+							// queued again, they run after this command as it runs on this thread
+							queue.addAll(heldBack.remove(task.key));
+							return task;
+						}
+						wakeUp = Math.min(wakeUp, task.executeAt);
+					}
+
+					DispatchTask head = queue.peek();
+					while (head != null && heldBack.containsKey(head.key)) {
+						heldBack.get(head.key).add(queue.poll());
+						head = queue.peek();
+					}
+					if (head != null) {
+						if (head.executeAt <= now) {
+							return queue.poll();
+						}
+						wakeUp = Math.min(wakeUp, head.executeAt);
+					}
+
+					if (wakeUp == Long.MAX_VALUE) {
+						queue.wait();
+					} else {
+						queue.wait(wakeUp - now);
+					}
+				}
+			}
+		}
+	}
+
+}
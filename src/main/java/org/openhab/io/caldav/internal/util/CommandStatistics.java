@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Collects the execution times of the commands fired by {@link ExecuteCommandJob}.
+ * Besides some counters only the slowest commands are kept.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public final class CommandStatistics {
+
+	private static final int MAX_SLOWEST_COMMANDS = 10;
+
+	private static final AtomicLong executedCommands = new AtomicLong();
+	private static final AtomicLong failedCommands = new AtomicLong();
+	private static final AtomicLong publishedCommands = new AtomicLong();
+	private static final AtomicLong totalDuration = new AtomicLong();
+
+	/** the slowest commands, ordered by descending duration */
+	private static final LinkedList<CommandTiming> slowestCommands = new LinkedList<CommandTiming>();
+
+
+	private CommandStatistics() {
+	}
+
+	/**
+	 * Records the execution of a single command.
+	 *
+	 * @param command the executed command
+	 * @param duration the execution time in milliseconds
+	 * @param failed <code>true</code> if the command threw an exception
+	 */
+	public static void commandExecuted(String command, long duration, boolean failed) {
+		executedCommands.incrementAndGet();
+		totalDuration.addAndGet(duration);
+		if (failed) {
+			failedCommands.incrementAndGet();
+		}
+
+		synchronized (slowestCommands) {
+			if (slowestCommands.size() >= MAX_SLOWEST_COMMANDS && slowestCommands.getLast().duration >= duration) {
+				return;
+			}
+
+			ListIterator<CommandTiming> iterator = slowestCommands.listIterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().duration < duration) {
+					iterator.previous();
+					break;
+				}
+			}
+			iterator.add(new CommandTiming(command, duration, System.currentTimeMillis()));
+
+			if (slowestCommands.size() > MAX_SLOWEST_COMMANDS) {
+				slowestCommands.removeLast();
+			}
+		}
+	}
+
+	/**
+	 * Records that a command has been published to the event bus directly
+	 * instead of being handled by the <code>ConsoleInterpreter</code>.
+	 */
+	public static void commandPublished() {
+		publishedCommands.incrementAndGet();
+	}
+
+	public static long getExecutedCommands() {
+		return executedCommands.get();
+	}
+
+	public static long getFailedCommands() {
+		return failedCommands.get();
+	}
+
+	public static long getPublishedCommands() {
+		return publishedCommands.get();
+	}
+
+	public static long getAverageDuration() {
+		long executed = executedCommands.get();
+		return executed == 0 ? 0 : totalDuration.get() / executed;
+	}
+
+	/**
+	 * @return the slowest commands, ordered by descending duration
+	 */
+	public static List<CommandTiming> getSlowestCommands() {
+		synchronized (slowestCommands) {
+			return new ArrayList<CommandTiming>(slowestCommands);
+		}
+	}
+
+
+	/**
+	 * The execution time of a single command
+	 */
+	public static class CommandTiming {
+
+		public final String command;
+		public final long duration;
+		public final long executionTime;
+
+		CommandTiming(String command, long duration, long executionTime) {
+			this.command = command;
+			this.duration = duration;
+			this.executionTime = executionTime;
+		}
+	}
+
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.openhab.io.caldav.CalDavEvent;
+import org.openhab.io.caldav.CalDavEventService;
+
+
+/**
+ * Immutable interval index of {@link CalDavEvent}s.
+ * <p>
+ * The events are sorted by start and form an implicit balanced search tree:
+ * the middle of each range of the array is the root of the range's subtree.
+ * Each node knows the maximum end of its subtree, so subtrees which end
+ * before a queried range are skipped. Interval queries take
+ * <code>O(log n + k)</code>, <code>nextAfter</code> is a binary search.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class EventIndex implements CalDavEventService {
+
+	private static final Comparator<CalDavEvent> START_ORDER = new Comparator<CalDavEvent>() {
+		public int compare(CalDavEvent event1, CalDavEvent event2) {
+			return event1.getStart() < event2.getStart() ? -1 : (event1.getStart() == event2.getStart() ? 0 : 1);
+		}
+	};
+
+	private final CalDavEvent[] events;
+	private final long[] starts;
+	private final long[] subtreeMaxEnds;
+	private final Map<String, List<CalDavEvent>> eventsByTitle = new HashMap<String, List<CalDavEvent>>();
+	private final Map<String, List<CalDavEvent>> eventsByCategory = new HashMap<String, List<CalDavEvent>>();
+	private final long lastUpdate;
+
+
+	/**
+	 * @param events the events to index
+	 * @param lastUpdate the time the events have been downloaded at
+	 */
+	public EventIndex(List<CalDavEvent> events, long lastUpdate) {
+		this.events = events.toArray(new CalDavEvent[events.size()]);
+		this.lastUpdate = lastUpdate;
+		// a stable sort keeps the download order of events with the same start
+		Arrays.sort(this.events, START_ORDER);
+
+		starts = new long[this.events.length];
+		subtreeMaxEnds = new long[this.events.length];
+		for (int index = 0; index < starts.length; index++) {
+			starts[index] = this.events[index].getStart();
+		}
+		computeMaxEnds(0, this.events.length - 1);
+
+		for (CalDavEvent event : this.events) {
+			if (event.getTitle() != null) {
+				addTo(eventsByTitle, event.getTitle(), event);
+			}
+			for (String category : event.getCategories()) {
+				addTo(eventsByCategory, category, event);
+			}
+		}
+	}
+
+	/**
+	 * @return an index without events
+	 */
+	public static EventIndex empty() {
+		return new EventIndex(Collections.<CalDavEvent>emptyList(), 0);
+	}
+
+	private long computeMaxEnds(int low, int high) {
+		if (low > high) {
+			return Long.MIN_VALUE;
+		}
+		int middle = (low + high) >>> 1;
+		long maxEnd = Math.max(events[middle].getEnd(),
+				Math.max(computeMaxEnds(low, middle - 1), computeMaxEnds(middle + 1, high)));
+		subtreeMaxEnds[middle] = maxEnd;
+		return maxEnd;
+	}
+
+	private static void addTo(Map<String, List<CalDavEvent>> map, String key, CalDavEvent event) {
+		String normalizedKey = key.trim().toLowerCase(Locale.ENGLISH);
+		List<CalDavEvent> list = map.get(normalizedKey);
+		if (list == null) {
+			list = new ArrayList<CalDavEvent>();
+			map.put(normalizedKey, list);
+		}
+		list.add(event);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public List<CalDavEvent> activeAt(long time) {
+		return overlapping(time, time + 1);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public CalDavEvent nextAfter(long time) {
+		int low = 0;
+		int high = starts.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (starts[middle] <= time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low < events.length ? events[low] : null;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public List<CalDavEvent> overlapping(long start, long end) {
+		List<CalDavEvent> result = new ArrayList<CalDavEvent>();
+		collectOverlapping(0, events.length - 1, start, end, result);
+		return result;
+	}
+
+	private void collectOverlapping(int low, int high, long start, long end, List<CalDavEvent> result) {
+		if (low > high) {
+			return;
+		}
+		int middle = (low + high) >>> 1;
+		if (subtreeMaxEnds[middle] <= start) {
+			// all events of this subtree end before the range
+			return;
+		}
+		collectOverlapping(low, middle - 1, start, end, result);
+		if (starts[middle] < end) {
+			if (events[middle].getEnd() > start) {
+				result.add(events[middle]);
+			}
+			collectOverlapping(middle + 1, high, start, end, result);
+		}
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public List<CalDavEvent> withTitle(String title) {
+		return lookup(eventsByTitle, title);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public List<CalDavEvent> withCategory(String category) {
+		return lookup(eventsByCategory, category);
+	}
+
+	private static List<CalDavEvent> lookup(Map<String, List<CalDavEvent>> map, String key) {
+		if (key == null) {
+			return Collections.emptyList();
+		}
+		List<CalDavEvent> list = map.get(key.trim().toLowerCase(Locale.ENGLISH));
+		return list == null ? Collections.<CalDavEvent>emptyList() : Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	public long getLastUpdate() {
+		return lastUpdate;
+	}
+
+	/**
+	 * @return the number of indexed events
+	 */
+	public int size() {
+		return events.length;
+	}
+
+}
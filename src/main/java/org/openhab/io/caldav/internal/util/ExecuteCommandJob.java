@@ -18,11 +18,17 @@ import java.util.Collection;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
+import org.openhab.core.events.EventPublisher;
+import org.openhab.core.items.ItemRegistry;
+import org.openhab.io.caldav.internal.CalDavActivator;
+import org.openhab.io.caldav.internal.util.ScheduleJournal.Decision;
 import org.openhab.io.console.Console;
 import org.openhab.io.console.ConsoleInterpreter;
 import org.quartz.Job;
+import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,7 +36,8 @@ import org.slf4j.LoggerFactory;
 /**
  * Implementation of Quartz {@link Job}-Interface. It parses the Calendar-Event
  * content into single commands and let {@link ConsoleInterpreter} handle those
- * commands.
+ * commands. <code>send</code> and <code>update</code> commands of existing
+ * items are published to the event bus directly (see {@link ItemCommand}).
  * 
  * @author Thomas.Eichstaedt-Engelen
  * @since 0.7.0
@@ -42,19 +49,84 @@ public class ExecuteCommandJob implements Job {
 		
 	public static final String JOB_DATA_CONTENT_KEY = "content";
 	
+	/** the time (in milliseconds) the trigger was meant to fire at */
+	public static final String JOB_DATA_PLANNED_FIRE_TIME_KEY = "plannedFireTime";
+	
+	/** 
+	 * the maximum delay (in milliseconds) a late firing is accepted with, later
+	 * firings are skipped
+	 */
+	public static final String JOB_DATA_MISFIRE_GRACE_KEY = "misfireGrace";
+	
+	/** the suffix of the names of the jobs executing the start commands of an event */
+	public static final String JOB_NAME_START_SUFFIX = "_start";
+	
+	/** the suffix of the names of the jobs executing the end commands of an event */
+	public static final String JOB_NAME_END_SUFFIX = "_end";
+	
 	
 	public void execute(JobExecutionContext context) throws JobExecutionException {
 		String content = (String) 
 			context.getJobDetail().getJobDataMap().get(JOB_DATA_CONTENT_KEY);
 		
+		if (isTooLate(context)) {
+			JobKey jobKey = context.getJobDetail().getKey();
+			ScheduleJournal.recordFor(jobKey.getGroup(), Decision.JOB_SKIPPED, jobKey.getName(), getPlannedFireTime(context), "misfire");
+			return;
+		}
+		
+		execute(context.getJobDetail().getKey(), content, getPlannedFireTime(context));
+	}
+	
+	/**
+	 * Executes the commands of a job which has fired in time. Besides Quartz
+	 * this is called by the trigger engines which don't keep a
+	 * {@link JobExecutionContext}.
+	 * 
+	 * @param jobKey the key of the job
+	 * @param content the Calendar-Event content
+	 * @param plannedFireTime the time (in ms) the job was meant to fire at
+	 * @throws JobExecutionException if a command fails without dispatcher
+	 */
+	public void execute(final JobKey jobKey, String content, final long plannedFireTime) throws JobExecutionException {
+		if (!LeaderLease.isActiveNode()) {
+			logger.debug("skipping job '{}' as this node is on standby", jobKey);
+			ScheduleJournal.recordFor(jobKey.getGroup(), Decision.JOB_SKIPPED, jobKey.getName(), plannedFireTime, "standby");
+			return;
+		}
+		ScheduleJournal.recordFor(jobKey.getGroup(), Decision.JOB_FIRED, jobKey.getName(), plannedFireTime, null);
+		// recorded before the execution, a restart must rather miss a command than repeat it
+		PersistentScheduleStore.recordFiredFor(jobKey.getGroup(), jobKey.getName(), plannedFireTime);
+		
 		if (StringUtils.isNotBlank(content)) {
+			CommandDispatcher dispatcher = CommandDispatcher.getInstance();
+			boolean end = isEndJob(jobKey);
+			
 			String[] commands = parseCommands(content);
-			for (String command : commands) {
-				String[] args = parseCommand(command);
-				logger.debug("About to execute CommandJob with arguments {}", Arrays.asList(args));
+			for (final String command : commands) {
+				final String[] args = parseCommand(command);
+				if (dispatcher != null) {
+					// commands for the same item are executed in order by the same stripe, other
+					// commands (e.g. scripts) by job, so they don't all end up on a single stripe
+					boolean itemCommand = args.length > 1 && ("send".equals(args[0]) || "update".equals(args[0]));
+					String key = itemCommand ? args[1] : jobKey.toString();
+					dispatcher.dispatch(key, plannedFireTime, end, new Runnable() {
+						public void run() {
+							try {
+								executeCommand(command, args);
+							} catch (Exception e) {
+								logger.error("Executing command '" + command + "' throws an Exception.", e);
+								ScheduleJournal.recordFor(jobKey.getGroup(), Decision.JOB_FAILED, jobKey.getName(), plannedFireTime, command);
+							}
+						}
+					});
+					continue;
+				}
+				
 				try {
-					ConsoleInterpreter.handleRequest(args, new LogConsole());
+					executeCommand(command, args);
 				} catch (Exception e) {
+					ScheduleJournal.recordFor(jobKey.getGroup(), Decision.JOB_FAILED, jobKey.getName(), plannedFireTime, command);
 					throw new JobExecutionException("Executing command '" + command + "' throws an Exception. Job will be refired immediately.", e, true);
 				}
 			}
@@ -62,6 +134,138 @@ public class ExecuteCommandJob implements Job {
 		
 	}
 	
+	/**
+	 * Executes a single command, either by publishing it directly or through
+	 * the <code>ConsoleInterpreter</code>.
+	 * 
+	 * @param command the command line
+	 * @param args the tokenized command line
+	 * @throws Exception if the command fails
+	 */
+	private void executeCommand(String command, String[] args) throws Exception {
+		logger.debug("About to execute CommandJob with arguments {}", Arrays.asList(args));
+		long start = System.nanoTime();
+		try {
+			EventPublisher eventPublisher = CalDavActivator.getEventPublisher();
+			ItemCommand itemCommand = eventPublisher != null ? getItemCommand(command, args) : null;
+			if (itemCommand != null) {
+				itemCommand.publish(eventPublisher);
+				CommandStatistics.commandPublished();
+			} else {
+				ConsoleInterpreter.handleRequest(args, new LogConsole());
+			}
+			CommandStatistics.commandExecuted(command, (System.nanoTime() - start) / 1000000, false);
+		} catch (Exception e) {
+			CommandStatistics.commandExecuted(command, (System.nanoTime() - start) / 1000000, true);
+			throw e;
+		}
+	}
+	
+	/**
+	 * @param uid the UID (its value, not the property) of the event
+	 * @param start whether the job executes the start or the end commands
+	 * @return the name of the job executing the commands of the event
+	 */
+	public static String getJobName(String uid, boolean start) {
+		return uid + (start ? JOB_NAME_START_SUFFIX : JOB_NAME_END_SUFFIX);
+	}
+	
+	/**
+	 * @param jobKey the key of a job created by the CalDav downloader
+	 * @return <code>true</code> if the job executes the end commands of an event
+	 */
+	public static boolean isEndJob(JobKey jobKey) {
+		return jobKey.getName().endsWith(JOB_NAME_END_SUFFIX);
+	}
+	
+	private long getPlannedFireTime(JobExecutionContext context) {
+		JobDataMap jobDataMap = context.getMergedJobDataMap();
+		return jobDataMap.containsKey(JOB_DATA_PLANNED_FIRE_TIME_KEY) ?
+			jobDataMap.getLong(JOB_DATA_PLANNED_FIRE_TIME_KEY) : context.getScheduledFireTime().getTime();
+	}
+	
+	/**
+	 * Returns the resolved <code>send</code> or <code>update</code> command.
+	 * Commands which haven't been resolved at schedule time (e.g. jobs
+	 * restored from the schedule snapshot) are resolved now.
+	 * 
+	 * @param command the command line
+	 * @param args the tokenized command line
+	 * @return the resolved command or <code>null</code> if the command has to
+	 * be handled by the <code>ConsoleInterpreter</code>
+	 */
+	private ItemCommand getItemCommand(String command, String[] args) {
+		ItemCommand itemCommand = ItemCommand.getResolvedCommand(command);
+		if (itemCommand == null) {
+			ItemRegistry itemRegistry = CalDavActivator.getItemRegistry();
+			if (itemRegistry != null) {
+				itemCommand = ItemCommand.resolve(args, itemRegistry);
+				if (itemCommand != null) {
+					ItemCommand.putResolvedCommand(command, itemCommand);
+				}
+			}
+		}
+		return itemCommand;
+	}
+	
+	/**
+	 * Resolves the <code>send</code> and <code>update</code> commands of the
+	 * given event contents, so that they can be published without any lookup
+	 * when their jobs fire.
+	 * 
+	 * @param contents the event contents (one command per line)
+	 */
+	public static void resolveCommands(Collection<String> contents) {
+		ItemRegistry itemRegistry = CalDavActivator.getItemRegistry();
+		if (itemRegistry == null) {
+			return;
+		}
+		ExecuteCommandJob parser = new ExecuteCommandJob();
+		for (String content : contents) {
+			if (StringUtils.isBlank(content)) {
+				continue;
+			}
+			for (String command : parser.parseCommands(content)) {
+				ItemCommand.putResolvedCommand(command, ItemCommand.resolve(parser.parseCommand(command), itemRegistry));
+			}
+		}
+	}
+	
+	/**
+	 * Splits the given event content into its commands, as the job does when
+	 * it fires.
+	 * 
+	 * @param content the event content (one command per line)
+	 * @return the commands of the content
+	 */
+	public static String[] splitCommands(String content) {
+		return new ExecuteCommandJob().parseCommands(content);
+	}
+	
+	/**
+	 * Checks whether this firing is later than the misfire grace allows. That
+	 * is the case if openHAB has been down at the planned fire time or all
+	 * scheduler threads have been busy.
+	 * 
+	 * @param context the context of the current firing
+	 * @return <code>true</code> if the firing should be skipped
+	 */
+	protected boolean isTooLate(JobExecutionContext context) {
+		JobDataMap jobDataMap = context.getMergedJobDataMap();
+		if (!jobDataMap.containsKey(JOB_DATA_MISFIRE_GRACE_KEY)) {
+			return false;
+		}
+		
+		long plannedFireTime = getPlannedFireTime(context);
+		long delay = context.getFireTime().getTime() - plannedFireTime;
+		
+		if (delay > jobDataMap.getLong(JOB_DATA_MISFIRE_GRACE_KEY)) {
+			logger.info("skipping job '{}' as it fires {}ms later than planned", context.getJobDetail().getKey(), delay);
+			return true;
+		}
+		return false;
+	}
+	
 	/**
 	 * Reads the Calendar-Event content String line by line. It is assumed, that
 	 * each line contains a single command. Blank lines are omitted.
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.openhab.core.events.EventPublisher;
+import org.openhab.core.items.Item;
+import org.openhab.core.items.ItemNotFoundException;
+import org.openhab.core.items.ItemRegistry;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+import org.openhab.core.types.Type;
+import org.openhab.core.types.TypeParser;
+
+
+/**
+ * A <code>send</code> or <code>update</code> command whose item and
+ * {@link Command} or {@link State} have been resolved already. It is
+ * published straight to the event bus, without going through the
+ * <code>ConsoleInterpreter</code>.
+ * <p>
+ * The resolved commands are cached by their command line. The commands of
+ * all jobs are resolved again when they are scheduled, so the item types are
+ * looked up once per poll and not on each firing.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class ItemCommand {
+
+	/** the number of cached commands before the cache is cleared */
+	private static final int MAX_RESOLVED_COMMANDS = 1024;
+
+	/** holds the resolved commands by their command line */
+	private static final Map<String, ItemCommand> resolvedCommands = new ConcurrentHashMap<String, ItemCommand>();
+
+	private final boolean update;
+	private final String itemName;
+	private final Type value;
+
+
+	private ItemCommand(boolean update, String itemName, Type value) {
+		this.update = update;
+		this.itemName = itemName;
+		this.value = value;
+	}
+
+	/**
+	 * Resolves a tokenized command line.
+	 *
+	 * @param args the tokens as returned by {@link ExecuteCommandJob#parseCommand(String)}
+	 * @param itemRegistry the registry to look the item up in
+	 * @return the resolved command or <code>null</code> if the command is
+	 * neither <code>send</code> nor <code>update</code>, the item doesn't exist
+	 * (it might be a pattern) or the value isn't accepted by the item
+	 */
+	public static ItemCommand resolve(String[] args, ItemRegistry itemRegistry) {
+		if (args.length < 3 || !("send".equals(args[0]) || "update".equals(args[0]))) {
+			return null;
+		}
+		for (int index = 3; index < args.length; index++) {
+			if (StringUtils.isNotEmpty(args[index])) {
+				return null;
+			}
+		}
+
+		Item item;
+		try {
+			item = itemRegistry.getItem(args[1]);
+		}
+		catch (ItemNotFoundException infe) {
+			return null;
+		}
+
+		boolean update = "update".equals(args[0]);
+		Type value = update ?
+				TypeParser.parseState(item.getAcceptedDataTypes(), args[2]) :
+				TypeParser.parseCommand(item.getAcceptedCommandTypes(), args[2]);
+		return value == null ? null : new ItemCommand(update, item.getName(), value);
+	}
+
+	/**
+	 * @param command the command line
+	 * @return the cached command or <code>null</code> if it has not been
+	 * resolved
+	 */
+	public static ItemCommand getResolvedCommand(String command) {
+		return resolvedCommands.get(command);
+	}
+
+	/**
+	 * Caches a resolved command, replacing an earlier resolution of the same
+	 * command line.
+	 *
+	 * @param command the command line
+	 * @param itemCommand the resolved command, <code>null</code> removes an
+	 * earlier resolution
+	 */
+	public static void putResolvedCommand(String command, ItemCommand itemCommand) {
+		if (itemCommand == null) {
+			resolvedCommands.remove(command);
+			return;
+		}
+		if (resolvedCommands.size() >= MAX_RESOLVED_COMMANDS && !resolvedCommands.containsKey(command)) {
+			resolvedCommands.clear();
+		}
+		resolvedCommands.put(command, itemCommand);
+	}
+
+	/**
+	 * Publishes the command or state update.
+	 *
+	 * @param eventPublisher the publisher of the event bus
+	 */
+	public void publish(EventPublisher eventPublisher) {
+		if (update) {
+			eventPublisher.postUpdate(itemName, (State) value);
+		} else {
+			eventPublisher.sendCommand(itemName, (Command) value);
+		}
+	}
+
+	public String getItemName() {
+		return itemName;
+	}
+
+	@Override
+	public String toString() {
+		return (update ? "update " : "send ") + itemName + " " + value;
+	}
+
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A lease in a file shared by the openHAB nodes of a cluster. The node
+ * holding the lease is the leader: it polls the CalDav calendars and
+ * executes their commands. The other nodes are on standby.
+ * <p>
+ * The file holds the id of the leader and the time its lease expires. The
+ * leader renews the lease well before it expires; another node takes over
+ * once it has expired. Reading and writing the file is serialized by a file
+ * lock. The clocks of the nodes have to be synchronized (e.g. by NTP) to
+ * less than a fraction of the lease time.
+ * </p><p>
+ * A node whose renewal fails or comes too late stops acting as leader when
+ * its lease expires, even if it can't reach the file anymore, so two nodes
+ * never execute commands at the same time.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class LeaderLease {
+
+	private static final Logger logger = LoggerFactory.getLogger(LeaderLease.class);
+
+	private static volatile LeaderLease instance;
+
+	private final File file;
+	private final String nodeId;
+	private final long leaseTime;
+
+	private volatile long expiresAt = 0;
+	private volatile String holder;
+
+
+	/**
+	 * @param file the file shared by all nodes
+	 * @param nodeId the id of this node, unique in the cluster
+	 * @param leaseTime the time (in ms) a lease lasts without renewal
+	 */
+	public LeaderLease(File file, String nodeId, long leaseTime) {
+		this.file = file;
+		this.nodeId = nodeId;
+		this.leaseTime = leaseTime;
+	}
+
+	/**
+	 * Makes the lease the one deciding whether this node is active. Without
+	 * a lease every node is active.
+	 *
+	 * @param lease the lease or <code>null</code> to run without coordination
+	 */
+	public static void setInstance(LeaderLease lease) {
+		LeaderLease former = instance;
+		instance = lease;
+		if (former != null && former != lease) {
+			former.release();
+		}
+	}
+
+	public static LeaderLease getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @return <code>true</code> if this node may poll and execute commands,
+	 * i.e. no lease is configured or this node holds it
+	 */
+	public static boolean isActiveNode() {
+		LeaderLease lease = instance;
+		return lease == null || lease.isLeader();
+	}
+
+	/**
+	 * @return <code>true</code> if this node holds an unexpired lease
+	 */
+	public boolean isLeader() {
+		return System.currentTimeMillis() < expiresAt;
+	}
+
+	/**
+	 * Acquires or renews the lease if it is free, expired or held by this
+	 * node already.
+	 *
+	 * @return <code>true</code> if this node holds the lease
+	 */
+	public synchronized boolean renew() {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			FileLock lock = raf.getChannel().lock();
+			try {
+				long now = System.currentTimeMillis();
+				String[] content = readContent(raf);
+				String currentHolder = content != null ? content[0] : null;
+				long currentExpiry = content != null ? Long.parseLong(content[1]) : 0;
+
+				if (currentHolder != null && !currentHolder.equals(nodeId) && now < currentExpiry) {
+					holder = currentHolder;
+					expiresAt = 0;
+					return false;
+				}
+
+				long newExpiry = now + leaseTime;
+				raf.setLength(0);
+				raf.writeBytes(nodeId + "\n" + newExpiry + "\n");
+				raf.getChannel().force(true);
+				if (!nodeId.equals(currentHolder) || expiresAt == 0) {
+					logger.info("node '{}' has become the CalDav leader (lease '{}')", nodeId, file);
+				}
+				holder = nodeId;
+				// the last third of the lease is kept as margin for clock skew and late renewals
+				expiresAt = newExpiry - leaseTime / 3;
+				return true;
+			}
+			finally {
+				lock.release();
+			}
+		}
+		catch (IOException ioe) {
+			logger.warn("renewing the CalDav lease '" + file + "' throws exception", ioe);
+			return isLeader();
+		}
+		finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				}
+				catch (IOException ioe) {}
+			}
+		}
+	}
+
+	private String[] readContent(RandomAccessFile raf) throws IOException {
+		if (raf.length() == 0) {
+			return null;
+		}
+		String currentHolder = raf.readLine();
+		String expiry = raf.readLine();
+		if (StringUtils.isBlank(currentHolder) || expiry == null || !expiry.trim().matches("\\d+")) {
+			logger.warn("the CalDav lease '{}' is corrupt and is taken over", file);
+			return null;
+		}
+		return new String[] { currentHolder.trim(), expiry.trim() };
+	}
+
+	/**
+	 * Gives the lease up, so that another node can take over right away.
+	 */
+	public synchronized void release() {
+		if (!isLeader()) {
+			return;
+		}
+		expiresAt = 0;
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			FileLock lock = raf.getChannel().lock();
+			try {
+				String[] content = readContent(raf);
+				if (content != null && nodeId.equals(content[0])) {
+					raf.setLength(0);
+				}
+			}
+			finally {
+				lock.release();
+			}
+			logger.info("node '{}' has released the CalDav lease '{}'", nodeId, file);
+		}
+		catch (IOException ioe) {
+			logger.warn("releasing the CalDav lease '" + file + "' throws exception", ioe);
+		}
+		finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				}
+				catch (IOException ioe) {}
+			}
+		}
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * @return the node which held the lease at the last renewal
+	 */
+	public String getHolder() {
+		return holder;
+	}
+
+	/**
+	 * @return the time (in ms) a lease lasts without renewal
+	 */
+	public long getLeaseTime() {
+		return leaseTime;
+	}
+
+	@Override
+	public String toString() {
+		return file + " (node '" + nodeId + "', " + (isLeader() ? "leader" : "standby, leader '" + holder + "'") + ")";
+	}
+
+}
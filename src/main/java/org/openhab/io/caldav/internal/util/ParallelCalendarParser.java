@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.data.ParserException;
+import net.fortuna.ical4j.model.Calendar;
+
+import org.openhab.io.caldav.internal.transport.CalendarResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Parses the calendar data of the resources of a multistatus response on a
+ * bounded pool of parser threads. The resources are split into chunks, each
+ * chunk is parsed by one thread with a {@link CalendarBuilder} of its own
+ * (builders aren't thread safe). The parsed calendars are returned in the
+ * order of the resources, whatever order the chunks complete in.
+ * <p>
+ * Small responses, or any response while the parser isn't started, are
+ * parsed on the calling thread.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class ParallelCalendarParser {
+
+	private static final Logger logger = LoggerFactory.getLogger(ParallelCalendarParser.class);
+
+	/** responses with less resources are parsed on the calling thread */
+	private static final int MIN_PARALLEL_RESOURCES = 32;
+
+	/** the number of chunks per thread, more chunks even out slow resources */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private static volatile ParallelCalendarParser instance;
+
+	private final ExecutorService executor;
+	private final int threads;
+
+
+	private ParallelCalendarParser(int threads) {
+		this.threads = threads;
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "CalDav Parser " + threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts the parser threads, running threads are stopped before.
+	 *
+	 * @param threads the number of parser threads
+	 */
+	public static synchronized void start(int threads) {
+		stop();
+		instance = new ParallelCalendarParser(threads);
+		logger.debug("started calendar parser with {} threads", threads);
+	}
+
+	/**
+	 * Stops the parser threads. Later responses are parsed on the calling
+	 * thread.
+	 */
+	public static synchronized void stop() {
+		if (instance != null) {
+			instance.executor.shutdownNow();
+			instance = null;
+		}
+	}
+
+	/**
+	 * Parses the resources, in parallel if the parser has been started.
+	 *
+	 * @param resources the resources to parse
+	 * @return the calendars in the order of the resources, <code>null</code>
+	 * for resources which can't be parsed
+	 * @throws InterruptedException if the calling thread has been interrupted
+	 */
+	public static List<Calendar> parse(List<CalendarResource> resources) throws InterruptedException {
+		ParallelCalendarParser parser = instance;
+		if (parser == null || resources.size() < MIN_PARALLEL_RESOURCES) {
+			return parseChunk(resources);
+		}
+		return parser.parseInParallel(resources);
+	}
+
+	private List<Calendar> parseInParallel(List<CalendarResource> resources) throws InterruptedException {
+		int chunkCount = Math.min(resources.size(), threads * CHUNKS_PER_THREAD);
+		int chunkSize = (resources.size() + chunkCount - 1) / chunkCount;
+
+		List<Future<List<Calendar>>> chunks = new ArrayList<Future<List<Calendar>>>(chunkCount);
+		try {
+			for (int start = 0; start < resources.size(); start += chunkSize) {
+				final List<CalendarResource> chunk = resources.subList(start, Math.min(resources.size(), start + chunkSize));
+				chunks.add(executor.submit(new Callable<List<Calendar>>() {
+					public List<Calendar> call() {
+						return parseChunk(chunk);
+					}
+				}));
+			}
+
+			List<Calendar> calendars = new ArrayList<Calendar>(resources.size());
+			for (Future<List<Calendar>> chunk : chunks) {
+				calendars.addAll(chunk.get());
+			}
+			return calendars;
+		}
+		catch (ExecutionException ee) {
+			// parseChunk doesn't throw checked exceptions
+			throw new IllegalStateException("parsing calendar data fails", ee.getCause());
+		}
+		finally {
+			for (Future<List<Calendar>> chunk : chunks) {
+				chunk.cancel(true);
+			}
+		}
+	}
+
+	private static List<Calendar> parseChunk(List<CalendarResource> resources) {
+		CalendarBuilder calendarBuilder = new CalendarBuilder();
+		List<Calendar> calendars = new ArrayList<Calendar>(resources.size());
+		for (CalendarResource resource : resources) {
+			calendars.add(parseCalendar(calendarBuilder, resource));
+		}
+		return calendars;
+	}
+
+	/**
+	 * Parses the calendar data of a single resource. The line endings are
+	 * normalized to CRLF as caldav4j does, since some servers send plain LF.
+	 *
+	 * @return the parsed calendar or <code>null</code> if the calendar data
+	 * can't be parsed
+	 */
+	public static Calendar parseCalendar(CalendarBuilder calendarBuilder, CalendarResource resource) {
+		String calendarData = resource.getCalendarData().trim()
+				.replaceAll("\n", "\r\n").replaceAll("\r\r\n", "\r\n");
+		try {
+			return calendarBuilder.build(new StringReader(calendarData));
+		}
+		catch (IOException ioe) {
+			logger.warn("reading CalDav resource " + resource.getHref() + " throws exception", ioe);
+		}
+		catch (ParserException pe) {
+			logger.warn("parsing CalDav resource " + resource.getHref() + " throws exception", pe);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of parser threads or <code>0</code> if the parser
+	 * hasn't been started
+	 */
+	public static int getThreadCount() {
+		ParallelCalendarParser parser = instance;
+		return parser == null ? 0 : parser.threads;
+	}
+
+}
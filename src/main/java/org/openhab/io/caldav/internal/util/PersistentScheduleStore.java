@@ -0,0 +1,416 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.LongRange;
+import org.quartz.JobDetail;
+import org.quartz.Trigger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps a snapshot of the scheduled CalDav jobs in a local file, so that the
+ * schedule survives a restart of openHAB even if the CalDav server can't be
+ * reached at startup. The snapshot holds the content and fire time of each
+ * trigger as well as the TimeRanges of the exclusion calendars.
+ * <p>
+ * Besides the snapshot, which is written after each poll, the store keeps
+ * the planned fire time each job has last been executed for in a second
+ * file (<code>&lt;file&gt;.fired</code>). A line is appended to it whenever
+ * a job fires, and it is compacted when the snapshot is saved. Thus a
+ * trigger of the snapshot isn't fired again when it is restored within the
+ * misfire grace after a restart.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class PersistentScheduleStore {
+
+	private static final Logger logger =
+		LoggerFactory.getLogger(PersistentScheduleStore.class);
+
+	private static final String KEY_JOB_COUNT = "jobs";
+	private static final String KEY_CALENDAR_COUNT = "calendars";
+
+	/** the suffix of the file the fired jobs are kept in */
+	private static final String FIRED_SUFFIX = ".fired";
+
+	/** holds the stores by the job groups whose firings they record */
+	private static final Map<String, PersistentScheduleStore> stores = new ConcurrentHashMap<String, PersistentScheduleStore>();
+
+	private final File file;
+	private final File firedFile;
+
+	/**
+	 * holds the planned fire time (in ms) each job has last been executed
+	 * for by job name, <code>null</code> until it has been read
+	 */
+	private Map<String, Long> firedJobs;
+
+	/** whether records have been appended to the fired file since it has been compacted */
+	private boolean firedAppended = false;
+
+
+	public PersistentScheduleStore(File file) {
+		this.file = file;
+		this.firedFile = new File(file.getPath() + FIRED_SUFFIX);
+	}
+
+	/**
+	 * Registers the store which records the firings of the jobs of the given
+	 * group.
+	 */
+	public static void register(String group, PersistentScheduleStore store) {
+		stores.put(group, store);
+	}
+
+	public static void unregister(String group) {
+		stores.remove(group);
+	}
+
+	/**
+	 * Records the firing of a job in the store of its group, if there is one.
+	 *
+	 * @see #recordFired(String, long)
+	 */
+	public static void recordFiredFor(String group, String jobName, long plannedFireTime) {
+		PersistentScheduleStore store = stores.get(group);
+		if (store != null) {
+			store.recordFired(jobName, plannedFireTime);
+		}
+	}
+
+	/**
+	 * Records that a job has been executed and appends it to the fired jobs
+	 * of the store, so that the trigger isn't caught up again after a
+	 * restart. Later lines of the fired file replace earlier ones of the
+	 * same job when it is read.
+	 *
+	 * @param jobName the name of the job
+	 * @param plannedFireTime the time (in ms) the job was meant to fire at
+	 */
+	public synchronized void recordFired(String jobName, long plannedFireTime) {
+		Map<String, Long> fired = getFiredJobs();
+		Long lastFired = fired.get(jobName);
+		if (lastFired == null || lastFired < plannedFireTime) {
+			fired.put(jobName, plannedFireTime);
+			appendFiredJob(jobName, plannedFireTime);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Writes the given schedule to the store file. The file is written to a
+	 * temporary file first and renamed afterwards, so that a crash while
+	 * writing never leaves a truncated snapshot behind.
+	 *
+	 * @param jobsAndTriggers the scheduled jobs and their triggers
+	 * @param exclusionRanges the TimeRanges of the exclusion calendars by
+	 * calendar name
+	 */
+	public void save(Map<JobDetail, List<Trigger>> jobsAndTriggers, Map<String, List<LongRange>> exclusionRanges) {
+		Properties properties = new Properties();
+
+		int jobIndex = 0;
+		for (Entry<JobDetail, List<Trigger>> entry : jobsAndTriggers.entrySet()) {
+			JobDetail job = entry.getKey();
+			String content = job.getJobDataMap().getString(ExecuteCommandJob.JOB_DATA_CONTENT_KEY);
+			for (Trigger trigger : entry.getValue()) {
+				String prefix = "job." + jobIndex++ + ".";
+				properties.setProperty(prefix + "name", job.getKey().getName());
+				properties.setProperty(prefix + "description", StringUtils.defaultString(job.getDescription()));
+				properties.setProperty(prefix + "content", StringUtils.defaultString(content));
+				properties.setProperty(prefix + "fireTime", String.valueOf(trigger.getStartTime().getTime()));
+				properties.setProperty(prefix + "calendar", StringUtils.defaultString(trigger.getCalendarName()));
+			}
+		}
+		properties.setProperty(KEY_JOB_COUNT, String.valueOf(jobIndex));
+
+		int calendarIndex = 0;
+		for (Entry<String, List<LongRange>> entry : exclusionRanges.entrySet()) {
+			String prefix = "calendar." + calendarIndex++ + ".";
+			StringBuilder ranges = new StringBuilder();
+			for (LongRange range : entry.getValue()) {
+				if (ranges.length() > 0) {
+					ranges.append(',');
+				}
+				ranges.append(range.getMinimumLong()).append('-').append(range.getMaximumLong());
+			}
+			properties.setProperty(prefix + "name", entry.getKey());
+			properties.setProperty(prefix + "ranges", ranges.toString());
+		}
+		properties.setProperty(KEY_CALENDAR_COUNT, String.valueOf(calendarIndex));
+
+		if (write(properties, file, "CalDav schedule snapshot - do not edit")) {
+			logger.debug("stored {} triggers and {} exclusion calendars to '{}'", new Object[] { jobIndex, calendarIndex, file });
+		}
+
+		// the jobs which aren't planned anymore can't be restored, so their firings are of no interest
+		Set<String> jobNames = new HashSet<String>(jobsAndTriggers.size() * 2);
+		for (JobDetail job : jobsAndTriggers.keySet()) {
+			jobNames.add(job.getKey().getName());
+		}
+		synchronized (this) {
+			Map<String, Long> fired = getFiredJobs();
+			if (fired.keySet().retainAll(jobNames) || firedAppended) {
+				writeFiredJobs(fired);
+			}
+		}
+	}
+
+	/**
+	 * Writes the given properties to a temporary file first and renames it
+	 * to <code>target</code> afterwards, so that a crash while writing never
+	 * leaves a truncated file behind.
+	 *
+	 * @return <code>true</code> if the properties have been written
+	 */
+	private static boolean write(Properties properties, File target, String comment) {
+		File tempFile = new File(target.getPath() + ".tmp");
+		OutputStream out = null;
+		try {
+			if (target.getParentFile() != null) {
+				target.getParentFile().mkdirs();
+			}
+			out = new FileOutputStream(tempFile);
+			properties.store(out, comment);
+			out.close();
+			out = null;
+
+			if (!tempFile.renameTo(target)) {
+				// renameTo doesn't replace existing files on all platforms
+				target.delete();
+				if (!tempFile.renameTo(target)) {
+					logger.warn("couldn't move '{}' to '{}'", tempFile, target);
+					return false;
+				}
+			}
+			return true;
+		}
+		catch (IOException ioe) {
+			logger.warn("writing '" + target + "' throws an exception", ioe);
+			return false;
+		}
+		finally {
+			if (out != null) {
+				try {
+					out.close();
+				}
+				catch (IOException ioe) {}
+			}
+		}
+	}
+
+	/**
+	 * Reads a properties file.
+	 *
+	 * @return the properties or <code>null</code> if the file can't be read
+	 */
+	private static Properties read(File source) {
+		Properties properties = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(source);
+			properties.load(in);
+			return properties;
+		}
+		catch (IOException ioe) {
+			logger.warn("reading '" + source + "' throws an exception", ioe);
+			return null;
+		}
+		finally {
+			if (in != null) {
+				try {
+					in.close();
+				}
+				catch (IOException ioe) {}
+			}
+		}
+	}
+
+	/**
+	 * @return the fired jobs, which are read from the store on the first call
+	 */
+	private Map<String, Long> getFiredJobs() {
+		if (firedJobs == null) {
+			firedJobs = new HashMap<String, Long>();
+			Properties properties = firedFile.isFile() ? read(firedFile) : null;
+			if (properties != null) {
+				for (Object key : properties.keySet()) {
+					String jobName = (String) key;
+					try {
+						firedJobs.put(jobName, Long.valueOf(properties.getProperty(jobName)));
+					}
+					catch (NumberFormatException nfe) {
+						logger.debug("ignoring corrupt fire time of job '{}' in '{}'", jobName, firedFile);
+					}
+				}
+			}
+		}
+		return firedJobs;
+	}
+
+	private void writeFiredJobs(Map<String, Long> fired) {
+		Properties properties = new Properties();
+		for (Entry<String, Long> entry : fired.entrySet()) {
+			properties.setProperty(entry.getKey(), entry.getValue().toString());
+		}
+		if (write(properties, firedFile, "CalDav jobs by the planned fire time they have last been executed for - do not edit")) {
+			firedAppended = false;
+		}
+	}
+
+	/**
+	 * Appends a single line in the format of {@link Properties} to the fired
+	 * file, which is far cheaper than rewriting the file on each firing.
+	 */
+	private void appendFiredJob(String jobName, long plannedFireTime) {
+		Properties properties = new Properties();
+		properties.setProperty(jobName, String.valueOf(plannedFireTime));
+		OutputStream out = null;
+		try {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			properties.store(line, null);
+			byte[] bytes = line.toByteArray();
+			// skip the date comment which is written in any case
+			int start = 0;
+			while (start < bytes.length && bytes[start] != '\n') {
+				start++;
+			}
+			start++;
+
+			if (firedFile.getParentFile() != null) {
+				firedFile.getParentFile().mkdirs();
+			}
+			out = new FileOutputStream(firedFile, true);
+			out.write(bytes, start, bytes.length - start);
+			out.close();
+			out = null;
+			firedAppended = true;
+		}
+		catch (IOException ioe) {
+			logger.warn("appending to '" + firedFile + "' throws an exception", ioe);
+		}
+		finally {
+			if (out != null) {
+				try {
+					out.close();
+				}
+				catch (IOException ioe) {}
+			}
+		}
+	}
+
+	/**
+	 * Reads the schedule snapshot from the store file.
+	 *
+	 * @return the stored schedule or <code>null</code> if there is no (readable)
+	 * snapshot
+	 */
+	public StoredSchedule load() {
+		if (!file.isFile()) {
+			logger.debug("there is no schedule snapshot '{}' to restore", file);
+			return null;
+		}
+
+		Properties properties = read(file);
+		if (properties == null) {
+			return null;
+		}
+
+		StoredSchedule schedule = new StoredSchedule();
+		synchronized (this) {
+			schedule.firedJobs.putAll(getFiredJobs());
+		}
+		try {
+			int jobCount = Integer.parseInt(properties.getProperty(KEY_JOB_COUNT, "0"));
+			for (int jobIndex = 0; jobIndex < jobCount; jobIndex++) {
+				String prefix = "job." + jobIndex + ".";
+				StoredTrigger trigger = new StoredTrigger();
+				trigger.jobName = properties.getProperty(prefix + "name");
+				trigger.description = properties.getProperty(prefix + "description");
+				trigger.content = properties.getProperty(prefix + "content");
+				trigger.fireTime = Long.parseLong(properties.getProperty(prefix + "fireTime"));
+				trigger.calendarName = StringUtils.trimToNull(properties.getProperty(prefix + "calendar"));
+				schedule.triggers.add(trigger);
+			}
+
+			int calendarCount = Integer.parseInt(properties.getProperty(KEY_CALENDAR_COUNT, "0"));
+			for (int calendarIndex = 0; calendarIndex < calendarCount; calendarIndex++) {
+				String prefix = "calendar." + calendarIndex + ".";
+				List<LongRange> ranges = new ArrayList<LongRange>();
+				for (String range : StringUtils.split(properties.getProperty(prefix + "ranges", ""), ',')) {
+					String[] bounds = StringUtils.split(range, '-');
+					ranges.add(new LongRange(Long.parseLong(bounds[0]), Long.parseLong(bounds[1])));
+				}
+				schedule.exclusionRanges.put(properties.getProperty(prefix + "name"), ranges);
+			}
+		}
+		catch (RuntimeException re) {
+			logger.warn("schedule snapshot '" + file + "' is corrupt and will be ignored", re);
+			return null;
+		}
+
+		return schedule;
+	}
+
+
+	/**
+	 * Holds the schedule read from the store file
+	 */
+	public static class StoredSchedule {
+		public final List<StoredTrigger> triggers = new ArrayList<StoredTrigger>();
+		public final Map<String, List<LongRange>> exclusionRanges = new HashMap<String, List<LongRange>>();
+		/** the planned fire time (in ms) each job has last been executed for by job name */
+		public final Map<String, Long> firedJobs = new HashMap<String, Long>();
+
+		/**
+		 * @return <code>true</code> if the job of the given trigger has been
+		 * executed for the trigger's fire time (or a later one) already
+		 */
+		public boolean hasFired(StoredTrigger trigger) {
+			Long lastFired = firedJobs.get(trigger.jobName);
+			return lastFired != null && lastFired >= trigger.fireTime;
+		}
+	}
+
+	/**
+	 * Holds a single trigger (and the content of its job) read from the store file
+	 */
+	public static class StoredTrigger {
+		public String jobName;
+		public String description;
+		public String content;
+		public long fireTime;
+		public String calendarName;
+	}
+
+}
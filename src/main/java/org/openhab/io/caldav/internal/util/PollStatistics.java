@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.quartz.JobDetail;
+import org.quartz.Trigger;
+
+
+/**
+ * Collects timing data of the polls of a CalDav downloader and keeps an index
+ * of the triggers it has scheduled. All values are kept in memory and are
+ * replaced as a whole at the end of each poll, so reading them is cheap and
+ * never blocks the poller.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class PollStatistics {
+
+	private final Map<String, Long> currentStages = new LinkedHashMap<String, Long>();
+	private long currentPollStart;
+
+	private volatile Map<String, Long> lastStages = Collections.emptyMap();
+	private volatile long lastPollTime = 0;
+	private volatile long lastPollDuration = 0;
+	private volatile long maxPollDuration = 0;
+	private volatile long totalPollDuration = 0;
+	private volatile long pollCount = 0;
+	private volatile int lastEventCount = 0;
+	private volatile long firstTriggerArmedTime = 0;
+
+	private volatile ScheduleIndex scheduleIndex = new ScheduleIndex(new long[0], new String[0]);
+
+
+	/**
+	 * Marks the beginning of a new poll.
+	 */
+	public synchronized void pollStarted() {
+		currentStages.clear();
+		currentPollStart = System.nanoTime();
+	}
+
+	/**
+	 * Records the duration of a poll stage.
+	 *
+	 * @param stage the name of the stage
+	 * @param startNanos the {@link System#nanoTime()} the stage started at
+	 * @return the current {@link System#nanoTime()}, to be used as start of
+	 * the next stage
+	 */
+	public synchronized long stageFinished(String stage, long startNanos) {
+		long now = System.nanoTime();
+		Long previous = currentStages.get(stage);
+		long duration = (now - startNanos) / 1000000;
+		currentStages.put(stage, previous == null ? duration : previous + duration);
+		return now;
+	}
+
+	/**
+	 * Marks the end of the current poll and publishes its timing data.
+	 *
+	 * @param eventCount the number of events downloaded by this poll
+	 */
+	public synchronized void pollFinished(int eventCount) {
+		long duration = (System.nanoTime() - currentPollStart) / 1000000;
+		lastStages = Collections.unmodifiableMap(new LinkedHashMap<String, Long>(currentStages));
+		lastPollTime = System.currentTimeMillis();
+		lastPollDuration = duration;
+		lastEventCount = eventCount;
+		maxPollDuration = Math.max(maxPollDuration, duration);
+		totalPollDuration += duration;
+		pollCount++;
+	}
+
+	/**
+	 * Replaces the index of scheduled triggers.
+	 *
+	 * @param jobsAndTriggers the jobs and triggers which have been scheduled
+	 */
+	public void setScheduledTriggers(Map<JobDetail, List<Trigger>> jobsAndTriggers) {
+		List<ScheduledFireTime> entries = new ArrayList<ScheduledFireTime>();
+		for (Entry<JobDetail, List<Trigger>> entry : jobsAndTriggers.entrySet()) {
+			String name = entry.getKey().getKey().getName();
+			if (entry.getKey().getDescription() != null) {
+				name += " (" + entry.getKey().getDescription() + ")";
+			}
+			for (Trigger trigger : entry.getValue()) {
+				entries.add(new ScheduledFireTime(trigger.getStartTime().getTime(), name));
+			}
+		}
+		Collections.sort(entries);
+		if (firstTriggerArmedTime == 0 && !entries.isEmpty()) {
+			firstTriggerArmedTime = System.currentTimeMillis();
+		}
+
+		long[] fireTimes = new long[entries.size()];
+		String[] names = new String[entries.size()];
+		for (int index = 0; index < fireTimes.length; index++) {
+			fireTimes[index] = entries.get(index).fireTime;
+			names[index] = entries.get(index).jobName;
+		}
+		scheduleIndex = new ScheduleIndex(fireTimes, names);
+	}
+
+	public Map<String, Long> getLastStages() {
+		return lastStages;
+	}
+
+	public long getLastPollTime() {
+		return lastPollTime;
+	}
+
+	public long getLastPollDuration() {
+		return lastPollDuration;
+	}
+
+	public long getMaxPollDuration() {
+		return maxPollDuration;
+	}
+
+	public long getAveragePollDuration() {
+		return pollCount == 0 ? 0 : totalPollDuration / pollCount;
+	}
+
+	public long getPollCount() {
+		return pollCount;
+	}
+
+	public int getLastEventCount() {
+		return lastEventCount;
+	}
+
+	/**
+	 * @return the time the first trigger has been scheduled at, <code>0</code>
+	 * if none has been scheduled yet
+	 */
+	public long getFirstTriggerArmedTime() {
+		return firstTriggerArmedTime;
+	}
+
+	public ScheduleIndex getScheduleIndex() {
+		return scheduleIndex;
+	}
+
+
+	/**
+	 * Immutable index of the scheduled triggers, sorted by fire time.
+	 */
+	public static class ScheduleIndex {
+
+		private final long[] fireTimes;
+		private final String[] names;
+
+		ScheduleIndex(long[] fireTimes, String[] names) {
+			this.fireTimes = fireTimes;
+			this.names = names;
+		}
+
+		/**
+		 * @return the number of triggers which fire at or after <code>time</code>
+		 */
+		public int countAfter(long time) {
+			return fireTimes.length - firstIndexAfter(time);
+		}
+
+		/**
+		 * Returns the next fire times at or after <code>time</code>.
+		 *
+		 * @param time the time to start at
+		 * @param filter only triggers whose job name contains this String are
+		 * returned, <code>null</code> returns all triggers
+		 * @param limit the maximum number of fire times to return
+		 * @return the matching fire times in ascending order
+		 */
+		public List<ScheduledFireTime> nextFireTimes(long time, String filter, int limit) {
+			List<ScheduledFireTime> result = new ArrayList<ScheduledFireTime>();
+			for (int index = firstIndexAfter(time); index < fireTimes.length && result.size() < limit; index++) {
+				if (filter == null || names[index].contains(filter)) {
+					result.add(new ScheduledFireTime(fireTimes[index], names[index]));
+				}
+			}
+			return result;
+		}
+
+		private int firstIndexAfter(long time) {
+			int index = Arrays.binarySearch(fireTimes, time);
+			if (index < 0) {
+				return -index - 1;
+			}
+			// binarySearch returns any of several equal fire times
+			while (index > 0 && fireTimes[index - 1] == time) {
+				index--;
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * A single fire time of a scheduled job
+	 */
+	public static class ScheduledFireTime implements Comparable<ScheduledFireTime> {
+
+		public final long fireTime;
+		public final String jobName;
+
+		ScheduledFireTime(long fireTime, String jobName) {
+			this.fireTime = fireTime;
+			this.jobName = jobName;
+		}
+
+		public int compareTo(ScheduledFireTime other) {
+			return fireTime < other.fireTime ? -1 : (fireTime == other.fireTime ? 0 : 1);
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.component.VEvent;
+
+import org.apache.commons.lang.StringUtils;
+
+
+/**
+ * Property conditions which are sent to the CalDav server as
+ * <code>prop-filter</code>/<code>text-match</code> elements of the
+ * <code>calendar-query</code>, so that events without commands aren't
+ * downloaded at all. All conditions have to match. The conditions are
+ * separated by commas:
+ * <ul>
+ * <li><code>NAME==text</code> - the property contains <code>text</code>
+ * (case insensitive)</li>
+ * <li><code>NAME!=text</code> - the property doesn't contain <code>text</code></li>
+ * <li><code>NAME==UNDEF</code> - the property isn't set</li>
+ * <li><code>NAME^=prefix</code> - the property starts with
+ * <code>prefix</code> (case insensitive). As CalDav only matches substrings,
+ * the server filters on the substring and the prefix is checked by
+ * {@link #matches(VEvent)}.</li>
+ * </ul>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class QueryFilter {
+
+	private static final Pattern CONDITION = Pattern.compile("([A-Za-z][A-Za-z0-9-]*)\\s*(==|!=|\\^=)\\s*(.+)");
+
+	/** the filter without any condition */
+	public static final QueryFilter NONE = new QueryFilter(Collections.<String>emptyList(), Collections.<String, String>emptyMap());
+
+	private final List<String> propFilters;
+	private final Map<String, String> prefixes;
+
+
+	private QueryFilter(List<String> propFilters, Map<String, String> prefixes) {
+		this.propFilters = propFilters;
+		this.prefixes = prefixes;
+	}
+
+	/**
+	 * @param spec the comma separated conditions, may be blank
+	 * @throws IllegalArgumentException if a condition is malformed
+	 */
+	public static QueryFilter parse(String spec) {
+		if (StringUtils.isBlank(spec)) {
+			return NONE;
+		}
+		List<String> propFilters = new ArrayList<String>();
+		Map<String, String> prefixes = new LinkedHashMap<String, String>();
+		for (String condition : StringUtils.split(spec, ',')) {
+			if (StringUtils.isBlank(condition)) {
+				continue;
+			}
+			Matcher matcher = CONDITION.matcher(condition.trim());
+			if (!matcher.matches()) {
+				throw new IllegalArgumentException("'" + condition.trim() + "' doesn't match NAME==text, NAME!=text or NAME^=prefix");
+			}
+			String name = matcher.group(1).toUpperCase(Locale.ENGLISH);
+			String operator = matcher.group(2);
+			String text = matcher.group(3);
+			if (text.length() < 2) {
+				// caldav4j doesn't accept shorter texts
+				throw new IllegalArgumentException("'" + condition.trim() + "' needs a text of at least two characters");
+			}
+			if ("^=".equals(operator)) {
+				prefixes.put(name, text.toLowerCase(Locale.ENGLISH));
+				operator = "==";
+			}
+			propFilters.add(name + operator + text);
+		}
+		return propFilters.isEmpty() ? NONE : new QueryFilter(propFilters, prefixes);
+	}
+
+	/**
+	 * @return the conditions in the syntax of caldav4j's <code>GenerateQuery</code>
+	 */
+	public List<String> getPropFilters() {
+		return Collections.unmodifiableList(propFilters);
+	}
+
+	public boolean isEmpty() {
+		return propFilters.isEmpty();
+	}
+
+	/**
+	 * Checks the conditions the server can't evaluate (the prefixes).
+	 *
+	 * @return <code>true</code> if the event matches
+	 */
+	public boolean matches(VEvent event) {
+		for (Entry<String, String> prefix : prefixes.entrySet()) {
+			Property property = event.getProperty(prefix.getKey());
+			if (property == null || !property.getValue().trim().toLowerCase(Locale.ENGLISH).startsWith(prefix.getValue())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return StringUtils.join(propFilters, ", ");
+	}
+
+}
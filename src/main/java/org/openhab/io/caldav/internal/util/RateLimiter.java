@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.util.regex.Pattern;
+
+
+/**
+ * Token bucket limiting the rate of the commands sent to the items matching
+ * a name pattern. The bucket holds up to <code>burst</code> tokens and is
+ * refilled with <code>rate</code> tokens per second; each command takes one
+ * token. A command which finds the bucket empty reserves the next free token
+ * and waits for it.
+ * <p>
+ * Commands waiting for a token are bounded: at most <code>capacity</code>
+ * commands may wait, and a command which would be executed later than
+ * <code>maxDelay</code> after it has been fired is dropped.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class RateLimiter {
+
+	private final String itemPattern;
+	private final Pattern pattern;
+	private final double rate;
+	private final int burst;
+	private final int capacity;
+	private final long maxDelay;
+
+	private double tokens;
+	private long lastRefill;
+	private int pending = 0;
+
+	private long passedCommands = 0;
+	private long droppedCommands = 0;
+	private long totalDelay = 0;
+	private long maxObservedDelay = 0;
+
+
+	/**
+	 * @param itemPattern the item names this limiter applies to, <code>*</code>
+	 * and <code>?</code> are wildcards
+	 * @param rate the number of commands per second
+	 * @param burst the number of commands which may be sent at once
+	 * @param capacity the maximum number of waiting commands
+	 * @param maxDelay the maximum time (in ms) a command may wait
+	 */
+	public RateLimiter(String itemPattern, double rate, int burst, int capacity, long maxDelay) {
+		if (rate <= 0 || burst < 1) {
+			throw new IllegalArgumentException("rate and burst must be positive");
+		}
+		this.itemPattern = itemPattern;
+		this.pattern = toPattern(itemPattern);
+		this.rate = rate;
+		this.burst = burst;
+		this.capacity = capacity;
+		this.maxDelay = maxDelay;
+		this.tokens = burst;
+		this.lastRefill = System.currentTimeMillis();
+	}
+
+	private static Pattern toPattern(String wildcards) {
+		StringBuilder regex = new StringBuilder();
+		for (char c : wildcards.toCharArray()) {
+			if (c == '*') {
+				regex.append(".*");
+			} else if (c == '?') {
+				regex.append('.');
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * Parses a limiter of the form <code>pattern:rate/burst</code>, e.g.
+	 * <code>KNX_*:2/5</code>.
+	 *
+	 * @throws IllegalArgumentException if <code>spec</code> is malformed
+	 */
+	public static RateLimiter parse(String spec, int capacity, long maxDelay) {
+		int colon = spec.lastIndexOf(':');
+		int slash = spec.lastIndexOf('/');
+		if (colon <= 0 || slash < colon) {
+			throw new IllegalArgumentException("'" + spec + "' doesn't match pattern:rate/burst");
+		}
+		try {
+			return new RateLimiter(spec.substring(0, colon).trim(),
+					Double.parseDouble(spec.substring(colon + 1, slash).trim()),
+					Integer.parseInt(spec.substring(slash + 1).trim()), capacity, maxDelay);
+		}
+		catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("'" + spec + "' contains an invalid rate or burst");
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if this limiter applies to the item
+	 */
+	public boolean matches(String itemName) {
+		return pattern.matcher(itemName).matches();
+	}
+
+	/**
+	 * Registers a command which is going to wait for a token.
+	 *
+	 * @return <code>false</code> if the capacity is exhausted and the command
+	 * has to be dropped
+	 */
+	public synchronized boolean enqueue() {
+		if (pending >= capacity) {
+			droppedCommands++;
+			return false;
+		}
+		pending++;
+		return true;
+	}
+
+	/**
+	 * Unregisters a command which has been enqueued before but won't
+	 * reserve a token, e.g. because the dispatcher has been stopped.
+	 */
+	public synchronized void release() {
+		if (pending > 0) {
+			pending--;
+		}
+	}
+
+	/**
+	 * Reserves a token for a command which has been enqueued before.
+	 *
+	 * @param firedAt the time the command has been fired at
+	 * @return the time (in ms) to wait for the token, or <code>-1</code> if
+	 * the command would exceed the maximum delay and has to be dropped
+	 */
+	public synchronized long reserve(long firedAt) {
+		pending--;
+		long now = System.currentTimeMillis();
+		tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1000);
+		lastRefill = now;
+
+		long wait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * 1000 / rate);
+		long delay = now + wait - firedAt;
+		if (delay > maxDelay) {
+			droppedCommands++;
+			return -1;
+		}
+
+		// a negative number of tokens are those reserved by waiting commands
+		tokens -= 1;
+		passedCommands++;
+		totalDelay += Math.max(0, delay);
+		maxObservedDelay = Math.max(maxObservedDelay, delay);
+		return wait;
+	}
+
+	public String getItemPattern() {
+		return itemPattern;
+	}
+
+	public synchronized int getPending() {
+		return pending;
+	}
+
+	public synchronized long getPassedCommands() {
+		return passedCommands;
+	}
+
+	public synchronized long getDroppedCommands() {
+		return droppedCommands;
+	}
+
+	/**
+	 * @return the average time (in ms) between firing and execution
+	 */
+	public synchronized long getAverageDelay() {
+		return passedCommands == 0 ? 0 : totalDelay / passedCommands;
+	}
+
+	public synchronized long getMaxDelay() {
+		return maxObservedDelay;
+	}
+
+	@Override
+	public String toString() {
+		return itemPattern + ":" + rate + "/" + burst;
+	}
+
+}
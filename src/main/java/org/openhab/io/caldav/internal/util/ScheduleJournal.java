@@ -0,0 +1,302 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.internal.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Journal of the schedule decisions of a CalDav account: which events have
+ * been added or removed, which triggers have been skipped or excluded and
+ * which jobs have fired or failed. The journal is a ring buffer of a fixed
+ * number of entries kept in parallel arrays, so recording a decision
+ * allocates nothing and the oldest entries are overwritten. The entries
+ * may be appended to a local file after each poll, which is rotated once it
+ * exceeds {@value #MAX_FILE_SIZE} bytes.
+ * <p>
+ * The subject of an entry is the UID of the event or the name of the job,
+ * which is the UID followed by <code>_start</code> or <code>_end</code>, so
+ * the decisions about an event are found by its UID.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class ScheduleJournal {
+
+	private static final Logger logger = LoggerFactory.getLogger(ScheduleJournal.class);
+
+	/** the size (in bytes) of the journal file which makes it rotate */
+	public static final long MAX_FILE_SIZE = 1024 * 1024;
+
+	/** the suffix of the rotated journal file */
+	private static final String ROTATED_SUFFIX = ".1";
+
+	/**
+	 * The decisions recorded in the journal
+	 */
+	public enum Decision {
+		/** an event has been downloaded for the first time */
+		EVENT_ADDED,
+		/** an event hasn't been downloaded anymore, it has been deleted or has passed */
+		EVENT_REMOVED,
+		/** an event exceeds the configured limits and isn't scheduled */
+		EVENT_QUARANTINED,
+		/** no trigger has been created, as the fire time has passed already */
+		TRIGGER_PAST,
+		/** a trigger doesn't fire, as its exclusion calendar doesn't include the fire time */
+		EXCLUSION_APPLIED,
+		/** a job has fired and its commands have been executed or dispatched */
+		JOB_FIRED,
+		/** a job has fired but hasn't been executed (standby, misfire) */
+		JOB_SKIPPED,
+		/** a command of a job has failed */
+		JOB_FAILED
+	}
+
+	/** holds the journals by the groups of the jobs they record */
+	private static final Map<String, ScheduleJournal> journals = new ConcurrentHashMap<String, ScheduleJournal>();
+
+	private final int capacity;
+	private final long[] times;
+	private final long[] eventTimes;
+	private final Decision[] decisions;
+	private final String[] subjects;
+	private final String[] details;
+
+	/** the number of entries which have been recorded */
+	private long sequence = 0;
+
+	/** the number of entries which have been written to the file */
+	private long flushedSequence = 0;
+
+
+	/**
+	 * @param capacity the number of entries kept
+	 */
+	public ScheduleJournal(int capacity) {
+		this.capacity = capacity;
+		this.times = new long[capacity];
+		this.eventTimes = new long[capacity];
+		this.decisions = new Decision[capacity];
+		this.subjects = new String[capacity];
+		this.details = new String[capacity];
+	}
+
+	/**
+	 * Makes the journal available to the jobs of the given group.
+	 */
+	public static void register(String group, ScheduleJournal journal) {
+		journals.put(group, journal);
+	}
+
+	public static void unregister(String group) {
+		journals.remove(group);
+	}
+
+	/**
+	 * @return the journal of the jobs of the given group or <code>null</code>
+	 * if none has been registered
+	 */
+	public static ScheduleJournal getJournal(String group) {
+		return journals.get(group);
+	}
+
+	/**
+	 * Records a decision in the journal of the given job group, if there is one.
+	 *
+	 * @see #record(Decision, String, long, String)
+	 */
+	public static void recordFor(String group, Decision decision, String subject, long eventTime, String detail) {
+		ScheduleJournal journal = journals.get(group);
+		if (journal != null) {
+			journal.record(decision, subject, eventTime, detail);
+		}
+	}
+
+	/**
+	 * Records a decision, overwriting the oldest entry once the journal is full.
+	 *
+	 * @param decision the decision
+	 * @param subject the UID of the event or the name of the job concerned
+	 * @param eventTime the time (in ms) the event starts or the job is
+	 * planned to fire at, 0 if unknown
+	 * @param detail further details (e.g. the calendar or the failed
+	 * command), may be <code>null</code>
+	 */
+	public synchronized void record(Decision decision, String subject, long eventTime, String detail) {
+		int index = (int) (sequence % capacity);
+		times[index] = System.currentTimeMillis();
+		eventTimes[index] = eventTime;
+		decisions[index] = decision;
+		subjects[index] = subject;
+		details[index] = detail;
+		sequence++;
+	}
+
+	/**
+	 * Returns the entries about the given event which have been recorded
+	 * within the given range, oldest first.
+	 *
+	 * @param uid the UID of the event, <code>null</code> returns the entries
+	 * of all events
+	 * @param from the start of the range (in ms)
+	 * @param to the end of the range (in ms)
+	 * @return the matching entries
+	 */
+	public synchronized List<Entry> query(String uid, long from, long to) {
+		List<Entry> entries = new ArrayList<Entry>();
+		for (long entry = Math.max(0, sequence - capacity); entry < sequence; entry++) {
+			int index = (int) (entry % capacity);
+			if (times[index] >= from && times[index] <= to && (uid == null || isAbout(subjects[index], uid))) {
+				entries.add(new Entry(times[index], decisions[index], subjects[index], eventTimes[index], details[index]));
+			}
+		}
+		return entries;
+	}
+
+	private static boolean isAbout(String subject, String uid) {
+		return subject != null && subject.startsWith(uid) && (subject.length() == uid.length()
+				|| subject.startsWith(ExecuteCommandJob.JOB_NAME_START_SUFFIX, uid.length())
+				|| subject.startsWith(ExecuteCommandJob.JOB_NAME_END_SUFFIX, uid.length()));
+	}
+
+	/**
+	 * @return the number of entries kept
+	 */
+	public synchronized int size() {
+		return (int) Math.min(sequence, capacity);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Appends the entries which haven't been written yet to the given file,
+	 * one tab separated line per entry. Backslashes, tabs and line breaks
+	 * within the subjects and details are escaped. Entries which have been
+	 * overwritten before are lost. The file is rotated once it exceeds
+	 * {@value #MAX_FILE_SIZE} bytes, the previous one is kept with the
+	 * suffix <code>.1</code>.
+	 *
+	 * @param file the journal file
+	 */
+	public void flush(File file) {
+		StringBuilder lines = new StringBuilder();
+		synchronized (this) {
+			for (long entry = Math.max(flushedSequence, sequence - capacity); entry < sequence; entry++) {
+				int index = (int) (entry % capacity);
+				lines.append(times[index]).append('\t').append(decisions[index]).append('\t')
+					.append(escape(subjects[index])).append('\t').append(eventTimes[index]).append('\t')
+					.append(escape(details[index])).append('\n');
+			}
+			flushedSequence = sequence;
+		}
+		if (lines.length() == 0) {
+			return;
+		}
+
+		if (file.length() > MAX_FILE_SIZE) {
+			File rotated = new File(file.getPath() + ROTATED_SUFFIX);
+			if ((rotated.exists() && !rotated.delete()) || !file.renameTo(rotated)) {
+				logger.warn("couldn't rotate the schedule journal '{}'", file);
+			}
+		}
+
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+			writer.write(lines.toString());
+		}
+		catch (IOException ioe) {
+			logger.warn("writing the schedule journal '" + file + "' throws exception", ioe);
+		}
+		finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				}
+				catch (IOException ioe) {
+					logger.debug("closing the schedule journal '{}' throws exception", file, ioe);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * @return the text with backslashes, tabs and line breaks escaped, an
+	 * empty string for <code>null</code>
+	 */
+	static String escape(String text) {
+		if (text == null) {
+			return "";
+		}
+		StringBuilder escaped = null;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			String replacement = c == '\\' ? "\\\\" : c == '\t' ? "\\t" : c == '\r' ? "\\r" : c == '\n' ? "\\n" : null;
+			if (replacement != null && escaped == null) {
+				escaped = new StringBuilder(text.length() + 8).append(text, 0, i);
+			}
+			if (escaped != null) {
+				if (replacement != null) {
+					escaped.append(replacement);
+				} else {
+					escaped.append(c);
+				}
+			}
+		}
+		return escaped != null ? escaped.toString() : text;
+	}
+
+
+	/**
+	 * A recorded decision
+	 */
+	public static class Entry {
+
+		public final long time;
+		public final Decision decision;
+		public final String subject;
+		public final long eventTime;
+		public final String detail;
+
+		Entry(long time, Decision decision, String subject, long eventTime, String detail) {
+			this.time = time;
+			this.decision = decision;
+			this.subject = subject;
+			this.eventTime = eventTime;
+			this.detail = detail;
+		}
+
+		@Override
+		public String toString() {
+			SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+			return format.format(new Date(time)) + " " + decision + " " + subject
+				+ (eventTime > 0 ? " @ " + format.format(new Date(eventTime)) : "")
+				+ (detail != null ? " (" + detail + ")" : "");
+		}
+	}
+
+}
@@ -10,8 +10,11 @@ package org.openhab.io.caldav.internal.util;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang.math.LongRange;
 import org.quartz.Calendar;
@@ -118,6 +121,36 @@ public class TimeRangeCalendar implements Calendar, Serializable {
         this.excludedRanges.remove(dateToRemove);
     }
     
+    /**
+     * Replaces the excluded ranges by <code>timeRanges</code>. Only the ranges
+     * which are not yet contained are added and only those which are no longer
+     * contained are removed.
+     * 
+     * @param timeRanges the complete set of TimeRanges to be excluded
+     * @return the TimeRanges which have been added or removed, an empty List
+     * if the excluded ranges didn't change
+     */
+    public List<LongRange> updateTimeRanges(Collection<LongRange> timeRanges) {
+    	Set<LongRange> wanted = new HashSet<LongRange>(timeRanges);
+    	Set<LongRange> existing = new HashSet<LongRange>(excludedRanges);
+    	List<LongRange> changedRanges = new ArrayList<LongRange>();
+    	
+    	for (LongRange range : existing) {
+    		if (!wanted.contains(range)) {
+    			removeExcludedDate(range);
+    			changedRanges.add(range);
+    		}
+    	}
+    	for (LongRange range : wanted) {
+    		if (!existing.contains(range)) {
+    			addTimeRange(range);
+    			changedRanges.add(range);
+    		}
+    	}
+    	
+    	return changedRanges;
+    }
+    
     /**
      * Returns an unmodifiable List of the excluded TimeRanges
      */
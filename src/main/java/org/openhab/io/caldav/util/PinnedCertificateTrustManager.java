@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.util;
+
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.X509TrustManager;
+
+
+/**
+ * Trusts exactly one certificate. A server is accepted if it presents the
+ * pinned certificate itself, or if each certificate of its chain, starting
+ * with the server certificate, is valid and signed by the next one up to a
+ * certificate signed by (or equal to) the pinned one. Merely sending the
+ * pinned certificate along, which is public, isn't enough. The chain is not
+ * checked against any CA. This allows self-signed server certificates
+ * without giving up the identity check as {@link EasyX509TrustManager} does.
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class PinnedCertificateTrustManager implements X509TrustManager {
+
+	private final X509Certificate pinnedCertificate;
+
+
+	public PinnedCertificateTrustManager(X509Certificate pinnedCertificate) {
+		this.pinnedCertificate = pinnedCertificate;
+	}
+
+	/**
+	 * Client authentication is not supported.
+	 *
+	 * @see javax.net.ssl.X509TrustManager#checkClientTrusted(X509Certificate[], String)
+	 */
+	public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+		throw new CertificateException("client certificates are not trusted");
+	}
+
+	/**
+	 * @see javax.net.ssl.X509TrustManager#checkServerTrusted(X509Certificate[], String)
+	 */
+	public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+		if (chain == null || chain.length == 0) {
+			throw new CertificateException("server sent no certificate");
+		}
+		for (int index = 0; index < chain.length; index++) {
+			X509Certificate certificate = chain[index];
+			certificate.checkValidity();
+			if (pinnedCertificate.equals(certificate) || isSignedBy(certificate, pinnedCertificate, false)) {
+				return;
+			}
+			// the next certificate has to be the issuer of this one
+			if (index + 1 == chain.length || !isSignedBy(certificate, chain[index + 1], true)) {
+				break;
+			}
+		}
+		throw new CertificateException("server certificate " + chain[0].getSubjectX500Principal()
+				+ " doesn't match the pinned certificate " + pinnedCertificate.getSubjectX500Principal());
+	}
+
+	/**
+	 * @param certificate the certificate to check
+	 * @param issuer the presumed issuer of <code>certificate</code>
+	 * @param requireCa whether <code>issuer</code> has to be a CA certificate,
+	 * the pinned certificate is trusted to sign even without
+	 * @return <code>true</code> if <code>certificate</code> has been issued
+	 * and signed by <code>issuer</code>
+	 */
+	private static boolean isSignedBy(X509Certificate certificate, X509Certificate issuer, boolean requireCa) {
+		if (!certificate.getIssuerX500Principal().equals(issuer.getSubjectX500Principal())
+				|| (requireCa && issuer.getBasicConstraints() < 0)) {
+			return false;
+		}
+		try {
+			certificate.verify(issuer.getPublicKey());
+			return true;
+		}
+		catch (GeneralSecurityException gse) {
+			return false;
+		}
+	}
+
+	/**
+	 * @see javax.net.ssl.X509TrustManager#getAcceptedIssuers()
+	 */
+	public X509Certificate[] getAcceptedIssuers() {
+		return new X509Certificate[] { pinnedCertificate };
+	}
+
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2010-2015, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.io.caldav.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * <p>
+ * Creates SSL {@link Socket}s which trust the certificates of a configured
+ * trust store or a single pinned certificate instead of the JRE's default
+ * trust store.
+ * </p>
+ * <p>
+ * The {@link SSLContext} is expensive to set up and holds the cache of TLS
+ * sessions, so factories are cached by their configuration (see
+ * {@link #getInstance(String, String, String)}). As long as the same factory
+ * is used, reconnects to a server resume the previous TLS session and skip
+ * the full handshake.
+ * </p>
+ *
+ * @author Thomas.Schmidt
+ * @since 1.8.0
+ */
+public class TrustedSSLProtocolSocketFactory implements SecureProtocolSocketFactory {
+
+	private static final Logger logger = LoggerFactory.getLogger(TrustedSSLProtocolSocketFactory.class);
+
+	/** the number of TLS sessions kept per factory */
+	private static final int SESSION_CACHE_SIZE = 32;
+
+	/** the time (in seconds) a TLS session may be resumed */
+	private static final int SESSION_TIMEOUT = 24 * 60 * 60;
+
+	/** holds the factories by their configuration */
+	private static final Map<String, TrustedSSLProtocolSocketFactory> factories = new HashMap<String, TrustedSSLProtocolSocketFactory>();
+
+	private final SSLSocketFactory socketFactory;
+
+
+	private TrustedSSLProtocolSocketFactory(SSLContext sslContext) {
+		SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+		if (sessionContext != null) {
+			sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+			sessionContext.setSessionTimeout(SESSION_TIMEOUT);
+		}
+		this.socketFactory = sslContext.getSocketFactory();
+	}
+
+	/**
+	 * Returns the factory for the given trust configuration. A factory is
+	 * created only once per configuration; it is created again only if the
+	 * trust store or certificate file has been changed.
+	 *
+	 * @param trustStore path of a (JKS or PKCS12) trust store, may be
+	 * <code>null</code>
+	 * @param trustStorePassword the password of the trust store, may be
+	 * <code>null</code>
+	 * @param pinnedCertificate path of a (PEM or DER encoded) X.509
+	 * certificate, used if no trust store is given
+	 * @return the cached or newly created factory
+	 * @throws IOException if a file can't be read
+	 * @throws GeneralSecurityException if the trust store or certificate is
+	 * invalid
+	 */
+	public static TrustedSSLProtocolSocketFactory getInstance(String trustStore, String trustStorePassword, String pinnedCertificate)
+			throws IOException, GeneralSecurityException {
+		File file = new File(trustStore != null ? trustStore : pinnedCertificate);
+		String key = (trustStore != null ? "truststore:" : "certificate:") + file.getAbsolutePath()
+				+ ":" + file.lastModified() + ":" + (trustStorePassword == null ? 0 : trustStorePassword.hashCode());
+
+		synchronized (factories) {
+			TrustedSSLProtocolSocketFactory factory = factories.get(key);
+			if (factory == null) {
+				TrustManager[] trustManagers = trustStore != null ?
+						createTrustStoreManagers(file, trustStorePassword) :
+						new TrustManager[] { new PinnedCertificateTrustManager(loadCertificate(file)) };
+
+				SSLContext sslContext = SSLContext.getInstance("TLS");
+				sslContext.init(null, trustManagers, null);
+				factory = new TrustedSSLProtocolSocketFactory(sslContext);
+				factories.put(key, factory);
+				logger.debug("created SSL context trusting {}", file);
+			}
+			return factory;
+		}
+	}
+
+	private static TrustManager[] createTrustStoreManagers(File file, String password) throws IOException, GeneralSecurityException {
+		String type = file.getName().toLowerCase().endsWith(".p12") || file.getName().toLowerCase().endsWith(".pfx") ?
+				"PKCS12" : KeyStore.getDefaultType();
+		KeyStore keyStore = KeyStore.getInstance(type);
+		InputStream in = new FileInputStream(file);
+		try {
+			keyStore.load(in, password == null ? null : password.toCharArray());
+		}
+		finally {
+			in.close();
+		}
+
+		TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagerFactory.init(keyStore);
+		return trustManagerFactory.getTrustManagers();
+	}
+
+	private static X509Certificate loadCertificate(File file) throws IOException, GeneralSecurityException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(in);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @see SecureProtocolSocketFactory#createSocket(java.lang.String,int,java.net.InetAddress,int)
+	 */
+	public Socket createSocket(String host, int port, InetAddress clientHost, int clientPort) throws IOException, UnknownHostException {
+		return socketFactory.createSocket(host, port, clientHost, clientPort);
+	}
+
+	/**
+	 * Creates a socket connected within the connection timeout of
+	 * <code>params</code>. The plain socket is connected first and layered
+	 * afterwards, so that the host name is known to the TLS layer and a
+	 * cached session can be resumed.
+	 *
+	 * @see org.apache.commons.httpclient.protocol.ProtocolSocketFactory#createSocket(String, int, InetAddress, int, HttpConnectionParams)
+	 */
+	public Socket createSocket(String host, int port, InetAddress localAddress, int localPort, HttpConnectionParams params)
+			throws IOException, UnknownHostException, ConnectTimeoutException {
+		if (params == null) {
+			throw new IllegalArgumentException("Parameters may not be null");
+		}
+		int timeout = params.getConnectionTimeout();
+		if (timeout == 0) {
+			return socketFactory.createSocket(host, port, localAddress, localPort);
+		}
+
+		Socket socket = new Socket();
+		socket.bind(new InetSocketAddress(localAddress, localPort));
+		socket.connect(new InetSocketAddress(host, port), timeout);
+		return socketFactory.createSocket(socket, host, port, true);
+	}
+
+	/**
+	 * @see SecureProtocolSocketFactory#createSocket(java.lang.String,int)
+	 */
+	public Socket createSocket(String host, int port) throws IOException, UnknownHostException {
+		return socketFactory.createSocket(host, port);
+	}
+
+	/**
+	 * @see SecureProtocolSocketFactory#createSocket(java.net.Socket,java.lang.String,int,boolean)
+	 */
+	public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException, UnknownHostException {
+		return socketFactory.createSocket(socket, host, port, autoClose);
+	}
+
+}